@@ -0,0 +1,79 @@
+package MMTPMessageFormats;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.mms.EdgeRouter.BenchmarkSupport.BenchmarkMessages;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing and serializing of {@link ProtocolMessage} frames, the first and last step of every message that
+ * passes through the router.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProtocolMessageBenchmark
+{
+    @Param({"64", "1024", "8192"})
+    private int payloadSize;
+
+    private SubjectCastApplicationMessage applicationMessage;
+    private ProtocolMessage protocolMessage;
+    private byte[] frame;
+
+
+    @Setup
+    public void setUp()
+    {
+        applicationMessage = BenchmarkMessages.subjectCast("weather", payloadSize);
+        protocolMessage = BenchmarkMessages.wrap(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, applicationMessage.toByteString());
+        frame = protocolMessage.toByteArray();
+    }
+
+
+    /**
+     * Parses the outer frame only.
+     */
+    @Benchmark
+    public ProtocolMessage parseFrame() throws InvalidProtocolBufferException
+    {
+        return ProtocolMessage.parseFrom(ByteBuffer.wrap(frame));
+    }
+
+
+    /**
+     * Parses the outer frame and the application message inside it, as LocalMessageHandler does.
+     */
+    @Benchmark
+    public SubjectCastApplicationMessage parseFrameAndContent() throws InvalidProtocolBufferException
+    {
+        ProtocolMessage message = ProtocolMessage.parseFrom(ByteBuffer.wrap(frame));
+        return SubjectCastApplicationMessage.parseFrom(message.getContent());
+    }
+
+
+    /**
+     * Serializes an already built frame.
+     */
+    @Benchmark
+    public byte[] serializeFrame()
+    {
+        return protocolMessage.toByteArray();
+    }
+
+
+    /**
+     * Wraps an application message in a new frame and serializes it, as the relays do before sending.
+     */
+    @Benchmark
+    public byte[] wrapAndSerialize()
+    {
+        return ProtocolMessage.newBuilder()
+                .setType(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE)
+                .setContent(applicationMessage.toByteString())
+                .build()
+                .toByteArray();
+    }
+}
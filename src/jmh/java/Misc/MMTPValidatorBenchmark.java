@@ -0,0 +1,47 @@
+package Misc;
+
+import MMTPMessageFormats.DirectApplicationMessage;
+import MMTPMessageFormats.SubjectCastApplicationMessage;
+import com.mms.EdgeRouter.BenchmarkSupport.BenchmarkMessages;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link MMTPValidator#validate} for both kinds of application message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MMTPValidatorBenchmark
+{
+    @Param({"1", "10", "50"})
+    private int recipients;
+
+    private DirectApplicationMessage directMessage;
+    private SubjectCastApplicationMessage subjectCastMessage;
+
+
+    @Setup
+    public void setUp()
+    {
+        directMessage = BenchmarkMessages.direct(recipients, 1024);
+        subjectCastMessage = BenchmarkMessages.subjectCast("weather", 1024);
+    }
+
+
+    @Benchmark
+    public DirectApplicationMessage validateDirect() throws MMTPValidationException
+    {
+        MMTPValidator.validate(directMessage);
+        return directMessage;
+    }
+
+
+    @Benchmark
+    public SubjectCastApplicationMessage validateSubjectCast() throws MMTPValidationException
+    {
+        MMTPValidator.validate(subjectCastMessage);
+        return subjectCastMessage;
+    }
+}
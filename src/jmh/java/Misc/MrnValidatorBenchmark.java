@@ -0,0 +1,28 @@
+package Misc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link MrnValidator#validate} for a short MRN, a long MRN and an invalid one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MrnValidatorBenchmark
+{
+    @Param({
+            "urn:mrn:mcp:device:mcc:ku:vessel-1",
+            "urn:mrn:mcp:service:instance:mcc:ku:weather-forecast:north-sea:grid-7?+version=2.1#section-4",
+            "not-an-mrn"
+    })
+    private String mrn;
+
+
+    @Benchmark
+    public boolean validate()
+    {
+        return MrnValidator.validate(mrn);
+    }
+}
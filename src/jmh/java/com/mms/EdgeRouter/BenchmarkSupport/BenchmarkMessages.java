@@ -0,0 +1,108 @@
+package com.mms.EdgeRouter.BenchmarkSupport;
+
+import MMTPMessageFormats.DirectApplicationMessage;
+import MMTPMessageFormats.MessageType;
+import MMTPMessageFormats.ProtocolMessage;
+import MMTPMessageFormats.SubjectCastApplicationMessage;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Factory for the MMTP messages used as benchmark fixtures.
+ */
+public final class BenchmarkMessages
+{
+    public static final String SENDER = "urn:mrn:mcp:device:mcc:ku:benchmark-sender";
+
+    private BenchmarkMessages() {}
+
+
+    /**
+     * Creates a valid subject cast application message.
+     *
+     * @param subject     The subject of the message.
+     * @param payloadSize The size of the random payload in bytes.
+     * @return The message.
+     */
+    public static SubjectCastApplicationMessage subjectCast(String subject, int payloadSize)
+    {
+        return SubjectCastApplicationMessage.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .setSubject(subject)
+                .setSender(SENDER)
+                .setExpires(expiresInOneHour())
+                .setPayload(payload(payloadSize))
+                .build();
+    }
+
+
+    /**
+     * Creates a valid direct application message.
+     *
+     * @param recipients  The number of recipient MRNs.
+     * @param payloadSize The size of the random payload in bytes.
+     * @return The message.
+     */
+    public static DirectApplicationMessage direct(int recipients, int payloadSize)
+    {
+        return DirectApplicationMessage.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .addAllRecipients(mrns(recipients))
+                .setSender(SENDER)
+                .setExpires(expiresInOneHour())
+                .setPayload(payload(payloadSize))
+                .build();
+    }
+
+
+    /**
+     * Wraps a message in a {@link ProtocolMessage}.
+     *
+     * @param type    The type of the message.
+     * @param content The serialized message.
+     * @return The protocol message.
+     */
+    public static ProtocolMessage wrap(MessageType type, ByteString content)
+    {
+        return ProtocolMessage.newBuilder().setType(type).setContent(content).build();
+    }
+
+
+    /**
+     * Creates a list of distinct, valid MRNs.
+     *
+     * @param count The number of MRNs.
+     * @return The MRNs.
+     */
+    public static List<String> mrns(int count)
+    {
+        List<String> mrns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            mrns.add("urn:mrn:mcp:device:mcc:ku:vessel-" + i);
+        }
+        return mrns;
+    }
+
+
+    private static ByteString payload(int size)
+    {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return ByteString.copyFrom(bytes);
+    }
+
+
+    private static Timestamp expiresInOneHour()
+    {
+        Instant expires = Instant.now().plus(1, ChronoUnit.HOURS);
+        return Timestamp.newBuilder().setSeconds(expires.getEpochSecond()).setNanos(expires.getNano()).build();
+    }
+}
@@ -0,0 +1,166 @@
+package com.mms.EdgeRouter.BenchmarkSupport;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory {@link WebSocketSession} that only counts what is sent to it, used as a mock recipient in benchmarks.
+ */
+public class CountingWebSocketSession implements WebSocketSession
+{
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 9090);
+
+    private final String id;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private volatile boolean open = true;
+
+
+    /**
+     * Constructs a new {@link CountingWebSocketSession}.
+     *
+     * @param id The ID of the session.
+     */
+    public CountingWebSocketSession(String id)
+    {
+        this.id = id;
+    }
+
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message)
+    {
+        sentMessages.incrementAndGet();
+        sentBytes.addAndGet(message.getPayloadLength());
+    }
+
+
+    public long getSentMessages()
+    {
+        return sentMessages.get();
+    }
+
+
+    public long getSentBytes()
+    {
+        return sentBytes.get();
+    }
+
+
+    @Override
+    public String getId()
+    {
+        return id;
+    }
+
+
+    @Override
+    public URI getUri()
+    {
+        return URI.create("wss://localhost:9090/ws");
+    }
+
+
+    @Override
+    public HttpHeaders getHandshakeHeaders()
+    {
+        return HttpHeaders.EMPTY;
+    }
+
+
+    @Override
+    public Map<String, Object> getAttributes()
+    {
+        return attributes;
+    }
+
+
+    @Override
+    public Principal getPrincipal()
+    {
+        return null;
+    }
+
+
+    @Override
+    public InetSocketAddress getLocalAddress()
+    {
+        return ADDRESS;
+    }
+
+
+    @Override
+    public InetSocketAddress getRemoteAddress()
+    {
+        return ADDRESS;
+    }
+
+
+    @Override
+    public String getAcceptedProtocol()
+    {
+        return null;
+    }
+
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {}
+
+
+    @Override
+    public int getTextMessageSizeLimit()
+    {
+        return 0;
+    }
+
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {}
+
+
+    @Override
+    public int getBinaryMessageSizeLimit()
+    {
+        return 8192;
+    }
+
+
+    @Override
+    public List<WebSocketExtension> getExtensions()
+    {
+        return List.of();
+    }
+
+
+    @Override
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+
+    @Override
+    public void close()
+    {
+        open = false;
+    }
+
+
+    @Override
+    public void close(CloseStatus status)
+    {
+        open = false;
+    }
+}
@@ -0,0 +1,64 @@
+package com.mms.EdgeRouter.BenchmarkSupport;
+
+import com.mms.EdgeRouter.WebSocket.IBatchingSession;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link CountingWebSocketSession} that models a transport with a fixed cost per flush, standing in for the syscall
+ * and TLS record of a write. Without batching every message is flushed, with batching only on {@link #flushBatch()}.
+ */
+public class FlushCountingWebSocketSession extends CountingWebSocketSession implements IBatchingSession
+{
+    private final long flushCostTokens;
+    private final AtomicLong flushes = new AtomicLong();
+    private volatile boolean batchingAllowed;
+
+
+    /**
+     * Constructs a new {@link FlushCountingWebSocketSession}.
+     *
+     * @param id              The ID of the session.
+     * @param flushCostTokens The CPU spent per flush, in {@link Blackhole#consumeCPU(long)} tokens.
+     */
+    public FlushCountingWebSocketSession(String id, long flushCostTokens)
+    {
+        super(id);
+        this.flushCostTokens = flushCostTokens;
+    }
+
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message)
+    {
+        super.sendMessage(message);
+
+        if (!batchingAllowed)
+        {
+            flushBatch();
+        }
+    }
+
+
+    @Override
+    public void setBatchingAllowed(boolean allowed)
+    {
+        this.batchingAllowed = allowed;
+    }
+
+
+    @Override
+    public void flushBatch()
+    {
+        flushes.incrementAndGet();
+        Blackhole.consumeCPU(flushCostTokens);
+    }
+
+
+    public long getFlushes()
+    {
+        return flushes.get();
+    }
+}
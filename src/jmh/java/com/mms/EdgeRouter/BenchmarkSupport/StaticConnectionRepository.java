@@ -0,0 +1,126 @@
+package com.mms.EdgeRouter.BenchmarkSupport;
+
+import com.mms.EdgeRouter.ConnectionManagement.AgentSlotTable;
+import com.mms.EdgeRouter.ConnectionManagement.ClientContext.ClientConnectionContext;
+import com.mms.EdgeRouter.ConnectionManagement.IConnectionRepository;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A fixed, in-memory {@link IConnectionRepository} for benchmarks, without any event handling.
+ */
+public class StaticConnectionRepository implements IConnectionRepository
+{
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, String> mrns = new ConcurrentHashMap<>();
+    private final Map<String, Integer> slotsByAgent = new ConcurrentHashMap<>();
+    private final AgentSlotTable<WebSocketSession> slots = new AgentSlotTable<>(0);
+
+
+    /**
+     * Adds a session and the MRN of its agent.
+     *
+     * @param session The session.
+     * @param mrn     The MRN of the agent.
+     * @return The slot handle of the agent.
+     */
+    public int add(WebSocketSession session, String mrn)
+    {
+        int slot = slots.allocate(handle -> session);
+        sessions.put(session.getId(), session);
+        mrns.put(session.getId(), mrn);
+        slotsByAgent.put(session.getId(), slot);
+        return slot;
+    }
+
+
+    @Override
+    public Optional<String> getMRN(String agentID)
+    {
+        return Optional.ofNullable(mrns.get(agentID));
+    }
+
+
+    @Override
+    public Optional<WebSocketSession> getSession(String agentID)
+    {
+        return Optional.ofNullable(sessions.get(agentID));
+    }
+
+
+    @Override
+    public List<WebSocketSession> getSessions(List<String> agentIDs)
+    {
+        List<WebSocketSession> result = new ArrayList<>(agentIDs.size());
+        for (String agentID : agentIDs)
+        {
+            WebSocketSession session = sessions.get(agentID);
+            if (session != null)
+            {
+                result.add(session);
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public List<WebSocketSession> getSessions(RoaringBitmap slotIndexes)
+    {
+        List<WebSocketSession> result = new ArrayList<>(slotIndexes.getCardinality());
+        IntIterator iterator = slotIndexes.getIntIterator();
+        while (iterator.hasNext())
+        {
+            WebSocketSession session = slots.getAt(iterator.next());
+            if (session != null)
+            {
+                result.add(session);
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public OptionalInt getSlot(String agentID)
+    {
+        Integer slot = slotsByAgent.get(agentID);
+        return slot != null ? OptionalInt.of(slot) : OptionalInt.empty();
+    }
+
+
+    @Override
+    public boolean isCurrentSlot(int slot)
+    {
+        return slots.isCurrent(slot);
+    }
+
+
+    @Override
+    public Optional<String> getAgentIDAt(int slotIndex)
+    {
+        return Optional.ofNullable(slots.getAt(slotIndex)).map(WebSocketSession::getId);
+    }
+
+
+    @Override
+    public int getConnectionCount()
+    {
+        return sessions.size();
+    }
+
+
+    @Override
+    public List<ClientConnectionContext> getAllConnections()
+    {
+        return List.of();
+    }
+}
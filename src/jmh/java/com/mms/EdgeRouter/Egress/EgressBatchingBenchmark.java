@@ -0,0 +1,88 @@
+package com.mms.EdgeRouter.Egress;
+
+import com.mms.EdgeRouter.BenchmarkSupport.FlushCountingWebSocketSession;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the egress of a burst of messages to one session, sent one flush per message or batched by the
+ * {@link BatchingWebSocketSessionDecorator}. The transport charges a fixed CPU cost per flush, so the difference shows
+ * what batching saves at a given payload size and byte limit. The linger window is long enough not to fire during an
+ * invocation, batches are flushed by the byte limit and by the flush at the end of each burst.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EgressBatchingBenchmark
+{
+    private static final int BURST = 64;
+
+    @Param({"false", "true"})
+    private boolean batching;
+
+    @Param({"128", "1024"})
+    private int payloadSize;
+
+    @Param({"16384"})
+    private int maxBatchBytes;
+
+    @Param({"2000"})
+    private long flushCostTokens;
+
+    private TimerWheel flusher;
+    private FlushCountingWebSocketSession transport;
+    private WebSocketSession session;
+    private BatchingWebSocketSessionDecorator batchingSession;
+    private ByteBuffer payload;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        flusher = new TimerWheel(1, 1024);
+        transport = new FlushCountingWebSocketSession("agent-0", flushCostTokens);
+        payload = ByteBuffer.wrap(new byte[payloadSize]);
+
+        if (batching)
+        {
+            batchingSession = new BatchingWebSocketSessionDecorator(transport, transport, TimeUnit.SECONDS.toNanos(1), maxBatchBytes, flusher, Runnable::run, new RouterMetrics(new SimpleMeterRegistry()));
+            session = batchingSession;
+        }
+
+        else
+        {
+            session = transport;
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        flusher.destroy();
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void sendBurst() throws IOException
+    {
+        for (int i = 0; i < BURST; i++)
+        {
+            session.sendMessage(new BinaryMessage(payload.duplicate()));
+        }
+
+        if (batchingSession != null)
+        {
+            batchingSession.flush();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.mms.EdgeRouter.MessageRelay.Local;
+
+import MMTPMessageFormats.DirectApplicationMessage;
+import MMTPMessageFormats.SubjectCastApplicationMessage;
+import com.mms.EdgeRouter.Admission.QueueDelayMonitor;
+import com.mms.EdgeRouter.BenchmarkSupport.BenchmarkMessages;
+import com.mms.EdgeRouter.BenchmarkSupport.CountingWebSocketSession;
+import com.mms.EdgeRouter.BenchmarkSupport.StaticConnectionRepository;
+import com.mms.EdgeRouter.Compression.PayloadCompressor;
+import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionAddedEvent;
+import com.mms.EdgeRouter.Expiry.Deadlines;
+import com.mms.EdgeRouter.MessageHandlers.Events.SubjectSubscriptionRequestEvent;
+import com.mms.EdgeRouter.MessageRelay.Local.MessageTracker.MessageTracker;
+import com.mms.EdgeRouter.MessageRelay.Scheduling.DeliveryScheduler;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Metrics.SubjectRateMeter;
+import com.mms.EdgeRouter.Priority.PriorityProperties;
+import com.mms.EdgeRouter.Priority.TrafficClass;
+import com.mms.EdgeRouter.SubscriptionManagement.Events.SubscriptionEventType;
+import com.mms.EdgeRouter.SubscriptionManagement.SubscriptionRepository;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import com.mms.EdgeRouter.Tracing.MessageTrace;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a complete local fan-out in {@link LocalRelay}: subscriber lookup, tracker checks, serialization and the
+ * send to N mock sessions. The fan-out runs on the calling thread and the FanOutPool, as it would in a delivery lane.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LocalRelayFanOutBenchmark
+{
+    private static final String SUBJECT = "weather";
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    private int recipients;
+
+    @Param({"1024"})
+    private int payloadSize;
+
+    private TimerWheel timerWheel;
+    private ForkJoinPool fanOutPool;
+    private DeliveryScheduler deliveryScheduler;
+    private LocalRelay relay;
+    private SubjectCastApplicationMessage subjectCastMessage;
+    private DirectApplicationMessage directMessage;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        StaticConnectionRepository connectionRepository = new StaticConnectionRepository();
+        SubscriptionRepository subscriptionRepository = new SubscriptionRepository(connectionRepository, event -> {});
+        RouterMetrics metrics = new RouterMetrics(new SimpleMeterRegistry());
+        timerWheel = new TimerWheel(1, 1024);
+        MessageTracker messageTracker = new MessageTracker(metrics, timerWheel, 20000, 10, 20000, 10);
+        List<String> mrns = BenchmarkMessages.mrns(recipients);
+
+        for (int i = 0; i < recipients; i++)
+        {
+            String agentID = "agent-" + i;
+            int slot = connectionRepository.add(new CountingWebSocketSession(agentID), mrns.get(i));
+            subscriptionRepository.handleConnectionAdded(new ConnectionAddedEvent(this, agentID, slot, mrns.get(i)));
+            subscriptionRepository.handleSubjectSubscribeRequest(new SubjectSubscriptionRequestEvent(this, agentID, List.of(SUBJECT), SubscriptionEventType.SUBSCRIPTION));
+        }
+
+        fanOutPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        deliveryScheduler = new DeliveryScheduler(fanOutPool, new QueueDelayMonitor(metrics), metrics, 1, 1, 1000, 8, 50, 100);
+        relay = new LocalRelay(connectionRepository, subscriptionRepository, messageTracker, deliveryScheduler, metrics, new PayloadCompressor(metrics, true, 6, 256, 65536, "", 1), new PriorityProperties(), new SubjectRateMeter(timerWheel));
+        subjectCastMessage = BenchmarkMessages.subjectCast(SUBJECT, payloadSize);
+        directMessage = BenchmarkMessages.direct(recipients, payloadSize);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        deliveryScheduler.destroy();
+        fanOutPool.shutdown();
+        timerWheel.destroy();
+    }
+
+
+    @Benchmark
+    public void subjectCastFanOut()
+    {
+        relay.processSubjectCastApplicationMessage(subjectCastMessage, Deadlines.NONE, TrafficClass.NORMAL, MessageTrace.NONE);
+    }
+
+
+    @Benchmark
+    public void directFanOut()
+    {
+        relay.processDirectApplicationMessage(directMessage, Deadlines.NONE, TrafficClass.NORMAL, MessageTrace.NONE);
+    }
+}
@@ -0,0 +1,92 @@
+package com.mms.EdgeRouter.MessageRelay.Local.MessageTracker;
+
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the register and check operations of {@link MessageTracker}, with the tracker filled to its default size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class MessageTrackerBenchmark
+{
+    private static final int TRACKED_MESSAGES = 20000;
+
+    private TimerWheel timerWheel;
+    private MessageTracker tracker;
+    private String[] messageIds;
+
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        timerWheel = new TimerWheel(1, 1024);
+        tracker = new MessageTracker(new RouterMetrics(new SimpleMeterRegistry()), timerWheel, TRACKED_MESSAGES, 10, TRACKED_MESSAGES, 10);
+        messageIds = new String[TRACKED_MESSAGES];
+
+        for (int i = 0; i < TRACKED_MESSAGES; i++)
+        {
+            messageIds[i] = UUID.randomUUID().toString();
+            tracker.registerSent(messageIds[i], "agent-" + (i % 100));
+            tracker.registerDelivery(messageIds[i], "agent-" + (i % 100));
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        timerWheel.destroy();
+    }
+
+
+    /**
+     * Per-thread position in the tracked message IDs.
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        private int next;
+
+        int next()
+        {
+            next = next + 1 == TRACKED_MESSAGES ? 0 : next + 1;
+            return next;
+        }
+    }
+
+
+    @Benchmark
+    public boolean checkRebound(Cursor cursor)
+    {
+        return tracker.checkRebound(messageIds[cursor.next()], "agent-1");
+    }
+
+
+    @Benchmark
+    public boolean checkDeliveryStatus(Cursor cursor)
+    {
+        return tracker.checkDeliveryStatus(messageIds[cursor.next()], "agent-1");
+    }
+
+
+    @Benchmark
+    public void registerSent(Cursor cursor)
+    {
+        tracker.registerSent(messageIds[cursor.next()], "agent-1");
+    }
+
+
+    @Benchmark
+    public void registerDelivery(Cursor cursor)
+    {
+        tracker.registerDelivery(messageIds[cursor.next()], "agent-1");
+    }
+}
@@ -0,0 +1,118 @@
+package com.mms.EdgeRouter.SubscriptionManagement;
+
+import com.mms.EdgeRouter.BenchmarkSupport.BenchmarkMessages;
+import com.mms.EdgeRouter.BenchmarkSupport.CountingWebSocketSession;
+import com.mms.EdgeRouter.BenchmarkSupport.StaticConnectionRepository;
+import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionAddedEvent;
+import com.mms.EdgeRouter.MessageHandlers.Events.SubjectSubscriptionRequestEvent;
+import com.mms.EdgeRouter.SubscriptionManagement.Events.SubscriptionEventType;
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link SubscriptionRepository} lookups, alone and while another thread keeps changing subscriptions.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SubscriptionRepositoryBenchmark
+{
+    @Param({"100", "10000"})
+    private int subjects;
+
+    @Param({"10", "100"})
+    private int subscribersPerSubject;
+
+    private SubscriptionRepository repository;
+    private List<String> subjectNames;
+    private List<String> mrns;
+
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        StaticConnectionRepository connectionRepository = new StaticConnectionRepository();
+        repository = new SubscriptionRepository(connectionRepository, event -> {});
+        subjectNames = new ArrayList<>(subjects);
+        mrns = BenchmarkMessages.mrns(subscribersPerSubject);
+
+        for (int i = 0; i < subjects; i++)
+        {
+            subjectNames.add("subject-" + i);
+        }
+
+        for (int agent = 0; agent < subscribersPerSubject; agent++)
+        {
+            String agentID = "agent-" + agent;
+            int slot = connectionRepository.add(new CountingWebSocketSession(agentID), mrns.get(agent));
+            repository.handleConnectionAdded(new ConnectionAddedEvent(this, agentID, slot, mrns.get(agent)));
+            repository.handleSubjectSubscribeRequest(new SubjectSubscriptionRequestEvent(this, agentID, subjectNames, SubscriptionEventType.SUBSCRIPTION));
+        }
+
+        connectionRepository.add(new CountingWebSocketSession("churn-agent"), "urn:mrn:mcp:device:mcc:ku:churn-agent");
+    }
+
+
+    /**
+     * Per-thread position, so that every thread walks the subjects in its own order.
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        private int next;
+
+        int next(int bound)
+        {
+            next = next + 1 == bound ? 0 : next + 1;
+            return next;
+        }
+    }
+
+
+    @Benchmark
+    @Group("uncontended")
+    public List<String> lookupBySubject(Cursor cursor)
+    {
+        return repository.getSubscribersBySubject(subjectNames.get(cursor.next(subjects)));
+    }
+
+
+    @Benchmark
+    @Group("uncontended_mrns")
+    public List<String> lookupByMrns()
+    {
+        return repository.getSubscribersByMrns(mrns);
+    }
+
+
+    @Benchmark
+    @Group("uncontended_mrn_slots")
+    public RoaringBitmap lookupSlotsByMrns()
+    {
+        return repository.getSubscriberSlotsByMrns(mrns);
+    }
+
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public List<String> contendedLookupBySubject(Cursor cursor)
+    {
+        return repository.getSubscribersBySubject(subjectNames.get(cursor.next(subjects)));
+    }
+
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void contendedSubscriptionChurn(Cursor cursor)
+    {
+        List<String> subject = List.of(subjectNames.get(cursor.next(subjects)));
+        repository.handleSubjectSubscribeRequest(new SubjectSubscriptionRequestEvent(this, "churn-agent", subject, SubscriptionEventType.SUBSCRIPTION));
+        repository.handleSubjectSubscribeRequest(new SubjectSubscriptionRequestEvent(this, "churn-agent", subject, SubscriptionEventType.UNSUBSCRIPTION));
+    }
+}
@@ -0,0 +1,117 @@
+package com.mms.EdgeRouter.LoadTest;
+
+import com.mms.EdgeRouter.ConnectionManagement.IConnectionRepository;
+import com.mms.EdgeRouter.EdgeRouterApplication;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs an Edge Router inside the load test process, with an embedded Artemis broker standing in for the remote side.
+ * <p>
+ * Both listen on free ports on localhost, and the router trusts the bundled MCP root as well as the load test CA, so the
+ * agents can authenticate with certificates from {@link TestCertificateAuthority}.
+ */
+public class EmbeddedEdgeRouter implements AutoCloseable
+{
+    private static final String TRUST_STORE_PASSWORD = "changeit";
+
+    private EmbeddedActiveMQ broker;
+    private ConfigurableApplicationContext router;
+    private Path trustStore;
+    private int routerPort;
+
+
+    /**
+     * Starts the broker and the router.
+     *
+     * @param authority The CA that issues the certificates of the agents.
+     */
+    public void start(TestCertificateAuthority authority) throws Exception
+    {
+        int brokerPort = freePort();
+        routerPort = freePort();
+
+        ConfigurationImpl brokerConfig = new ConfigurationImpl();
+        brokerConfig.setPersistenceEnabled(false);
+        brokerConfig.setSecurityEnabled(false);
+        brokerConfig.setJournalDirectory(Files.createTempDirectory("edgerouter-loadtest-journal").toString());
+        brokerConfig.addAcceptorConfiguration("tcp", "tcp://127.0.0.1:" + brokerPort);
+
+        broker = new EmbeddedActiveMQ();
+        broker.setConfiguration(brokerConfig);
+        broker.start();
+
+        trustStore = Files.createTempFile("edgerouter-loadtest-truststore", ".p12");
+        try (InputStream bundled = EmbeddedEdgeRouter.class.getResourceAsStream("/truststore-root-ca.p12"))
+        {
+            authority.writeTrustStore(bundled, TRUST_STORE_PASSWORD.toCharArray(), trustStore);
+        }
+
+        router = new SpringApplicationBuilder(EdgeRouterApplication.class).run(
+                "--server.port=" + routerPort,
+                "--mms.remote.broker=tcp://127.0.0.1:" + brokerPort,
+                "--server.ssl.trust-store=file:" + trustStore.toAbsolutePath(),
+                "--server.ssl.trust-store-password=" + TRUST_STORE_PASSWORD,
+                "--logging.level.root=WARN",
+                "--logging.level.org.springframework=WARN",
+                "--edgerouter.maxConnectionsPerSecond=1000000",
+                "--edgerouter.maxConcurrentConnections=1000000",
+                "--edgerouter.maxBytesPerSecond=100000000");
+    }
+
+
+    /**
+     * The WebSocket endpoint of the router.
+     */
+    public URI getEndpoint()
+    {
+        return URI.create("wss://localhost:" + routerPort + "/ws");
+    }
+
+
+    /**
+     * The number of connections the router has registered, which lags behind the completed handshakes.
+     */
+    public int getRegisteredConnections()
+    {
+        return router.getBean(IConnectionRepository.class).getConnectionCount();
+    }
+
+
+    @Override
+    public void close() throws Exception
+    {
+        if (router != null)
+        {
+            router.close();
+        }
+
+        if (broker != null)
+        {
+            broker.stop();
+        }
+
+        if (trustStore != null)
+        {
+            Files.deleteIfExists(trustStore);
+        }
+    }
+
+
+    private static int freePort() throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.mms.EdgeRouter.LoadTest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the end-to-end latencies and delivery counters of a load test run.
+ * <p>
+ * Latencies are measured from the time a message was scheduled to be sent, not from the time it actually was sent,
+ * so that a stalled sender shows up as latency instead of hiding it (coordinated omission).
+ */
+public class LatencyRecorder
+{
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final ConcurrentHistogram total = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+    private final Recorder interval = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+    private final ConcurrentHistogram connectLatency = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    private volatile boolean recording = false;
+    private volatile long startNanos = Long.MAX_VALUE;
+    private Histogram intervalHistogram;
+
+
+    /**
+     * Starts counting, everything before this call is warmup and is not part of the results.
+     */
+    public void start()
+    {
+        total.reset();
+        interval.reset();
+        sent.reset();
+        expected.reset();
+        received.reset();
+        sendFailures.reset();
+        startNanos = System.nanoTime();
+        recording = true;
+    }
+
+
+    /**
+     * Stops counting sent messages, deliveries of messages already in flight are still recorded.
+     */
+    public void stopSending()
+    {
+        recording = false;
+    }
+
+
+    public boolean isRecording()
+    {
+        return recording;
+    }
+
+
+    /**
+     * Records a message handed to the router.
+     *
+     * @param intendedSendNanos The {@link System#nanoTime()} at which the message was scheduled to be sent.
+     * @param deliveries        The number of agents the message is expected to reach.
+     */
+    public void recordSent(long intendedSendNanos, int deliveries)
+    {
+        if (!isMeasured(intendedSendNanos))
+        {
+            return;
+        }
+
+        sent.increment();
+        expected.add(deliveries);
+    }
+
+
+    /**
+     * Records a delivered message.
+     *
+     * @param intendedSendNanos The {@link System#nanoTime()} at which the message was scheduled to be sent.
+     */
+    public void recordReceived(long intendedSendNanos)
+    {
+        if (!isMeasured(intendedSendNanos))
+        {
+            return;
+        }
+
+        long latency = Math.min(System.nanoTime() - intendedSendNanos, HIGHEST_TRACKABLE_NANOS);
+        received.increment();
+        total.recordValue(Math.max(0, latency));
+        interval.recordValue(Math.max(0, latency));
+    }
+
+
+    /**
+     * Whether a message belongs to the measured period, decided by its intended send time so that a message sent late
+     * during warmup is neither counted as sent nor as received.
+     */
+    private boolean isMeasured(long intendedSendNanos)
+    {
+        return startNanos != Long.MAX_VALUE && intendedSendNanos - startNanos >= 0;
+    }
+
+
+    public void recordSendFailure()
+    {
+        sendFailures.increment();
+    }
+
+
+    public void recordConnect(long nanos)
+    {
+        connectLatency.recordValue(Math.min(nanos, HIGHEST_TRACKABLE_NANOS));
+    }
+
+
+    public void recordConnectFailure()
+    {
+        connectFailures.increment();
+    }
+
+
+    public void recordDisconnect()
+    {
+        disconnects.increment();
+    }
+
+
+    /**
+     * Prints the latencies recorded since the previous call.
+     *
+     * @param out The stream to print to.
+     */
+    public synchronized void printInterval(PrintStream out)
+    {
+        intervalHistogram = interval.getIntervalHistogram(intervalHistogram);
+        out.printf("interval: received=%d p50=%.2fms p99=%.2fms max=%.2fms | total sent=%d received=%d%n",
+                intervalHistogram.getTotalCount(),
+                millis(intervalHistogram.getValueAtPercentile(50)),
+                millis(intervalHistogram.getValueAtPercentile(99)),
+                millis(intervalHistogram.getMaxValue()),
+                sent.sum(),
+                received.sum());
+    }
+
+
+    /**
+     * Prints the connect latencies.
+     *
+     * @param out The stream to print to.
+     */
+    public void printConnectReport(PrintStream out)
+    {
+        out.println("--- connect ---");
+        out.printf("connected=%d failed=%d%n", connectLatency.getTotalCount(), connectFailures.sum());
+        printPercentiles(out, connectLatency);
+    }
+
+
+    /**
+     * Prints the results of the run.
+     *
+     * @param out            The stream to print to.
+     * @param measuredMillis The length of the measured period in milliseconds.
+     */
+    public void printReport(PrintStream out, long measuredMillis)
+    {
+        long sentCount = sent.sum();
+        long expectedCount = expected.sum();
+        long receivedCount = received.sum();
+        double seconds = measuredMillis / 1000.0;
+
+        out.println("--- traffic ---");
+        out.printf("sent=%d (%.0f msg/s) send-failures=%d disconnects=%d%n", sentCount, sentCount / seconds, sendFailures.sum(), disconnects.sum());
+        out.printf("expected deliveries=%d received=%d (%.0f msg/s) dropped=%d (%.3f%%)%n",
+                expectedCount,
+                receivedCount,
+                receivedCount / seconds,
+                Math.max(0, expectedCount - receivedCount),
+                expectedCount == 0 ? 0.0 : 100.0 * Math.max(0, expectedCount - receivedCount) / expectedCount);
+        out.println("--- end-to-end latency ---");
+        printPercentiles(out, total);
+    }
+
+
+    private static void printPercentiles(PrintStream out, Histogram histogram)
+    {
+        out.printf("p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms%n",
+                millis(histogram.getValueAtPercentile(50)),
+                millis(histogram.getValueAtPercentile(90)),
+                millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMaxValue()));
+    }
+
+
+    private static double millis(long nanos)
+    {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,215 @@
+package com.mms.EdgeRouter.LoadTest;
+
+import MMTPMessageFormats.*;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import jakarta.websocket.*;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A simulated agent, one mTLS WebSocket connection to the router that registers its interests, sends application
+ * messages on request and records the latency of every application message it receives.
+ * <p>
+ * The first eight bytes of every payload hold the {@link System#nanoTime()} at which the message was scheduled to be
+ * sent. Sender and receiver run in the same JVM, so the receiver can compute the end-to-end latency from it.
+ */
+public class LoadAgent extends Endpoint
+{
+    private static final String SSL_CONTEXT_PROPERTY = "org.apache.tomcat.websocket.SSL_CONTEXT";
+
+    private final String mrn;
+    private final List<String> interests;
+    private final LatencyRecorder recorder;
+    private final byte[] padding;
+    private volatile Session session;
+
+
+    /**
+     * Constructs a new {@link LoadAgent}.
+     *
+     * @param mrn          The MRN of the agent, must match the MRN of its client certificate.
+     * @param interests    The subjects the agent subscribes to.
+     * @param payloadBytes The size of the payload of the messages the agent sends.
+     * @param recorder     The recorder for received messages.
+     */
+    public LoadAgent(String mrn, List<String> interests, int payloadBytes, LatencyRecorder recorder)
+    {
+        this.mrn = mrn;
+        this.interests = interests;
+        this.recorder = recorder;
+        this.padding = new byte[payloadBytes - Long.BYTES];
+    }
+
+
+    /**
+     * Opens the connection and registers the interests of the agent, including direct messages.
+     *
+     * @param container  The WebSocket client container.
+     * @param target     The WebSocket endpoint of the router.
+     * @param sslContext The SSL context presenting the client certificate of the agent.
+     */
+    public void connect(WebSocketContainer container, URI target, SSLContext sslContext) throws DeploymentException, IOException
+    {
+        ClientEndpointConfig config = ClientEndpointConfig.Builder.create().build();
+        config.getUserProperties().put(SSL_CONTEXT_PROPERTY, sslContext);
+        container.connectToServer(this, config, target);
+
+        Register register = Register.newBuilder()
+                .addAllInterests(interests)
+                .setWantDirectMessages(true)
+                .build();
+
+        send(MessageType.REGISTER, register.toByteString());
+    }
+
+
+    @Override
+    public void onOpen(Session session, EndpointConfig config)
+    {
+        this.session = session;
+        session.addMessageHandler(ByteBuffer.class, this::onMessage);
+    }
+
+
+    @Override
+    public void onClose(Session session, CloseReason closeReason)
+    {
+        if (recorder.isRecording())
+        {
+            recorder.recordDisconnect();
+        }
+    }
+
+
+    /**
+     * Sends a subject cast message.
+     *
+     * @param subject           The subject of the message.
+     * @param intendedSendNanos The time the message was scheduled to be sent.
+     */
+    public void sendSubjectCast(String subject, long intendedSendNanos) throws IOException
+    {
+        SubjectCastApplicationMessage message = SubjectCastApplicationMessage.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .setSubject(subject)
+                .setSender(mrn)
+                .setExpires(expiresInOneMinute())
+                .setPayload(payload(intendedSendNanos))
+                .build();
+
+        send(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, message.toByteString());
+    }
+
+
+    /**
+     * Sends a direct message.
+     *
+     * @param recipient         The MRN of the recipient.
+     * @param intendedSendNanos The time the message was scheduled to be sent.
+     */
+    public void sendDirect(String recipient, long intendedSendNanos) throws IOException
+    {
+        DirectApplicationMessage message = DirectApplicationMessage.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .addRecipients(recipient)
+                .setSender(mrn)
+                .setExpires(expiresInOneMinute())
+                .setPayload(payload(intendedSendNanos))
+                .build();
+
+        send(MessageType.DIRECT_APPLICATION_MESSAGE, message.toByteString());
+    }
+
+
+    public void close()
+    {
+        try
+        {
+            if (session != null && session.isOpen())
+            {
+                session.close();
+            }
+        }
+        catch (IOException ignored)
+        {
+            // The run is over, nothing to do about a failed close
+        }
+    }
+
+
+    public boolean isOpen()
+    {
+        return session != null && session.isOpen();
+    }
+
+
+    public String getMrn()
+    {
+        return mrn;
+    }
+
+
+    public List<String> getInterests()
+    {
+        return interests;
+    }
+
+
+    private void onMessage(ByteBuffer buffer)
+    {
+        try
+        {
+            ProtocolMessage message = ProtocolMessage.parseFrom(buffer);
+            ByteString payload = switch (message.getType())
+            {
+                case DIRECT_APPLICATION_MESSAGE -> DirectApplicationMessage.parseFrom(message.getContent()).getPayload();
+                case SUBJECT_CAST_APPLICATION_MESSAGE -> SubjectCastApplicationMessage.parseFrom(message.getContent()).getPayload();
+                default -> null;
+            };
+
+            if (payload != null && payload.size() >= Long.BYTES)
+            {
+                recorder.recordReceived(payload.asReadOnlyByteBuffer().getLong());
+            }
+        }
+        catch (InvalidProtocolBufferException ex)
+        {
+            System.err.println("Agent " + mrn + " received an invalid message: " + ex.getMessage());
+        }
+    }
+
+
+    private void send(MessageType type, ByteString content) throws IOException
+    {
+        byte[] message = ProtocolMessage.newBuilder().setType(type).setContent(content).build().toByteArray();
+
+        // The basic remote does not allow concurrent sends on one session
+        synchronized (this)
+        {
+            session.getBasicRemote().sendBinary(ByteBuffer.wrap(message));
+        }
+    }
+
+
+    private ByteString payload(long intendedSendNanos)
+    {
+        ByteBuffer timestamp = ByteBuffer.allocate(Long.BYTES).putLong(0, intendedSendNanos);
+        return ByteString.copyFrom(timestamp).concat(ByteString.copyFrom(padding));
+    }
+
+
+    private static Timestamp expiresInOneMinute()
+    {
+        Instant expires = Instant.now().plus(1, ChronoUnit.MINUTES);
+        return Timestamp.newBuilder().setSeconds(expires.getEpochSecond()).setNanos(expires.getNano()).build();
+    }
+}
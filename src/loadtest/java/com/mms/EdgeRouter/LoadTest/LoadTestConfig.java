@@ -0,0 +1,189 @@
+package com.mms.EdgeRouter.LoadTest;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The settings of a load test run, parsed from {@code --name=value} command line arguments.
+ * Every setting has a default, so a run without arguments starts an in-process router with a small load.
+ */
+public class LoadTestConfig
+{
+    private final Map<String, String> values;
+
+
+    /**
+     * Constructs a new {@link LoadTestConfig} from the given command line arguments.
+     *
+     * @param args The command line arguments, each in the form {@code --name=value}.
+     */
+    public LoadTestConfig(String[] args)
+    {
+        this.values = new HashMap<>();
+
+        for (String arg : args)
+        {
+            if (!arg.startsWith("--") || !arg.contains("="))
+            {
+                throw new IllegalArgumentException("Arguments must be given as --name=value, got: " + arg);
+            }
+
+            int separator = arg.indexOf('=');
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+    }
+
+
+    /**
+     * Whether the router is started inside the load test process, together with an embedded Artemis broker.
+     * When false, the load is sent to {@link #getTarget()}.
+     */
+    public boolean isInProcess()
+    {
+        return getString("mode", "in-process").equals("in-process");
+    }
+
+
+    /**
+     * Whether the run is a connect storm, every agent connecting at the same moment and no traffic, instead of the
+     * default traffic run.
+     */
+    public boolean isConnectStorm()
+    {
+        return getString("scenario", "traffic").equals("connect-storm");
+    }
+
+
+    /**
+     * The WebSocket endpoint of an external router, only used when not running in-process.
+     */
+    public URI getTarget()
+    {
+        return URI.create(getString("target", "wss://localhost:9090/ws"));
+    }
+
+
+    /**
+     * The PKCS12 keystore holding the key and certificate of a CA trusted by the external router.
+     * When absent, a throwaway CA is generated, which only an in-process router trusts.
+     */
+    public Path getCaKeystore()
+    {
+        String path = values.get("ca-keystore");
+        return path == null ? null : Path.of(path);
+    }
+
+
+    public char[] getCaKeystorePassword()
+    {
+        return getString("ca-keystore-password", "changeit").toCharArray();
+    }
+
+
+    public int getAgents()
+    {
+        return getInt("agents", isConnectStorm() ? 10_000 : 500);
+    }
+
+
+    public int getSubjects()
+    {
+        return getInt("subjects", 20);
+    }
+
+
+    public int getSubscriptionsPerAgent()
+    {
+        return getInt("subscriptions-per-agent", 2);
+    }
+
+
+    /**
+     * The total number of application messages sent per second, across all agents.
+     */
+    public int getRate()
+    {
+        return getInt("rate", 1000);
+    }
+
+
+    /**
+     * The share of the sent messages that are direct messages, the rest are subject casts.
+     */
+    public double getDirectRatio()
+    {
+        return Double.parseDouble(getString("direct-ratio", "0.5"));
+    }
+
+
+    public int getPayloadBytes()
+    {
+        return Math.max(16, getInt("payload-bytes", 256));
+    }
+
+
+    public Duration getDuration()
+    {
+        return Duration.ofSeconds(getInt("duration-seconds", 60));
+    }
+
+
+    public Duration getWarmup()
+    {
+        return Duration.ofSeconds(getInt("warmup-seconds", 5));
+    }
+
+
+    /**
+     * How long to wait for in-flight messages after the last send before counting drops.
+     */
+    public Duration getDrain()
+    {
+        return Duration.ofSeconds(getInt("drain-seconds", 5));
+    }
+
+
+    /**
+     * The number of connects in flight at once, use the number of agents to open every connection simultaneously.
+     * A connect storm opens every connection simultaneously unless told otherwise.
+     */
+    public int getConnectConcurrency()
+    {
+        return getInt("connect-concurrency", isConnectStorm() ? getAgents() : 200);
+    }
+
+
+    public int getSenderThreads()
+    {
+        return getInt("sender-threads", Runtime.getRuntime().availableProcessors());
+    }
+
+
+    public Duration getReportInterval()
+    {
+        return Duration.ofSeconds(getInt("report-interval-seconds", 5));
+    }
+
+
+    private String getString(String name, String defaultValue)
+    {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+
+    private int getInt(String name, int defaultValue)
+    {
+        String value = values.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "LoadTestConfig" + values;
+    }
+}
@@ -0,0 +1,271 @@
+package com.mms.EdgeRouter.LoadTest;
+
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Entry point of the end-to-end load test.
+ * <p>
+ * Opens one mTLS WebSocket connection per agent, registers each agent for a few subjects and for direct messages, and
+ * then sends a mix of direct and subject cast messages at a fixed total rate. The rate is open-loop, every message has
+ * an intended send time on a fixed schedule, and a sender that falls behind sends late instead of skipping, so the
+ * reported latencies include the time the router kept the sender waiting.
+ * <p>
+ * Run with {@code ./gradlew loadTest -PloadTestArgs="--agents=2000 --rate=5000"}, see {@link LoadTestConfig} for the
+ * settings. To find the saturation point, raise the rate between runs until the drop count or p99 latency take off.
+ * <p>
+ * With {@code --scenario=connect-storm}, 10 000 agents by default connect at the same moment, as after an outage, and
+ * the run reports the handshake latencies and, in-process, how long the router took to register every connection.
+ */
+public class LoadTestRunner
+{
+    private final LoadTestConfig config;
+    private final LatencyRecorder recorder = new LatencyRecorder();
+    private final List<String> subjects = new ArrayList<>();
+    private final List<LoadAgent> agents = new CopyOnWriteArrayList<>();
+    private int[] subscriberCounts;
+
+
+    public LoadTestRunner(LoadTestConfig config)
+    {
+        this.config = config;
+    }
+
+
+    public static void main(String[] args) throws Exception
+    {
+        LoadTestConfig config = new LoadTestConfig(args);
+        System.out.println("Starting load test with " + config);
+
+        try
+        {
+            new LoadTestRunner(config).run();
+        }
+        finally
+        {
+            // The WebSocket client and Artemis leave non-daemon threads behind
+            System.exit(0);
+        }
+    }
+
+
+    /**
+     * Runs the load test and prints the results.
+     */
+    public void run() throws Exception
+    {
+        TestCertificateAuthority authority = config.getCaKeystore() == null
+                ? TestCertificateAuthority.generate()
+                : TestCertificateAuthority.load(config.getCaKeystore(), config.getCaKeystorePassword());
+
+        try (EmbeddedEdgeRouter router = new EmbeddedEdgeRouter())
+        {
+            URI target = config.getTarget();
+
+            if (config.isInProcess())
+            {
+                router.start(authority);
+                target = router.getEndpoint();
+            }
+
+            long stormStart = System.nanoTime();
+            connectAgents(authority, target);
+            recorder.printConnectReport(System.out);
+
+            if (config.isConnectStorm())
+            {
+                if (config.isInProcess())
+                {
+                    awaitRegistrations(router, stormStart);
+                }
+
+                agents.forEach(LoadAgent::close);
+                return;
+            }
+
+            if (agents.isEmpty())
+            {
+                System.out.println("No agent could connect, aborting");
+                return;
+            }
+
+            runTraffic();
+            agents.forEach(LoadAgent::close);
+        }
+    }
+
+
+    /**
+     * Connects all agents, with at most {@link LoadTestConfig#getConnectConcurrency()} connects in flight at once.
+     */
+    private void connectAgents(TestCertificateAuthority authority, URI target) throws InterruptedException
+    {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxBinaryMessageBufferSize(Math.max(8192, config.getPayloadBytes() * 2));
+
+        for (int i = 0; i < config.getSubjects(); i++)
+        {
+            subjects.add("loadtest/subject-" + i);
+        }
+        subscriberCounts = new int[subjects.size()];
+
+        ExecutorService connectPool = Executors.newFixedThreadPool(config.getConnectConcurrency());
+
+        for (int i = 0; i < config.getAgents(); i++)
+        {
+            List<String> interests = new ArrayList<>();
+            for (int k = 0; k < Math.min(config.getSubscriptionsPerAgent(), subjects.size()); k++)
+            {
+                int subject = (i + k) % subjects.size();
+                interests.add(subjects.get(subject));
+            }
+
+            LoadAgent agent = new LoadAgent("urn:mrn:mcp:device:mcc:loadtest:agent-" + i, interests, config.getPayloadBytes(), recorder);
+            connectPool.execute(() -> connect(agent, authority, container, target));
+        }
+
+        connectPool.shutdown();
+        connectPool.awaitTermination(10, TimeUnit.MINUTES);
+
+        for (LoadAgent agent : agents)
+        {
+            agent.getInterests().forEach(subject -> subscriberCounts[subjects.indexOf(subject)]++);
+        }
+
+        if (!config.isConnectStorm())
+        {
+            // Give the router time to process the registrations before the first message is sent
+            Thread.sleep(1000);
+        }
+    }
+
+
+    /**
+     * Waits until the router has registered every connected agent, and prints how long that took from the start of the
+     * storm. Gives up after a minute.
+     */
+    private void awaitRegistrations(EmbeddedEdgeRouter router, long stormStart) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        int registered = router.getRegisteredConnections();
+
+        while (registered < agents.size() && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+            registered = router.getRegisteredConnections();
+        }
+
+        System.out.println("--- registration ---");
+        System.out.printf("registered=%d of %d connected, all registered after %.0fms%n",
+                registered,
+                agents.size(),
+                registered >= agents.size() ? (System.nanoTime() - stormStart) / 1_000_000.0 : Double.NaN);
+    }
+
+
+    private void connect(LoadAgent agent, TestCertificateAuthority authority, WebSocketContainer container, URI target)
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            agent.connect(container, target, authority.issueClientContext(agent.getMrn()));
+            recorder.recordConnect(System.nanoTime() - start);
+            agents.add(agent);
+        }
+        catch (Exception ex)
+        {
+            recorder.recordConnectFailure();
+            System.err.println("Agent " + agent.getMrn() + " failed to connect: " + ex.getMessage());
+        }
+    }
+
+
+    /**
+     * Sends traffic for the warmup and the measured duration, then waits for in-flight messages and prints the results.
+     */
+    private void runTraffic() throws InterruptedException
+    {
+        int threads = config.getSenderThreads();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * threads / Math.max(1, config.getRate());
+        long warmupEnd = System.nanoTime() + config.getWarmup().toNanos();
+        long end = warmupEnd + config.getDuration().toNanos();
+
+        ExecutorService senders = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++)
+        {
+            // Offset the schedules of the threads so that the messages are spread evenly over each interval
+            long first = System.nanoTime() + intervalNanos * t / threads;
+            senders.execute(() -> sendLoop(first, intervalNanos, end));
+        }
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.schedule(recorder::start, config.getWarmup().toMillis(), TimeUnit.MILLISECONDS);
+        long reportMillis = config.getReportInterval().toMillis();
+        reporter.scheduleAtFixedRate(() -> recorder.printInterval(System.out), config.getWarmup().toMillis() + reportMillis, reportMillis, TimeUnit.MILLISECONDS);
+
+        senders.shutdown();
+        senders.awaitTermination(config.getWarmup().toSeconds() + config.getDuration().toSeconds() + 60, TimeUnit.SECONDS);
+        recorder.stopSending();
+
+        Thread.sleep(config.getDrain().toMillis());
+        reporter.shutdownNow();
+        recorder.printReport(System.out, config.getDuration().toMillis());
+    }
+
+
+    private void sendLoop(long first, long intervalNanos, long end)
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long intended = first;
+
+        while (end - intended > 0)
+        {
+            long wait = intended - System.nanoTime();
+            if (wait > 0)
+            {
+                LockSupport.parkNanos(wait);
+            }
+
+            LoadAgent sender = agents.get(random.nextInt(agents.size()));
+
+            try
+            {
+                if (agents.size() > 1 && random.nextDouble() < config.getDirectRatio())
+                {
+                    LoadAgent recipient = sender;
+                    while (recipient == sender)
+                    {
+                        recipient = agents.get(random.nextInt(agents.size()));
+                    }
+
+                    sender.sendDirect(recipient.getMrn(), intended);
+                    recorder.recordSent(intended, 1);
+                }
+                else
+                {
+                    int subject = random.nextInt(subjects.size());
+                    String name = subjects.get(subject);
+                    sender.sendSubjectCast(name, intended);
+                    recorder.recordSent(intended, subscriberCounts[subject] - (sender.getInterests().contains(name) ? 1 : 0));
+                }
+            }
+            catch (IOException | IllegalStateException ex)
+            {
+                if (recorder.isRecording())
+                {
+                    recorder.recordSendFailure();
+                }
+            }
+
+            intended += intervalNanos;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.mms.EdgeRouter.LoadTest;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.*;
+import org.bouncycastle.cert.CertIOException;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.*;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues MCP-style client certificates for load test agents.
+ * <p>
+ * The bundled truststore-root-ca.p12 only holds the MCP root certificate, not its private key, so no certificate can be
+ * issued from that chain. Instead the load test either generates a throwaway CA, which is added next to the bundled root
+ * in the trust store of an in-process router, or loads the key of a CA that an external router already trusts.
+ * <p>
+ * All agents share one key pair, only the certificates differ, so that issuing thousands of agents stays cheap.
+ */
+public class TestCertificateAuthority
+{
+    private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+    private static final String ORGANIZATION_MRN = "urn:mrn:mcp:org:mcc:loadtest";
+
+    private final PrivateKey caKey;
+    private final X509Certificate caCertificate;
+    private final KeyPair agentKeyPair;
+    private final AtomicLong serial = new AtomicLong(System.currentTimeMillis());
+
+
+    private TestCertificateAuthority(PrivateKey caKey, X509Certificate caCertificate) throws GeneralSecurityException
+    {
+        this.caKey = caKey;
+        this.caCertificate = caCertificate;
+        this.agentKeyPair = newKeyPair();
+    }
+
+
+    /**
+     * Generates a new, self-signed CA that is valid for one day.
+     *
+     * @return The certificate authority.
+     */
+    public static TestCertificateAuthority generate() throws GeneralSecurityException, OperatorCreationException, CertIOException
+    {
+        KeyPair caKeyPair = newKeyPair();
+        X500Name name = new X500NameBuilder(BCStyle.INSTANCE)
+                .addRDN(BCStyle.C, "DK")
+                .addRDN(BCStyle.O, "EdgeRouter Load Test")
+                .addRDN(BCStyle.CN, "EdgeRouter Load Test CA")
+                .build();
+
+        Instant now = Instant.now();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.ONE, Date.from(now.minus(1, ChronoUnit.HOURS)), Date.from(now.plus(1, ChronoUnit.DAYS)), name, caKeyPair.getPublic());
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+
+        ContentSigner signer = new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(caKeyPair.getPrivate());
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+        return new TestCertificateAuthority(caKeyPair.getPrivate(), certificate);
+    }
+
+
+    /**
+     * Loads a CA from a PKCS12 keystore holding exactly one private key entry.
+     *
+     * @param keystore The path of the keystore.
+     * @param password The password of the keystore and the key.
+     * @return The certificate authority.
+     */
+    public static TestCertificateAuthority load(Path keystore, char[] password) throws GeneralSecurityException, IOException
+    {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+
+        try (InputStream in = Files.newInputStream(keystore))
+        {
+            store.load(in, password);
+        }
+
+        for (String alias : Collections.list(store.aliases()))
+        {
+            if (store.isKeyEntry(alias))
+            {
+                return new TestCertificateAuthority((PrivateKey) store.getKey(alias, password), (X509Certificate) store.getCertificate(alias));
+            }
+        }
+
+        throw new KeyStoreException("No private key entry found in " + keystore);
+    }
+
+
+    /**
+     * Issues a client certificate for the given MRN and returns an SSL context that presents it.
+     * The certificate carries the MRN in the UID attribute of the subject, like certificates from the MCP identity registry.
+     *
+     * @param mrn The MRN of the agent.
+     * @return An SSL context for the agent, it trusts any server certificate.
+     */
+    public SSLContext issueClientContext(String mrn) throws GeneralSecurityException, OperatorCreationException, IOException
+    {
+        X500Name subject = new X500NameBuilder(BCStyle.INSTANCE)
+                .addRDN(BCStyle.C, "DK")
+                .addRDN(BCStyle.O, ORGANIZATION_MRN)
+                .addRDN(BCStyle.OU, "device")
+                .addRDN(BCStyle.CN, mrn.substring(mrn.lastIndexOf(':') + 1))
+                .addRDN(BCStyle.UID, mrn)
+                .build();
+
+        Instant now = Instant.now();
+        X500Name issuer = X500Name.getInstance(caCertificate.getSubjectX500Principal().getEncoded());
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer, BigInteger.valueOf(serial.incrementAndGet()), Date.from(now.minus(1, ChronoUnit.HOURS)), Date.from(now.plus(1, ChronoUnit.DAYS)), subject, agentKeyPair.getPublic());
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+        builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature));
+        builder.addExtension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(KeyPurposeId.id_kp_clientAuth));
+
+        ContentSigner signer = new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(caKey);
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("agent", agentKeyPair.getPrivate(), new char[0], new X509Certificate[]{certificate, caCertificate});
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, new char[0]);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagerFactory.getKeyManagers(), new TrustManager[]{new TrustAllManager()}, null);
+        return context;
+    }
+
+
+    /**
+     * Writes a PKCS12 trust store with the bundled MCP root and this CA, for an in-process router to trust the agents.
+     *
+     * @param bundledTrustStore The bundled trust store, or null to only trust this CA.
+     * @param password          The password of both trust stores.
+     * @param target            The file to write.
+     */
+    public void writeTrustStore(InputStream bundledTrustStore, char[] password, Path target) throws GeneralSecurityException, IOException
+    {
+        KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        trustStore.load(bundledTrustStore, password);
+        trustStore.setCertificateEntry("edgerouter-loadtest-ca", caCertificate);
+
+        try (OutputStream out = Files.newOutputStream(target))
+        {
+            trustStore.store(out, password);
+        }
+    }
+
+
+    private static KeyPair newKeyPair() throws GeneralSecurityException
+    {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+
+    /**
+     * Trusts any server certificate. The load test only measures the router, and the bundled test server certificate
+     * does not match the host name of the router.
+     */
+    private static class TrustAllManager extends X509ExtendedTrustManager
+    {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {}
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {}
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {}
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {}
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers()
+        {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -68,11 +68,11 @@ public final class MMTPMessages {
       "\030\001 \001(\t\022\017\n\007subject\030\002 \001(\t\022\016\n\006sender\030\003 \001(\t\022" +
       "+\n\007expires\030\004 \001(\0132\032.google.protobuf.Times" +
       "tamp\022\017\n\007payload\030\005 \001(\014\"/\n\rRoutingUpdate\022\014" +
-      "\n\004MRNs\030\001 \003(\t\022\020\n\010subjects\030\002 \003(\t*\205\001\n\013Messa" +
+      "\n\004MRNs\030\001 \003(\t\022\020\n\010subjects\030\002 \003(\t*\240\001\n\013Messa" +
       "geType\022\014\n\010REGISTER\020\000\022\016\n\nUNREGISTER\020\001\022\036\n\032" +
       "DIRECT_APPLICATION_MESSAGE\020\002\022$\n SUBJECT_" +
       "CAST_APPLICATION_MESSAGE\020\003\022\022\n\016ROUTING_UP" +
-      "DATE\020\004B\032\n\010MMS.MMTPB\014MMTPMessagesP\001b\006prot" +
+      "DATE\020\004\022\t\n\005BATCH\020\005\022\016\n\nCOMPRESSED\020\006B\032\n\010MMS.MMTPB\014MMTPMessagesP\001b\006prot" +
       "o3"
     };
     descriptor = com.google.protobuf.Descriptors.FileDescriptor
@@ -28,6 +28,14 @@ public enum MessageType
    * <code>ROUTING_UPDATE = 4;</code>
    */
   ROUTING_UPDATE(4),
+  /**
+   * <code>BATCH = 5;</code>
+   */
+  BATCH(5),
+  /**
+   * <code>COMPRESSED = 6;</code>
+   */
+  COMPRESSED(6),
   UNRECOGNIZED(-1),
   ;
 
@@ -51,6 +59,14 @@ public enum MessageType
    * <code>ROUTING_UPDATE = 4;</code>
    */
   public static final int ROUTING_UPDATE_VALUE = 4;
+  /**
+   * <code>BATCH = 5;</code>
+   */
+  public static final int BATCH_VALUE = 5;
+  /**
+   * <code>COMPRESSED = 6;</code>
+   */
+  public static final int COMPRESSED_VALUE = 6;
 
 
   public final int getNumber() {
@@ -82,6 +98,8 @@ public enum MessageType
       case 2: return DIRECT_APPLICATION_MESSAGE;
       case 3: return SUBJECT_CAST_APPLICATION_MESSAGE;
       case 4: return ROUTING_UPDATE;
+      case 5: return BATCH;
+      case 6: return COMPRESSED;
       default: return null;
     }
   }
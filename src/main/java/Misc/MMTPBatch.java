@@ -0,0 +1,144 @@
+package Misc;
+
+import MMTPMessageFormats.MessageType;
+import MMTPMessageFormats.ProtocolMessage;
+import com.google.protobuf.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A utility class for encoding and decoding the content of {@link MessageType#BATCH} protocol messages.
+ * <p>
+ * The content of a batch has the wire format of a message with a single repeated field,
+ * {@code message MessageBatch { repeated ProtocolMessage messages = 1; }}, so that many protocol messages travel in one
+ * frame and are parsed in one pass. Batches cannot be nested and cannot be empty.
+ */
+public final class MMTPBatch
+{
+    private static final int MESSAGES_FIELD = 1;
+
+    private MMTPBatch() {}
+
+
+    /**
+     * Decodes the protocol messages of a batch.
+     *
+     * @param content The content of the batch protocol message.
+     * @return The protocol messages, in the order they were added to the batch.
+     * @throws InvalidProtocolBufferException If the content is not a valid batch.
+     * @throws MMTPValidationException        If the batch is empty or contains another batch.
+     */
+    public static List<ProtocolMessage> decode(ByteString content) throws InvalidProtocolBufferException, MMTPValidationException
+    {
+        CodedInputStream input = content.newCodedInput();
+        List<ProtocolMessage> messages = new ArrayList<>();
+
+        try
+        {
+            int tag;
+
+            while ((tag = input.readTag()) != 0)
+            {
+                if (tag != WireFormat.makeTag(MESSAGES_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED))
+                {
+                    input.skipField(tag);
+                    continue;
+                }
+
+                ProtocolMessage message = input.readMessage(ProtocolMessage.parser(), ExtensionRegistryLite.getEmptyRegistry());
+
+                if (message.getType() == MessageType.BATCH)
+                {
+                    throw new MMTPValidationException("Batch contains another batch");
+                }
+
+                messages.add(message);
+            }
+        }
+
+        catch (InvalidProtocolBufferException ex)
+        {
+            throw ex;
+        }
+
+        catch (IOException ex)
+        {
+            throw new InvalidProtocolBufferException(ex);
+        }
+
+        if (messages.isEmpty())
+        {
+            throw new MMTPValidationException("Batch contains no messages");
+        }
+
+        return messages;
+    }
+
+
+    /**
+     * Returns the number of bytes a serialized protocol message takes in the content of a batch.
+     *
+     * @param messageBytes The size of the serialized protocol message.
+     * @return The size of its entry in the batch.
+     */
+    public static int entrySize(int messageBytes)
+    {
+        return CodedOutputStream.computeTagSize(MESSAGES_FIELD) + CodedOutputStream.computeUInt32SizeNoTag(messageBytes) + messageBytes;
+    }
+
+
+    /**
+     * Returns the number of bytes a batch protocol message takes on the wire, for content of the given size.
+     *
+     * @param contentBytes The size of the content, the sum of the entry sizes of its messages.
+     * @return The size of the serialized batch protocol message.
+     */
+    public static int frameSize(int contentBytes)
+    {
+        return CodedOutputStream.computeEnumSize(ProtocolMessage.TYPE_FIELD_NUMBER, MessageType.BATCH_VALUE) + CodedOutputStream.computeTagSize(ProtocolMessage.CONTENT_FIELD_NUMBER) + CodedOutputStream.computeUInt32SizeNoTag(contentBytes) + contentBytes;
+    }
+
+
+    /**
+     * Encodes serialized protocol messages into a single batch protocol message.
+     *
+     * @param messages The serialized protocol messages, their positions are not changed.
+     * @return The serialized batch protocol message.
+     */
+    public static ByteBuffer encode(List<ByteBuffer> messages)
+    {
+        int size = 0;
+
+        for (ByteBuffer message : messages)
+        {
+            size += entrySize(message.remaining());
+        }
+
+        byte[] content = new byte[size];
+        CodedOutputStream output = CodedOutputStream.newInstance(content);
+
+        try
+        {
+            for (ByteBuffer message : messages)
+            {
+                output.writeTag(MESSAGES_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(message.remaining());
+                output.write(message.duplicate());
+            }
+
+            output.checkNoSpaceLeft();
+        }
+
+        catch (IOException ex)
+        {
+            // Cannot happen, the array was sized to the content
+            throw new IllegalStateException("Could not encode batch", ex);
+        }
+
+        ProtocolMessage batch = ProtocolMessage.newBuilder().setType(MessageType.BATCH).setContent(UnsafeByteOperations.unsafeWrap(content)).build();
+        return ByteBuffer.wrap(batch.toByteArray());
+    }
+}
@@ -0,0 +1,250 @@
+package com.mms.EdgeRouter.ActiveMQ;
+
+import com.mms.EdgeRouter.SubscriptionManagement.Events.MrnSubscriptionEvent;
+import com.mms.EdgeRouter.SubscriptionManagement.Events.SubjectSubscriptionEvent;
+import com.mms.EdgeRouter.SubscriptionManagement.ISubscriptionRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps the broker topics the router listens to in line with the local subscriptions. A subject or an MRN is
+ * subscribed to on the broker when it gets its first local subscriber, and unsubscribed from when it loses its last one.
+ * <p>
+ * After a restart, the topics of the previous run can be subscribed to up front, see {@link #prewarm(Collection)}.
+ * A pre-warmed topic is taken over by the first local subscription to it, without subscribing again, and the topics
+ * that no agent took over within the grace period are released by {@link #releaseUnclaimed()}.
+ * <p>
+ * Subscribing to a topic starts a listener container and unsubscribing stops it, which takes a round trip to the broker
+ * and, on stopping, up to the receive timeout of the consumer. The subscription events are published by the threads
+ * that change the local subscriptions, the connection admission thread among them, so the listeners only note the
+ * topic and the broker is updated on a thread of its own. That thread brings each noted topic in line with the current
+ * subscribers of the {@link ISubscriptionRepository}, rather than with the event, so events that arrive out of order
+ * cannot leave a topic in the wrong state, a topic whose subscriber leaves and returns before the thread gets to it
+ * costs nothing, and a disconnect storm delays the broker updates instead of the admission of connections.
+ */
+@Slf4j
+@Component
+public class RemoteInterest
+{
+    private final RemoteSubscriber remoteSubscriber;
+    private final ISubscriptionRepository subscriptionRepository;
+    private final Set<String> prewarmed = new HashSet<>();
+
+    private final Set<String> pending = new LinkedHashSet<>();
+    private final ExecutorService executor;
+    private boolean draining;
+
+
+    /**
+     * Constructs a new {@link RemoteInterest}.
+     *
+     * @param remoteSubscriber       The subscriber of the broker topics.
+     * @param subscriptionRepository The repository of the local subscriptions.
+     */
+    @Autowired
+    public RemoteInterest(RemoteSubscriber remoteSubscriber, ISubscriptionRepository subscriptionRepository)
+    {
+        this.remoteSubscriber = remoteSubscriber;
+        this.subscriptionRepository = subscriptionRepository;
+        this.executor = Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "RemoteInterest");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Handles a {@link SubjectSubscriptionEvent}, the first subscriber of a subject arrived or the last one left.
+     *
+     * @param event The event.
+     */
+    @EventListener
+    public void onSubjectSubscription(SubjectSubscriptionEvent event)
+    {
+        enqueue(event.getSubjects());
+    }
+
+
+    /**
+     * Handles a {@link MrnSubscriptionEvent}, the first subscriber of an MRN arrived or the last one left.
+     *
+     * @param event The event.
+     */
+    @EventListener
+    public void onMrnSubscription(MrnSubscriptionEvent event)
+    {
+        enqueue(event.getMrn());
+    }
+
+
+    /**
+     * Subscribes to topics that are expected to get local subscribers soon, unless they are subscribed to already.
+     *
+     * @param topics The topics, the subjects and MRNs with subscribers before a restart.
+     */
+    public synchronized void prewarm(Collection<String> topics)
+    {
+        for (String topic : topics)
+        {
+            if (!remoteSubscriber.isSubscribed(topic))
+            {
+                remoteSubscriber.subscribe(topic);
+                prewarmed.add(topic);
+            }
+        }
+
+        log.info("Pre-warmed {} of {} remote topics", prewarmed.size(), topics.size());
+    }
+
+
+    /**
+     * Unsubscribes from the pre-warmed topics that no local subscriber took over.
+     *
+     * @return The number of topics released.
+     */
+    public synchronized int releaseUnclaimed()
+    {
+        int released = 0;
+
+        for (String topic : prewarmed)
+        {
+            if (!hasLocalSubscribers(topic))
+            {
+                remoteSubscriber.unsubscribe(topic);
+                released++;
+            }
+        }
+
+        prewarmed.clear();
+
+        if (released > 0)
+        {
+            log.info("Released {} pre-warmed remote topics without local subscribers", released);
+        }
+
+        return released;
+    }
+
+
+    /**
+     * Stops updating the broker before the object is destroyed, pending updates are dropped.
+     */
+    @PreDestroy
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Notes that the subscribers of a topic changed, and starts updating the broker if that is not already under way.
+     *
+     * @param topic The subject or MRN.
+     */
+    private void enqueue(String topic)
+    {
+        synchronized (pending)
+        {
+            pending.add(topic);
+
+            if (draining)
+            {
+                return;
+            }
+
+            draining = true;
+        }
+
+        try
+        {
+            executor.execute(this::drain);
+        }
+
+        catch (RejectedExecutionException ex)
+        {
+            // The router is shutting down
+        }
+    }
+
+
+    /**
+     * Updates the noted topics until there are none left.
+     */
+    private void drain()
+    {
+        while (true)
+        {
+            String topic;
+
+            synchronized (pending)
+            {
+                Iterator<String> iterator = pending.iterator();
+
+                if (!iterator.hasNext())
+                {
+                    draining = false;
+                    return;
+                }
+
+                topic = iterator.next();
+                iterator.remove();
+            }
+
+            try
+            {
+                update(topic);
+            }
+
+            catch (RuntimeException ex)
+            {
+                log.error("Error updating remote subscription of topic={}", topic, ex);
+            }
+        }
+    }
+
+
+    /**
+     * Subscribes to or unsubscribes from a topic, depending on whether it has local subscribers now, taking over a
+     * pre-warmed subscription instead of subscribing again.
+     *
+     * @param topic The subject or MRN.
+     */
+    private synchronized void update(String topic)
+    {
+        prewarmed.remove(topic);
+        boolean subscribed = remoteSubscriber.isSubscribed(topic);
+
+        if (hasLocalSubscribers(topic))
+        {
+            if (!subscribed)
+            {
+                remoteSubscriber.subscribe(topic);
+            }
+        }
+
+        else if (subscribed)
+        {
+            remoteSubscriber.unsubscribe(topic);
+        }
+    }
+
+
+    private boolean hasLocalSubscribers(String topic)
+    {
+        return !subscriptionRepository.getSubscriberSlotsBySubject(topic).isEmpty() || !subscriptionRepository.getSubscriberSlotsByMrn(topic).isEmpty();
+    }
+}
@@ -1,6 +1,9 @@
 package com.mms.EdgeRouter.ActiveMQ;
 
 import com.mms.EdgeRouter.ActiveMQ.events.RemoteMessageEvent;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Tracing.MessageTrace;
+import com.mms.EdgeRouter.Tracing.MessageTracer;
 import jakarta.jms.BytesMessage;
 import jakarta.jms.JMSException;
 import jakarta.jms.Message;
@@ -22,17 +25,23 @@ import java.nio.ByteBuffer;
 public class RemoteReceiver implements MessageListener
 {
     private final ApplicationEventPublisher eventPublisher;
+    private final RouterMetrics metrics;
+    private final MessageTracer tracer;
 
 
     /**
      * Constructs a new {@link RemoteReceiver} with the given ApplicationEventPublisher.
      *
      * @param eventPublisher The ApplicationEventPublisher used to publish RemoteMessageEvents.
+     * @param metrics        The metrics of the routing pipeline.
+     * @param tracer         The tracer that continues the traces of messages sampled by other routers.
      */
     @Autowired
-    public RemoteReceiver(ApplicationEventPublisher eventPublisher)
+    public RemoteReceiver(ApplicationEventPublisher eventPublisher, RouterMetrics metrics, MessageTracer tracer)
     {
         this.eventPublisher = eventPublisher;
+        this.metrics = metrics;
+        this.tracer = tracer;
     }
 
 
@@ -46,6 +55,8 @@ public class RemoteReceiver implements MessageListener
     @Override
     public void onMessage(Message message)
     {
+        long start = System.nanoTime();
+
         try
         {
             log.info("Received message from topic={}, jms-id={}", message.getJMSDestination(), message.getJMSMessageID());
@@ -63,8 +74,11 @@ public class RemoteReceiver implements MessageListener
                 bytesMessage.readBytes(data);
                 ByteBuffer buffer = ByteBuffer.wrap(data);
                 log.info("Received message from topic={}", message.getJMSDestination());
-                RemoteMessageEvent remoteMessageEvent = new RemoteMessageEvent(this, buffer);
+                metrics.recordJmsTransit(message.getJMSTimestamp());
+                MessageTrace trace = continueTrace(message);
+                RemoteMessageEvent remoteMessageEvent = new RemoteMessageEvent(this, buffer, trace);
                 eventPublisher.publishEvent(remoteMessageEvent);
+                metrics.recordJmsConsume(System.nanoTime() - start);
             }
 
             else
@@ -77,4 +91,25 @@ public class RemoteReceiver implements MessageListener
             log.error("Error processing received message", ex);
         }
     }
+
+
+    /**
+     * Continues the trace of a message if the publishing router traced it.
+     *
+     * @param message The message received from the broker.
+     * @return The trace, {@link MessageTrace#NONE} if the message is not traced.
+     * @throws JMSException If the properties of the message could not be read.
+     */
+    private MessageTrace continueTrace(Message message) throws JMSException
+    {
+        String traceId = message.getStringProperty(MessageTracer.TRACE_ID_PROPERTY);
+
+        if (traceId == null)
+        {
+            return MessageTrace.NONE;
+        }
+
+        long sentAt = message.propertyExists(MessageTracer.SENT_AT_PROPERTY) ? message.getLongProperty(MessageTracer.SENT_AT_PROPERTY) : 0;
+        return tracer.continueRemote(traceId, sentAt);
+    }
 }
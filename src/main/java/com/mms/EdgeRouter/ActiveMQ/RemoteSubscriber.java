@@ -67,6 +67,18 @@ public class RemoteSubscriber
     }
 
 
+    /**
+     * Returns whether the specified topic is currently subscribed to.
+     *
+     * @param topicName The name of the topic.
+     * @return True if a listener is running for the topic.
+     */
+    public boolean isSubscribed(String topicName)
+    {
+        return listenerContainers.containsKey(topicName);
+    }
+
+
     /**
      * Unsubscribes from the specified topic if currently subscribed.
      * Stops listening for messages and cleans up resources.
@@ -1,5 +1,6 @@
 package com.mms.EdgeRouter.ActiveMQ.events;
 
+import com.mms.EdgeRouter.Tracing.MessageTrace;
 import org.springframework.context.ApplicationEvent;
 
 import java.nio.ByteBuffer;
@@ -11,18 +12,33 @@ import java.nio.ByteBuffer;
 public class RemoteMessageEvent extends ApplicationEvent
 {
     private final ByteBuffer buffer;
+    private final MessageTrace trace;
 
 
     /**
-     * Constructs a new `{@link RemoteMessageEvent}` with the given source object and message payload.
+     * Constructs a new `{@link RemoteMessageEvent}` for a message that is not traced.
      *
      * @param source The object that is the source of the event.
      * @param buffer The ByteBuffer containing the message payload.
      */
     public RemoteMessageEvent(Object source, ByteBuffer buffer)
+    {
+        this(source, buffer, MessageTrace.NONE);
+    }
+
+
+    /**
+     * Constructs a new `{@link RemoteMessageEvent}` with the given source object and message payload.
+     *
+     * @param source The object that is the source of the event.
+     * @param buffer The ByteBuffer containing the message payload.
+     * @param trace  The trace of the message.
+     */
+    public RemoteMessageEvent(Object source, ByteBuffer buffer, MessageTrace trace)
     {
         super(source);
         this.buffer = buffer;
+        this.trace = trace;
     }
 
 
@@ -35,4 +51,15 @@ public class RemoteMessageEvent extends ApplicationEvent
     {
         return buffer;
     }
+
+
+    /**
+     * Returns the trace of the message.
+     *
+     * @return The trace, {@link MessageTrace#NONE} if the message is not traced.
+     */
+    public MessageTrace getTrace()
+    {
+        return trace;
+    }
 }
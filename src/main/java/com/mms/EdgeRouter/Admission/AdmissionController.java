@@ -0,0 +1,144 @@
+package com.mms.EdgeRouter.Admission;
+
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import com.mms.EdgeRouter.WebSocket.RateLimiterWsHandler;
+import io.netty.util.Timeout;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the ingress rates of the {@link RateLimiterWsHandler} to the queueing delay inside the router.
+ * <p>
+ * Every interval, the controller takes the minimum sojourn time of each queue measured by the {@link QueueDelayMonitor}.
+ * If the worst of them is above the target delay, a queue has been standing for the whole interval, and the admission
+ * factor applied to the configured byte and connection rates is cut multiplicatively. Once the delay is back below the
+ * target, the factor grows additively towards 1, the configured rates. This is AIMD driven by the CoDel delay signal,
+ * so the router sheds load at the edge, where a flooding agent is held back by pausing its reads, instead of letting
+ * its internal queues and latency grow.
+ */
+@Slf4j
+@Component
+public class AdmissionController
+{
+    private final QueueDelayMonitor delayMonitor;
+    private final RateLimiterWsHandler rateLimiter;
+    private final RouterMetrics metrics;
+
+    private final long targetDelayNanos;
+    private final double decreaseFactor;
+    private final double increaseStep;
+    private final double minimumFactor;
+
+    private final Timeout adjustment;
+    private volatile double admissionFactor = 1.0;
+
+
+    /**
+     * Constructs a new {@link AdmissionController} and starts adjusting the ingress rates.
+     *
+     * @param delayMonitor      The monitor measuring the queueing delay.
+     * @param rateLimiter       The handler whose ingress rates are adjusted.
+     * @param metrics           The metrics of the routing pipeline.
+     * @param timerWheel        The timer the adjustments run on.
+     * @param enabled           Whether the ingress rates are adjusted at all.
+     * @param targetDelayMillis The queueing delay the controller aims to stay below.
+     * @param intervalMillis    How often the delay is checked and the rates adjusted.
+     * @param decreaseFactor    The factor the ingress rates are multiplied by while the delay is above target.
+     * @param increaseStep      The share of the configured rates added back per interval once the delay is below target.
+     * @param minimumFactor     The smallest share of the configured rates the ingress rates are cut to.
+     */
+    @Autowired
+    public AdmissionController(QueueDelayMonitor delayMonitor, RateLimiterWsHandler rateLimiter, RouterMetrics metrics, TimerWheel timerWheel, @Value("${edgerouter.admission.enabled:true}") boolean enabled, @Value("${edgerouter.admission.targetDelayMillis:5}") long targetDelayMillis, @Value("${edgerouter.admission.intervalMillis:100}") long intervalMillis, @Value("${edgerouter.admission.decreaseFactor:0.7}") double decreaseFactor, @Value("${edgerouter.admission.increaseStep:0.05}") double increaseStep, @Value("${edgerouter.admission.minimumFactor:0.05}") double minimumFactor)
+    {
+        this.delayMonitor = delayMonitor;
+        this.rateLimiter = rateLimiter;
+        this.metrics = metrics;
+        this.targetDelayNanos = TimeUnit.MILLISECONDS.toNanos(targetDelayMillis);
+        this.decreaseFactor = decreaseFactor;
+        this.increaseStep = increaseStep;
+        this.minimumFactor = minimumFactor;
+
+        metrics.registerGauge("admission.factor", "Share of the configured ingress rates currently admitted", this::getAdmissionFactor);
+
+        this.adjustment = enabled ? timerWheel.scheduleWithFixedDelay(this::adjust, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS) : null;
+
+        log.info("AdmissionController initialized with enabled={}, targetDelayMillis={}, intervalMillis={}, decreaseFactor={}, increaseStep={}, minimumFactor={}", enabled, targetDelayMillis, intervalMillis, decreaseFactor, increaseStep, minimumFactor);
+    }
+
+
+    /**
+     * Checks the queueing delay of the last interval and adjusts the admission factor.
+     */
+    protected void adjust()
+    {
+        try
+        {
+            long delay = -1;
+
+            for (QueueKind queue : QueueKind.values())
+            {
+                delay = Math.max(delay, delayMonitor.takeMinimumSojourn(queue));
+            }
+
+            double current = admissionFactor;
+            double next;
+
+            if (delay > targetDelayNanos)
+            {
+                next = Math.max(minimumFactor, current * decreaseFactor);
+            }
+
+            else
+            {
+                next = Math.min(1.0, current + increaseStep);
+            }
+
+            if (next != current)
+            {
+                admissionFactor = next;
+                rateLimiter.setAdmissionFactor(next);
+
+                if (next < current)
+                {
+                    metrics.recordAdmissionDecrease();
+                    log.debug("Queueing delay={}us above target, admission factor lowered to {}", TimeUnit.NANOSECONDS.toMicros(delay), next);
+                }
+
+                else
+                {
+                    log.debug("Queueing delay recovered, admission factor raised to {}", next);
+                }
+            }
+        }
+
+        catch (RuntimeException ex)
+        {
+            log.error("Error adjusting admission factor", ex);
+        }
+    }
+
+
+    public double getAdmissionFactor()
+    {
+        return admissionFactor;
+    }
+
+
+    /**
+     * Stops adjusting the ingress rates before the object is destroyed.
+     */
+    @PreDestroy
+    public void destroy()
+    {
+        if (adjustment != null)
+        {
+            adjustment.cancel();
+        }
+    }
+}
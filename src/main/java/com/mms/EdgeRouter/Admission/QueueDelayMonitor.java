@@ -0,0 +1,89 @@
+package com.mms.EdgeRouter.Admission;
+
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the time tasks wait in the queues of the router before they start running, their sojourn time.
+ * <p>
+ * Besides recording every sojourn time in the metrics, it keeps the minimum per queue since it was last read. Following
+ * CoDel, the minimum rather than the mean is what tells a standing queue from a burst: a burst drains within an
+ * interval and some task gets through quickly, while under overload even the luckiest task waits.
+ */
+@Component
+public class QueueDelayMonitor
+{
+    private final RouterMetrics metrics;
+    private final Map<QueueKind, AtomicLong> minimumSojourns = new EnumMap<>(QueueKind.class);
+
+
+    /**
+     * Constructs a new {@link QueueDelayMonitor}.
+     *
+     * @param metrics The metrics of the routing pipeline.
+     */
+    @Autowired
+    public QueueDelayMonitor(RouterMetrics metrics)
+    {
+        this.metrics = metrics;
+
+        for (QueueKind queue : QueueKind.values())
+        {
+            minimumSojourns.put(queue, new AtomicLong(Long.MAX_VALUE));
+        }
+    }
+
+
+    /**
+     * Records the time a task waited in a queue.
+     *
+     * @param queue        The queue.
+     * @param sojournNanos The time between the task being queued and starting to run, in nanoseconds.
+     */
+    public void recordSojourn(QueueKind queue, long sojournNanos)
+    {
+        metrics.recordQueueDelay(queue, sojournNanos);
+
+        AtomicLong minimum = minimumSojourns.get(queue);
+        if (sojournNanos < minimum.get())
+        {
+            minimum.accumulateAndGet(sojournNanos, Math::min);
+        }
+    }
+
+
+    /**
+     * Returns the minimum sojourn time of a queue since the last call, and starts a new interval.
+     *
+     * @param queue The queue.
+     * @return The minimum sojourn time in nanoseconds, or -1 if no task was queued in the interval.
+     */
+    public long takeMinimumSojourn(QueueKind queue)
+    {
+        long minimum = minimumSojourns.get(queue).getAndSet(Long.MAX_VALUE);
+        return minimum == Long.MAX_VALUE ? -1 : minimum;
+    }
+
+
+    /**
+     * Wraps a task so that its sojourn time in the given queue is recorded when it starts running.
+     *
+     * @param queue The queue the task is submitted to.
+     * @param task  The task.
+     * @return The wrapped task.
+     */
+    public Runnable timed(QueueKind queue, Runnable task)
+    {
+        long queuedAt = System.nanoTime();
+        return () ->
+        {
+            recordSojourn(queue, System.nanoTime() - queuedAt);
+            task.run();
+        };
+    }
+}
@@ -0,0 +1,17 @@
+package com.mms.EdgeRouter.Admission;
+
+/**
+ * The queues whose waiting time is measured by the {@link QueueDelayMonitor}.
+ */
+public enum QueueKind
+{
+    /**
+     * The queue of the WorkerPool, used by the asynchronous event listeners.
+     */
+    WORKER_POOL,
+
+    /**
+     * The queues of the ordered delivery lanes, where messages wait to be processed and sent to local sessions.
+     */
+    DELIVERY_LANE
+}
@@ -0,0 +1,30 @@
+package com.mms.EdgeRouter.AsyncPoolConfigurations;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The FanOutPoolConfiguration class configures the work-stealing pool used to send a single message to many
+ * recipients in parallel. It creates a ForkJoinPool bean named "FanOutPool" with the specified parallelism, as
+ * specified by the config. If no value is given, the number of available processors is used.
+ */
+@Slf4j
+@Configuration
+public class FanOutPoolConfiguration
+{
+    @Value("${fanout-pool.parallelism:0}")
+    private int parallelism;
+
+
+    @Bean(name = "FanOutPool", destroyMethod = "shutdown") // Give the bean a name so that Spring knows which pool to use
+    public ForkJoinPool fanOutPool()
+    {
+        int effectiveParallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        log.info("Initializing FanOutPool with parallelism={}", effectiveParallelism);
+        return new ForkJoinPool(effectiveParallelism);
+    }
+}
@@ -1,5 +1,12 @@
 package com.mms.EdgeRouter.AsyncPoolConfigurations;
 
+import com.mms.EdgeRouter.Admission.QueueDelayMonitor;
+import com.mms.EdgeRouter.Admission.QueueKind;
+import com.mms.EdgeRouter.Expiry.DeadlineQueue;
+import com.mms.EdgeRouter.Expiry.DeadlineTask;
+import com.mms.EdgeRouter.Expiry.ExpiryStage;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Priority.PriorityProperties;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -9,7 +16,6 @@ import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -17,6 +23,10 @@ import java.util.concurrent.TimeUnit;
  * The WorkerPoolConfiguration class configures the thread pool used for handling any async tasks.
  * It creates a TaskExecutor bean named "WorkerPool" with the specified core pool size, max pool size, keep-alive
  * time, and queue capacity, as specified by the config. If no values are given, default values are used.
+ * The time tasks wait in the queue of the pool is reported to the {@link QueueDelayMonitor}.
+ * The queue hands out tasks earliest deadline first, tasks submitted on behalf of a message take its deadline and are
+ * dropped if it passes while they wait, see {@link DeadlineTask}. How far a task may be overtaken depends on the
+ * slack of its traffic class, see {@link PriorityProperties}.
  */
 @Slf4j
 @EnableAsync(proxyTargetClass = true)
@@ -35,12 +45,14 @@ public class WorkerPoolConfiguration
     @Value("${worker-pool.queue-capacity:1000}")
     private int queueCapacity;
 
-
     @Bean(name = "WorkerPool") // Give the bean a name so that Spring knows which TaskExecutor to use
-    public TaskExecutor workerPoolExecutor()
+    public TaskExecutor workerPoolExecutor(QueueDelayMonitor delayMonitor, RouterMetrics metrics, PriorityProperties priorities)
     {
-        log.info("Initializing WorkerPool with corePoolSize={}, maxPoolSize={}, keepAliveSeconds={}, queueCapacity={}", corePoolSize, maxPoolSize, keepAliveSeconds, queueCapacity);
-        ExecutorService service = new ThreadPoolExecutor(corePoolSize, maxPoolSize, keepAliveSeconds, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueCapacity));
-        return new ConcurrentTaskExecutor(service);
+        log.info("Initializing WorkerPool with corePoolSize={}, maxPoolSize={}, keepAliveSeconds={}, queueCapacity={}, slackMillis={}", corePoolSize, maxPoolSize, keepAliveSeconds, queueCapacity, priorities.getSlackMillis());
+        ExecutorService service = new ThreadPoolExecutor(corePoolSize, maxPoolSize, keepAliveSeconds, TimeUnit.SECONDS, new DeadlineQueue(queueCapacity));
+        ConcurrentTaskExecutor executor = new ConcurrentTaskExecutor(service);
+        // The decorator runs in the submitting thread, so the task takes the deadline of the message being handled there
+        executor.setTaskDecorator(task -> new DeadlineTask(delayMonitor.timed(QueueKind.WORKER_POOL, task), priorities::getSlackMillis, () -> metrics.recordExpired(ExpiryStage.WORKER_POOL)));
+        return executor;
     }
 }
@@ -0,0 +1,77 @@
+package com.mms.EdgeRouter.Compression;
+
+import org.springframework.lang.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The compression an agent announced in its handshake request that it can decode, parsed from the
+ * {@value com.mms.EdgeRouter.WebSocket.ProtocolOptionsInterceptor#ACCEPT_ENCODING_HEADER} header.
+ * <p>
+ * The header is a comma separated list of {@code deflate} and {@code deflate-dict;id=<n>}, where {@code n} is the ID of
+ * a shared dictionary the agent holds. An agent that holds a dictionary also decodes deflate without one.
+ *
+ * @param dictionaries The IDs of the shared dictionaries the agent holds.
+ */
+public record AcceptEncoding(Set<Integer> dictionaries)
+{
+    private static final String DEFLATE = "deflate";
+    private static final String DEFLATE_DICTIONARY = "deflate-dict";
+    private static final String ID_PARAMETER = "id=";
+
+
+    /**
+     * Parses the header, unknown codecs and malformed parameters are ignored.
+     *
+     * @param header The value of the header, or null if it is absent.
+     * @return The accepted compression, or null if the agent accepts none.
+     */
+    @Nullable
+    public static AcceptEncoding parse(@Nullable String header)
+    {
+        if (header == null || header.isBlank())
+        {
+            return null;
+        }
+
+        boolean deflate = false;
+        Set<Integer> dictionaries = new HashSet<>();
+
+        for (String element : header.split(","))
+        {
+            String[] parts = element.split(";");
+            String codec = parts[0].trim();
+
+            if (codec.equalsIgnoreCase(DEFLATE))
+            {
+                deflate = true;
+            }
+
+            else if (codec.equalsIgnoreCase(DEFLATE_DICTIONARY))
+            {
+                deflate = true;
+
+                for (int i = 1; i < parts.length; i++)
+                {
+                    String parameter = parts[i].trim();
+
+                    if (parameter.startsWith(ID_PARAMETER))
+                    {
+                        try
+                        {
+                            dictionaries.add(Integer.parseInt(parameter.substring(ID_PARAMETER.length())));
+                        }
+
+                        catch (NumberFormatException ignored)
+                        {
+                            // A malformed ID only rules out that dictionary
+                        }
+                    }
+                }
+            }
+        }
+
+        return deflate ? new AcceptEncoding(Set.copyOf(dictionaries)) : null;
+    }
+}
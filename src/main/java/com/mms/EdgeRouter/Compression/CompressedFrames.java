@@ -0,0 +1,55 @@
+package com.mms.EdgeRouter.Compression;
+
+import lombok.NonNull;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The encodings of a single frame during a fan-out. The frame is compressed the first time a recipient needs a codec,
+ * and every later recipient with the same codec is sent the same compressed bytes. Safe to use from the threads of a
+ * parallel fan-out, the recipients waiting for a codec that is being compressed block until it is done.
+ */
+public class CompressedFrames
+{
+    private final PayloadCompressor compressor;
+    private final ByteBuffer frame;
+    private final Map<PayloadCodec, ByteBuffer> encodings = new EnumMap<>(PayloadCodec.class);
+
+
+    /**
+     * Constructs a new {@link CompressedFrames}.
+     *
+     * @param compressor The compressor of the frame.
+     * @param frame      The serialized protocol message.
+     */
+    CompressedFrames(@NonNull PayloadCompressor compressor, @NonNull ByteBuffer frame)
+    {
+        this.compressor = compressor;
+        this.frame = frame;
+    }
+
+
+    /**
+     * Returns the frame to send to a session, in the codec of the session.
+     *
+     * @param session The session of the recipient.
+     * @return A view of the encoded frame of its own, sending consumes the position of the buffer.
+     */
+    public ByteBuffer getFrame(@NonNull WebSocketSession session)
+    {
+        PayloadCodec codec = compressor.getCodec(session);
+
+        if (codec == PayloadCodec.IDENTITY)
+        {
+            return frame.duplicate();
+        }
+
+        synchronized (encodings)
+        {
+            return encodings.computeIfAbsent(codec, key -> compressor.compress(frame, key)).duplicate();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.mms.EdgeRouter.Compression;
+
+/**
+ * The codecs the content of a {@link MMTPMessageFormats.MessageType#COMPRESSED} protocol message can be encoded with.
+ * The number of a codec is written in the compressed message, so that the agent knows how to decode it.
+ */
+public enum PayloadCodec
+{
+    /**
+     * Not compressed, the frame is sent as it is.
+     */
+    IDENTITY(0),
+
+    /**
+     * Deflate in the zlib format.
+     */
+    DEFLATE(1),
+
+    /**
+     * Deflate in the zlib format, with the shared dictionary of the Edge Router as preset dictionary.
+     */
+    DEFLATE_DICTIONARY(2);
+
+    private final int number;
+
+
+    PayloadCodec(int number)
+    {
+        this.number = number;
+    }
+
+
+    /**
+     * Returns the number of the codec on the wire.
+     */
+    public int getNumber()
+    {
+        return number;
+    }
+
+
+    /**
+     * Returns the codec with the given number on the wire.
+     *
+     * @param number The number of the codec.
+     * @return The codec, or null if the number is unknown.
+     */
+    public static PayloadCodec forNumber(int number)
+    {
+        for (PayloadCodec codec : values())
+        {
+            if (codec.number == number)
+            {
+                return codec;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,401 @@
+package com.mms.EdgeRouter.Compression;
+
+import MMTPMessageFormats.MessageType;
+import MMTPMessageFormats.ProtocolMessage;
+import Misc.MMTPValidationException;
+import com.google.protobuf.*;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ResourceUtils;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses frames to agents and decompresses frames from agents, in {@link MessageType#COMPRESSED} protocol messages.
+ * <p>
+ * The content of a compressed protocol message has the wire format of
+ * {@code message CompressedMessage { uint32 codec = 1; uint32 dictionary = 2; bytes data = 3; }}, where the data is
+ * a serialized protocol message encoded with the {@link PayloadCodec} of that number, and the dictionary is the ID of
+ * the shared dictionary it was encoded with, if any. A compressed message cannot contain another compressed message.
+ * <p>
+ * An agent announces the codecs it decodes in its handshake request, see {@link AcceptEncoding}, and gets every frame
+ * of at least the configured size compressed with the best of them, unless compressing does not make the frame smaller.
+ * Agents may send compressed frames regardless, as long as they use the dictionary of the Edge Router. The dictionary
+ * is optional and is read from {@code edgerouter.compression.dictionary}, deflate only uses its last 32 KiB.
+ */
+@Slf4j
+@Component
+public class PayloadCompressor
+{
+    private static final int CODEC_FIELD = 1;
+    private static final int DICTIONARY_FIELD = 2;
+    private static final int DATA_FIELD = 3;
+
+    private final RouterMetrics metrics;
+    private final boolean enabled;
+    private final int minBytes;
+    private final int maxInflatedBytes;
+    private final byte[] dictionary;
+    private final int dictionaryId;
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+
+    /**
+     * Constructs a new {@link PayloadCompressor}.
+     *
+     * @param metrics            The metrics the compressed bytes are recorded in.
+     * @param enabled            Whether frames to agents are compressed, frames from agents are decompressed regardless.
+     * @param level              The deflate level, from 1 (fastest) to 9 (smallest).
+     * @param minBytes           The size below which frames are not compressed.
+     * @param maxInflatedBytes   The total size the compressed messages of a frame from an agent may decompress to,
+     *                           including the compressed messages of a batch, larger frames are invalid.
+     * @param dictionaryLocation The location of the shared dictionary, empty for none.
+     * @param dictionaryId       The ID of the shared dictionary, agents name it in their handshake request.
+     * @throws IOException If the dictionary could not be read.
+     */
+    @Autowired
+    public PayloadCompressor(@NonNull RouterMetrics metrics,
+                             @Value("${edgerouter.compression.enabled:true}") boolean enabled,
+                             @Value("${edgerouter.compression.level:6}") int level,
+                             @Value("${edgerouter.compression.minBytes:256}") int minBytes,
+                             @Value("${edgerouter.compression.maxInflatedBytes:65536}") int maxInflatedBytes,
+                             @Value("${edgerouter.compression.dictionary:}") String dictionaryLocation,
+                             @Value("${edgerouter.compression.dictionaryId:1}") int dictionaryId) throws IOException
+    {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.minBytes = minBytes;
+        this.maxInflatedBytes = maxInflatedBytes;
+        this.dictionary = dictionaryLocation.isEmpty() ? null : loadDictionary(dictionaryLocation);
+        this.dictionaryId = dictionaryId;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+
+        log.info("PayloadCompressor initialized with enabled={}, level={}, minBytes={}, dictionary={}, dictionaryId={}", enabled, level, minBytes, dictionary == null ? "none" : dictionary.length + " bytes", dictionaryId);
+    }
+
+
+    /**
+     * Returns the codec the frames to a session are compressed with, from what the agent accepts.
+     *
+     * @param session The session of the agent.
+     * @return The codec, {@link PayloadCodec#IDENTITY} if the frames are not compressed.
+     */
+    public PayloadCodec getCodec(@NonNull WebSocketSession session)
+    {
+        if (!enabled || !(session.getAttributes().get(SessionAttributes.ACCEPT_ENCODING) instanceof AcceptEncoding accepted))
+        {
+            return PayloadCodec.IDENTITY;
+        }
+
+        return dictionary != null && accepted.dictionaries().contains(dictionaryId) ? PayloadCodec.DEFLATE_DICTIONARY : PayloadCodec.DEFLATE;
+    }
+
+
+    /**
+     * Returns the encodings of a frame for a fan-out, each codec compresses the frame at most once.
+     *
+     * @param frame The serialized protocol message.
+     * @return The encodings of the frame.
+     */
+    public CompressedFrames getFrames(@NonNull ByteBuffer frame)
+    {
+        return new CompressedFrames(this, frame);
+    }
+
+
+    /**
+     * Compresses a frame into a compressed protocol message.
+     *
+     * @param frame The serialized protocol message, its position is not changed.
+     * @param codec The codec to compress with.
+     * @return The serialized compressed protocol message, or the frame itself if it is too small to compress or does
+     * not become smaller.
+     */
+    public ByteBuffer compress(@NonNull ByteBuffer frame, @NonNull PayloadCodec codec)
+    {
+        int length = frame.remaining();
+
+        if (codec == PayloadCodec.IDENTITY || length < minBytes)
+        {
+            return frame;
+        }
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+
+        if (codec == PayloadCodec.DEFLATE_DICTIONARY)
+        {
+            deflater.setDictionary(dictionary);
+        }
+
+        deflater.setInput(frame.duplicate());
+        deflater.finish();
+
+        // Output that is not smaller than the frame is of no use, so the buffer is never grown beyond it
+        byte[] output = new byte[length];
+        int written = 0;
+
+        while (!deflater.finished() && written < output.length)
+        {
+            written += deflater.deflate(output, written, output.length - written);
+        }
+
+        boolean finished = deflater.finished();
+        deflater.reset();
+
+        ByteBuffer compressed = finished ? encode(codec, output, written) : frame;
+
+        if (compressed.remaining() >= length)
+        {
+            compressed = frame;
+        }
+
+        metrics.recordCompression(length, compressed.remaining());
+        return compressed;
+    }
+
+
+    /**
+     * Returns the total size the compressed messages of a frame from an agent may decompress to.
+     */
+    public int getMaxInflatedBytes()
+    {
+        return maxInflatedBytes;
+    }
+
+
+    /**
+     * Decompresses a compressed protocol message, bounded by the configured limit.
+     *
+     * @param message The compressed protocol message.
+     * @return The protocol message it contains.
+     * @throws InvalidProtocolBufferException If the content or the decompressed protocol message could not be parsed.
+     * @throws MMTPValidationException        If the codec or dictionary is unknown, the data is not valid for the codec,
+     *                                        it decompresses beyond the limit or contains another compressed message.
+     */
+    public ProtocolMessage decompress(@NonNull ProtocolMessage message) throws InvalidProtocolBufferException, MMTPValidationException
+    {
+        return decompress(message, maxInflatedBytes);
+    }
+
+
+    /**
+     * Decompresses a compressed protocol message, bounded by what is left of the limit of its frame.
+     *
+     * @param message          The compressed protocol message.
+     * @param maxInflatedBytes The size the message may decompress to.
+     * @return The protocol message it contains.
+     * @throws InvalidProtocolBufferException If the content or the decompressed protocol message could not be parsed.
+     * @throws MMTPValidationException        If the codec or dictionary is unknown, the data is not valid for the codec,
+     *                                        it decompresses beyond the limit or contains another compressed message.
+     */
+    public ProtocolMessage decompress(@NonNull ProtocolMessage message, int maxInflatedBytes) throws InvalidProtocolBufferException, MMTPValidationException
+    {
+        CodedInputStream input = message.getContent().newCodedInput();
+        int codecNumber = PayloadCodec.IDENTITY.getNumber();
+        int messageDictionaryId = 0;
+        ByteString data = null;
+
+        try
+        {
+            int tag;
+
+            while ((tag = input.readTag()) != 0)
+            {
+                if (tag == WireFormat.makeTag(CODEC_FIELD, WireFormat.WIRETYPE_VARINT))
+                {
+                    codecNumber = input.readUInt32();
+                }
+
+                else if (tag == WireFormat.makeTag(DICTIONARY_FIELD, WireFormat.WIRETYPE_VARINT))
+                {
+                    messageDictionaryId = input.readUInt32();
+                }
+
+                else if (tag == WireFormat.makeTag(DATA_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED))
+                {
+                    data = input.readBytes();
+                }
+
+                else
+                {
+                    input.skipField(tag);
+                }
+            }
+        }
+
+        catch (InvalidProtocolBufferException ex)
+        {
+            throw ex;
+        }
+
+        catch (IOException ex)
+        {
+            throw new InvalidProtocolBufferException(ex);
+        }
+
+        PayloadCodec codec = PayloadCodec.forNumber(codecNumber);
+
+        if (codec == null || codec == PayloadCodec.IDENTITY || data == null)
+        {
+            throw new MMTPValidationException("Compressed message has unknown codec=" + codecNumber);
+        }
+
+        boolean useDictionary = codec == PayloadCodec.DEFLATE_DICTIONARY;
+
+        if (useDictionary && (dictionary == null || messageDictionaryId != dictionaryId))
+        {
+            throw new MMTPValidationException("Compressed message uses unknown dictionary=" + messageDictionaryId);
+        }
+
+        ProtocolMessage decompressed = ProtocolMessage.parseFrom(inflate(data, useDictionary, maxInflatedBytes));
+
+        if (decompressed.getType() == MessageType.COMPRESSED)
+        {
+            throw new MMTPValidationException("Compressed message contains another compressed message");
+        }
+
+        return decompressed;
+    }
+
+
+    /**
+     * Inflates deflate data in the zlib format, bounded by the limit on the decompressed size.
+     *
+     * @param data             The data to inflate.
+     * @param useDictionary    Whether the data may use the shared dictionary.
+     * @param maxInflatedBytes The size the data may inflate to.
+     * @return The inflated data.
+     * @throws MMTPValidationException If the data is not valid, truncated, needs a dictionary it may not use or
+     *                                 inflates beyond the limit.
+     */
+    private ByteBuffer inflate(ByteString data, boolean useDictionary, int maxInflatedBytes) throws MMTPValidationException
+    {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data.asReadOnlyByteBuffer());
+
+        byte[] output = new byte[Math.max(0, Math.min(maxInflatedBytes, Math.max(data.size() * 4, 1024)))];
+        int written = 0;
+
+        try
+        {
+            while (!inflater.finished())
+            {
+                if (written == output.length)
+                {
+                    if (output.length >= maxInflatedBytes)
+                    {
+                        throw new MMTPValidationException("Compressed message inflates beyond " + maxInflatedBytes + " bytes");
+                    }
+
+                    output = Arrays.copyOf(output, Math.min(maxInflatedBytes, output.length * 2));
+                }
+
+                int inflated = inflater.inflate(output, written, output.length - written);
+                written += inflated;
+
+                if (inflated > 0)
+                {
+                    continue;
+                }
+
+                if (inflater.needsDictionary() && useDictionary)
+                {
+                    // Throws if the dictionary does not match the checksum in the zlib header
+                    inflater.setDictionary(dictionary);
+                    useDictionary = false;
+                }
+
+                else if (inflater.needsDictionary())
+                {
+                    throw new MMTPValidationException("Compressed message needs a dictionary it does not name");
+                }
+
+                else if (inflater.needsInput())
+                {
+                    throw new MMTPValidationException("Compressed message is truncated");
+                }
+            }
+        }
+
+        catch (DataFormatException | IllegalArgumentException ex)
+        {
+            throw new MMTPValidationException("Compressed message is not valid deflate data", ex);
+        }
+
+        finally
+        {
+            inflater.reset();
+        }
+
+        return ByteBuffer.wrap(output, 0, written);
+    }
+
+
+    /**
+     * Encodes compressed data into a compressed protocol message.
+     *
+     * @param codec  The codec the data was compressed with.
+     * @param data   The compressed data.
+     * @param length The length of the compressed data.
+     * @return The serialized compressed protocol message.
+     */
+    private ByteBuffer encode(PayloadCodec codec, byte[] data, int length)
+    {
+        boolean useDictionary = codec == PayloadCodec.DEFLATE_DICTIONARY;
+        int size = CodedOutputStream.computeUInt32Size(CODEC_FIELD, codec.getNumber())
+                + (useDictionary ? CodedOutputStream.computeUInt32Size(DICTIONARY_FIELD, dictionaryId) : 0)
+                + CodedOutputStream.computeTagSize(DATA_FIELD) + CodedOutputStream.computeUInt32SizeNoTag(length) + length;
+
+        byte[] content = new byte[size];
+        CodedOutputStream output = CodedOutputStream.newInstance(content);
+
+        try
+        {
+            output.writeUInt32(CODEC_FIELD, codec.getNumber());
+
+            if (useDictionary)
+            {
+                output.writeUInt32(DICTIONARY_FIELD, dictionaryId);
+            }
+
+            output.writeTag(DATA_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(length);
+            output.writeRawBytes(data, 0, length);
+            output.checkNoSpaceLeft();
+        }
+
+        catch (IOException ex)
+        {
+            // Cannot happen, the array was sized to the content
+            throw new IllegalStateException("Could not encode compressed message", ex);
+        }
+
+        ProtocolMessage message = ProtocolMessage.newBuilder().setType(MessageType.COMPRESSED).setContent(UnsafeByteOperations.unsafeWrap(content)).build();
+        return ByteBuffer.wrap(message.toByteArray());
+    }
+
+
+    private static byte[] loadDictionary(String location) throws IOException
+    {
+        try (InputStream input = ResourceUtils.getURL(location).openStream())
+        {
+            return input.readAllBytes();
+        }
+    }
+}
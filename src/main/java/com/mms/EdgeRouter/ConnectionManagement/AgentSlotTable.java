@@ -0,0 +1,219 @@
+package com.mms.EdgeRouter.ConnectionManagement;
+
+import lombok.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * A table that gives every connected agent a compact int handle, its slot. The lower bits of a handle are the index of
+ * the slot in the table, which is what the subscription bitmaps store, and the upper bits are the generation of the
+ * slot, which is increased every time the slot is released. A handle of a released slot therefore never resolves to
+ * the agent that is given the slot next.
+ * <p>
+ * Released slots are reused oldest first, and only once the reuse delay has passed, so that a lookup that read a slot
+ * index from a subscription bitmap just before the agent left does not resolve it to a new agent. Until then new
+ * agents get fresh slots at the end of the table, which keeps the indexes dense.
+ * <p>
+ * Lookups are lock-free reads of an array, allocations and releases are synchronized.
+ *
+ * @param <T> The type of the values, the connection contexts.
+ */
+public final class AgentSlotTable<T>
+{
+    /**
+     * The handle of no slot, never allocated.
+     */
+    public static final int NO_SLOT = -1;
+
+    private static final int INDEX_BITS = 24;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = 0x7F;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final long reuseDelayNanos;
+    private final Queue<ReleasedSlot> releasedSlots = new ArrayDeque<>();
+
+    private volatile AtomicReferenceArray<Entry<T>> entries = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private int[] generations = new int[INITIAL_CAPACITY];
+    private int nextIndex;
+    private int size;
+
+
+    /**
+     * Constructs a new {@link AgentSlotTable}.
+     *
+     * @param reuseDelayMillis The minimum time in milliseconds before a released slot is given to another agent.
+     */
+    public AgentSlotTable(long reuseDelayMillis)
+    {
+        this.reuseDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, reuseDelayMillis));
+    }
+
+
+    /**
+     * Returns the index of the slot of a handle.
+     *
+     * @param handle The handle.
+     * @return The index of the slot.
+     */
+    public static int indexOf(int handle)
+    {
+        return handle & INDEX_MASK;
+    }
+
+
+    /**
+     * Allocates a slot for a value that is created with the handle of the slot.
+     *
+     * @param factory Creates the value from the handle.
+     * @return The handle of the slot.
+     * @throws IllegalStateException If every slot is in use.
+     */
+    public synchronized int allocate(@NonNull IntFunction<T> factory)
+    {
+        ReleasedSlot oldest = releasedSlots.peek();
+        int index;
+
+        if (oldest != null && System.nanoTime() - oldest.releasedAt() >= reuseDelayNanos)
+        {
+            index = releasedSlots.remove().index();
+        }
+
+        else if (nextIndex <= INDEX_MASK)
+        {
+            index = nextIndex++;
+            ensureCapacity(index + 1);
+        }
+
+        else
+        {
+            throw new IllegalStateException("No free agent slots");
+        }
+
+        int handle = generations[index] << INDEX_BITS | index;
+        entries.set(index, new Entry<>(handle, factory.apply(handle)));
+        size++;
+        return handle;
+    }
+
+
+    /**
+     * Releases the slot of a handle, the handle and any copies of it no longer resolve.
+     *
+     * @param handle The handle.
+     * @return True if the handle was current and the slot was released.
+     */
+    public synchronized boolean release(int handle)
+    {
+        int index = indexOf(handle);
+        Entry<T> entry = handle >= 0 && index < nextIndex ? entries.get(index) : null;
+
+        if (entry == null || entry.handle() != handle)
+        {
+            return false;
+        }
+
+        entries.set(index, null);
+        generations[index] = (generations[index] + 1) & GENERATION_MASK;
+        releasedSlots.add(new ReleasedSlot(index, System.nanoTime()));
+        size--;
+        return true;
+    }
+
+
+    /**
+     * Returns the value of a handle.
+     *
+     * @param handle The handle.
+     * @return The value, or null if the slot of the handle has been released.
+     */
+    @Nullable
+    public T get(int handle)
+    {
+        Entry<T> entry = entryAt(indexOf(handle));
+        return entry != null && entry.handle() == handle ? entry.value() : null;
+    }
+
+
+    /**
+     * Returns the value in the slot at an index, whatever its generation.
+     *
+     * @param index The index of the slot.
+     * @return The value, or null if the slot is free.
+     */
+    @Nullable
+    public T getAt(int index)
+    {
+        Entry<T> entry = entryAt(index);
+        return entry != null ? entry.value() : null;
+    }
+
+
+    /**
+     * Returns whether the slot of a handle is still allocated to the same agent.
+     *
+     * @param handle The handle.
+     * @return True if the handle is current.
+     */
+    public boolean isCurrent(int handle)
+    {
+        Entry<T> entry = entryAt(indexOf(handle));
+        return entry != null && entry.handle() == handle;
+    }
+
+
+    /**
+     * Returns the number of allocated slots.
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+
+    private Entry<T> entryAt(int index)
+    {
+        AtomicReferenceArray<Entry<T>> current = entries;
+        return index >= 0 && index < current.length() ? current.get(index) : null;
+    }
+
+
+    /**
+     * Grows the table so that it holds at least the given number of slots. Readers keep reading the old array until
+     * the new one is published, the old array is not written after that.
+     *
+     * @param capacity The number of slots.
+     */
+    private void ensureCapacity(int capacity)
+    {
+        AtomicReferenceArray<Entry<T>> current = entries;
+
+        if (capacity <= current.length())
+        {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, Math.min(current.length() * 2, INDEX_MASK + 1));
+        AtomicReferenceArray<Entry<T>> grown = new AtomicReferenceArray<>(newCapacity);
+
+        for (int i = 0; i < current.length(); i++)
+        {
+            grown.set(i, current.get(i));
+        }
+
+        generations = Arrays.copyOf(generations, newCapacity);
+        entries = grown;
+    }
+
+
+    private record Entry<T>(int handle, T value) {}
+
+
+    private record ReleasedSlot(int index, long releasedAt) {}
+}
@@ -1,5 +1,7 @@
 package com.mms.EdgeRouter.ConnectionManagement.ClientContext;
 
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import com.mms.EdgeRouter.WebSocket.SessionRateLimiter;
 import lombok.NonNull;
 import org.springframework.web.socket.WebSocketSession;
 
@@ -15,19 +17,22 @@ public class AnonymousClientContext implements ClientConnectionContext
     private final URI connectionURI;
     private final String remoteAddress;
     private final String agentID;
+    private final int slot;
 
 
     /**
      * Constructs a new {@link AnonymousClientContext} object with the given WebSocket session.
      *
      * @param session The WebSocket session representing the connection with the agent.
+     * @param slot    The handle of the slot of the agent in the connection repository.
      */
-    public AnonymousClientContext(@NonNull WebSocketSession session)
+    public AnonymousClientContext(@NonNull WebSocketSession session, int slot)
     {
         this.session = session;
         this.connectionURI = session.getUri();
         this.remoteAddress = session.getRemoteAddress().getAddress().getHostAddress();
         this.agentID = session.getId();
+        this.slot = slot;
     }
 
 
@@ -79,6 +84,30 @@ public class AnonymousClientContext implements ClientConnectionContext
     }
 
 
+    /**
+     * Returns the handle of the slot of the agent, see {@link com.mms.EdgeRouter.ConnectionManagement.AgentSlotTable}.
+     *
+     * @return The slot handle.
+     */
+    @Override
+    public int getSlot()
+    {
+        return slot;
+    }
+
+
+    /**
+     * Returns the byte rate limiter of the WebSocket connection, kept in the session attributes by the rate limiting handler.
+     *
+     * @return The rate limiter, or null if the session has not received any frames yet.
+     */
+    @Override
+    public SessionRateLimiter getRateLimiter()
+    {
+        return (SessionRateLimiter) session.getAttributes().get(SessionAttributes.RATE_LIMITER);
+    }
+
+
     /**
      * Compares this {@link AnonymousClientContext} object with the specified {@link ClientConnectionContext} object for order.
      * Returns a negative integer, zero, or a positive integer as this object is less than, equal to, or greater than the specified object.
@@ -16,11 +16,12 @@ public class AuthenticatedClientContext extends AnonymousClientContext
      * Constructs a new {@link AuthenticatedClientContext} object with the given WebSocket session and MRN.
      *
      * @param session              The WebSocket session representing the connection with the agent.
+     * @param slot                 The handle of the slot of the agent in the connection repository.
      * @param maritimeResourceName The Maritime Resource Name (MRN) of the authenticated agent.
      */
-    public AuthenticatedClientContext(@NonNull WebSocketSession session, @NonNull String maritimeResourceName)
+    public AuthenticatedClientContext(@NonNull WebSocketSession session, int slot, @NonNull String maritimeResourceName)
     {
-        super(session);
+        super(session, slot);
         this.maritimeResourceName = maritimeResourceName;
     }
 
@@ -1,5 +1,6 @@
 package com.mms.EdgeRouter.ConnectionManagement.ClientContext;
 
+import com.mms.EdgeRouter.WebSocket.SessionRateLimiter;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.net.URI;
@@ -16,4 +17,8 @@ public interface ClientConnectionContext extends Comparable<ClientConnectionCont
     String getRemoteAddress();
 
     String getAgentID();
+
+    int getSlot();
+
+    SessionRateLimiter getRateLimiter();
 }
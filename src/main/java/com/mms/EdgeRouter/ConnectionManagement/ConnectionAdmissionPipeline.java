@@ -0,0 +1,240 @@
+package com.mms.EdgeRouter.ConnectionManagement;
+
+import com.mms.EdgeRouter.WebSocket.Events.SessionEstablishedEvent;
+import com.mms.EdgeRouter.WebSocket.Events.SessionTerminatedEvent;
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import jakarta.annotation.PreDestroy;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import net.maritimeconnectivity.pki.PKIIdentity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registers established and terminated WebSocket sessions with the {@link ConnectionRepository} in batches, on a single
+ * thread.
+ * <p>
+ * The session events are published synchronously by the WebSocket handler, and this pipeline only queues them, so a
+ * connect costs the container thread a queue insert. A single admission thread drains the queue in batches and
+ * registers the connections, including their MRN subscriptions. The identity of each agent was resolved from its
+ * certificate during the handshake, through the {@link PKIIdentityCache}. This replaces a chain of ConnectionPool hops
+ * per connect, which saturated the pool when a whole area reconnected at once.
+ * <p>
+ * Establishments and terminations share the queue, so a session is never registered after it has been removed. The
+ * number of pending establishments is bounded; when the bound is reached, new sessions are closed with
+ * {@link CloseStatus#SERVICE_OVERLOAD} and the agent is expected to retry. Terminations are always accepted.
+ */
+@Slf4j
+@Component
+public class ConnectionAdmissionPipeline
+{
+    private final ConnectionRepository connectionRepository;
+
+    private final BlockingQueue<ConnectionChange> changes = new LinkedBlockingQueue<>();
+    private final AtomicInteger pendingEstablishments = new AtomicInteger();
+    private final int batchSize;
+    private final int maxPendingEstablishments;
+    private final Thread admissionThread;
+
+
+    /**
+     * Constructs a new {@link ConnectionAdmissionPipeline} and starts its admission thread.
+     *
+     * @param connectionRepository     The repository the connections are registered with.
+     * @param batchSize                The maximum number of session changes processed in one batch.
+     * @param maxPendingEstablishments The maximum number of established sessions waiting to be registered.
+     */
+    @Autowired
+    public ConnectionAdmissionPipeline(@NonNull ConnectionRepository connectionRepository, @Value("${connection-admission.batch-size:256}") int batchSize, @Value("${connection-admission.max-pending:100000}") int maxPendingEstablishments)
+    {
+        this.connectionRepository = connectionRepository;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPendingEstablishments = maxPendingEstablishments;
+
+        this.admissionThread = new Thread(this::processChanges, "ConnectionAdmission");
+        admissionThread.setDaemon(true);
+        admissionThread.start();
+
+        log.info("ConnectionAdmissionPipeline initialized with batchSize={}, maxPendingEstablishments={}", this.batchSize, maxPendingEstablishments);
+    }
+
+
+    /**
+     * Queues an established session for registration, or closes it if too many sessions are already waiting.
+     *
+     * @param event The {@link SessionEstablishedEvent}.
+     */
+    @EventListener
+    public void onSessionEstablished(@NonNull SessionEstablishedEvent event)
+    {
+        WebSocketSession session = event.getSession();
+
+        if (pendingEstablishments.incrementAndGet() > maxPendingEstablishments)
+        {
+            pendingEstablishments.decrementAndGet();
+            log.warn("Connection admission queue is full, closing agent={}", session.getId());
+            close(session);
+            return;
+        }
+
+        changes.add(new ConnectionChange(session, true));
+    }
+
+
+    /**
+     * Queues a terminated session for removal.
+     *
+     * @param event The {@link SessionTerminatedEvent}.
+     */
+    @EventListener
+    public void onSessionTerminated(@NonNull SessionTerminatedEvent event)
+    {
+        changes.add(new ConnectionChange(event.getSession(), false));
+    }
+
+
+    /**
+     * Returns the number of established sessions waiting to be registered.
+     */
+    public int getPendingEstablishments()
+    {
+        return pendingEstablishments.get();
+    }
+
+
+    /**
+     * The loop of the admission thread, takes the queued changes in batches until the thread is interrupted.
+     */
+    private void processChanges()
+    {
+        List<ConnectionChange> batch = new ArrayList<>(batchSize);
+
+        while (!Thread.currentThread().isInterrupted())
+        {
+            try
+            {
+                batch.add(changes.take());
+                changes.drainTo(batch, batchSize - 1);
+                processBatch(batch);
+            }
+
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            catch (RuntimeException ex)
+            {
+                log.error("Error processing connection admission batch", ex);
+            }
+
+            finally
+            {
+                batch.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Registers and removes the sessions of a batch, in the order their events were published.
+     *
+     * @param batch The changes to apply.
+     */
+    private void processBatch(List<ConnectionChange> batch)
+    {
+        int added = 0;
+        int removed = 0;
+
+        for (ConnectionChange change : batch)
+        {
+            if (change.established())
+            {
+                pendingEstablishments.decrementAndGet();
+
+                // A session that closed while queued has its removal queued behind it, so there is nothing to register
+                if (change.session().isOpen() && register(change.session()))
+                {
+                    added++;
+                }
+            }
+
+            else
+            {
+                connectionRepository.removeConnection(change.session());
+                removed++;
+            }
+        }
+
+        log.debug("Connection admission batch processed: added={}, removed={}, pending={}", added, removed, pendingEstablishments.get());
+    }
+
+
+    /**
+     * Registers a session with the repository, under the identity resolved during the handshake.
+     *
+     * @param session The established session.
+     * @return True if the session was registered.
+     */
+    private boolean register(WebSocketSession session)
+    {
+        PKIIdentity identity = (PKIIdentity) session.getAttributes().get(SessionAttributes.IDENTITY);
+
+        try
+        {
+            connectionRepository.addConnection(session, identity);
+            return true;
+        }
+
+        catch (RuntimeException ex)
+        {
+            log.error("Error registering agent={}, closing connection", session.getId(), ex);
+            close(session);
+            return false;
+        }
+    }
+
+
+    private static void close(WebSocketSession session)
+    {
+        try
+        {
+            session.close(CloseStatus.SERVICE_OVERLOAD);
+        }
+
+        catch (IOException ex)
+        {
+            log.debug("Error closing agent={}", session.getId(), ex);
+        }
+    }
+
+
+    /**
+     * Stops the admission thread before the object is destroyed, queued changes are discarded.
+     */
+    @PreDestroy
+    public void destroy()
+    {
+        admissionThread.interrupt();
+    }
+
+
+    /**
+     * A session that was established or terminated.
+     *
+     * @param session     The session.
+     * @param established True if the session was established, false if it was terminated.
+     */
+    private record ConnectionChange(WebSocketSession session, boolean established) {}
+}
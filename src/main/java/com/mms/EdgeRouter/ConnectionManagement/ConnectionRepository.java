@@ -6,16 +6,19 @@ import com.mms.EdgeRouter.ConnectionManagement.ClientContext.ClientConnectionCon
 import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionAddedEvent;
 import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionCloseRequest;
 import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionRemovedEvent;
-import com.mms.EdgeRouter.WebSocket.Events.SessionEstablishedEvent;
-import com.mms.EdgeRouter.WebSocket.Events.SessionTerminatedEvent;
+import com.mms.EdgeRouter.Egress.EgressBatcher;
+import com.mms.EdgeRouter.Egress.PriorityWebSocketSessionDecorator;
 import jakarta.annotation.PreDestroy;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
-import net.maritimeconnectivity.pki.CertificateHandler;
 import net.maritimeconnectivity.pki.PKIIdentity;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
+import org.springframework.lang.Nullable;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.socket.CloseStatus;
@@ -23,64 +26,62 @@ import org.springframework.web.socket.WebSocketSession;
 
 
 import java.io.IOException;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ConnectionRepository manages WebSocket connections between the Edge Router and agents.
- * It uses an event-driven model to handle the establishment and termination of WebSocket sessions.
+ * Established and terminated WebSocket sessions are registered and removed in batches by the
+ * {@link ConnectionAdmissionPipeline}.
  * It maintains a map of ClientConnectionContext objects, each representing a single WebSocket session.
  * This class provides methods to add, remove, and close WebSocket connections, as well as access to
  * the number of active connections and a list of all active connections.
+ * <p>
+ * Sessions are stored wrapped in a {@link PriorityWebSocketSessionDecorator}, since messages to the same agent can be
+ * sent from several delivery lanes at once. The decorator serializes the sends, in FIFO order within a traffic class
+ * and the most urgent class first, and bounds how much can be buffered for a slow agent. Agents in a batched class
+ * get their sends batched below that decorator, by the {@link EgressBatcher}.
+ * <p>
+ * Every connection also takes a slot in an {@link AgentSlotTable}, and the subscription repository keeps its subscriber
+ * sets as bitmaps of slot indexes that are resolved to sessions here, without hashing agent IDs. Slots are allocated
+ * and released on the admission thread, and a slot is released right before the {@link ConnectionRemovedEvent} is
+ * published. A subscription that races with the removal therefore finds its slot no longer current, and the slot is
+ * not given to the next agent before the departed one has left every subscriber set.
  */
 @Slf4j
 @Repository
 public class ConnectionRepository implements IConnectionRepository
 {
     private final ApplicationEventPublisher eventPublisher;
+    private final EgressBatcher egressBatcher;
     private final Map<String, ClientConnectionContext> contexts = new ConcurrentHashMap<>();
+    private final AgentSlotTable<ClientConnectionContext> slots;
 
-
-    @Autowired
-    public ConnectionRepository(@NonNull ApplicationEventPublisher eventPublisher)
-    {
-        this.eventPublisher = eventPublisher;
-    }
+    private final int sendTimeLimit;
+    private final int sendBufferSizeLimit;
 
 
     /**
-     * Asynchronously handles the event when a WebSocket session is established.
-     * Adds the new connection to the map of active connections.
-     * Publishes a {@link ConnectionAddedEvent} to notify listeners of the new connection.
-     *
-     * @param event The {@link SessionEstablishedEvent}.
-     */
-    @Async("ConnectionPool")
-    @EventListener
-    public void onWebSocketSessionEstablished(@NonNull SessionEstablishedEvent event)
-    {
-        WebSocketSession session = event.getSession();
-        addConnection(session);
-    }
-
-
-    /**
-     * Asynchronously handles the event when a WebSocket session is terminated.
-     * Removes the terminated connection from the map of active connections.
-     * Publishes a {@link ConnectionRemovedEvent} to notify listeners of the terminated connection.
+     * Constructs a new {@link ConnectionRepository}.
      *
-     * @param event The {@link SessionTerminatedEvent}.
+     * @param eventPublisher      The event publisher used to publish connection events.
+     * @param egressBatcher       Decorates the sessions of agents whose sends are batched.
+     * @param sendTimeLimit       The maximum time in milliseconds a single send to an agent may take.
+     * @param sendBufferSizeLimit The maximum number of bytes that can be buffered for an agent while a send is in progress.
+     * @param slotReuseDelay      The minimum time in milliseconds before the slot of a departed agent is reused.
      */
-    @Async("ConnectionPool")
-    @EventListener
-    public void onWebSocketSessionTerminated(@NonNull SessionTerminatedEvent event)
+    @Autowired
+    public ConnectionRepository(@NonNull ApplicationEventPublisher eventPublisher, @NonNull EgressBatcher egressBatcher, @Value("${edgerouter.sendTimeLimit:10000}") int sendTimeLimit, @Value("${edgerouter.sendBufferSizeLimit:524288}") int sendBufferSizeLimit, @Value("${edgerouter.slotReuseDelay:1000}") long slotReuseDelay)
     {
-        WebSocketSession session = event.getSession();
-        removeConnection(session);
+        this.eventPublisher = eventPublisher;
+        this.egressBatcher = egressBatcher;
+        this.sendTimeLimit = sendTimeLimit;
+        this.sendBufferSizeLimit = sendBufferSizeLimit;
+        this.slots = new AgentSlotTable<>(slotReuseDelay);
     }
 
 
@@ -103,65 +104,68 @@ public class ConnectionRepository implements IConnectionRepository
 
 
     /**
-     * Called in response to a {@link SessionEstablishedEvent}.
-     * Asynchronously adds a new connection to the map of active connections.
+     * Called by the {@link ConnectionAdmissionPipeline} for an established session.
+     * Adds a new connection to the map of active connections.
      * Publishes a {@link ConnectionAddedEvent} to notify listeners of the new connection.
      *
-     * @param session The {@link WebSocketSession} that has been established.
+     * @param rawSession The {@link WebSocketSession} that has been established.
+     * @param identity   The identity from the client certificate of the agent, null for anonymous agents.
      */
-    @Async("ConnectionPool")
-    protected void addConnection(@NonNull WebSocketSession session)
+    protected void addConnection(@NonNull WebSocketSession rawSession, @Nullable PKIIdentity identity)
     {
-        X509Certificate certificate = (X509Certificate) session.getAttributes().get("MMS-CERTIFICATE");
+        WebSocketSession batchedSession = egressBatcher.decorate(rawSession, identity != null ? identity.getMrn() : null);
+        WebSocketSession session = new PriorityWebSocketSessionDecorator(batchedSession, sendTimeLimit, sendBufferSizeLimit);
 
-        if (certificate != null)
+        if (identity != null)
         {
-            PKIIdentity identity = CertificateHandler.getIdentityFromCert(certificate);
-            log.info("Authenticated agent added: agent={}, commonName={}, mrn={}", session.getId(), identity.getCn(), identity.getMrn());
-            AuthenticatedClientContext context = new AuthenticatedClientContext(session, identity.getMrn());
+            log.debug("Authenticated agent added: agent={}, commonName={}, mrn={}", session.getId(), identity.getCn(), identity.getMrn());
+            int slot = slots.allocate(handle -> new AuthenticatedClientContext(session, handle, identity.getMrn()));
+            AuthenticatedClientContext context = (AuthenticatedClientContext) slots.get(slot);
             contexts.put(session.getId(), context);
 
-            ConnectionAddedEvent connectionAddedEvent = new ConnectionAddedEvent(this, context.getAgentID(), context.getMRN());
+            ConnectionAddedEvent connectionAddedEvent = new ConnectionAddedEvent(this, context.getAgentID(), slot, context.getMRN());
             eventPublisher.publishEvent(connectionAddedEvent);
         }
 
         else
         {
-            log.info("Unauthenticated agent added: agent={}", session.getId());
-            AnonymousClientContext context = new AnonymousClientContext(session);
+            log.debug("Unauthenticated agent added: agent={}", session.getId());
+            int slot = slots.allocate(handle -> new AnonymousClientContext(session, handle));
+            ClientConnectionContext context = slots.get(slot);
             contexts.put(session.getId(), context);
 
-            ConnectionAddedEvent connectionAddedEvent = new ConnectionAddedEvent(this, context.getAgentID());
+            ConnectionAddedEvent connectionAddedEvent = new ConnectionAddedEvent(this, context.getAgentID(), slot);
             eventPublisher.publishEvent(connectionAddedEvent);
         }
     }
 
 
     /**
-     * Called in response to a {@link SessionTerminatedEvent}.
-     * Asynchronously removes the terminated connection from the map of active connections.
+     * Called by the {@link ConnectionAdmissionPipeline} for a terminated session.
+     * Removes the terminated connection from the map of active connections.
      * Publishes a {@link ConnectionRemovedEvent} to notify listeners of the terminated connection.
      *
      * @param session The {@link WebSocketSession} to remove.
      */
-    @Async("ConnectionPool")
     protected void removeConnection(@NonNull WebSocketSession session)
     {
         ClientConnectionContext context = contexts.remove(session.getId());
 
         if (context != null)
         {
+            slots.release(context.getSlot());
+
             if (context instanceof AuthenticatedClientContext authenticatedContext)
             {
-                log.info("Authenticated agent removed: agent={}, mrn={}", authenticatedContext.getAgentID(), authenticatedContext.getMRN());
-                ConnectionRemovedEvent connectionRemovedEvent = new ConnectionRemovedEvent(this, authenticatedContext.getAgentID(), authenticatedContext.getMRN());
+                log.debug("Authenticated agent removed: agent={}, mrn={}", authenticatedContext.getAgentID(), authenticatedContext.getMRN());
+                ConnectionRemovedEvent connectionRemovedEvent = new ConnectionRemovedEvent(this, authenticatedContext.getAgentID(), authenticatedContext.getSlot(), authenticatedContext.getMRN());
                 eventPublisher.publishEvent(connectionRemovedEvent);
             }
 
             else if (context instanceof AnonymousClientContext anonymousContext)
             {
-                log.info("Unauthenticated agent removed: agent={}", anonymousContext.getAgentID());
-                ConnectionRemovedEvent connectionRemovedEvent = new ConnectionRemovedEvent(this, anonymousContext.getAgentID());
+                log.debug("Unauthenticated agent removed: agent={}", anonymousContext.getAgentID());
+                ConnectionRemovedEvent connectionRemovedEvent = new ConnectionRemovedEvent(this, anonymousContext.getAgentID(), anonymousContext.getSlot());
                 eventPublisher.publishEvent(connectionRemovedEvent);
             }
         }
@@ -170,6 +174,8 @@ public class ConnectionRepository implements IConnectionRepository
 
     /**
      * Asynchronously closes a WebSocket connection with a given agent ID.
+     * The connection stays registered until the terminated session comes back through the
+     * {@link ConnectionAdmissionPipeline}, which releases its slot and publishes the {@link ConnectionRemovedEvent}.
      *
      * @param agentID    The ID of the agent whose connection to close.
      * @param statusCode The status code to send when closing the connection.
@@ -178,7 +184,7 @@ public class ConnectionRepository implements IConnectionRepository
     @Async("ConnectionPool")
     protected void closeConnection(@NonNull String agentID, int statusCode, @NonNull String reason)
     {
-        ClientConnectionContext context = contexts.remove(agentID);
+        ClientConnectionContext context = contexts.get(agentID);
 
         if (context != null)
         {
@@ -273,6 +279,72 @@ public class ConnectionRepository implements IConnectionRepository
     }
 
 
+    /**
+     * Returns the WebSocket sessions of the agents in the given slots, skipping slots that are free.
+     *
+     * @param slotIndexes The indexes of the slots, as kept in the subscriber sets.
+     * @return A list of the {@link WebSocketSession} objects of the agents in the slots.
+     */
+    @Override
+    public List<WebSocketSession> getSessions(@NonNull RoaringBitmap slotIndexes)
+    {
+        List<WebSocketSession> sessions = new ArrayList<>(slotIndexes.getCardinality());
+        IntIterator iterator = slotIndexes.getIntIterator();
+
+        while (iterator.hasNext())
+        {
+            ClientConnectionContext context = slots.getAt(iterator.next());
+
+            if (context != null)
+            {
+                sessions.add(context.getSession());
+            }
+        }
+
+        return sessions;
+    }
+
+
+    /**
+     * Returns the handle of the slot of a given agent ID, if the agent is connected.
+     *
+     * @param agentID The ID of the agent.
+     * @return An OptionalInt containing the slot handle, if the agent is connected.
+     */
+    @Override
+    public OptionalInt getSlot(@NonNull String agentID)
+    {
+        ClientConnectionContext context = contexts.get(agentID);
+        return context != null ? OptionalInt.of(context.getSlot()) : OptionalInt.empty();
+    }
+
+
+    /**
+     * Returns whether a slot handle still belongs to the agent it was allocated to.
+     *
+     * @param slot The slot handle.
+     * @return True if the agent is still connected in the slot.
+     */
+    @Override
+    public boolean isCurrentSlot(int slot)
+    {
+        return slots.isCurrent(slot);
+    }
+
+
+    /**
+     * Returns the ID of the agent in the slot at a given index, if the slot is in use.
+     *
+     * @param slotIndex The index of the slot.
+     * @return An Optional containing the agent ID, if the slot is in use.
+     */
+    @Override
+    public Optional<String> getAgentIDAt(int slotIndex)
+    {
+        return Optional.ofNullable(slots.getAt(slotIndex)).map(ClientConnectionContext::getAgentID);
+    }
+
+
     /**
      * Returns the number of active connections.
      *
@@ -12,6 +12,7 @@ import java.util.Optional;
 public class ConnectionRemovedEvent extends ApplicationEvent
 {
     private final String agentID;
+    private final int slot;
     private final String maritimeResourceName;
 
 
@@ -20,12 +21,14 @@ public class ConnectionRemovedEvent extends ApplicationEvent
      *
      * @param source               The source of the event.
      * @param agentID              The ID of the agent associated with the removed connection.
+     * @param slot                 The handle of the slot of the agent, see {@link com.mms.EdgeRouter.ConnectionManagement.AgentSlotTable}.
      * @param maritimeResourceName The MRN of the agent associated with the removed connection, if available.
      */
-    public ConnectionRemovedEvent(Object source, String agentID, String maritimeResourceName)
+    public ConnectionRemovedEvent(Object source, String agentID, int slot, String maritimeResourceName)
     {
         super(source);
         this.agentID = agentID;
+        this.slot = slot;
         this.maritimeResourceName = maritimeResourceName;
     }
 
@@ -35,11 +38,13 @@ public class ConnectionRemovedEvent extends ApplicationEvent
      *
      * @param source  The source of the event.
      * @param AgentID The ID of the agent associated with the removed connection.
+     * @param slot    The handle of the slot of the agent.
      */
-    public ConnectionRemovedEvent(Object source, String AgentID)
+    public ConnectionRemovedEvent(Object source, String AgentID, int slot)
     {
         super(source);
         this.agentID = AgentID;
+        this.slot = slot;
         this.maritimeResourceName = null;
     }
 
@@ -55,6 +60,17 @@ public class ConnectionRemovedEvent extends ApplicationEvent
     }
 
 
+    /**
+     * Returns the handle of the slot of the agent associated with the removed connection.
+     *
+     * @return The slot handle.
+     */
+    public int getSlot()
+    {
+        return slot;
+    }
+
+
     /**
      * Returns an Optional containing the Maritime Resource Name of the agent associated with the removed connection, if available.
      *
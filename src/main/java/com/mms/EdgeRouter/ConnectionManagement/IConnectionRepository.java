@@ -1,10 +1,12 @@
 package com.mms.EdgeRouter.ConnectionManagement;
 
 import com.mms.EdgeRouter.ConnectionManagement.ClientContext.ClientConnectionContext;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalInt;
 
 /**
  * Contract for a repository that manages the connections from the WebSocket clients.
@@ -17,6 +19,14 @@ public interface IConnectionRepository
 
     List<WebSocketSession> getSessions(List<String> agentIDs);
 
+    List<WebSocketSession> getSessions(RoaringBitmap slotIndexes);
+
+    OptionalInt getSlot(String agentID);
+
+    boolean isCurrentSlot(int slot);
+
+    Optional<String> getAgentIDAt(int slotIndex);
+
     int getConnectionCount();
 
     List<ClientConnectionContext> getAllConnections();
@@ -0,0 +1,319 @@
+package com.mms.EdgeRouter.ConnectionManagement;
+
+import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionAddedEvent;
+import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionCloseRequest;
+import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionRemovedEvent;
+import com.mms.EdgeRouter.Egress.IPrioritySession;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Priority.TrafficClass;
+import com.mms.EdgeRouter.WebSocket.SessionLiveness;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import io.netty.util.Timeout;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Detects agents whose link died without the connection being closed, such as a satellite link that dropped out, and
+ * closes their connections long before the idle timeout of the container or TCP would, so the fan-out stops spending
+ * sends and buffers on them.
+ * <p>
+ * Liveness is judged from the {@link SessionLiveness} of each session, the times it last received and sent traffic.
+ * An agent that sends anything is alive and costs nothing here. Once an agent has been silent for the probe interval
+ * it is sent a WebSocket ping, and if it still sends nothing, not even the pong, within the probe timeout, it is
+ * probed again, and evicted after the configured number of missed probes. The probe interval adapts to the traffic:
+ * an agent that is being sent messages while it stays silent is probed after the short active interval, since a dead
+ * link there wastes sends, while an agent that is silent in both directions is only probed after the idle interval.
+ * <p>
+ * All sessions share the {@link TimerWheel} of the router, a check is an O(1) timeout on the wheel instead of a timer
+ * per session. The checks run on the tick thread and only read the liveness times, the pings are sent on
+ * the ConnectionPool and the evictions go through a {@link ConnectionCloseRequest}.
+ */
+@Slf4j
+@Component
+public class LivenessMonitor
+{
+    private final IConnectionRepository connectionRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TaskExecutor connectionPool;
+    private final RouterMetrics metrics;
+
+    private final boolean enabled;
+    private final long idleProbeNanos;
+    private final long activeProbeNanos;
+    private final long probeTimeoutNanos;
+    private final int maxMissedProbes;
+
+    private final TimerWheel timerWheel;
+    private final LongSupplier nanoTime;
+    private final Map<String, TrackedSession> sessions = new ConcurrentHashMap<>();
+
+
+    /**
+     * Constructs a new {@link LivenessMonitor}.
+     *
+     * @param connectionRepository The repository the sessions of the agents are taken from.
+     * @param eventPublisher       The event publisher used to request the eviction of dead connections.
+     * @param connectionPool       The pool the pings are sent on.
+     * @param metrics              The metrics of the routing pipeline.
+     * @param timerWheel           The timer the checks are scheduled on.
+     * @param enabled              Whether the liveness of agents is tracked at all.
+     * @param idleProbeSeconds     How long an agent that is not sent anything may be silent before it is probed.
+     * @param activeProbeSeconds   How long an agent that is sent messages may be silent before it is probed.
+     * @param probeTimeoutSeconds  How long an agent has to answer a probe.
+     * @param maxMissedProbes      The number of probes in a row an agent may miss before its connection is closed.
+     */
+    @Autowired
+    public LivenessMonitor(IConnectionRepository connectionRepository, ApplicationEventPublisher eventPublisher, @Qualifier("ConnectionPool") TaskExecutor connectionPool, RouterMetrics metrics, TimerWheel timerWheel, @Value("${edgerouter.liveness.enabled:true}") boolean enabled, @Value("${edgerouter.liveness.idleProbeSeconds:60}") long idleProbeSeconds, @Value("${edgerouter.liveness.activeProbeSeconds:5}") long activeProbeSeconds, @Value("${edgerouter.liveness.probeTimeoutSeconds:10}") long probeTimeoutSeconds, @Value("${edgerouter.liveness.maxMissedProbes:2}") int maxMissedProbes)
+    {
+        this(connectionRepository, eventPublisher, connectionPool, metrics, timerWheel, System::nanoTime, enabled, idleProbeSeconds, activeProbeSeconds, probeTimeoutSeconds, maxMissedProbes);
+    }
+
+
+    /**
+     * Constructs a new {@link LivenessMonitor} that judges the silence of agents on the given clock, which must be the
+     * clock of their {@link SessionLiveness}.
+     *
+     * @param connectionRepository The repository the sessions of the agents are taken from.
+     * @param eventPublisher       The event publisher used to request the eviction of dead connections.
+     * @param connectionPool       The pool the pings are sent on.
+     * @param metrics              The metrics of the routing pipeline.
+     * @param timerWheel           The timer the checks are scheduled on.
+     * @param nanoTime             The clock in nanoseconds, {@link System#nanoTime()} outside of tests.
+     * @param enabled              Whether the liveness of agents is tracked at all.
+     * @param idleProbeSeconds     How long an agent that is not sent anything may be silent before it is probed.
+     * @param activeProbeSeconds   How long an agent that is sent messages may be silent before it is probed.
+     * @param probeTimeoutSeconds  How long an agent has to answer a probe.
+     * @param maxMissedProbes      The number of probes in a row an agent may miss before its connection is closed.
+     */
+    LivenessMonitor(IConnectionRepository connectionRepository, ApplicationEventPublisher eventPublisher, TaskExecutor connectionPool, RouterMetrics metrics, TimerWheel timerWheel, LongSupplier nanoTime, boolean enabled, long idleProbeSeconds, long activeProbeSeconds, long probeTimeoutSeconds, int maxMissedProbes)
+    {
+        this.connectionRepository = connectionRepository;
+        this.eventPublisher = eventPublisher;
+        this.connectionPool = connectionPool;
+        this.metrics = metrics;
+        this.timerWheel = timerWheel;
+        this.nanoTime = nanoTime;
+        this.enabled = enabled;
+        this.idleProbeNanos = TimeUnit.SECONDS.toNanos(Math.max(1, idleProbeSeconds));
+        this.activeProbeNanos = Math.min(idleProbeNanos, TimeUnit.SECONDS.toNanos(Math.max(1, activeProbeSeconds)));
+        this.probeTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(1, probeTimeoutSeconds));
+        this.maxMissedProbes = Math.max(1, maxMissedProbes);
+
+        metrics.registerGauge("liveness.tracked", "Sessions whose liveness is tracked", sessions::size);
+
+        log.info("LivenessMonitor initialized with enabled={}, idleProbeSeconds={}, activeProbeSeconds={}, probeTimeoutSeconds={}, maxMissedProbes={}", enabled, idleProbeSeconds, activeProbeSeconds, probeTimeoutSeconds, this.maxMissedProbes);
+    }
+
+
+    /**
+     * Handles a {@link ConnectionAddedEvent}, starts tracking the liveness of the agent.
+     *
+     * @param event The event.
+     */
+    @EventListener
+    public void onConnectionAdded(ConnectionAddedEvent event)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        connectionRepository.getSession(event.getAgentID()).ifPresent(session ->
+        {
+            SessionLiveness liveness = SessionLiveness.of(session);
+
+            if (liveness != null)
+            {
+                TrackedSession tracked = new TrackedSession(event.getAgentID(), session, liveness);
+                sessions.put(tracked.agentID, tracked);
+                schedule(tracked, activeProbeNanos);
+            }
+        });
+    }
+
+
+    /**
+     * Handles a {@link ConnectionRemovedEvent}, stops tracking the liveness of the agent.
+     *
+     * @param event The event.
+     */
+    @EventListener
+    public void onConnectionRemoved(ConnectionRemovedEvent event)
+    {
+        TrackedSession tracked = sessions.remove(event.getAgentID());
+
+        if (tracked != null && tracked.timeout != null)
+        {
+            tracked.timeout.cancel();
+        }
+    }
+
+
+    /**
+     * Checks the liveness of an agent on the tick thread, and probes or evicts it if it has been silent for too long.
+     * An agent that answered its probe is checked again after the interval, an agent that did not is probed again or
+     * evicted.
+     *
+     * @param tracked The tracked session of the agent.
+     */
+    private void check(TrackedSession tracked)
+    {
+        if (sessions.get(tracked.agentID) != tracked)
+        {
+            return;
+        }
+
+        long now = nanoTime.getAsLong();
+        SessionLiveness liveness = tracked.liveness;
+
+        if (tracked.probeSentAt != 0)
+        {
+            if (liveness.getLastReceivedNanos() - tracked.probeSentAt >= 0)
+            {
+                tracked.probeSentAt = 0;
+                tracked.missedProbes = 0;
+            }
+
+            else if (++tracked.missedProbes >= maxMissedProbes)
+            {
+                evict(tracked);
+                return;
+            }
+
+            else
+            {
+                probe(tracked, now);
+                return;
+            }
+        }
+
+        long silentNanos = now - liveness.getLastReceivedNanos();
+        long probeAfterNanos = liveness.isSendingIntoSilence() ? activeProbeNanos : idleProbeNanos;
+
+        if (silentNanos >= probeAfterNanos)
+        {
+            probe(tracked, now);
+        }
+
+        else
+        {
+            // Checked again no later than the active interval, in case messages start going to the agent meanwhile
+            schedule(tracked, Math.min(probeAfterNanos - silentNanos, activeProbeNanos));
+        }
+    }
+
+
+    /**
+     * Sends a ping to an agent on the ConnectionPool, and checks for the answer after the probe timeout.
+     *
+     * @param tracked The tracked session of the agent.
+     * @param now     The current time in nanoseconds.
+     */
+    private void probe(TrackedSession tracked, long now)
+    {
+        tracked.probeSentAt = now;
+        metrics.recordLivenessProbe();
+        log.debug("Agent={} silent for {}ms, sending probe", tracked.agentID, TimeUnit.NANOSECONDS.toMillis(now - tracked.liveness.getLastReceivedNanos()));
+
+        try
+        {
+            connectionPool.execute(() -> sendPing(tracked.session));
+        }
+
+        catch (RuntimeException ex)
+        {
+            log.debug("Could not schedule probe for agent={}", tracked.agentID, ex);
+        }
+
+        schedule(tracked, probeTimeoutNanos);
+    }
+
+
+    /**
+     * Sends a ping to an agent, ahead of the messages buffered for it.
+     *
+     * @param session The session of the agent.
+     */
+    private void sendPing(WebSocketSession session)
+    {
+        try
+        {
+            if (session instanceof IPrioritySession prioritySession)
+            {
+                prioritySession.sendMessage(new PingMessage(), TrafficClass.CRITICAL);
+            }
+
+            else
+            {
+                session.sendMessage(new PingMessage());
+            }
+        }
+
+        catch (IOException | RuntimeException ex)
+        {
+            log.debug("Could not send probe to agent={}", session.getId(), ex);
+        }
+    }
+
+
+    /**
+     * Stops tracking an agent that missed its probes and requests its connection to be closed.
+     *
+     * @param tracked The tracked session of the agent.
+     */
+    private void evict(TrackedSession tracked)
+    {
+        if (!sessions.remove(tracked.agentID, tracked))
+        {
+            return;
+        }
+
+        metrics.recordLivenessEviction();
+        log.info("Agent={} missed {} liveness probes, closing connection", tracked.agentID, tracked.missedProbes);
+        eventPublisher.publishEvent(new ConnectionCloseRequest(this, tracked.agentID, CloseStatus.SESSION_NOT_RELIABLE.getCode(), "Liveness probes not answered"));
+    }
+
+
+    private void schedule(TrackedSession tracked, long delayNanos)
+    {
+        tracked.timeout = timerWheel.schedule(() -> check(tracked), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * The liveness state of a tracked agent. The probe fields are only read and written by the tick thread.
+     */
+    private static final class TrackedSession
+    {
+        private final String agentID;
+        private final WebSocketSession session;
+        private final SessionLiveness liveness;
+
+        private volatile Timeout timeout;
+        private long probeSentAt;
+        private int missedProbes;
+
+
+        private TrackedSession(String agentID, WebSocketSession session, SessionLiveness liveness)
+        {
+            this.agentID = agentID;
+            this.session = session;
+            this.liveness = liveness;
+        }
+    }
+}
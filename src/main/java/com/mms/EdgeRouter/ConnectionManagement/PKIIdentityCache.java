@@ -0,0 +1,130 @@
+package com.mms.EdgeRouter.ConnectionManagement;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import net.maritimeconnectivity.pki.CertificateHandler;
+import net.maritimeconnectivity.pki.PKIIdentity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.HexFormat;
+
+/**
+ * Caches the {@link PKIIdentity} parsed from a client certificate, keyed by the SHA-256 fingerprint of the certificate.
+ * <p>
+ * Extracting the identity walks the subject and the alternative names of the certificate, which is far more work than
+ * hashing its encoded form. Agents reconnect with the same certificate, ships on flaky links dozens of times an hour,
+ * so almost every identity is served from the cache. The cache is filled during the TLS-authenticated handshake, see
+ * {@link com.mms.EdgeRouter.WebSocket.ClientCertificateInterceptor}, so the identity is known before the session exists.
+ * <p>
+ * The cache is bounded in size, and an entry is dropped when its certificate expires, as well as after it has not been
+ * used for a while. Hits, misses and evictions are exported as cache metrics under the name "pki-identity".
+ */
+@Slf4j
+@Component
+public class PKIIdentityCache
+{
+    private static final String CACHE_NAME = "pki-identity";
+
+    private final Cache<String, CachedIdentity> identities;
+
+
+    /**
+     * Constructs a new {@link PKIIdentityCache}.
+     *
+     * @param metrics     The metrics the hit ratio of the cache is exported to.
+     * @param maximumSize The maximum number of identities kept.
+     * @param idleHours   The time after which an identity that has not been used is dropped.
+     */
+    @Autowired
+    public PKIIdentityCache(RouterMetrics metrics, @Value("${edgerouter.identityCache.maximumSize:100000}") long maximumSize, @Value("${edgerouter.identityCache.idleHours:24}") long idleHours)
+    {
+        this.identities = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(Duration.ofHours(idleHours))
+                .recordStats()
+                .build();
+
+        metrics.monitorCache(identities, CACHE_NAME);
+        metrics.registerGauge("identity.cache.hit.ratio", "Share of identity lookups served from the PKI identity cache", () -> identities.stats().hitRate());
+        log.info("PKIIdentityCache initialized with maximumSize={}, idleHours={}", maximumSize, idleHours);
+    }
+
+
+    /**
+     * Returns the identity of a certificate, parsing it only if it is not cached or its cached entry has expired.
+     *
+     * @param certificate The client certificate.
+     * @return The identity.
+     */
+    public PKIIdentity getIdentity(@NonNull X509Certificate certificate)
+    {
+        String fingerprint = fingerprint(certificate);
+
+        if (fingerprint == null)
+        {
+            return CertificateHandler.getIdentityFromCert(certificate);
+        }
+
+        CachedIdentity cached = identities.getIfPresent(fingerprint);
+        long now = System.currentTimeMillis();
+
+        if (cached != null && now < cached.notAfterMillis())
+        {
+            return cached.identity();
+        }
+
+        if (cached != null)
+        {
+            identities.invalidate(fingerprint);
+        }
+
+        PKIIdentity identity = CertificateHandler.getIdentityFromCert(certificate);
+        long notAfterMillis = certificate.getNotAfter().getTime();
+
+        // An expired certificate is rejected by the TLS handshake, but there is no point in keeping its identity
+        if (now < notAfterMillis)
+        {
+            identities.put(fingerprint, new CachedIdentity(identity, notAfterMillis));
+        }
+
+        return identity;
+    }
+
+
+    /**
+     * Returns the hex encoded SHA-256 fingerprint of a certificate, or null if the certificate cannot be encoded.
+     */
+    private static String fingerprint(X509Certificate certificate)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+            return HexFormat.of().formatHex(digest);
+        }
+
+        catch (CertificateEncodingException | NoSuchAlgorithmException ex)
+        {
+            log.warn("Could not fingerprint certificate of subject={}", certificate.getSubjectX500Principal(), ex);
+            return null;
+        }
+    }
+
+
+    /**
+     * A cached identity and the expiry of the certificate it was parsed from.
+     *
+     * @param identity       The identity.
+     * @param notAfterMillis The end of the validity period of the certificate, in milliseconds since the epoch.
+     */
+    private record CachedIdentity(PKIIdentity identity, long notAfterMillis) {}
+}
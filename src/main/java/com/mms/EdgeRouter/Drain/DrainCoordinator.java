@@ -0,0 +1,492 @@
+package com.mms.EdgeRouter.Drain;
+
+import com.mms.EdgeRouter.ConnectionManagement.ClientContext.ClientConnectionContext;
+import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionCloseRequest;
+import com.mms.EdgeRouter.ConnectionManagement.IConnectionRepository;
+import com.mms.EdgeRouter.Egress.PriorityWebSocketSessionDecorator;
+import com.mms.EdgeRouter.MessageRelay.Scheduling.IDeliveryScheduler;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.SubscriptionManagement.SubscriptionSnapshotStore;
+import com.mms.EdgeRouter.WebSocket.RateLimiterWsHandler;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Takes a router out of service without a reconnect stampede on the neighbouring routers, and with as few messages in
+ * flight lost as the router can manage without persisting them, for rolling restarts. A drain is started through the
+ * drain actuator endpoint, or when the application shuts down. A drain cannot be undone, the router has to be restarted.
+ * <p>
+ * A drain first seals the routing state snapshot, so the restarted router is pre-warmed with the state of the running
+ * one, and makes the {@link RateLimiterWsHandler} deny new sessions. It then closes the connections in batches of a
+ * fixed size, one batch per interval, with {@link CloseStatus#SERVICE_RESTARTED}, so the agents reconnect to other
+ * routers at a bounded rate. Before a batch is closed, the messages still buffered for its agents are given up to the
+ * flush timeout to be sent. Agents not yet closed keep sending and receiving meanwhile. Once every connection is closed,
+ * the drain waits for the delivery lanes and the WorkerPool to run out of work, which includes the JMS sends, so the
+ * messages received from agents reach the broker.
+ * <p>
+ * Messages to an agent are lost in two cases. The bytes still buffered for an agent when the flush timeout runs out
+ * are dropped with its connection, they are counted in the drain.undelivered metric and logged. And the broker topics
+ * are not durable and the sends are not persistent, so a message published for an agent between its close here and
+ * its new subscription on another router, which is only made once it reconnected, reaches no router at all. Neither is
+ * persisted or requeued, a router that must not lose them needs durable subscriptions on the broker.
+ * <p>
+ * The coordinator stops in the first shutdown phase, before the web servers stop, and the shutdown waits for the
+ * drain for up to {@code spring.lifecycle.timeout-per-shutdown-phase}. A drain on shutdown therefore has to close every
+ * connection within that timeout, less the flush timeout for the work in flight and a margin. If the configured batches
+ * do not fit, they are made larger so that they do, and the timeout the configured rate would need is logged as an
+ * error. A drain that still runs out of time, because flushes took longer than the batch interval, closes the
+ * remaining connections at once.
+ */
+@Slf4j
+@Component
+public class DrainCoordinator implements SmartLifecycle
+{
+    /**
+     * The shutdown phase of the coordinator, the web servers must stop in a later phase.
+     */
+    public static final int PHASE = SmartLifecycle.DEFAULT_PHASE;
+
+    private static final long POLL_MILLIS = 10;
+    private static final long SHUTDOWN_MARGIN_MILLIS = 1000;
+
+    private final RateLimiterWsHandler rateLimiter;
+    private final IConnectionRepository connectionRepository;
+    private final IDeliveryScheduler deliveryScheduler;
+    private final TaskExecutor workerPool;
+    private final SubscriptionSnapshotStore snapshotStore;
+    private final ApplicationEventPublisher eventPublisher;
+    private final RouterMetrics metrics;
+
+    private final boolean drainOnShutdown;
+    private final int batchSize;
+    private final long batchIntervalMillis;
+    private final long flushTimeoutNanos;
+    private final long shutdownPhaseTimeoutMillis;
+
+    private final ExecutorService executor;
+
+    private volatile DrainState state = DrainState.RUNNING;
+    private volatile boolean running;
+    private volatile int closedConnections;
+    private volatile CompletableFuture<Void> completion = CompletableFuture.completedFuture(null);
+
+
+    /**
+     * Constructs a new {@link DrainCoordinator}.
+     *
+     * @param rateLimiter          The handler that stops accepting new sessions.
+     * @param connectionRepository The repository of the connections that are closed.
+     * @param deliveryScheduler    The scheduler whose lanes are awaited.
+     * @param workerPool           The pool whose tasks, among them the JMS sends, are awaited.
+     * @param snapshotStore        The store of the routing state snapshot, sealed before connections are closed.
+     * @param eventPublisher       The event publisher used to request the closing of connections.
+     * @param metrics              The metrics of the routing pipeline.
+     * @param drainOnShutdown      Whether the router drains when the application shuts down.
+     * @param batchSize            The number of connections closed per batch.
+     * @param batchIntervalMillis  The time between the starts of two batches.
+     * @param flushTimeoutMillis   How long buffered messages and work in flight are waited for.
+     * @param shutdownPhaseTimeout How long the shutdown waits for the drain.
+     */
+    @Autowired
+    public DrainCoordinator(RateLimiterWsHandler rateLimiter, IConnectionRepository connectionRepository, IDeliveryScheduler deliveryScheduler, @Qualifier("WorkerPool") TaskExecutor workerPool, SubscriptionSnapshotStore snapshotStore, ApplicationEventPublisher eventPublisher, RouterMetrics metrics, @Value("${edgerouter.drain.onShutdown:true}") boolean drainOnShutdown, @Value("${edgerouter.drain.batchSize:100}") int batchSize, @Value("${edgerouter.drain.batchIntervalMillis:1000}") long batchIntervalMillis, @Value("${edgerouter.drain.flushTimeoutMillis:5000}") long flushTimeoutMillis, @Value("${spring.lifecycle.timeout-per-shutdown-phase:30s}") Duration shutdownPhaseTimeout)
+    {
+        this.rateLimiter = rateLimiter;
+        this.connectionRepository = connectionRepository;
+        this.deliveryScheduler = deliveryScheduler;
+        this.workerPool = workerPool;
+        this.snapshotStore = snapshotStore;
+        this.eventPublisher = eventPublisher;
+        this.metrics = metrics;
+        this.drainOnShutdown = drainOnShutdown;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchIntervalMillis = Math.max(0, batchIntervalMillis);
+        this.flushTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushTimeoutMillis));
+        this.shutdownPhaseTimeoutMillis = shutdownPhaseTimeout.toMillis();
+
+        this.executor = Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "DrainCoordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        log.info("DrainCoordinator initialized with drainOnShutdown={}, batchSize={}, batchIntervalMillis={}, flushTimeoutMillis={}, shutdownPhaseTimeoutMillis={}", drainOnShutdown, this.batchSize, this.batchIntervalMillis, flushTimeoutMillis, shutdownPhaseTimeoutMillis);
+    }
+
+
+    /**
+     * Starts draining the router at the configured rate, unless it is draining or drained already.
+     *
+     * @return True if a drain was started.
+     */
+    public boolean drain()
+    {
+        return drain(batchSize, Long.MAX_VALUE);
+    }
+
+
+    /**
+     * Starts draining the router, unless it is draining or drained already.
+     *
+     * @param drainBatchSize   The number of connections closed per batch.
+     * @param closeBudgetNanos The time the batches may take, the connections left after it are closed at once.
+     * @return True if a drain was started.
+     */
+    private synchronized boolean drain(int drainBatchSize, long closeBudgetNanos)
+    {
+        if (state != DrainState.RUNNING)
+        {
+            return false;
+        }
+
+        state = DrainState.DRAINING;
+        log.info("Draining router with {} connections, batchSize={}", connectionRepository.getConnectionCount(), drainBatchSize);
+
+        snapshotStore.seal();
+        rateLimiter.setAccepting(false);
+        completion = CompletableFuture.runAsync(() -> closeInBatches(drainBatchSize, closeBudgetNanos), executor);
+        return true;
+    }
+
+
+    /**
+     * Returns the time a drain on shutdown may take to close the connections, the shutdown phase timeout less the
+     * wait for the work in flight and a margin for the shutdown to go on.
+     */
+    long getShutdownCloseBudgetMillis()
+    {
+        return Math.max(0, shutdownPhaseTimeoutMillis - TimeUnit.NANOSECONDS.toMillis(flushTimeoutNanos) - SHUTDOWN_MARGIN_MILLIS);
+    }
+
+
+    /**
+     * Returns the batch size that closes the given number of connections within the close budget of a shutdown. It is
+     * the configured batch size, unless the batches would not fit, which is logged as an error.
+     *
+     * @param connections The number of open connections.
+     * @return The number of connections to close per batch.
+     */
+    int getShutdownBatchSize(int connections)
+    {
+        long budgetMillis = getShutdownCloseBudgetMillis();
+
+        // The first batch closes right away, every further one a batch interval after the one before
+        long batches = batchIntervalMillis == 0 ? Math.max(1, connections) : budgetMillis / batchIntervalMillis + 1;
+        long needed = (connections + batches - 1) / batches;
+
+        if (needed <= batchSize)
+        {
+            return batchSize;
+        }
+
+        long configuredMillis = ((connections + batchSize - 1) / batchSize - 1) * batchIntervalMillis;
+        log.error("Draining {} connections in batches of {} every {}ms takes {}ms, more than the {}ms the shutdown phase leaves, closing {} per batch instead. Set spring.lifecycle.timeout-per-shutdown-phase to at least {}ms to drain at the configured rate",
+                connections, batchSize, batchIntervalMillis, configuredMillis, budgetMillis, needed, configuredMillis + TimeUnit.NANOSECONDS.toMillis(flushTimeoutNanos) + SHUTDOWN_MARGIN_MILLIS);
+        return (int) Math.min(Integer.MAX_VALUE, needed);
+    }
+
+
+    public DrainState getState()
+    {
+        return state;
+    }
+
+
+    public int getClosedConnections()
+    {
+        return closedConnections;
+    }
+
+
+    @Override
+    public void start()
+    {
+        running = true;
+    }
+
+
+    /**
+     * Drains the router when the application shuts down, in batches that fit the shutdown phase timeout, and signals
+     * the shutdown to go on once it is drained.
+     *
+     * @param callback The callback to run once the coordinator has stopped.
+     */
+    @Override
+    public void stop(Runnable callback)
+    {
+        running = false;
+
+        if (!drainOnShutdown)
+        {
+            callback.run();
+            return;
+        }
+
+        drain(getShutdownBatchSize(connectionRepository.getConnectionCount()), TimeUnit.MILLISECONDS.toNanos(getShutdownCloseBudgetMillis()));
+        completion.whenComplete((result, ex) -> callback.run());
+    }
+
+
+    @Override
+    public void stop()
+    {
+        stop(() -> {});
+    }
+
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+
+    @Override
+    public int getPhase()
+    {
+        return PHASE;
+    }
+
+
+    /**
+     * Closes the connections in batches until none is left, and waits for the work in flight. Once the close budget is
+     * used up, the connections left are closed in one batch, and flushes are only waited for within the budget.
+     *
+     * @param drainBatchSize   The number of connections closed per batch.
+     * @param closeBudgetNanos The time the batches may take.
+     */
+    private void closeInBatches(int drainBatchSize, long closeBudgetNanos)
+    {
+        Set<String> closed = new HashSet<>();
+
+        try
+        {
+            long drainStart = System.nanoTime();
+            long batchStart = 0;
+            boolean overdue = false;
+            List<ClientConnectionContext> batch;
+
+            while (!(batch = nextBatch(closed, overdue ? Integer.MAX_VALUE : drainBatchSize)).isEmpty())
+            {
+                if (overdue)
+                {
+                    log.warn("Drain ran out of time, closing the remaining {} connections at once", batch.size());
+                }
+
+                else
+                {
+                    pace(batchStart);
+                }
+
+                batchStart = System.nanoTime();
+                long remainingNanos = closeBudgetNanos - (batchStart - drainStart);
+                closeBatch(batch, closed, Math.min(flushTimeoutNanos, Math.max(0, remainingNanos)));
+                overdue = System.nanoTime() - drainStart >= closeBudgetNanos;
+            }
+
+            boolean idle = awaitUntil(() -> deliveryScheduler.isIdle() && isIdle(workerPool), flushTimeoutNanos);
+            state = DrainState.DRAINED;
+            log.info("Router drained, closed {} connections, work in flight {}", closed.size(), idle ? "completed" : "timed out");
+        }
+
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            log.warn("Drain interrupted after closing {} connections", closed.size());
+        }
+
+        catch (RuntimeException ex)
+        {
+            log.error("Error draining router after closing {} connections", closed.size(), ex);
+        }
+    }
+
+
+    /**
+     * Waits for the messages buffered for the agents of a batch to be sent, for up to the given time, and closes their
+     * connections.
+     *
+     * @param batch          The connections of the batch.
+     * @param closed         The IDs of the agents closed so far, the agents of the batch are added.
+     * @param flushWaitNanos The maximum time to wait for the buffered messages.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private void closeBatch(List<ClientConnectionContext> batch, Set<String> closed, long flushWaitNanos) throws InterruptedException
+    {
+        awaitUntil(() -> isFlushed(batch), flushWaitNanos);
+
+        for (ClientConnectionContext context : batch)
+        {
+            close(context);
+            closed.add(context.getAgentID());
+        }
+
+        closedConnections = closed.size();
+        log.debug("Drain closed {} connections, {} in total", batch.size(), closed.size());
+    }
+
+
+    /**
+     * Waits for the rest of the batch interval that started with the previous batch.
+     *
+     * @param previousStart When the previous batch started, 0 if there was none.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private void pace(long previousStart) throws InterruptedException
+    {
+        if (previousStart == 0)
+        {
+            return;
+        }
+
+        long remainingMillis = batchIntervalMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - previousStart);
+
+        if (remainingMillis > 0)
+        {
+            Thread.sleep(remainingMillis);
+        }
+    }
+
+
+    /**
+     * Returns up to a batch of the connections that have not been closed yet. Closed connections stay registered until
+     * the terminated session has passed the admission pipeline, so they are skipped by their agent ID.
+     *
+     * @param closed The IDs of the agents closed so far.
+     * @param size   The maximum number of connections in the batch.
+     * @return The connections of the next batch.
+     */
+    private List<ClientConnectionContext> nextBatch(Set<String> closed, int size)
+    {
+        List<ClientConnectionContext> batch = new ArrayList<>(Math.min(size, batchSize));
+
+        for (ClientConnectionContext context : connectionRepository.getAllConnections())
+        {
+            if (batch.size() == size)
+            {
+                break;
+            }
+
+            if (!closed.contains(context.getAgentID()))
+            {
+                batch.add(context);
+            }
+        }
+
+        return batch;
+    }
+
+
+    /**
+     * Requests a connection to be closed, and records the bytes that were still buffered for its agent.
+     *
+     * @param context The connection.
+     */
+    private void close(ClientConnectionContext context)
+    {
+        long undeliveredBytes = bufferedBytes(context.getSession());
+        metrics.recordDrainClose(undeliveredBytes);
+
+        if (undeliveredBytes > 0)
+        {
+            log.warn("Closing connection of agent={} while draining drops {} bytes not yet sent to it", context.getAgentID(), undeliveredBytes);
+        }
+
+        eventPublisher.publishEvent(new ConnectionCloseRequest(this, context.getAgentID(), CloseStatus.SERVICE_RESTARTED.getCode(), "Edge Router is draining"));
+    }
+
+
+    private static boolean isFlushed(List<ClientConnectionContext> batch)
+    {
+        for (ClientConnectionContext context : batch)
+        {
+            if (bufferedBytes(context.getSession()) > 0)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private static long bufferedBytes(WebSocketSession session)
+    {
+        return session instanceof PriorityWebSocketSessionDecorator prioritySession ? prioritySession.getBufferSize() : 0;
+    }
+
+
+    /**
+     * Returns whether the WorkerPool has no task running or waiting.
+     *
+     * @param workerPool The WorkerPool.
+     * @return True if the pool is idle, or if its state cannot be read.
+     */
+    private static boolean isIdle(TaskExecutor workerPool)
+    {
+        if (workerPool instanceof ConcurrentTaskExecutor taskExecutor && taskExecutor.getConcurrentExecutor() instanceof ThreadPoolExecutor pool)
+        {
+            return pool.getActiveCount() == 0 && pool.getQueue().isEmpty();
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Waits until a condition holds, checking it at a fixed interval.
+     *
+     * @param condition    The condition.
+     * @param timeoutNanos The maximum time to wait.
+     * @return True if the condition holds, false if the wait timed out.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private static boolean awaitUntil(BooleanSupplier condition, long timeoutNanos) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        while (!condition.getAsBoolean())
+        {
+            if (System.nanoTime() - deadline >= 0)
+            {
+                return false;
+            }
+
+            Thread.sleep(POLL_MILLIS);
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Stops a drain that is still running before the object is destroyed.
+     */
+    @PreDestroy
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+}
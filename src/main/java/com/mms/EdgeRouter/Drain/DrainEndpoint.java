@@ -0,0 +1,67 @@
+package com.mms.EdgeRouter.Drain;
+
+import com.mms.EdgeRouter.ConnectionManagement.IConnectionRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint at /actuator/drain for draining the router ahead of a restart, see {@link DrainCoordinator}.
+ * A read returns the progress of the drain, a write starts it. A drain cannot be undone, so like all actuator endpoints
+ * it is only served on the management port and never on the agent port.
+ */
+@Component
+@Endpoint(id = "drain")
+public class DrainEndpoint
+{
+    private final DrainCoordinator drainCoordinator;
+    private final IConnectionRepository connectionRepository;
+
+
+    /**
+     * Constructs a new {@link DrainEndpoint}.
+     *
+     * @param drainCoordinator     The coordinator of the drain.
+     * @param connectionRepository The repository of the connections, for their count.
+     */
+    @Autowired
+    public DrainEndpoint(DrainCoordinator drainCoordinator, IConnectionRepository connectionRepository)
+    {
+        this.drainCoordinator = drainCoordinator;
+        this.connectionRepository = connectionRepository;
+    }
+
+
+    /**
+     * Returns the state of the drain, the connections closed by it and the connections still open.
+     *
+     * @return The progress of the drain.
+     */
+    @ReadOperation
+    public Map<String, Object> status()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("state", drainCoordinator.getState());
+        result.put("closedConnections", drainCoordinator.getClosedConnections());
+        result.put("openConnections", connectionRepository.getConnectionCount());
+        return result;
+    }
+
+
+    /**
+     * Starts draining the router, a router that is draining or drained is left as it is.
+     *
+     * @return The progress of the drain.
+     */
+    @WriteOperation
+    public Map<String, Object> drain()
+    {
+        drainCoordinator.drain();
+        return status();
+    }
+}
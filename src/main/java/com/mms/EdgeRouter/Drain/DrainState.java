@@ -0,0 +1,22 @@
+package com.mms.EdgeRouter.Drain;
+
+/**
+ * The states of a router on its way out of a rolling restart, see {@link DrainCoordinator}.
+ */
+public enum DrainState
+{
+    /**
+     * The router accepts new sessions and serves its agents.
+     */
+    RUNNING,
+
+    /**
+     * The router denies new sessions and closes its connections in batches.
+     */
+    DRAINING,
+
+    /**
+     * Every connection has been closed and the work in flight has been handed on, the router can be stopped.
+     */
+    DRAINED
+}
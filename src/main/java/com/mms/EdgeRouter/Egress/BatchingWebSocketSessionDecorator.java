@@ -0,0 +1,270 @@
+package com.mms.EdgeRouter.Egress;
+
+import Misc.MMTPBatch;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import com.mms.EdgeRouter.WebSocket.IBatchingSession;
+import io.netty.util.Timeout;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link WebSocketSession} decorator that lets the transport hold back written frames, and flushes them after a
+ * linger window or once the written bytes reach a limit, whichever comes first.
+ * <p>
+ * Each message is still sent as its own WebSocket frame, but the frames of a batch leave in one write, so that a busy
+ * subscriber costs one syscall and as few TLS records as the batch fits in, instead of one of each per message. For an
+ * agent that accepts batch protocol messages, the messages are instead held back here and sent as a single batch
+ * frame, see {@link MMTPBatch}, which also saves the per-frame overhead on the agent. A batch frame, with its framing,
+ * never grows beyond the byte limit, which must therefore not exceed the largest message the agent accepts. The first message of a batch
+ * waits at most the linger window, rounded up to the next tick of the timer wheel, plus the wait for a thread of the
+ * flush executor: the timer only hands the flush over, as a flush blocks on the lock and the write to the agent and
+ * would hold up every other timeout of the wheel. Sends and flushes are serialized, the decorator is meant to sit under
+ * the {@link PriorityWebSocketSessionDecorator}, directly on the session of the transport.
+ */
+@Slf4j
+public class BatchingWebSocketSessionDecorator extends WebSocketSessionDecorator
+{
+    private final IBatchingSession transport;
+    private final List<ByteBuffer> heldMessages;
+    private final long lingerNanos;
+    private final int maxBatchBytes;
+    private final TimerWheel flusher;
+    private final Executor flushExecutor;
+    private final RouterMetrics metrics;
+
+    private final Object lock = new Object();
+
+    private int batchedMessages;
+    private long batchedBytes;
+    private int heldBytes;
+    private Timeout scheduledFlush;
+
+
+    /**
+     * Constructs a new {@link BatchingWebSocketSessionDecorator}, batching is allowed on the transport from here on.
+     *
+     * @param delegate      The session of the transport.
+     * @param transport     The batching view of the same transport, or null to send batch protocol messages instead.
+     * @param lingerNanos   How long a written message may wait for more messages.
+     * @param maxBatchBytes The number of written bytes at which the batch is flushed without waiting, and the largest
+     *                      batch protocol message sent.
+     * @param flusher       The timer that ends the linger window.
+     * @param flushExecutor The executor that runs the flushes at the end of the linger window.
+     * @param metrics       The metrics the batch sizes are recorded in.
+     * @throws IOException If the transport could not switch to batching.
+     */
+    public BatchingWebSocketSessionDecorator(@NonNull WebSocketSession delegate, @Nullable IBatchingSession transport, long lingerNanos, int maxBatchBytes, @NonNull TimerWheel flusher, @NonNull Executor flushExecutor, @NonNull RouterMetrics metrics) throws IOException
+    {
+        super(delegate);
+        this.transport = transport;
+        this.lingerNanos = lingerNanos;
+        this.maxBatchBytes = maxBatchBytes;
+        this.flusher = flusher;
+        this.flushExecutor = flushExecutor;
+        this.metrics = metrics;
+        this.heldMessages = transport == null ? new ArrayList<>() : null;
+
+        if (transport != null)
+        {
+            transport.setBatchingAllowed(true);
+        }
+    }
+
+
+    /**
+     * Writes a message to the transport, or holds it back for a batch protocol message, and flushes the batch if it
+     * reached the byte limit. Otherwise the batch is flushed when the linger window of its first message ends. Other
+     * than binary messages are never put in a batch protocol message, the batch is flushed before them.
+     *
+     * @param message The message to send.
+     * @throws IOException If the message or the batch could not be written.
+     */
+    @Override
+    public void sendMessage(@NonNull WebSocketMessage<?> message) throws IOException
+    {
+        synchronized (lock)
+        {
+            if (heldMessages == null)
+            {
+                super.sendMessage(message);
+            }
+
+            else if (message instanceof BinaryMessage binaryMessage)
+            {
+                // A batch protocol message may not grow beyond the limit, so the batch goes before this message would pass it
+                int entryBytes = MMTPBatch.entrySize(message.getPayloadLength());
+
+                if (!heldMessages.isEmpty() && MMTPBatch.frameSize(heldBytes + entryBytes) > maxBatchBytes)
+                {
+                    flushBatch();
+                }
+
+                heldMessages.add(binaryMessage.getPayload());
+                heldBytes += entryBytes;
+            }
+
+            else
+            {
+                flushBatch();
+                super.sendMessage(message);
+                return;
+            }
+
+            batchedMessages++;
+            batchedBytes += message.getPayloadLength();
+
+            if (heldMessages == null ? batchedBytes >= maxBatchBytes : MMTPBatch.frameSize(heldBytes) >= maxBatchBytes)
+            {
+                flushBatch();
+            }
+
+            else if (scheduledFlush == null)
+            {
+                scheduledFlush = flusher.schedule(this::lingerExpired, lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+
+    /**
+     * Flushes the messages written so far.
+     *
+     * @throws IOException If the batch could not be written.
+     */
+    public void flush() throws IOException
+    {
+        synchronized (lock)
+        {
+            flushBatch();
+        }
+    }
+
+
+    /**
+     * Flushes what is held back before the session is closed, so that the close frame does not overtake messages.
+     *
+     * @param status The close status.
+     * @throws IOException If the session could not be closed.
+     */
+    @Override
+    public void close(@NonNull CloseStatus status) throws IOException
+    {
+        synchronized (lock)
+        {
+            try
+            {
+                flushBatch();
+            }
+
+            catch (IOException ex)
+            {
+                log.debug("Could not flush batch before closing agent={}", getId(), ex);
+            }
+
+            super.close(status);
+        }
+    }
+
+
+    /**
+     * Runs on the tick thread of the flusher at the end of the linger window of a batch, and hands the flush over to the
+     * flush executor. If the executor rejects it, the flush is tried again after another linger window.
+     */
+    private void lingerExpired()
+    {
+        try
+        {
+            flushExecutor.execute(this::flushExpired);
+        }
+
+        catch (RuntimeException ex)
+        {
+            if (isOpen())
+            {
+                log.debug("Could not hand over batch flush of agent={}, retrying", getId(), ex);
+                flusher.schedule(this::lingerExpired, lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+
+    /**
+     * Flushes the batch whose linger window ended, unless it was flushed in the meantime.
+     */
+    private void flushExpired()
+    {
+        synchronized (lock)
+        {
+            // A batch flushed since the window ended has no flush scheduled, or one for the window of a newer batch
+            if (scheduledFlush == null || !scheduledFlush.isExpired())
+            {
+                return;
+            }
+
+            scheduledFlush = null;
+
+            if (!isOpen())
+            {
+                return;
+            }
+
+            try
+            {
+                flushBatch();
+            }
+
+            catch (IOException | RuntimeException ex)
+            {
+                metrics.recordSendFailure();
+                log.error("Error flushing batch to agent={}", getId(), ex);
+            }
+        }
+    }
+
+
+    /**
+     * Flushes the batch, must be called holding the lock.
+     */
+    private void flushBatch() throws IOException
+    {
+        if (scheduledFlush != null)
+        {
+            scheduledFlush.cancel();
+            scheduledFlush = null;
+        }
+
+        if (batchedMessages == 0)
+        {
+            return;
+        }
+
+        metrics.recordEgressBatch(batchedMessages, batchedBytes);
+        batchedMessages = 0;
+        batchedBytes = 0;
+
+        if (heldMessages == null)
+        {
+            transport.flushBatch();
+            return;
+        }
+
+        ByteBuffer frame = heldMessages.size() == 1 ? heldMessages.get(0) : MMTPBatch.encode(heldMessages);
+        heldMessages.clear();
+        heldBytes = 0;
+        super.sendMessage(new BinaryMessage(frame));
+    }
+}
@@ -0,0 +1,154 @@
+package com.mms.EdgeRouter.Egress;
+
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import com.mms.EdgeRouter.WebSocket.IBatchingSession;
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides per agent whether its outbound messages are batched, and decorates its session accordingly, see
+ * {@link BatchingWebSocketSessionDecorator}. The agent class, and with it the linger window and byte limit, is resolved
+ * from the MRN of the agent through the {@link EgressBatchingProperties}.
+ * <p>
+ * Sessions of the Netty transport hold back frames in the outbound buffer of their channel. Sessions of the servlet
+ * transport use the batching of the Jakarta WebSocket remote endpoint, where Tomcat writes its output buffer when it is
+ * full, so the byte limit there is bounded by the size of that buffer, 8192 bytes unless configured otherwise.
+ * Agents that announced in their handshake that they accept batch protocol messages get their messages combined into
+ * batch frames instead, on either transport. Their byte limit is capped at the largest message an agent accepts,
+ * edgerouter.maxMessageSize, since a batch frame is a single message.
+ */
+@Slf4j
+@Component
+public class EgressBatcher
+{
+    private final EgressBatchingProperties properties;
+    private final RouterMetrics metrics;
+    private final TimerWheel flusher;
+    private final TaskExecutor connectionPool;
+    private final int maxMessageSize;
+
+
+    /**
+     * Constructs a new {@link EgressBatcher}.
+     *
+     * @param properties     The configuration of the agent classes.
+     * @param metrics        The metrics the batch sizes are recorded in.
+     * @param flusher        The timer that ends the linger windows.
+     * @param connectionPool The executor that runs the flushes at the end of the linger windows.
+     * @param maxMessageSize The largest message an agent accepts, and so the largest batch protocol message.
+     */
+    @Autowired
+    public EgressBatcher(@NonNull EgressBatchingProperties properties, @NonNull RouterMetrics metrics, @NonNull TimerWheel flusher, @NonNull @Qualifier("ConnectionPool") TaskExecutor connectionPool, @Value("${edgerouter.maxMessageSize:8192}") int maxMessageSize)
+    {
+        this.properties = properties;
+        this.metrics = metrics;
+        this.flusher = flusher;
+        this.connectionPool = connectionPool;
+        this.maxMessageSize = maxMessageSize;
+
+        log.info("EgressBatcher initialized with enabled={}, classes={}, maxMessageSize={}", properties.isEnabled(), properties.getClasses().size(), maxMessageSize);
+    }
+
+
+    /**
+     * Decorates the session of an agent for batching, if the agent belongs to a batched class and the transport
+     * supports it.
+     *
+     * @param session The session of the transport.
+     * @param mrn     The MRN of the agent, null for anonymous agents.
+     * @return The decorated session, or the session itself if it is not batched.
+     */
+    public WebSocketSession decorate(@NonNull WebSocketSession session, @Nullable String mrn)
+    {
+        EgressBatchingProperties.AgentClass agentClass = properties.resolve(mrn);
+
+        if (agentClass == null || agentClass.getLingerMicros() <= 0)
+        {
+            return session;
+        }
+
+        boolean acceptsBatch = Boolean.TRUE.equals(session.getAttributes().get(SessionAttributes.ACCEPTS_BATCH));
+        IBatchingSession transport = acceptsBatch ? null : getBatchingSession(session);
+
+        if (!acceptsBatch && transport == null)
+        {
+            return session;
+        }
+
+        int maxBatchBytes = acceptsBatch ? Math.min(agentClass.getMaxBatchBytes(), maxMessageSize) : agentClass.getMaxBatchBytes();
+
+        try
+        {
+            WebSocketSession decorated = new BatchingWebSocketSessionDecorator(session, transport, TimeUnit.MICROSECONDS.toNanos(agentClass.getLingerMicros()), maxBatchBytes, flusher, connectionPool, metrics);
+            log.debug("Batching egress of agent={}, class={}, batchMessages={}", session.getId(), agentClass.getName(), acceptsBatch);
+            return decorated;
+        }
+
+        catch (IOException ex)
+        {
+            log.warn("Could not enable batching for agent={}, sending unbatched", session.getId(), ex);
+            return session;
+        }
+    }
+
+
+    /**
+     * Returns the batching view of the transport of a session.
+     *
+     * @param session The session of the transport.
+     * @return The batching view, or null if the transport does not support batching.
+     */
+    private static IBatchingSession getBatchingSession(WebSocketSession session)
+    {
+        if (session instanceof IBatchingSession batchingSession)
+        {
+            return batchingSession;
+        }
+
+        if (session instanceof NativeWebSocketSession nativeSession)
+        {
+            Session standardSession = nativeSession.getNativeSession(Session.class);
+            return standardSession == null ? null : new StandardBatching(standardSession.getBasicRemote());
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Batches the sends of a session of the servlet transport, through its Jakarta WebSocket remote endpoint. Spring
+     * sends through the basic remote, which shares its batching state with the async remote.
+     *
+     * @param remote The remote endpoint of the session.
+     */
+    private record StandardBatching(RemoteEndpoint.Basic remote) implements IBatchingSession
+    {
+        @Override
+        public void setBatchingAllowed(boolean allowed) throws IOException
+        {
+            remote.setBatchingAllowed(allowed);
+        }
+
+
+        @Override
+        public void flushBatch() throws IOException
+        {
+            remote.flushBatch();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.mms.EdgeRouter.Egress;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The configuration of egress batching, under edgerouter.egress-batching. Batching is configured per agent class, an
+ * agent belongs to the first class whose MRN prefix its MRN starts with, a class with an empty prefix also matches
+ * anonymous agents. Agents that match no class are not batched. For example:
+ * <pre>
+ * edgerouter.egress-batching.enabled=true
+ * edgerouter.egress-batching.classes[0].name=shore
+ * edgerouter.egress-batching.classes[0].mrn-prefix=urn:mrn:mcp:device:
+ * edgerouter.egress-batching.classes[0].linger-micros=2000
+ * edgerouter.egress-batching.classes[0].max-batch-bytes=16384
+ * </pre>
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "edgerouter.egress-batching")
+public class EgressBatchingProperties
+{
+    /**
+     * Whether egress batching is enabled at all.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The agent classes, matched in order.
+     */
+    private List<AgentClass> classes = new ArrayList<>();
+
+
+    /**
+     * Returns the class of an agent.
+     *
+     * @param mrn The MRN of the agent, null for anonymous agents.
+     * @return The first matching class, or null if the agent is not batched.
+     */
+    @Nullable
+    public AgentClass resolve(@Nullable String mrn)
+    {
+        if (!enabled)
+        {
+            return null;
+        }
+
+        for (AgentClass agentClass : classes)
+        {
+            String prefix = agentClass.getMrnPrefix();
+
+            if (prefix == null || prefix.isEmpty() || (mrn != null && mrn.startsWith(prefix)))
+            {
+                return agentClass;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * The batching settings of a class of agents.
+     */
+    @Getter
+    @Setter
+    public static class AgentClass
+    {
+        /**
+         * The name of the class, used in logs.
+         */
+        private String name = "default";
+
+        /**
+         * The prefix of the MRNs of the agents in the class, empty to match every agent.
+         */
+        private String mrnPrefix = "";
+
+        /**
+         * How long a written message may wait for more messages before the batch is flushed.
+         */
+        private long lingerMicros = 1000;
+
+        /**
+         * The number of payload bytes at which a batch is flushed without waiting, 16384 fills one TLS record. For
+         * agents that accept batch protocol messages it is capped at edgerouter.maxMessageSize.
+         */
+        private int maxBatchBytes = 16384;
+    }
+}
@@ -0,0 +1,15 @@
+package com.mms.EdgeRouter.Egress;
+
+import com.mms.EdgeRouter.Priority.TrafficClass;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+
+/**
+ * A session that queues the messages to its agent by traffic class, so that messages of a more urgent class are sent
+ * ahead of messages of a less urgent class that are still waiting.
+ */
+public interface IPrioritySession
+{
+    void sendMessage(WebSocketMessage<?> message, TrafficClass trafficClass) throws IOException;
+}
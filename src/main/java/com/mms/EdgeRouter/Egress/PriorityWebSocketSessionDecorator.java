@@ -0,0 +1,309 @@
+package com.mms.EdgeRouter.Egress;
+
+import com.mms.EdgeRouter.Priority.TrafficClass;
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import com.mms.EdgeRouter.WebSocket.SessionLiveness;
+import lombok.NonNull;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link WebSocketSession} decorator that serializes the sends to an agent like the
+ * {@link org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator}, but buffers the waiting messages
+ * in a queue per {@link TrafficClass} and sends them in strict priority order.
+ * <p>
+ * The thread that gets the send lock sends every buffered message, always taking the oldest message of the most urgent
+ * class next, while the other threads buffer their message and return. Messages of the same class are sent in the
+ * order they were buffered, so the ordering of the delivery lanes holds within a class. The class only matters once
+ * messages wait, that is when the agent reads slower than it is sent to, and then a distress message overtakes the
+ * bulk data buffered before it. If a send takes longer than the send time limit, or the buffered bytes exceed the
+ * buffer limit, nothing more is sent and the session is closed with {@link CloseStatus#SESSION_NOT_RELIABLE}, whatever
+ * status it is then closed with.
+ * <p>
+ * An urgent message flushes a batch it ends up in right away, instead of waiting for the linger window. The time of
+ * the last send is recorded in the {@link SessionLiveness} of the session.
+ */
+public class PriorityWebSocketSessionDecorator extends WebSocketSessionDecorator implements IPrioritySession
+{
+    private static final TrafficClass[] CLASSES = TrafficClass.values();
+
+    private final int sendTimeLimit;
+    private final int bufferSizeLimit;
+
+    private final Queue<WebSocketMessage<?>>[] buffers;
+    private final AtomicInteger bufferSize = new AtomicInteger();
+
+    private final Lock flushLock = new ReentrantLock();
+    private final Lock closeLock = new ReentrantLock();
+
+    private final SessionLiveness liveness;
+
+    private volatile long sendStartTime;
+    private volatile boolean limitExceeded;
+    private volatile boolean closeInProgress;
+
+
+    /**
+     * Constructs a new {@link PriorityWebSocketSessionDecorator}.
+     *
+     * @param delegate        The session to send through.
+     * @param sendTimeLimit   The maximum time in milliseconds a single send may take.
+     * @param bufferSizeLimit The maximum number of bytes that can be buffered while a send is in progress.
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityWebSocketSessionDecorator(@NonNull WebSocketSession delegate, int sendTimeLimit, int bufferSizeLimit)
+    {
+        super(delegate);
+        this.sendTimeLimit = sendTimeLimit;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.buffers = new Queue[CLASSES.length];
+        this.liveness = (SessionLiveness) delegate.getAttributes().computeIfAbsent(SessionAttributes.LIVENESS, key -> new SessionLiveness());
+
+        for (int i = 0; i < CLASSES.length; i++)
+        {
+            buffers[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+
+    /**
+     * Sends a message as {@link TrafficClass#NORMAL} traffic.
+     *
+     * @param message The message to send.
+     * @throws IOException If the message could not be sent.
+     */
+    @Override
+    public void sendMessage(@NonNull WebSocketMessage<?> message) throws IOException
+    {
+        sendMessage(message, TrafficClass.NORMAL);
+    }
+
+
+    /**
+     * Buffers a message in the queue of its class, and sends the buffered messages unless another thread is sending.
+     *
+     * @param message      The message to send.
+     * @param trafficClass The class of the message.
+     * @throws IOException                   If a message could not be sent.
+     * @throws SessionLimitExceededException If the send time or buffer limit was exceeded, nothing more is sent.
+     */
+    @Override
+    public void sendMessage(@NonNull WebSocketMessage<?> message, @NonNull TrafficClass trafficClass) throws IOException
+    {
+        if (shouldNotSend())
+        {
+            return;
+        }
+
+        buffers[trafficClass.ordinal()].add(message);
+        bufferSize.addAndGet(message.getPayloadLength());
+
+        do
+        {
+            if (!tryFlushBuffers())
+            {
+                checkSessionLimits();
+                break;
+            }
+        }
+        while (hasBufferedMessages() && !shouldNotSend());
+    }
+
+
+    /**
+     * Returns the number of bytes buffered for the agent.
+     */
+    public int getBufferSize()
+    {
+        return bufferSize.get();
+    }
+
+
+    /**
+     * Returns the time in milliseconds the current send has taken so far, 0 if no send is in progress.
+     */
+    public long getTimeSinceSendStarted()
+    {
+        long start = sendStartTime;
+        return start > 0 ? System.currentTimeMillis() - start : 0;
+    }
+
+
+    /**
+     * Closes the session, with {@link CloseStatus#SESSION_NOT_RELIABLE} if a limit was exceeded.
+     *
+     * @param status The close status.
+     * @throws IOException If the session could not be closed.
+     */
+    @Override
+    public void close(@NonNull CloseStatus status) throws IOException
+    {
+        closeLock.lock();
+
+        try
+        {
+            if (closeInProgress)
+            {
+                return;
+            }
+
+            if (!CloseStatus.SESSION_NOT_RELIABLE.equals(status))
+            {
+                try
+                {
+                    checkSessionLimits();
+                }
+
+                catch (SessionLimitExceededException ex)
+                {
+                    // The status is changed below
+                }
+
+                if (limitExceeded)
+                {
+                    status = CloseStatus.SESSION_NOT_RELIABLE;
+                }
+            }
+
+            closeInProgress = true;
+            super.close(status);
+        }
+
+        finally
+        {
+            closeLock.unlock();
+        }
+    }
+
+
+    /**
+     * Sends the buffered messages, most urgent class first, unless another thread holds the send lock.
+     *
+     * @return True if the lock was taken and the buffers were drained.
+     * @throws IOException If a message could not be sent.
+     */
+    private boolean tryFlushBuffers() throws IOException
+    {
+        if (!flushLock.tryLock())
+        {
+            return false;
+        }
+
+        boolean sent = false;
+
+        try
+        {
+            while (!shouldNotSend())
+            {
+                TrafficClass trafficClass = null;
+                WebSocketMessage<?> message = null;
+
+                for (int i = 0; i < CLASSES.length && message == null; i++)
+                {
+                    message = buffers[i].poll();
+                    trafficClass = CLASSES[i];
+                }
+
+                if (message == null)
+                {
+                    break;
+                }
+
+                bufferSize.addAndGet(-message.getPayloadLength());
+                sendStartTime = System.currentTimeMillis();
+                getDelegate().sendMessage(message);
+                sent = true;
+
+                if (trafficClass.isUrgent() && getDelegate() instanceof BatchingWebSocketSessionDecorator batchingSession)
+                {
+                    batchingSession.flush();
+                }
+
+                sendStartTime = 0;
+            }
+        }
+
+        finally
+        {
+            sendStartTime = 0;
+            flushLock.unlock();
+        }
+
+        if (sent)
+        {
+            liveness.markSent();
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Closes the session if a send is taking too long or too much is buffered, called by the threads that could not
+     * take the send lock.
+     *
+     * @throws SessionLimitExceededException If a limit was exceeded.
+     */
+    private void checkSessionLimits()
+    {
+        if (shouldNotSend() || !closeLock.tryLock())
+        {
+            return;
+        }
+
+        try
+        {
+            if (getTimeSinceSendStarted() > sendTimeLimit)
+            {
+                limitExceeded("Send time " + getTimeSinceSendStarted() + " (ms) for agent=" + getId() + " exceeded the allowed limit " + sendTimeLimit);
+            }
+
+            else if (getBufferSize() > bufferSizeLimit)
+            {
+                limitExceeded("Buffer size " + getBufferSize() + " bytes for agent=" + getId() + " exceeded the allowed limit " + bufferSizeLimit);
+            }
+        }
+
+        finally
+        {
+            closeLock.unlock();
+        }
+    }
+
+
+    private void limitExceeded(String reason)
+    {
+        limitExceeded = true;
+        throw new SessionLimitExceededException(reason, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+
+    private boolean hasBufferedMessages()
+    {
+        for (Queue<WebSocketMessage<?>> buffer : buffers)
+        {
+            if (!buffer.isEmpty())
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    private boolean shouldNotSend()
+    {
+        return limitExceeded || closeInProgress;
+    }
+}
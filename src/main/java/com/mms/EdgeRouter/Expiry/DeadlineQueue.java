@@ -0,0 +1,42 @@
+package com.mms.EdgeRouter.Expiry;
+
+import lombok.NonNull;
+
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * A work queue for a {@link java.util.concurrent.ThreadPoolExecutor} that hands out {@link DeadlineTask}s earliest
+ * deadline first. The queue refuses new tasks once it holds its capacity, so that the executor grows its pool and then
+ * rejects, as it does with a bounded FIFO queue. The check is not atomic with the insert, concurrent offers may pass
+ * the capacity by a few tasks.
+ */
+public class DeadlineQueue extends PriorityBlockingQueue<Runnable>
+{
+    private final int capacity;
+
+
+    /**
+     * Constructs a new {@link DeadlineQueue}.
+     *
+     * @param capacity The number of tasks the queue holds before it refuses new ones.
+     */
+    public DeadlineQueue(int capacity)
+    {
+        super(Math.min(capacity, 1024), DeadlineTask.EARLIEST_DEADLINE_FIRST);
+        this.capacity = capacity;
+    }
+
+
+    @Override
+    public boolean offer(@NonNull Runnable task)
+    {
+        return size() < capacity && super.offer(task);
+    }
+
+
+    @Override
+    public int remainingCapacity()
+    {
+        return Math.max(0, capacity - size());
+    }
+}
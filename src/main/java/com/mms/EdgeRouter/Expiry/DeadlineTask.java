@@ -0,0 +1,78 @@
+package com.mms.EdgeRouter.Expiry;
+
+import com.mms.EdgeRouter.Priority.TrafficClass;
+import lombok.NonNull;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * A task in a queue ordered by deadline, earliest first. The task takes the deadline and traffic class that are current
+ * in the thread submitting it, see {@link Deadlines#runWithin(long, TrafficClass, Runnable)}, and is dropped instead of
+ * run if the deadline passes while it waits.
+ * <p>
+ * So that tasks without a deadline, such as connection handling, are not starved by a stream of messages, every task is
+ * ordered by the earlier of its deadline and the time it was queued plus the slack of its traffic class. A class with
+ * a smaller slack overtakes the tasks of the other classes queued up to the difference earlier, which keeps urgent
+ * traffic ahead of a bulk cast without starving it. Tasks ordered by the same instant run in the order they were
+ * queued.
+ */
+public final class DeadlineTask implements Runnable
+{
+    /**
+     * Orders tasks by the instant they should run by, and in the order they were queued after that. Other runnables
+     * than deadline tasks are ordered last.
+     */
+    public static final Comparator<Runnable> EARLIEST_DEADLINE_FIRST = Comparator.comparingLong(DeadlineTask::runByOf).thenComparingLong(DeadlineTask::sequenceOf);
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final Runnable task;
+    private final Runnable onExpired;
+    private final long deadline;
+    private final long runBy;
+    private final long sequence;
+
+
+    /**
+     * Constructs a new {@link DeadlineTask} with the current deadline and traffic class of the calling thread.
+     *
+     * @param task        The task.
+     * @param slackMillis Returns the time after which a task of a class is ordered as if its deadline was reached.
+     * @param onExpired   Called instead of the task if the deadline passed before it ran.
+     */
+    public DeadlineTask(@NonNull Runnable task, @NonNull ToLongFunction<TrafficClass> slackMillis, @NonNull Runnable onExpired)
+    {
+        this.task = task;
+        this.onExpired = onExpired;
+        this.deadline = Deadlines.current();
+        this.runBy = Math.min(deadline, System.currentTimeMillis() + slackMillis.applyAsLong(Deadlines.currentClass()));
+        this.sequence = SEQUENCE.getAndIncrement();
+    }
+
+
+    @Override
+    public void run()
+    {
+        if (Deadlines.isExpired(deadline))
+        {
+            onExpired.run();
+            return;
+        }
+
+        task.run();
+    }
+
+
+    private static long runByOf(Runnable runnable)
+    {
+        return runnable instanceof DeadlineTask deadlineTask ? deadlineTask.runBy : Long.MAX_VALUE;
+    }
+
+
+    private static long sequenceOf(Runnable runnable)
+    {
+        return runnable instanceof DeadlineTask deadlineTask ? deadlineTask.sequence : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,127 @@
+package com.mms.EdgeRouter.Expiry;
+
+import MMTPMessageFormats.DirectApplicationMessage;
+import MMTPMessageFormats.SubjectCastApplicationMessage;
+import com.google.protobuf.Timestamp;
+import com.mms.EdgeRouter.Priority.TrafficClass;
+import lombok.NonNull;
+
+/**
+ * A utility class for the deadlines of messages, the instant their {@code expires} timestamp is reached, in
+ * milliseconds since the epoch. A message without an expiry has the deadline {@link #NONE} and never expires.
+ * <p>
+ * The deadline and traffic class of the message being handled can be made current for the calling thread, so that
+ * tasks submitted to the WorkerPool on its behalf are ordered by them, see {@link DeadlineTask}.
+ */
+public final class Deadlines
+{
+    /**
+     * The deadline of messages that do not expire.
+     */
+    public static final long NONE = Long.MAX_VALUE;
+
+    private static final ThreadLocal<Context> CURRENT = new ThreadLocal<>();
+
+    private Deadlines() {}
+
+
+    /**
+     * Returns the deadline of a direct application message.
+     *
+     * @param message The message.
+     * @return The deadline, or {@link #NONE} if the message does not expire.
+     */
+    public static long of(@NonNull DirectApplicationMessage message)
+    {
+        return message.hasExpires() ? toMillis(message.getExpires()) : NONE;
+    }
+
+
+    /**
+     * Returns the deadline of a subject cast application message.
+     *
+     * @param message The message.
+     * @return The deadline, or {@link #NONE} if the message does not expire.
+     */
+    public static long of(@NonNull SubjectCastApplicationMessage message)
+    {
+        return message.hasExpires() ? toMillis(message.getExpires()) : NONE;
+    }
+
+
+    /**
+     * Returns whether a deadline has passed.
+     *
+     * @param deadline The deadline.
+     * @return True if the deadline has passed, never for {@link #NONE}.
+     */
+    public static boolean isExpired(long deadline)
+    {
+        return deadline != NONE && System.currentTimeMillis() > deadline;
+    }
+
+
+    /**
+     * Runs an action with a deadline and traffic class as the current ones of the calling thread.
+     *
+     * @param deadline     The deadline.
+     * @param trafficClass The traffic class.
+     * @param action       The action to run.
+     */
+    public static void runWithin(long deadline, @NonNull TrafficClass trafficClass, @NonNull Runnable action)
+    {
+        Context previous = CURRENT.get();
+        CURRENT.set(new Context(deadline, trafficClass));
+
+        try
+        {
+            action.run();
+        }
+
+        finally
+        {
+            if (previous == null)
+            {
+                CURRENT.remove();
+            }
+
+            else
+            {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the current deadline of the calling thread.
+     *
+     * @return The deadline, or {@link #NONE} if the thread is not running within one.
+     */
+    public static long current()
+    {
+        Context context = CURRENT.get();
+        return context == null ? NONE : context.deadline();
+    }
+
+
+    /**
+     * Returns the current traffic class of the calling thread.
+     *
+     * @return The traffic class, or {@link TrafficClass#NORMAL} if the thread is not running within one.
+     */
+    public static TrafficClass currentClass()
+    {
+        Context context = CURRENT.get();
+        return context == null ? TrafficClass.NORMAL : context.trafficClass();
+    }
+
+
+    private static long toMillis(Timestamp timestamp)
+    {
+        return timestamp.getSeconds() * 1000 + timestamp.getNanos() / 1_000_000;
+    }
+
+
+    private record Context(long deadline, TrafficClass trafficClass) {}
+}
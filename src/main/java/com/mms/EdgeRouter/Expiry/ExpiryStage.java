@@ -0,0 +1,37 @@
+package com.mms.EdgeRouter.Expiry;
+
+/**
+ * The points on the path of a message through the router where expired messages are dropped.
+ */
+public enum ExpiryStage
+{
+    /**
+     * The message from a local agent expired before it was parsed, while its frame waited to be read or processed.
+     */
+    INGRESS,
+
+    /**
+     * The message from the broker expired in the broker or on its way to this router.
+     */
+    REMOTE_RECEIVE,
+
+    /**
+     * The task carrying the message expired in the queue of the WorkerPool.
+     */
+    WORKER_POOL,
+
+    /**
+     * The message expired in its delivery lane, before the recipients were looked up.
+     */
+    DELIVERY_LANE,
+
+    /**
+     * The message expired during its fan-out, before it was handed to a recipient session, counted per recipient.
+     */
+    LOCAL_SEND,
+
+    /**
+     * The message expired before it was serialized or published to the broker.
+     */
+    REMOTE_PUBLISH
+}
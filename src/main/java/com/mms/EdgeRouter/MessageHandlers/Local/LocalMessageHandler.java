@@ -1,9 +1,13 @@
 package com.mms.EdgeRouter.MessageHandlers.Local;
 
 import MMTPMessageFormats.*;
+import Misc.MMTPBatch;
 import Misc.MMTPValidationException;
 import Misc.MMTPValidator;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.mms.EdgeRouter.Compression.PayloadCompressor;
+import com.mms.EdgeRouter.Expiry.Deadlines;
+import com.mms.EdgeRouter.Expiry.ExpiryStage;
 import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionCloseRequest;
 import com.mms.EdgeRouter.ConnectionManagement.IConnectionRepository;
 import com.mms.EdgeRouter.MessageHandlers.Events.*;
@@ -12,8 +16,16 @@ import com.mms.EdgeRouter.MessageRelay.Events.LocalSubjectMessageForwardRequest;
 import com.mms.EdgeRouter.MessageRelay.Events.RemoteDirectMessageForwardRequest;
 import com.mms.EdgeRouter.MessageRelay.Events.RemoteSubjectMessageForwardRequest;
 import com.mms.EdgeRouter.MessageRelay.Local.MessageTracker.IMessageTracker;
+import com.mms.EdgeRouter.MessageRelay.Scheduling.IDeliveryScheduler;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Priority.PriorityProperties;
+import com.mms.EdgeRouter.Quota.QuotaEngine;
 import com.mms.EdgeRouter.SubscriptionManagement.Events.SubscriptionEventType;
+import com.mms.EdgeRouter.Tracing.MessageTrace;
+import com.mms.EdgeRouter.Tracing.TraceStage;
 import com.mms.EdgeRouter.WebSocket.Events.LocalMessageEvent;
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import com.mms.EdgeRouter.WebSocket.SessionRateLimiter;
 import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,6 +33,7 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.web.socket.WebSocketSession;
 
 import java.nio.ByteBuffer;
 import java.util.List;
@@ -28,7 +41,7 @@ import java.util.Optional;
 
 /**
  * Service responsible for handling local messages received from agents.
- * Parses the messages and delegates to the appropriate message processor.
+ * Parses the messages, unpacking batches and compressed messages, and delegates to the appropriate message processor.
  * Publishes events to the event bus so that other services can handle the messages.
  * Implements {@link ILocalMessageHandler} interface to handle {@link LocalMessageEvent}s.
  */
@@ -39,6 +52,11 @@ public class LocalMessageHandler implements ILocalMessageHandler
     private final IConnectionRepository connectionRepository;
     private final ApplicationEventPublisher eventPublisher;
     private final IMessageTracker messageTracker;
+    private final IDeliveryScheduler deliveryScheduler;
+    private final RouterMetrics metrics;
+    private final PayloadCompressor compressor;
+    private final PriorityProperties priorities;
+    private final QuotaEngine quotaEngine;
 
 
     /**
@@ -47,79 +65,227 @@ public class LocalMessageHandler implements ILocalMessageHandler
      * @param connectionRepository The connection repository to use.
      * @param eventPublisher       The event publisher to use.
      * @param messageTracker       The message tracker to use.
+     * @param deliveryScheduler    The scheduler used to process the messages of an agent in order.
+     * @param metrics              The metrics of the routing pipeline.
+     * @param compressor           The compressor used to decompress compressed messages.
+     * @param priorities           The rules that assign messages to traffic classes.
+     * @param quotaEngine          The quota engine the messages of batches are counted against.
      */
     @Autowired
-    public LocalMessageHandler(IConnectionRepository connectionRepository, ApplicationEventPublisher eventPublisher, IMessageTracker messageTracker)
+    public LocalMessageHandler(IConnectionRepository connectionRepository, ApplicationEventPublisher eventPublisher, IMessageTracker messageTracker, IDeliveryScheduler deliveryScheduler, RouterMetrics metrics, PayloadCompressor compressor, PriorityProperties priorities, QuotaEngine quotaEngine)
     {
         this.connectionRepository = connectionRepository;
         this.eventPublisher = eventPublisher;
         this.messageTracker = messageTracker;
+        this.deliveryScheduler = deliveryScheduler;
+        this.metrics = metrics;
+        this.compressor = compressor;
+        this.priorities = priorities;
+        this.quotaEngine = quotaEngine;
     }
 
 
     /**
-     * Handles a LocalMessageEvent asynchronously.
+     * Handles a LocalMessageEvent by scheduling it in the delivery lane of the sending agent so that the messages of an
+     * agent are processed in the order they were received.
      *
      * @param event The LocalMessageEvent to handle.
      */
-    @Async("WorkerPool")
     @EventListener
     @Override
     public void onLocalMessage(LocalMessageEvent event)
     {
         String agentID = event.getAgentID();
         ByteBuffer buffer = event.getBuffer();
-        handleLocalMessage(buffer, agentID);
+        MessageTrace trace = event.getTrace();
+        deliveryScheduler.schedule(agentID, () -> handleLocalMessage(buffer, agentID, trace));
     }
 
 
     /**
      * Handles a local message by parsing it and delegating to the appropriate message processor.
+     * Compressed messages are decompressed first, they may contain a batch, and the messages of a batch may be
+     * compressed. All the compressed messages of a frame together may only decompress to the limit of the
+     * {@link PayloadCompressor}.
+     * Runs in the delivery lane of the sending agent.
      *
      * @param buffer  The buffer containing the message.
      * @param agentID The ID of the agent that sent the message.
+     * @param trace   The trace of the message.
      */
-    @Async("WorkerPool")
-    protected void handleLocalMessage(ByteBuffer buffer, String agentID)
+    protected void handleLocalMessage(ByteBuffer buffer, String agentID, MessageTrace trace)
     {
         try
         {
-            ProtocolMessage message = ProtocolMessage.parseFrom(buffer);
-            MessageType type = message.getType();
-            ByteBuffer payload = ByteBuffer.wrap(message.getContent().toByteArray());
+            int maxInflatedBytes = compressor.getMaxInflatedBytes();
+            ProtocolMessage received = ProtocolMessage.parseFrom(buffer);
+            ProtocolMessage message = decompress(received, agentID, maxInflatedBytes);
+            int inflatedBytes = message != received ? message.getSerializedSize() : 0;
+
+            if (message.getType() == MessageType.BATCH)
+            {
+                processBatch(message, agentID, trace, maxInflatedBytes - inflatedBytes);
+            }
 
-            switch (type)
+            else if (message == received || admitContained(message, agentID, true))
             {
-                case DIRECT_APPLICATION_MESSAGE, SUBJECT_CAST_APPLICATION_MESSAGE -> processApplicationMessage(payload, type, agentID);
-                case REGISTER, UNREGISTER -> processRegistrationMessage(payload, type, agentID);
+                processProtocolMessage(message, agentID, trace);
             }
         }
 
         catch (InvalidProtocolBufferException ex)
         {
             log.warn("Error parsing local message from agent={}", agentID, ex);
+            metrics.recordInvalidMessage(RouterMetrics.Source.LOCAL);
             sendCloseRequest(agentID, WebSocketCloseStatus.PROTOCOL_ERROR.code(), "Client sent invalid message");
         }
 
         catch (MMTPValidationException ex)
         {
             log.warn("Error validating local message from agent={}", agentID, ex);
+            metrics.recordInvalidMessage(RouterMetrics.Source.LOCAL);
             sendCloseRequest(agentID, WebSocketCloseStatus.PROTOCOL_ERROR.code(), "Client sent invalid message");
         }
     }
 
 
+    /**
+     * Processes the protocol messages of a batch in order, as if they had arrived in separate frames, each of them
+     * counted against the quotas of the {@link QuotaEngine}. The trace of the frame follows the first message, the
+     * others are not traced. A message that fails to parse or validate stops the batch, the messages before it are
+     * processed. A message refused by a quota is dropped, as a frame refused by a quota would be, and the batch goes on.
+     *
+     * @param batch            The batch protocol message.
+     * @param agentID          The ID of the agent that sent the batch.
+     * @param trace            The trace of the frame.
+     * @param maxInflatedBytes The size the compressed messages of the batch may decompress to together.
+     * @throws InvalidProtocolBufferException If the batch or one of its messages could not be parsed.
+     * @throws MMTPValidationException        If the batch or one of its messages is invalid.
+     */
+    protected void processBatch(ProtocolMessage batch, String agentID, MessageTrace trace, int maxInflatedBytes) throws InvalidProtocolBufferException, MMTPValidationException
+    {
+        List<ProtocolMessage> messages = MMTPBatch.decode(batch.getContent());
+        log.debug("Received batch of {} messages from agent={}", messages.size(), agentID);
+
+        int remainingInflatedBytes = maxInflatedBytes;
+
+        for (int i = 0; i < messages.size(); i++)
+        {
+            ProtocolMessage contained = messages.get(i);
+            ProtocolMessage message = decompress(contained, agentID, remainingInflatedBytes);
+
+            if (message != contained)
+            {
+                remainingInflatedBytes -= message.getSerializedSize();
+            }
+
+            if (message.getType() == MessageType.BATCH)
+            {
+                throw new MMTPValidationException("Batch contains another batch");
+            }
+
+            if (!admitContained(message, agentID, i == 0))
+            {
+                continue;
+            }
+
+            processProtocolMessage(message, agentID, i == 0 ? trace : MessageTrace.NONE);
+        }
+    }
+
+
+    /**
+     * Counts a message that was unpacked from a batch or decompressed against the quotas, which could only count the
+     * frame itself, so that subject quotas apply to it.
+     *
+     * @param message The protocol message.
+     * @param agentID The ID of the agent that sent the message.
+     * @param first   Whether the message is the first of its frame.
+     * @return True if the message is admitted, or the agent disconnected meanwhile.
+     */
+    protected boolean admitContained(ProtocolMessage message, String agentID, boolean first)
+    {
+        if (!quotaEngine.isEnabled())
+        {
+            return true;
+        }
+
+        Optional<WebSocketSession> session = connectionRepository.getSession(agentID);
+        return session.isEmpty() || quotaEngine.admitContained(session.get(), message, first) == null;
+    }
+
+
+    /**
+     * Counts a received protocol message, and decompresses it if it is compressed. The bytes the message decompressed
+     * to beyond its compressed size are counted against the byte rate of the session of the agent, which only counted
+     * the compressed frame, so a session that sends small frames that inflate to large ones has its reads paused.
+     *
+     * @param message          The received protocol message.
+     * @param agentID          The ID of the agent that sent the message.
+     * @param maxInflatedBytes The size the message may decompress to.
+     * @return The message itself, or the protocol message it contains if it is compressed.
+     * @throws InvalidProtocolBufferException If the compressed message could not be parsed.
+     * @throws MMTPValidationException        If the compressed message is invalid or decompresses beyond the limit.
+     */
+    protected ProtocolMessage decompress(ProtocolMessage message, String agentID, int maxInflatedBytes) throws InvalidProtocolBufferException, MMTPValidationException
+    {
+        metrics.recordIngressMessage(message.getType());
+
+        if (message.getType() != MessageType.COMPRESSED)
+        {
+            return message;
+        }
+
+        ProtocolMessage decompressed = compressor.decompress(message, maxInflatedBytes);
+        metrics.recordIngressMessage(decompressed.getType());
+
+        long inflatedBytes = decompressed.getSerializedSize() - message.getSerializedSize();
+
+        if (inflatedBytes > 0)
+        {
+            connectionRepository.getSession(agentID)
+                    .map(session -> session.getAttributes().get(SessionAttributes.RATE_LIMITER))
+                    .ifPresent(rateLimiter -> ((SessionRateLimiter) rateLimiter).acquire(inflatedBytes));
+        }
+
+        return decompressed;
+    }
+
+
+    /**
+     * Processes a single protocol message by delegating to the appropriate processor based on its type.
+     *
+     * @param message The protocol message.
+     * @param agentID The ID of the agent that sent the message.
+     * @param trace   The trace of the message.
+     * @throws InvalidProtocolBufferException If the content of the message could not be parsed.
+     * @throws MMTPValidationException        If the content of the message is invalid.
+     */
+    protected void processProtocolMessage(ProtocolMessage message, String agentID, MessageTrace trace) throws InvalidProtocolBufferException, MMTPValidationException
+    {
+        MessageType type = message.getType();
+        ByteBuffer payload = ByteBuffer.wrap(message.getContent().toByteArray());
+
+        switch (type)
+        {
+            case DIRECT_APPLICATION_MESSAGE, SUBJECT_CAST_APPLICATION_MESSAGE -> processApplicationMessage(payload, type, agentID, trace);
+            case REGISTER, UNREGISTER -> processRegistrationMessage(payload, type, agentID);
+        }
+    }
+
+
     /**
      * Processes an application message by delegating to the appropriate processor based on its type.
      *
      * @param buffer  The buffer containing the application message.
      * @param type    The type of the application message.
      * @param agentID The ID of the agent that sent the message.
+     * @param trace   The trace of the message.
      * @throws InvalidProtocolBufferException If the application message could not be parsed.
      * @throws MMTPValidationException        If the application message is invalid according to the MMTP specification.
      */
     @Async("WorkerPool")
-    protected void processApplicationMessage(ByteBuffer buffer, MessageType type, String agentID) throws InvalidProtocolBufferException, MMTPValidationException
+    protected void processApplicationMessage(ByteBuffer buffer, MessageType type, String agentID, MessageTrace trace) throws InvalidProtocolBufferException, MMTPValidationException
     {
         Optional<String> MRN = connectionRepository.getMRN(agentID);
 
@@ -132,8 +298,8 @@ public class LocalMessageHandler implements ILocalMessageHandler
 
         switch (type)
         {
-            case DIRECT_APPLICATION_MESSAGE -> processDirectApplicationMessage(buffer, agentID);
-            case SUBJECT_CAST_APPLICATION_MESSAGE -> processSubjectCastApplicationMessage(buffer, agentID);
+            case DIRECT_APPLICATION_MESSAGE -> processDirectApplicationMessage(buffer, agentID, MRN.get(), trace);
+            case SUBJECT_CAST_APPLICATION_MESSAGE -> processSubjectCastApplicationMessage(buffer, agentID, MRN.get(), trace);
         }
     }
 
@@ -143,23 +309,39 @@ public class LocalMessageHandler implements ILocalMessageHandler
      *
      * @param buffer  The buffer containing the direct application message.
      * @param agentID The ID of the agent sending the message.
-     * @throws MMTPValidationException        If the message fails MMTP validation.
+     * @param mrn     The MRN of the certificate of the agent.
+     * @param trace   The trace of the message.
+     * @throws MMTPValidationException        If the message fails MMTP validation or its sender is not the agent.
      * @throws InvalidProtocolBufferException If the message is invalid.
      */
     @Async("WorkerPool")
-    protected void processDirectApplicationMessage(ByteBuffer buffer, String agentID) throws InvalidProtocolBufferException, MMTPValidationException
+    protected void processDirectApplicationMessage(ByteBuffer buffer, String agentID, String mrn, MessageTrace trace) throws InvalidProtocolBufferException, MMTPValidationException
     {
         log.debug("Received direct application message from agent={}", agentID);
 
+        long start = System.nanoTime();
         DirectApplicationMessage applicationMessage = DirectApplicationMessage.parseFrom(buffer);
+        long parsed = System.nanoTime();
+        trace.setMessageId(applicationMessage.getId());
+        trace.record(TraceStage.PARSED);
+
+        if (isExpired(applicationMessage.getId(), Deadlines.of(applicationMessage), agentID))
+        {
+            return;
+        }
+
         MMTPValidator.validate(applicationMessage);
+        validateSender(applicationMessage.getSender(), mrn);
+        trace.record(TraceStage.VALIDATED);
+        metrics.recordParse(RouterMetrics.Source.LOCAL, parsed - start);
+        metrics.recordValidate(RouterMetrics.Source.LOCAL, System.nanoTime() - parsed);
 
         messageTracker.registerSent(applicationMessage.getId(), agentID);
-        LocalDirectMessageForwardRequest localForwardRequest = new LocalDirectMessageForwardRequest(this, applicationMessage);
-        RemoteDirectMessageForwardRequest remoteForwardingRequest = new RemoteDirectMessageForwardRequest(this, applicationMessage);
+        LocalDirectMessageForwardRequest localForwardRequest = new LocalDirectMessageForwardRequest(this, applicationMessage, trace);
+        RemoteDirectMessageForwardRequest remoteForwardingRequest = new RemoteDirectMessageForwardRequest(this, applicationMessage, trace);
 
         eventPublisher.publishEvent(localForwardRequest);
-        eventPublisher.publishEvent(remoteForwardingRequest);
+        Deadlines.runWithin(remoteForwardingRequest.getDeadline(), priorities.classify(mrn, null), () -> eventPublisher.publishEvent(remoteForwardingRequest));
     }
 
 
@@ -168,23 +350,79 @@ public class LocalMessageHandler implements ILocalMessageHandler
      *
      * @param buffer  The buffer containing the subject cast application message.
      * @param agentID The ID of the agent sending the message.
-     * @throws MMTPValidationException        If the message fails MMTP validation.
+     * @param mrn     The MRN of the certificate of the agent.
+     * @param trace   The trace of the message.
+     * @throws MMTPValidationException        If the message fails MMTP validation or its sender is not the agent.
      * @throws InvalidProtocolBufferException If the message is invalid.
      */
     @Async("WorkerPool")
-    protected void processSubjectCastApplicationMessage(ByteBuffer buffer, String agentID) throws MMTPValidationException, InvalidProtocolBufferException
+    protected void processSubjectCastApplicationMessage(ByteBuffer buffer, String agentID, String mrn, MessageTrace trace) throws MMTPValidationException, InvalidProtocolBufferException
     {
         log.debug("Received subject cast application message from agent={}", agentID);
 
+        long start = System.nanoTime();
         SubjectCastApplicationMessage applicationMessage = SubjectCastApplicationMessage.parseFrom(buffer);
+        long parsed = System.nanoTime();
+        trace.setMessageId(applicationMessage.getId());
+        trace.record(TraceStage.PARSED);
+
+        if (isExpired(applicationMessage.getId(), Deadlines.of(applicationMessage), agentID))
+        {
+            return;
+        }
+
         MMTPValidator.validate(applicationMessage);
+        validateSender(applicationMessage.getSender(), mrn);
+        trace.record(TraceStage.VALIDATED);
+        metrics.recordParse(RouterMetrics.Source.LOCAL, parsed - start);
+        metrics.recordValidate(RouterMetrics.Source.LOCAL, System.nanoTime() - parsed);
 
         messageTracker.registerSent(applicationMessage.getId(), agentID);
-        LocalSubjectMessageForwardRequest localForwardRequest = new LocalSubjectMessageForwardRequest(this, applicationMessage);
-        RemoteSubjectMessageForwardRequest remoteForwardingRequest = new RemoteSubjectMessageForwardRequest(this, applicationMessage);
+        LocalSubjectMessageForwardRequest localForwardRequest = new LocalSubjectMessageForwardRequest(this, applicationMessage, trace);
+        RemoteSubjectMessageForwardRequest remoteForwardingRequest = new RemoteSubjectMessageForwardRequest(this, applicationMessage, trace);
 
         eventPublisher.publishEvent(localForwardRequest);
-        eventPublisher.publishEvent(remoteForwardingRequest);
+        Deadlines.runWithin(remoteForwardingRequest.getDeadline(), priorities.classify(mrn, applicationMessage.getSubject()), () -> eventPublisher.publishEvent(remoteForwardingRequest));
+    }
+
+
+    /**
+     * Checks that an application message is sent in the name of the agent that sent it. The sender decides the traffic
+     * class of the message, see {@link PriorityProperties}, and the routers the message is relayed to trust it, so an
+     * agent must not be able to claim the MRN of another.
+     *
+     * @param sender The sender of the message.
+     * @param mrn    The MRN of the certificate of the agent.
+     * @throws MMTPValidationException If the sender is not the MRN of the agent.
+     */
+    protected void validateSender(String sender, String mrn) throws MMTPValidationException
+    {
+        if (!sender.equals(mrn))
+        {
+            throw new MMTPValidationException("Sender " + sender + " does not match the MRN of the agent " + mrn);
+        }
+    }
+
+
+    /**
+     * Checks whether an application message expired before it was processed, and counts it as dropped if it did.
+     * Expired messages are dropped rather than refused as invalid, they were valid when the agent sent them.
+     *
+     * @param messageId The ID of the message.
+     * @param deadline  The deadline of the message.
+     * @param agentID   The ID of the agent that sent the message.
+     * @return True if the message expired.
+     */
+    protected boolean isExpired(String messageId, long deadline, String agentID)
+    {
+        if (!Deadlines.isExpired(deadline))
+        {
+            return false;
+        }
+
+        metrics.recordExpired(ExpiryStage.INGRESS);
+        log.debug("Dropping expired message={} from agent={}", messageId, agentID);
+        return true;
     }
 
 
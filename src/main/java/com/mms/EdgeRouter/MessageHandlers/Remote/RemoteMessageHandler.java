@@ -10,6 +10,11 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import com.mms.EdgeRouter.MessageRelay.Events.LocalDirectMessageForwardRequest;
 import com.mms.EdgeRouter.MessageRelay.Events.LocalSubjectMessageForwardRequest;
 import com.mms.EdgeRouter.ActiveMQ.events.RemoteMessageEvent;
+import com.mms.EdgeRouter.Expiry.Deadlines;
+import com.mms.EdgeRouter.Expiry.ExpiryStage;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Tracing.MessageTrace;
+import com.mms.EdgeRouter.Tracing.TraceStage;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
@@ -21,6 +26,7 @@ import java.nio.ByteBuffer;
 
 /**
  * Service responsible for handling remote messages received from other brokers.
+ * Messages that expired on their way here are dropped before they are validated.
  * Implements {@link IRemoteMessageHandler} to handle {@link RemoteMessageEvent}s.
  */
 @Service
@@ -29,32 +35,35 @@ public class RemoteMessageHandler implements IRemoteMessageHandler
 {
 
     private final ApplicationEventPublisher eventPublisher;
+    private final RouterMetrics metrics;
 
 
     /**
      * Constructs a new {@link RemoteMessageHandler} with the given dependencies.
      *
      * @param eventPublisher The event publisher to use.
+     * @param metrics        The metrics of the routing pipeline.
      */
     @Autowired
-    public RemoteMessageHandler(ApplicationEventPublisher eventPublisher)
+    public RemoteMessageHandler(ApplicationEventPublisher eventPublisher, RouterMetrics metrics)
     {
         this.eventPublisher = eventPublisher;
+        this.metrics = metrics;
     }
 
 
     /**
-     * Asynchronously handles a {@link RemoteMessageEvent}.
+     * Handles a {@link RemoteMessageEvent} in the listener thread that received it, so that messages reach the delivery
+     * scheduler in the order the broker delivered them.
      *
      * @param event The RemoteMessageEvent to handle.
      */
-    @Async("WorkerPool")
     @EventListener
     @Override
     public void onRemoteMessage(RemoteMessageEvent event)
     {
         ByteBuffer buffer = event.getBuffer();
-        handleRemoteMessage(buffer);
+        handleRemoteMessage(buffer, event.getTrace());
     }
 
 
@@ -62,9 +71,10 @@ public class RemoteMessageHandler implements IRemoteMessageHandler
      * Handles a remote message by parsing it and delegating to the appropriate message processor.
      *
      * @param buffer The buffer containing the message.
+     * @param trace  The trace of the message.
      */
     @Async("WorkerPool")
-    protected void handleRemoteMessage(ByteBuffer buffer)
+    protected void handleRemoteMessage(ByteBuffer buffer, MessageTrace trace)
     {
         log.info("Handling remote message");
 
@@ -75,17 +85,19 @@ public class RemoteMessageHandler implements IRemoteMessageHandler
 
             switch (type)
             {
-                case DIRECT_APPLICATION_MESSAGE -> processDirectApplicationMessage(message.getContent().asReadOnlyByteBuffer());
-                case SUBJECT_CAST_APPLICATION_MESSAGE -> processSubjectCastApplicationMessage(message.getContent().asReadOnlyByteBuffer());
+                case DIRECT_APPLICATION_MESSAGE -> processDirectApplicationMessage(message.getContent().asReadOnlyByteBuffer(), trace);
+                case SUBJECT_CAST_APPLICATION_MESSAGE -> processSubjectCastApplicationMessage(message.getContent().asReadOnlyByteBuffer(), trace);
             }
         }
         catch (InvalidProtocolBufferException ex)
         {
             log.error("Invalid protocol buffer", ex);
+            metrics.recordInvalidMessage(RouterMetrics.Source.REMOTE);
         }
         catch (MMTPValidationException ex)
         {
             log.error("Invalid MMTP message", ex);
+            metrics.recordInvalidMessage(RouterMetrics.Source.REMOTE);
         }
     }
 
@@ -94,17 +106,32 @@ public class RemoteMessageHandler implements IRemoteMessageHandler
      * Processes a direct application message by validating it and publishing a {@link LocalDirectMessageForwardRequest} event.
      *
      * @param buffer The buffer containing the direct application message.
+     * @param trace  The trace of the message.
      * @throws InvalidProtocolBufferException If the application message could not be parsed.
      * @throws MMTPValidationException        If the application message is invalid according to the MMTP specification.
      */
     @Async("WorkerPool")
-    protected void processDirectApplicationMessage(ByteBuffer buffer) throws InvalidProtocolBufferException, MMTPValidationException
+    protected void processDirectApplicationMessage(ByteBuffer buffer, MessageTrace trace) throws InvalidProtocolBufferException, MMTPValidationException
     {
         log.info("Processing direct application message");
+        long start = System.nanoTime();
         DirectApplicationMessage applicationMessage = DirectApplicationMessage.parseFrom(buffer);
+        long parsed = System.nanoTime();
+        trace.setMessageId(applicationMessage.getId());
+        trace.record(TraceStage.PARSED);
+
+        if (Deadlines.isExpired(Deadlines.of(applicationMessage)))
+        {
+            metrics.recordExpired(ExpiryStage.REMOTE_RECEIVE);
+            return;
+        }
+
         MMTPValidator.validate(applicationMessage);
+        trace.record(TraceStage.VALIDATED);
+        metrics.recordParse(RouterMetrics.Source.REMOTE, parsed - start);
+        metrics.recordValidate(RouterMetrics.Source.REMOTE, System.nanoTime() - parsed);
 
-        LocalDirectMessageForwardRequest forwardRequest = new LocalDirectMessageForwardRequest(this, applicationMessage);
+        LocalDirectMessageForwardRequest forwardRequest = new LocalDirectMessageForwardRequest(this, applicationMessage, trace);
         eventPublisher.publishEvent(forwardRequest);
     }
 
@@ -113,17 +140,32 @@ public class RemoteMessageHandler implements IRemoteMessageHandler
      * Processes a subject cast application message by validating it and publishing a {@link LocalSubjectMessageForwardRequest} event.
      *
      * @param buffer The buffer containing the subject cast application message.
+     * @param trace  The trace of the message.
      * @throws InvalidProtocolBufferException If the application message could not be parsed.
      * @throws MMTPValidationException        If the application message is invalid according to the MMTP specification.
      */
     @Async("WorkerPool")
-    protected void processSubjectCastApplicationMessage(ByteBuffer buffer) throws InvalidProtocolBufferException, MMTPValidationException
+    protected void processSubjectCastApplicationMessage(ByteBuffer buffer, MessageTrace trace) throws InvalidProtocolBufferException, MMTPValidationException
     {
         log.info("Processing subject cast application message");
+        long start = System.nanoTime();
         SubjectCastApplicationMessage applicationMessage = SubjectCastApplicationMessage.parseFrom(buffer);
+        long parsed = System.nanoTime();
+        trace.setMessageId(applicationMessage.getId());
+        trace.record(TraceStage.PARSED);
+
+        if (Deadlines.isExpired(Deadlines.of(applicationMessage)))
+        {
+            metrics.recordExpired(ExpiryStage.REMOTE_RECEIVE);
+            return;
+        }
+
         MMTPValidator.validate(applicationMessage);
+        trace.record(TraceStage.VALIDATED);
+        metrics.recordParse(RouterMetrics.Source.REMOTE, parsed - start);
+        metrics.recordValidate(RouterMetrics.Source.REMOTE, System.nanoTime() - parsed);
 
-        LocalSubjectMessageForwardRequest forwardRequest = new LocalSubjectMessageForwardRequest(this, applicationMessage);
+        LocalSubjectMessageForwardRequest forwardRequest = new LocalSubjectMessageForwardRequest(this, applicationMessage, trace);
         eventPublisher.publishEvent(forwardRequest);
     }
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package com.mms.EdgeRouter.MessageRelay.Events;
 
 import MMTPMessageFormats.DirectApplicationMessage;
+import com.mms.EdgeRouter.Expiry.Deadlines;
+import com.mms.EdgeRouter.Tracing.MessageTrace;
 import org.springframework.context.ApplicationEvent;
 
 import java.nio.ByteBuffer;
@@ -12,17 +14,34 @@ import java.util.List;
 public final class LocalDirectMessageForwardRequest extends ApplicationEvent
 {
     private final DirectApplicationMessage message;
+    private final MessageTrace trace;
+    private final long deadline;
 
     /**
-     * Constructs a new {@link LocalDirectMessageForwardRequest}.
+     * Constructs a new {@link LocalDirectMessageForwardRequest} for a message that is not traced.
      *
      * @param source  The source of the event.
      * @param message The DirectApplicationMessage to forward.
      */
     public LocalDirectMessageForwardRequest(Object source, DirectApplicationMessage message)
+    {
+        this(source, message, MessageTrace.NONE);
+    }
+
+
+    /**
+     * Constructs a new {@link LocalDirectMessageForwardRequest}.
+     *
+     * @param source  The source of the event.
+     * @param message The DirectApplicationMessage to forward.
+     * @param trace   The trace of the message.
+     */
+    public LocalDirectMessageForwardRequest(Object source, DirectApplicationMessage message, MessageTrace trace)
     {
         super(source);
         this.message = message;
+        this.trace = trace;
+        this.deadline = Deadlines.of(message);
     }
 
 
@@ -57,4 +76,26 @@ public final class LocalDirectMessageForwardRequest extends ApplicationEvent
     {
         return message;
     }
+
+
+    /**
+     * Returns the trace of the message.
+     *
+     * @return The trace, {@link MessageTrace#NONE} if the message is not traced.
+     */
+    public MessageTrace getTrace()
+    {
+        return trace;
+    }
+
+
+    /**
+     * Returns the deadline of the message, the instant it expires in milliseconds since the epoch.
+     *
+     * @return The deadline, {@link Deadlines#NONE} if the message does not expire.
+     */
+    public long getDeadline()
+    {
+        return deadline;
+    }
 }
@@ -1,6 +1,8 @@
 package com.mms.EdgeRouter.MessageRelay.Events;
 
 import MMTPMessageFormats.DirectApplicationMessage;
+import com.mms.EdgeRouter.Expiry.Deadlines;
+import com.mms.EdgeRouter.Tracing.MessageTrace;
 import org.springframework.context.ApplicationEvent;
 
 import java.nio.ByteBuffer;
@@ -13,18 +15,35 @@ import java.util.List;
 public class RemoteDirectMessageForwardRequest extends ApplicationEvent
 {
     private final DirectApplicationMessage message;
+    private final MessageTrace trace;
+    private final long deadline;
 
 
     /**
-     * Constructs a new {@link RemoteDirectMessageForwardRequest}.
+     * Constructs a new {@link RemoteDirectMessageForwardRequest} for a message that is not traced.
      *
      * @param source  The source of the event.
      * @param message The DirectApplicationMessage to forward.
      */
     public RemoteDirectMessageForwardRequest(Object source, DirectApplicationMessage message)
+    {
+        this(source, message, MessageTrace.NONE);
+    }
+
+
+    /**
+     * Constructs a new {@link RemoteDirectMessageForwardRequest}.
+     *
+     * @param source  The source of the event.
+     * @param message The DirectApplicationMessage to forward.
+     * @param trace   The trace of the message.
+     */
+    public RemoteDirectMessageForwardRequest(Object source, DirectApplicationMessage message, MessageTrace trace)
     {
         super(source);
         this.message = message;
+        this.trace = trace;
+        this.deadline = Deadlines.of(message);
     }
 
 
@@ -59,4 +78,26 @@ public class RemoteDirectMessageForwardRequest extends ApplicationEvent
     {
         return message;
     }
+
+
+    /**
+     * Returns the trace of the message.
+     *
+     * @return The trace, {@link MessageTrace#NONE} if the message is not traced.
+     */
+    public MessageTrace getTrace()
+    {
+        return trace;
+    }
+
+
+    /**
+     * Returns the deadline of the message, the instant it expires in milliseconds since the epoch.
+     *
+     * @return The deadline, {@link Deadlines#NONE} if the message does not expire.
+     */
+    public long getDeadline()
+    {
+        return deadline;
+    }
 }
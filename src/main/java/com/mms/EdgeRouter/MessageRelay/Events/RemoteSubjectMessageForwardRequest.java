@@ -1,6 +1,8 @@
 package com.mms.EdgeRouter.MessageRelay.Events;
 
 import MMTPMessageFormats.SubjectCastApplicationMessage;
+import com.mms.EdgeRouter.Expiry.Deadlines;
+import com.mms.EdgeRouter.Tracing.MessageTrace;
 import org.springframework.context.ApplicationEvent;
 
 import java.nio.ByteBuffer;
@@ -11,18 +13,35 @@ import java.nio.ByteBuffer;
 public class RemoteSubjectMessageForwardRequest extends ApplicationEvent
 {
     private final SubjectCastApplicationMessage message;
+    private final MessageTrace trace;
+    private final long deadline;
 
 
     /**
-     * Constructs a new {@link RemoteSubjectMessageForwardRequest}.
+     * Constructs a new {@link RemoteSubjectMessageForwardRequest} for a message that is not traced.
      *
      * @param source  The source of the event.
      * @param message The SubjectCastApplicationMessage to forward.
      */
     public RemoteSubjectMessageForwardRequest(Object source, SubjectCastApplicationMessage message)
+    {
+        this(source, message, MessageTrace.NONE);
+    }
+
+
+    /**
+     * Constructs a new {@link RemoteSubjectMessageForwardRequest}.
+     *
+     * @param source  The source of the event.
+     * @param message The SubjectCastApplicationMessage to forward.
+     * @param trace   The trace of the message.
+     */
+    public RemoteSubjectMessageForwardRequest(Object source, SubjectCastApplicationMessage message, MessageTrace trace)
     {
         super(source);
         this.message = message;
+        this.trace = trace;
+        this.deadline = Deadlines.of(message);
     }
 
 
@@ -57,4 +76,26 @@ public class RemoteSubjectMessageForwardRequest extends ApplicationEvent
     {
         return message;
     }
+
+
+    /**
+     * Returns the trace of the message.
+     *
+     * @return The trace, {@link MessageTrace#NONE} if the message is not traced.
+     */
+    public MessageTrace getTrace()
+    {
+        return trace;
+    }
+
+
+    /**
+     * Returns the deadline of the message, the instant it expires in milliseconds since the epoch.
+     *
+     * @return The deadline, {@link Deadlines#NONE} if the message does not expire.
+     */
+    public long getDeadline()
+    {
+        return deadline;
+    }
 }
@@ -5,15 +5,27 @@ import MMTPMessageFormats.MessageType;
 import MMTPMessageFormats.ProtocolMessage;
 import MMTPMessageFormats.SubjectCastApplicationMessage;
 import com.google.protobuf.ByteString;
+import com.mms.EdgeRouter.Compression.CompressedFrames;
+import com.mms.EdgeRouter.Compression.PayloadCompressor;
 import com.mms.EdgeRouter.ConnectionManagement.IConnectionRepository;
+import com.mms.EdgeRouter.Egress.IPrioritySession;
+import com.mms.EdgeRouter.Expiry.Deadlines;
+import com.mms.EdgeRouter.Expiry.ExpiryStage;
 import com.mms.EdgeRouter.MessageRelay.Local.MessageTracker.IMessageTracker;
 import com.mms.EdgeRouter.MessageRelay.Events.LocalDirectMessageForwardRequest;
 import com.mms.EdgeRouter.MessageRelay.Events.LocalSubjectMessageForwardRequest;
+import com.mms.EdgeRouter.MessageRelay.Scheduling.IDeliveryScheduler;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Metrics.SubjectRateMeter;
+import com.mms.EdgeRouter.Priority.PriorityProperties;
+import com.mms.EdgeRouter.Priority.TrafficClass;
 import com.mms.EdgeRouter.SubscriptionManagement.ISubscriptionRepository;
+import com.mms.EdgeRouter.Tracing.MessageTrace;
+import com.mms.EdgeRouter.Tracing.TraceStage;
 import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.WebSocketSession;
@@ -24,6 +36,18 @@ import java.util.List;
 
 /**
  * A service that handles the forwarding of messages locally.
+ * Forwarding requests are scheduled on the {@link IDeliveryScheduler}, keyed by sender and subject (or sender only for
+ * direct messages), and the fan-out to the recipient sessions runs in parallel, in chunks sized to the measured cost of
+ * a send. The time until the last recipient has been handed the message is recorded for every fan-out.
+ * Each message is sent on its own, for agents that accept batch protocol messages the session combines the messages
+ * into batches, see {@link com.mms.EdgeRouter.Egress.EgressBatcher}.
+ * A message is compressed at most once per codec, and the compressed frame is shared by the recipients of that codec,
+ * see {@link PayloadCompressor}.
+ * Messages that expire while they wait in their lane are dropped before the recipients are looked up, and recipients
+ * the fan-out reaches after the message expired are skipped.
+ * Every message belongs to a {@link TrafficClass}, the urgent classes are scheduled in the priority lanes and are sent
+ * ahead of the messages of less urgent classes that still wait for the same agent. The class is taken from the sender,
+ * which the router the sending agent is connected to checked against the certificate of the agent.
  * Implements {@link ILocalRelay} interface.
  */
 @Service
@@ -33,6 +57,11 @@ public class LocalRelay implements ILocalRelay
     private final IConnectionRepository connectionRepository;
     private final ISubscriptionRepository subscriptionRepository;
     private final IMessageTracker messageTracker;
+    private final IDeliveryScheduler deliveryScheduler;
+    private final RouterMetrics metrics;
+    private final PayloadCompressor compressor;
+    private final PriorityProperties priorities;
+    private final SubjectRateMeter subjectRates;
 
 
     /**
@@ -40,77 +69,151 @@ public class LocalRelay implements ILocalRelay
      *
      * @param connectionRepository   The connection repository.
      * @param subscriptionRepository The subscription repository.
+     * @param messageTracker         The message tracker.
+     * @param deliveryScheduler      The scheduler that orders and fans out deliveries.
+     * @param metrics                The metrics of the routing pipeline.
+     * @param compressor             The compressor of the frames to agents that accept compression.
+     * @param priorities             The rules that assign messages to traffic classes.
+     * @param subjectRates           The meter of the message rates of the subjects.
      */
     @Autowired
-    public LocalRelay(IConnectionRepository connectionRepository, ISubscriptionRepository subscriptionRepository, IMessageTracker messageTracker)
+    public LocalRelay(IConnectionRepository connectionRepository, ISubscriptionRepository subscriptionRepository, IMessageTracker messageTracker, IDeliveryScheduler deliveryScheduler, RouterMetrics metrics, PayloadCompressor compressor, PriorityProperties priorities, SubjectRateMeter subjectRates)
     {
         this.connectionRepository = connectionRepository;
         this.subscriptionRepository = subscriptionRepository;
         this.messageTracker = messageTracker;
+        this.deliveryScheduler = deliveryScheduler;
+        this.metrics = metrics;
+        this.compressor = compressor;
+        this.priorities = priorities;
+        this.subjectRates = subjectRates;
     }
 
 
     /**
      * Handles a {@link LocalDirectMessageForwardRequest} event.
+     * Runs in the publishing thread and schedules the delivery in the lane of the sender. A message dropped because the
+     * lane stayed full is registered with the message tracker.
      *
      * @param event The event.
      */
-    @Async("WorkerPool")
     @EventListener
     @Override
     public void onLocalForwardingRequest(LocalDirectMessageForwardRequest event)
     {
         DirectApplicationMessage message = event.getMessage();
-        log.info("Processing subject cast application message={}", message.getId());
-        processDirectApplicationMessage(message);
+        log.info("Processing direct application message={}", message.getId());
+        TrafficClass trafficClass = priorities.classify(message.getSender(), null);
+        if (!deliveryScheduler.schedule(message.getSender(), trafficClass, () -> processDirectApplicationMessage(message, event.getDeadline(), trafficClass, event.getTrace())))
+        {
+            messageTracker.registerDropped(message.getId(), message.getSender());
+        }
     }
 
 
     /**
      * Handles a {@link LocalSubjectMessageForwardRequest} event.
+     * Runs in the publishing thread and schedules the delivery in the lane of the sender and subject. A message dropped
+     * because the lane stayed full is registered with the message tracker.
      *
      * @param event The event.
      */
-    @Async("WorkerPool")
     @EventListener
     @Override
     public void onLocalForwardingRequest(LocalSubjectMessageForwardRequest event)
     {
         SubjectCastApplicationMessage message = event.getMessage();
         log.info("Processing subject cast application message={}", message.getId());
-        processSubjectCastApplicationMessage(message);
+        TrafficClass trafficClass = priorities.classify(message.getSender(), message.getSubject());
+        if (!deliveryScheduler.schedule(message.getSender(), message.getSubject(), trafficClass, () -> processSubjectCastApplicationMessage(message, event.getDeadline(), trafficClass, event.getTrace())))
+        {
+            messageTracker.registerDropped(message.getId(), message.getSender());
+        }
     }
 
 
     /**
      * Sends a direct application message to all subscribers that are present in the recipients list.
+     * The subscribers of the recipients are combined into one set first, so an agent that subscribes to several of
+     * the recipients is sent the message once.
+     * Runs in the delivery lane of the sender.
      *
-     * @param message The message to send.
+     * @param message      The message to send.
+     * @param deadline     The deadline of the message.
+     * @param trafficClass The traffic class of the message.
+     * @param trace        The trace of the message.
      */
-    @Async("WorkerPool")
-    protected void processDirectApplicationMessage(DirectApplicationMessage message)
+    protected void processDirectApplicationMessage(DirectApplicationMessage message, long deadline, TrafficClass trafficClass, MessageTrace trace)
     {
-        List<String> recipients = message.getRecipientsList();
-        List<String> agents = subscriptionRepository.getSubscribersByMrns(recipients);
-        List<WebSocketSession> sessions = connectionRepository.getSessions(agents);
+        trace.record(TraceStage.LOCAL_DISPATCH);
+
+        if (isExpired(message.getId(), deadline))
+        {
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<WebSocketSession> sessions = connectionRepository.getSessions(subscriptionRepository.getSubscriberSlotsByMrns(message.getRecipientsList()));
+        metrics.recordLookup(RouterMetrics.Index.MRN, System.nanoTime() - start);
+
         sessions.removeIf(agent -> messageTracker.checkRebound(message.getId(), agent.getId()) || messageTracker.checkDeliveryStatus(message.getId(), agent.getId()));
-        serializeAndSend(message.toByteString(), MessageType.DIRECT_APPLICATION_MESSAGE, sessions, message.getId());
+        metrics.recordFanOut(MessageType.DIRECT_APPLICATION_MESSAGE, sessions.size());
+        serializeAndSend(message.toByteString(), MessageType.DIRECT_APPLICATION_MESSAGE, sessions, message.getId(), deadline, trafficClass, trace);
     }
 
 
     /**
      * Sends a subject cast application message to all subscribers that are subscribed to the subject.
+     * Runs in the delivery lane of the sender and subject.
      *
-     * @param message The message to send.
+     * @param message      The message to send.
+     * @param deadline     The deadline of the message.
+     * @param trafficClass The traffic class of the message.
+     * @param trace        The trace of the message.
      */
-    @Async("WorkerPool")
-    protected void processSubjectCastApplicationMessage(SubjectCastApplicationMessage message)
+    protected void processSubjectCastApplicationMessage(SubjectCastApplicationMessage message, long deadline, TrafficClass trafficClass, MessageTrace trace)
     {
+        trace.record(TraceStage.LOCAL_DISPATCH);
+
+        if (isExpired(message.getId(), deadline))
+        {
+            return;
+        }
+
+        long start = System.nanoTime();
         String subject = message.getSubject();
-        List<String> agents = subscriptionRepository.getSubscribersBySubject(subject);
-        List<WebSocketSession> sessions = connectionRepository.getSessions(agents);
+        RoaringBitmap slots = subscriptionRepository.getSubscriberSlotsBySubject(subject);
+        List<WebSocketSession> sessions = connectionRepository.getSessions(slots);
+        metrics.recordLookup(RouterMetrics.Index.SUBJECT, System.nanoTime() - start);
+
+        if (!slots.isEmpty())
+        {
+            subjectRates.record(subject);
+        }
+
         sessions.removeIf(agent -> messageTracker.checkRebound(message.getId(), agent.getId()) || messageTracker.checkDeliveryStatus(message.getId(), agent.getId()));
-        serializeAndSend(message.toByteString(), MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, sessions, message.getId());
+        metrics.recordFanOut(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, sessions.size());
+        serializeAndSend(message.toByteString(), MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, sessions, message.getId(), deadline, trafficClass, trace);
+    }
+
+
+    /**
+     * Checks whether a message expired before it is processed, and counts it as dropped if it did.
+     *
+     * @param messageId The ID of the message.
+     * @param deadline  The deadline of the message.
+     * @return True if the message expired.
+     */
+    protected boolean isExpired(String messageId, long deadline)
+    {
+        if (!Deadlines.isExpired(deadline))
+        {
+            return false;
+        }
+
+        metrics.recordExpired(ExpiryStage.DELIVERY_LANE);
+        log.debug("Dropping expired message={} in delivery lane", messageId);
+        return true;
     }
 
 
@@ -129,57 +232,94 @@ public class LocalRelay implements ILocalRelay
 
 
     /**
-     * Sends a {@link ByteBuffer} to a list of {@link WebSocketSession}s.
+     * Sends a {@link ByteBuffer} to a list of {@link WebSocketSession}s, in parallel through the delivery scheduler.
+     * Returns once every open session has been handed the message, in the codec negotiated by the session, or the
+     * message expired.
      *
-     * @param buffer   The buffer to send.
-     * @param sessions The sessions to send the buffer to.
+     * @param buffer       The buffer to send.
+     * @param sessions     The sessions to send the buffer to.
+     * @param messageId    The ID of the message.
+     * @param deadline     The deadline of the message.
+     * @param trafficClass The traffic class of the message.
+     * @param trace        The trace of the message.
      */
-    @Async("WorkerPool")
-    protected void send(ByteBuffer buffer, List<WebSocketSession> sessions, String messageId)
+    protected void send(ByteBuffer buffer, List<WebSocketSession> sessions, String messageId, long deadline, TrafficClass trafficClass, MessageTrace trace)
     {
-        for (WebSocketSession session : sessions)
+        long fanOutStart = System.nanoTime();
+        CompressedFrames frames = compressor.getFrames(buffer);
+
+        deliveryScheduler.fanOut(sessions, session ->
         {
-            if (session.isOpen())
+            if (Deadlines.isExpired(deadline))
+            {
+                metrics.recordExpired(ExpiryStage.LOCAL_SEND);
+            }
+
+            else if (session.isOpen())
             {
+                long start = System.nanoTime();
+
                 try
                 {
-                    sendSocket(new BinaryMessage(buffer), session);
+                    sendSocket(new BinaryMessage(frames.getFrame(session)), session, trafficClass);
+                    long elapsed = System.nanoTime() - start;
+                    metrics.recordSend(elapsed);
+                    trace.record(TraceStage.SEND, elapsed);
                     messageTracker.registerDelivery(session.getId(), messageId);
                 }
 
                 catch (IOException e)
                 {
+                    metrics.recordSendFailure();
                     log.error("Error sending message={} to agent={}", messageId, session.getId(), e);
                 }
             }
+        });
+
+        if (!sessions.isEmpty())
+        {
+            metrics.recordFanOutCompletion(System.nanoTime() - fanOutStart);
         }
+
+        trace.record(TraceStage.LOCAL_DONE);
     }
 
 
     /**
-     * Sends a {@link BinaryMessage} to a {@link WebSocketSession}.
+     * Sends a {@link BinaryMessage} to a {@link WebSocketSession}, in its traffic class if the session queues by class.
      *
-     * @param message The message to send.
-     * @param socket  The socket to send the message to.
+     * @param message      The message to send.
+     * @param socket       The socket to send the message to.
+     * @param trafficClass The traffic class of the message.
      */
-    @Async("WorkerPool")
-    protected void sendSocket(BinaryMessage message, WebSocketSession socket) throws IOException
+    protected void sendSocket(BinaryMessage message, WebSocketSession socket, TrafficClass trafficClass) throws IOException
     {
-        socket.sendMessage(message);
+        if (socket instanceof IPrioritySession prioritySession)
+        {
+            prioritySession.sendMessage(message, trafficClass);
+        }
+
+        else
+        {
+            socket.sendMessage(message);
+        }
     }
 
 
     /**
      * Serializes a protocol message and sends it to a list of sessions.
      *
-     * @param message     The message to send.
-     * @param messageType The type of the message.
-     * @param sessions    The sessions to send the message to.
+     * @param message      The message to send.
+     * @param messageType  The type of the message.
+     * @param sessions     The sessions to send the message to.
+     * @param messageId    The ID of the message.
+     * @param deadline     The deadline of the message.
+     * @param trafficClass The traffic class of the message.
+     * @param trace        The trace of the message.
      */
-    @Async("WorkerPool")
-    protected void serializeAndSend(ByteString message, MessageType messageType, List<WebSocketSession> sessions, String messageId)
+    protected void serializeAndSend(ByteString message, MessageType messageType, List<WebSocketSession> sessions, String messageId, long deadline, TrafficClass trafficClass, MessageTrace trace)
     {
         ByteBuffer buffer = serializeMessage(message, messageType);
-        send(buffer, sessions, messageId);
+        send(buffer, sessions, messageId, deadline, trafficClass, trace);
     }
 }
@@ -6,4 +6,6 @@ public interface IMessageTracker
     boolean checkRebound(String messageId, String agentID);
     void registerDelivery(String messageId, String agentID);
     boolean checkDeliveryStatus(String messageId, String agentID);
+    void registerDropped(String messageId, String agentID);
+    boolean checkDropped(String messageId, String agentID);
 }
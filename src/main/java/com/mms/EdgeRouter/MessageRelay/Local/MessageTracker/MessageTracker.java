@@ -2,6 +2,10 @@ package com.mms.EdgeRouter.MessageRelay.Local.MessageTracker;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import io.netty.util.Timeout;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
@@ -11,9 +15,12 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * A simple cache to keep track of messages that have been sent, so we don't send them back to the same agent, and
- * to track which messages have been delivered to which agents.
+ * to track which messages have been delivered to which agents, and which messages of which agents were dropped
+ * because their delivery lane stayed full.
  * <p>
- * Does not store indefinitely, because messages can have up to 30 days of TTL, which could be a lot.
+ * Does not store indefinitely, because messages can have up to 30 days of TTL, which could be a lot. The caches only
+ * expire entries lazily, while they are written to, so a router that goes quiet would hold on to expired entries. The
+ * caches are therefore cleaned up periodically on the {@link TimerWheel}, one timeout for all entries.
  * <p>
  * A better solution should be implemented in v2.
  */
@@ -23,23 +30,41 @@ public class MessageTracker implements IMessageTracker
 {
     private final Cache<String, String> reboundTracker;
     private final Cache<String, String> deliveryTracker;
+    private final Cache<String, String> droppedTracker;
+    private final Timeout cleanUp;
 
 
     /**
      * Constructs a new {@link MessageTracker} with the given caches.
+     * The hit and miss counts of the caches are published through the given metrics, and the caches are cleaned up
+     * every minute on the given timer. Dropped messages are kept with the size and expiry of the delivery tracker.
      */
-    public MessageTracker(@Value("${mms.reboundTracker.maxSize:20000}") int reboundTrackerMaxSize, @Value("${mms.reboundTracker.expireAfterWrite:10}") int reboundTrackerExpiry, @Value("${mms.deliveryTracker.maxSize:20000}") int deliveryTrackerMaxSize, @Value("${mms.deliveryTracker.expireAfterWrite:10}") int deliveryTrackerExpiry)
+    public MessageTracker(RouterMetrics metrics, TimerWheel timerWheel, @Value("${mms.reboundTracker.maxSize:20000}") int reboundTrackerMaxSize, @Value("${mms.reboundTracker.expireAfterWrite:10}") int reboundTrackerExpiry, @Value("${mms.deliveryTracker.maxSize:20000}") int deliveryTrackerMaxSize, @Value("${mms.deliveryTracker.expireAfterWrite:10}") int deliveryTrackerExpiry)
     {
         this.reboundTracker = CacheBuilder.newBuilder()
                 .maximumSize(reboundTrackerMaxSize)
                 .expireAfterWrite(reboundTrackerExpiry, TimeUnit.MINUTES)
+                .recordStats()
                 .build();
 
         this.deliveryTracker = CacheBuilder.newBuilder()
                 .maximumSize(deliveryTrackerMaxSize)
                 .expireAfterWrite(deliveryTrackerExpiry, TimeUnit.MINUTES)
+                .recordStats()
                 .build();
 
+        this.droppedTracker = CacheBuilder.newBuilder()
+                .maximumSize(deliveryTrackerMaxSize)
+                .expireAfterWrite(deliveryTrackerExpiry, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+
+        metrics.monitorCache(reboundTracker, "reboundTracker");
+        metrics.monitorCache(deliveryTracker, "deliveryTracker");
+        metrics.monitorCache(droppedTracker, "droppedTracker");
+
+        this.cleanUp = timerWheel.scheduleWithFixedDelay(this::cleanUp, 1, 1, TimeUnit.MINUTES);
+
         log.info("MessageTracker initialized with reboundTrackerMaxSize={}, reboundTrackerExpiry={}, deliveryTrackerMaxSize={}, " +
                 "deliveryTrackerExpiry={}", reboundTrackerMaxSize, reboundTrackerExpiry, deliveryTrackerMaxSize, deliveryTrackerExpiry);
     }
@@ -101,4 +126,54 @@ public class MessageTracker implements IMessageTracker
         String cachedAgentId = deliveryTracker.getIfPresent(messageId);
         return cachedAgentId != null && cachedAgentId.equals(agentID);
     }
+
+
+    /**
+     * Registers that a message of an agent was dropped before it was delivered, because its delivery lane stayed full.
+     *
+     * @param messageId The ID of the message.
+     * @param agentID   The ID of the agent that sent the message.
+     */
+    @Override
+    public void registerDropped(String messageId, String agentID)
+    {
+        log.warn("Registering dropped message={} from agent={}", messageId, agentID);
+        droppedTracker.put(messageId, agentID);
+    }
+
+
+    /**
+     * Checks if a message of an agent was dropped before it was delivered.
+     *
+     * @param messageId The ID of the message.
+     * @param agentID   The ID of the agent.
+     * @return True if the message of the agent was dropped, false otherwise.
+     */
+    @Override
+    public boolean checkDropped(String messageId, String agentID)
+    {
+        String cachedAgentId = droppedTracker.getIfPresent(messageId);
+        return cachedAgentId != null && cachedAgentId.equals(agentID);
+    }
+
+
+    /**
+     * Removes the expired entries of the caches.
+     */
+    public void cleanUp()
+    {
+        reboundTracker.cleanUp();
+        deliveryTracker.cleanUp();
+        droppedTracker.cleanUp();
+    }
+
+
+    /**
+     * Stops the periodic cleanup before the object is destroyed.
+     */
+    @PreDestroy
+    public void destroy()
+    {
+        cleanUp.cancel();
+    }
 }
@@ -5,13 +5,21 @@ import MMTPMessageFormats.MessageType;
 import MMTPMessageFormats.ProtocolMessage;
 import MMTPMessageFormats.SubjectCastApplicationMessage;
 import com.google.protobuf.ByteString;
+import com.mms.EdgeRouter.Expiry.Deadlines;
+import com.mms.EdgeRouter.Expiry.ExpiryStage;
 import com.mms.EdgeRouter.MessageRelay.Events.RemoteDirectMessageForwardRequest;
 import com.mms.EdgeRouter.MessageRelay.Events.RemoteSubjectMessageForwardRequest;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Tracing.MessageTrace;
+import com.mms.EdgeRouter.Tracing.MessageTracer;
+import com.mms.EdgeRouter.Tracing.TraceStage;
 import jakarta.jms.BytesMessage;
 import jakarta.jms.DeliveryMode;
+import jakarta.jms.Message;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
+import org.springframework.jms.JmsException;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
@@ -21,23 +29,29 @@ import java.util.List;
 
 /**
  * This class represents a message relay that sends application messages to remote agents via JMS/ActiveMQ over TCP.
+ * Messages that expired before they are serialized or published are dropped. The rest are published with a time to
+ * live of what is left until they expire, so that the broker discards them once they expire, as far as the clocks of
+ * this router and the broker agree.
  */
 @Slf4j
 @Component
 public class RemoteRelay
 {
     private final JmsTemplate jmsTemplate;
+    private final RouterMetrics metrics;
 
 
     /**
      * Constructs a new instance of {@link RemoteRelay}.
      *
      * @param jmsTemplate The JmsTemplate to use for sending messages.
+     * @param metrics     The metrics of the routing pipeline.
      */
     @Autowired
-    public RemoteRelay(JmsTemplate jmsTemplate)
+    public RemoteRelay(JmsTemplate jmsTemplate, RouterMetrics metrics)
     {
         this.jmsTemplate = jmsTemplate;
+        this.metrics = metrics;
     }
 
 
@@ -53,7 +67,7 @@ public class RemoteRelay
         DirectApplicationMessage message = event.getMessage();
         log.info("Processing direct application message={}", message.getId());
         List<String> destinations = event.getRecipients();
-        serializeAndSend(MessageType.DIRECT_APPLICATION_MESSAGE, message.toByteString(), destinations);
+        serializeAndSend(MessageType.DIRECT_APPLICATION_MESSAGE, message.toByteString(), destinations, event.getDeadline(), event.getTrace());
     }
 
 
@@ -69,7 +83,7 @@ public class RemoteRelay
         SubjectCastApplicationMessage message = event.getMessage();
         log.info("Processing subject cast application message={}", message.getId());
         String subject = event.getSubject();
-        serializeAndSend(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, message.toByteString(), List.of(subject));
+        serializeAndSend(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, message.toByteString(), List.of(subject), event.getDeadline(), event.getTrace());
     }
 
 
@@ -93,20 +107,55 @@ public class RemoteRelay
 
     /**
      * Sends a ByteBuffer to a JMS destination.
+     * Traced messages carry their trace ID and send time as JMS properties, so the receiving router continues the trace.
+     * The message is sent through the producer directly so that it gets the time to live of the message, the template
+     * applies a single one to all messages.
      *
      * @param destination The name of the JMS destination to send the message to.
      * @param payload     The ByteBuffer payload to send.
+     * @param deadline    The deadline of the message.
+     * @param trace       The trace of the message.
      */
     @Async("WorkerPool")
-    protected void sendBytes(String destination, ByteBuffer payload)
+    protected void sendBytes(String destination, ByteBuffer payload, long deadline, MessageTrace trace)
     {
-        jmsTemplate.send(destination, session ->
+        if (Deadlines.isExpired(deadline))
         {
-            BytesMessage message = session.createBytesMessage();
-            message.writeBytes(payload.array());
-            message.setJMSDeliveryMode(DeliveryMode.NON_PERSISTENT);
-            return message;
-        });
+            metrics.recordExpired(ExpiryStage.REMOTE_PUBLISH);
+            return;
+        }
+
+        // A time to live of 0 means that the message never expires, so a message that is due gets at least 1
+        long timeToLive = deadline == Deadlines.NONE ? Message.DEFAULT_TIME_TO_LIVE : Math.max(1, deadline - System.currentTimeMillis());
+
+        long start = System.nanoTime();
+
+        try
+        {
+            jmsTemplate.execute(destination, (session, producer) ->
+            {
+                BytesMessage message = session.createBytesMessage();
+                message.writeBytes(payload.array());
+
+                if (trace.isSampled())
+                {
+                    message.setStringProperty(MessageTracer.TRACE_ID_PROPERTY, trace.getTraceId());
+                    message.setLongProperty(MessageTracer.SENT_AT_PROPERTY, MessageTracer.currentTimeMicros());
+                }
+
+                producer.send(message, DeliveryMode.NON_PERSISTENT, Message.DEFAULT_PRIORITY, timeToLive);
+                return null;
+            });
+
+            long elapsed = System.nanoTime() - start;
+            metrics.recordJmsPublish(elapsed);
+            trace.record(TraceStage.JMS_PUBLISHED, elapsed);
+        }
+        catch (JmsException ex)
+        {
+            metrics.recordJmsPublishFailure();
+            throw ex;
+        }
     }
 
 
@@ -116,16 +165,24 @@ public class RemoteRelay
      * @param messageType  The MessageType to use for the serialized message.
      * @param message      The ByteString message to serialize.
      * @param destinations The list of destinations to send the message to.
+     * @param deadline     The deadline of the message.
+     * @param trace        The trace of the message.
      */
     @Async("WorkerPool")
-    protected void serializeAndSend(MessageType messageType, ByteString message, List<String> destinations)
+    protected void serializeAndSend(MessageType messageType, ByteString message, List<String> destinations, long deadline, MessageTrace trace)
     {
+        if (Deadlines.isExpired(deadline))
+        {
+            metrics.recordExpired(ExpiryStage.REMOTE_PUBLISH);
+            return;
+        }
+
         ByteBuffer buffer = serializeMessage(message, messageType);
 
         for (String destination : destinations)
         {
             log.info("Sending message to destination={}", destination);
-            sendBytes(destination, buffer);
+            sendBytes(destination, buffer, deadline, trace);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,406 @@
+package com.mms.EdgeRouter.MessageRelay.Scheduling;
+
+import com.mms.EdgeRouter.Admission.QueueDelayMonitor;
+import com.mms.EdgeRouter.Admission.QueueKind;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Priority.TrafficClass;
+import jakarta.annotation.PreDestroy;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * DeliveryScheduler executes message processing in a fixed number of ordered lanes, and fans a single message out to
+ * its recipients in parallel on the FanOutPool.
+ * <p>
+ * Every task is submitted with an ordering key, and the key is hashed to one lane. A lane is a single thread with a
+ * bounded FIFO queue, so tasks in one lane run one at a time and in submission order. Different lanes run in
+ * parallel. Because a fan-out only returns once every recipient has been handed the message, the lane does not start
+ * the next task before the previous message has been queued on all of its recipient sessions.
+ * <p>
+ * Ordering guarantees:
+ * - Tasks submitted with the same ordering key run in the order they were submitted, never concurrently.
+ * - Messages from locally connected agents enter the agent's lane (keyed by agent ID) in the order the frames were
+ *   admitted by the rate limiter, and messages received from the broker enter in the order the listener received them.
+ * - For a given recipient, two messages with the same sender and subject are handed to its session in the order they
+ *   were scheduled. Direct messages are keyed by sender only, so they keep per-sender order.
+ * - Nothing is guaranteed between tasks with different keys, even if they happen to share a lane.
+ * <p>
+ * Tasks of the urgent traffic classes run in a separate, smaller set of priority lanes, so that a distress message does
+ * not wait behind a bulk cast that happens to share its lane. The class of a message only depends on its sender and
+ * subject, so the tasks of one ordering key always take the same set of lanes and the guarantees above hold.
+ * <p>
+ * A fan-out to many recipients is split into chunks that are sent in parallel on the FanOutPool. The chunk size follows
+ * the measured cost of a single send, so that a chunk takes about the target chunk time: sends that only queue a
+ * message on a session make large chunks, and slow sends make small chunks that spread over more workers.
+ * <p>
+ * Lanes are bounded instead of buffering without bound. A lane that is filling up reports itself as congested, so that
+ * the sessions of the agents whose frames enter it stop being read, see {@link #isCongested(String)}. A caller that
+ * finds its lane full waits for room for a short while, which holds back the broker listener and the lanes that feed
+ * it, and keeps the order of its tasks. A task that still finds no room is dropped, counted in the metrics and
+ * reported to the caller, so that the message it carried can be accounted for. The time tasks wait in a lane is
+ * reported to the {@link QueueDelayMonitor}, which drives admission control.
+ */
+@Slf4j
+@Service
+public class DeliveryScheduler implements IDeliveryScheduler
+{
+    private static final double SEND_COST_WEIGHT = 0.1;
+    private static final int CONGESTION_HEADROOM_DIVISOR = 4;
+
+    private final ThreadPoolExecutor[] lanes;
+    private final ThreadPoolExecutor[] priorityLanes;
+    private final ForkJoinPool fanOutPool;
+    private final QueueDelayMonitor delayMonitor;
+    private final RouterMetrics metrics;
+    private final int parallelFanOutThreshold;
+    private final long fanOutChunkNanos;
+    private final int congestionHeadroom;
+    private final long laneFullWaitNanos;
+
+    private volatile double sendCostNanos;
+
+
+    /**
+     * Constructs a new {@link DeliveryScheduler}.
+     *
+     * @param fanOutPool              The pool used to send to the recipients of one message in parallel.
+     * @param delayMonitor            The monitor the waiting time of tasks in the lanes is reported to.
+     * @param metrics                 The metrics dropped tasks are counted in.
+     * @param laneCount               The number of ordered lanes, 0 means two per available processor.
+     * @param priorityLaneCount       The number of ordered lanes for the urgent traffic classes, at least 1.
+     * @param laneQueueCapacity       The maximum number of pending tasks in a single lane.
+     * @param parallelFanOutThreshold The number of recipients above which a fan-out may be split across the FanOutPool.
+     * @param fanOutChunkMicros       The time in microseconds a chunk of a parallel fan-out should take.
+     * @param laneFullWaitMillis      How long a caller waits for room in a full lane before its task is dropped.
+     */
+    @Autowired
+    public DeliveryScheduler(@NonNull @Qualifier("FanOutPool") ForkJoinPool fanOutPool, @NonNull QueueDelayMonitor delayMonitor, @NonNull RouterMetrics metrics, @Value("${delivery-scheduler.lanes:0}") int laneCount, @Value("${delivery-scheduler.priority-lanes:2}") int priorityLaneCount, @Value("${delivery-scheduler.lane-queue-capacity:1000}") int laneQueueCapacity, @Value("${delivery-scheduler.parallel-fan-out-threshold:8}") int parallelFanOutThreshold, @Value("${delivery-scheduler.fan-out-chunk-micros:50}") long fanOutChunkMicros, @Value("${delivery-scheduler.lane-full-wait-millis:100}") long laneFullWaitMillis)
+    {
+        int effectiveLaneCount = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors() * 2;
+        this.fanOutPool = fanOutPool;
+        this.delayMonitor = delayMonitor;
+        this.metrics = metrics;
+        this.parallelFanOutThreshold = Math.max(1, parallelFanOutThreshold);
+        this.fanOutChunkNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(1, fanOutChunkMicros));
+        this.congestionHeadroom = Math.max(1, laneQueueCapacity / CONGESTION_HEADROOM_DIVISOR);
+        this.laneFullWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, laneFullWaitMillis));
+        this.lanes = createLanes(effectiveLaneCount, laneQueueCapacity, "DeliveryLane-");
+        this.priorityLanes = createLanes(Math.max(1, priorityLaneCount), laneQueueCapacity, "PriorityLane-");
+
+        log.info("DeliveryScheduler initialized with lanes={}, priorityLanes={}, laneQueueCapacity={}, parallelFanOutThreshold={}, fanOutChunkMicros={}, laneFullWaitMillis={}", effectiveLaneCount, priorityLanes.length, laneQueueCapacity, this.parallelFanOutThreshold, Math.max(1, fanOutChunkMicros), laneFullWaitMillis);
+    }
+
+
+    /**
+     * Schedules a task in the lane of the given ordering key.
+     *
+     * @param orderingKey The key that decides the lane, tasks with the same key run in submission order.
+     * @param task        The task to run.
+     * @return True if the task was queued, false if it was dropped.
+     */
+    @Override
+    public boolean schedule(@NonNull String orderingKey, @NonNull Runnable task)
+    {
+        return execute(lanes, orderingKey.hashCode(), task);
+    }
+
+
+    /**
+     * Schedules a task in the lane of the given sender and subject, without building a composite key.
+     *
+     * @param sender  The sender of the message.
+     * @param subject The subject of the message.
+     * @param task    The task to run.
+     * @return True if the task was queued, false if it was dropped.
+     */
+    @Override
+    public boolean schedule(@NonNull String sender, @NonNull String subject, @NonNull Runnable task)
+    {
+        return execute(lanes, 31 * sender.hashCode() + subject.hashCode(), task);
+    }
+
+
+    /**
+     * Schedules a task in the lane of the given ordering key, among the priority lanes if the class is urgent.
+     *
+     * @param orderingKey  The key that decides the lane, tasks with the same key run in submission order.
+     * @param trafficClass The class of the message, the same for every task with the key.
+     * @param task         The task to run.
+     * @return True if the task was queued, false if it was dropped.
+     */
+    @Override
+    public boolean schedule(@NonNull String orderingKey, @NonNull TrafficClass trafficClass, @NonNull Runnable task)
+    {
+        return execute(trafficClass.isUrgent() ? priorityLanes : lanes, orderingKey.hashCode(), task);
+    }
+
+
+    /**
+     * Schedules a task in the lane of the given sender and subject, among the priority lanes if the class is urgent.
+     *
+     * @param sender       The sender of the message.
+     * @param subject      The subject of the message.
+     * @param trafficClass The class of the message, the same for every task with the sender and subject.
+     * @param task         The task to run.
+     * @return True if the task was queued, false if it was dropped.
+     */
+    @Override
+    public boolean schedule(@NonNull String sender, @NonNull String subject, @NonNull TrafficClass trafficClass, @NonNull Runnable task)
+    {
+        return execute(trafficClass.isUrgent() ? priorityLanes : lanes, 31 * sender.hashCode() + subject.hashCode(), task);
+    }
+
+
+    /**
+     * Returns whether the lane of an ordering key is filling up, so that whoever feeds it should hold back. A lane is
+     * congested once less than a quarter of its capacity is left. Only the regular lanes are checked, the priority
+     * lanes are not fed from agent sessions directly.
+     *
+     * @param orderingKey The key that decides the lane.
+     * @return True if the lane has little room left.
+     */
+    @Override
+    public boolean isCongested(@NonNull String orderingKey)
+    {
+        return lanes[laneOf(lanes, orderingKey.hashCode())].getQueue().remainingCapacity() < congestionHeadroom;
+    }
+
+
+    /**
+     * Applies an action to every target, splitting the targets into chunks that run in parallel on the FanOutPool when
+     * there are more targets than the parallel fan-out threshold and sending to all of them would take longer than one
+     * chunk. Returns once the action has been applied to every target.
+     * <p>
+     * The chunk size is the number of sends that take the target chunk time at the average cost of a send, but no
+     * more than an equal share of the targets per worker. The average is a moving average over the recent fan-outs,
+     * until the first measurement the targets are split into one chunk per worker.
+     *
+     * @param targets The targets, typically the recipient sessions of one message.
+     * @param action  The action to apply to each target.
+     * @param <T>     The type of the targets.
+     */
+    @Override
+    public <T> void fanOut(@NonNull List<T> targets, @NonNull Consumer<T> action)
+    {
+        int size = targets.size();
+        double cost = sendCostNanos;
+
+        if (size <= parallelFanOutThreshold || (cost > 0 && size * cost <= fanOutChunkNanos))
+        {
+            long start = System.nanoTime();
+            targets.forEach(target -> deliver(target, action));
+            updateSendCost(System.nanoTime() - start, size);
+            return;
+        }
+
+        int share = (size + fanOutPool.getParallelism() - 1) / fanOutPool.getParallelism();
+        int chunkSize = cost > 0 ? (int) Math.max(1, Math.min(share, fanOutChunkNanos / cost)) : share;
+        AtomicLong busyNanos = new AtomicLong();
+
+        fanOutPool.invoke(new FanOutTask<>(targets, target -> deliver(target, action), 0, size, chunkSize, busyNanos));
+        updateSendCost(busyNanos.get(), size);
+    }
+
+
+    /**
+     * Returns the moving average of the time a single send of a fan-out takes, 0 before the first fan-out.
+     *
+     * @return The average time in nanoseconds.
+     */
+    public double getSendCostNanos()
+    {
+        return sendCostNanos;
+    }
+
+
+    /**
+     * Returns whether every lane has run all of the tasks submitted to it so far.
+     *
+     * @return True if no task is running or waiting in any lane.
+     */
+    @Override
+    public boolean isIdle()
+    {
+        return isIdle(lanes) && isIdle(priorityLanes);
+    }
+
+
+    /**
+     * Folds the cost of the sends of one fan-out into the moving average. Concurrent fan-outs may overwrite each
+     * other's update, which only delays the average a little.
+     *
+     * @param busyNanos The time spent sending.
+     * @param sends     The number of sends.
+     */
+    private void updateSendCost(long busyNanos, int sends)
+    {
+        if (sends == 0)
+        {
+            return;
+        }
+
+        double sample = (double) busyNanos / sends;
+        double previous = sendCostNanos;
+        sendCostNanos = previous == 0 ? sample : previous + SEND_COST_WEIGHT * (sample - previous);
+    }
+
+
+    /**
+     * Creates a set of lanes, each a single thread with a bounded queue.
+     *
+     * @param count         The number of lanes.
+     * @param queueCapacity The maximum number of pending tasks in a single lane.
+     * @param namePrefix    The prefix of the names of the lane threads.
+     * @return The lanes.
+     */
+    private static ThreadPoolExecutor[] createLanes(int count, int queueCapacity, String namePrefix)
+    {
+        ThreadPoolExecutor[] created = new ThreadPoolExecutor[count];
+        AtomicInteger laneNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> new Thread(runnable, namePrefix + laneNumber.getAndIncrement());
+
+        for (int i = 0; i < count; i++)
+        {
+            created[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueCapacity), threadFactory);
+            created[i].prestartAllCoreThreads();
+        }
+
+        return created;
+    }
+
+
+    /**
+     * Submits a task to the lane selected by the given hash. If the lane is full, the caller waits for room up to the
+     * configured time, it is the only one that submits its own tasks, so their order is kept. The task is dropped if
+     * the lane is still full then, or shutting down.
+     *
+     * @param lanes The set of lanes to select from.
+     * @param hash  The hash of the ordering key.
+     * @param task  The task to run.
+     * @return True if the task was queued, false if it was dropped.
+     */
+    private boolean execute(ThreadPoolExecutor[] lanes, int hash, Runnable task)
+    {
+        int lane = laneOf(lanes, hash);
+        ThreadPoolExecutor executor = lanes[lane];
+        Runnable timed = delayMonitor.timed(QueueKind.DELIVERY_LANE, () -> runSafely(task));
+
+        try
+        {
+            executor.execute(timed);
+            return true;
+        }
+
+        catch (RejectedExecutionException ex)
+        {
+            // The lane is full or shutting down
+        }
+
+        try
+        {
+            // The lane threads are started up front, so a task put on the queue directly is run like an executed one
+            if (!executor.isShutdown() && executor.getQueue().offer(timed, laneFullWaitNanos, TimeUnit.NANOSECONDS))
+            {
+                return true;
+            }
+        }
+
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        metrics.recordDeliveryDropped();
+        log.warn("Delivery lane={} dropped task, lane stayed full or is shutting down", lane);
+        return false;
+    }
+
+
+    private static int laneOf(ThreadPoolExecutor[] lanes, int hash)
+    {
+        return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+    }
+
+
+    /**
+     * Runs a task, logging any exception so that a failing task does not kill the lane thread.
+     *
+     * @param task The task to run.
+     */
+    private void runSafely(Runnable task)
+    {
+        try
+        {
+            task.run();
+        }
+
+        catch (RuntimeException ex)
+        {
+            log.error("Error running delivery task", ex);
+        }
+    }
+
+
+    /**
+     * Applies the action to a single target, logging any exception so that one failing recipient does not abort the
+     * rest of the fan-out.
+     *
+     * @param target The target.
+     * @param action The action to apply.
+     * @param <T>    The type of the target.
+     */
+    private <T> void deliver(T target, Consumer<T> action)
+    {
+        try
+        {
+            action.accept(target);
+        }
+
+        catch (RuntimeException ex)
+        {
+            log.error("Error delivering to target={}", target, ex);
+        }
+    }
+
+
+    private static boolean isIdle(ThreadPoolExecutor[] lanes)
+    {
+        for (ThreadPoolExecutor lane : lanes)
+        {
+            if (lane.getActiveCount() > 0 || !lane.getQueue().isEmpty())
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Stops all lanes before the object is destroyed, pending tasks are discarded.
+     */
+    @PreDestroy
+    public void destroy()
+    {
+        for (ThreadPoolExecutor lane : lanes)
+        {
+            lane.shutdownNow();
+        }
+
+        for (ThreadPoolExecutor lane : priorityLanes)
+        {
+            lane.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.mms.EdgeRouter.MessageRelay.Scheduling;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A fan-out of one message over a range of its targets on the FanOutPool. A range larger than the chunk size is split
+ * in halves that are forked, so idle workers steal the other half of a large range instead of waiting on a fixed
+ * partition, and a range of at most the chunk size is delivered in a loop on the current worker.
+ * <p>
+ * The time spent delivering is summed over all chunks of the fan-out, so that the scheduler can learn the cost of a
+ * single send, see {@link DeliveryScheduler#fanOut(List, Consumer)}.
+ *
+ * @param <T> The type of the targets.
+ */
+final class FanOutTask<T> extends RecursiveAction
+{
+    private final List<T> targets;
+    private final Consumer<T> deliver;
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+    private final AtomicLong busyNanos;
+
+
+    /**
+     * Constructs a new {@link FanOutTask}.
+     *
+     * @param targets   All targets of the fan-out.
+     * @param deliver   Delivers to a single target, must not throw.
+     * @param from      The index of the first target of the range, inclusive.
+     * @param to        The index of the last target of the range, exclusive.
+     * @param chunkSize The largest range that is delivered without splitting it further.
+     * @param busyNanos The time spent delivering by all chunks of the fan-out.
+     */
+    FanOutTask(List<T> targets, Consumer<T> deliver, int from, int to, int chunkSize, AtomicLong busyNanos)
+    {
+        this.targets = targets;
+        this.deliver = deliver;
+        this.from = from;
+        this.to = to;
+        this.chunkSize = chunkSize;
+        this.busyNanos = busyNanos;
+    }
+
+
+    @Override
+    protected void compute()
+    {
+        if (to - from <= chunkSize)
+        {
+            long start = System.nanoTime();
+
+            for (int i = from; i < to; i++)
+            {
+                deliver.accept(targets.get(i));
+            }
+
+            busyNanos.addAndGet(System.nanoTime() - start);
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        invokeAll(new FanOutTask<>(targets, deliver, from, middle, chunkSize, busyNanos), new FanOutTask<>(targets, deliver, middle, to, chunkSize, busyNanos));
+    }
+}
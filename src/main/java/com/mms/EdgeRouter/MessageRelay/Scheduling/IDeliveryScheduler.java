@@ -0,0 +1,27 @@
+package com.mms.EdgeRouter.MessageRelay.Scheduling;
+
+import com.mms.EdgeRouter.Priority.TrafficClass;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Contract for a scheduler that executes message processing in ordered lanes and fans a single message out to
+ * its recipients in parallel.
+ */
+public interface IDeliveryScheduler
+{
+    boolean schedule(String orderingKey, Runnable task);
+
+    boolean schedule(String sender, String subject, Runnable task);
+
+    boolean schedule(String orderingKey, TrafficClass trafficClass, Runnable task);
+
+    boolean schedule(String sender, String subject, TrafficClass trafficClass, Runnable task);
+
+    boolean isCongested(String orderingKey);
+
+    <T> void fanOut(List<T> targets, Consumer<T> action);
+
+    boolean isIdle();
+}
@@ -0,0 +1,465 @@
+package com.mms.EdgeRouter.Metrics;
+
+import MMTPMessageFormats.MessageType;
+import com.google.common.cache.Cache;
+import com.mms.EdgeRouter.Admission.QueueKind;
+import com.mms.EdgeRouter.Expiry.ExpiryStage;
+import com.mms.EdgeRouter.Quota.QuotaScope;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Holds the meters of the routing pipeline, from the WebSocket ingress to the local sends and the JMS hand-off.
+ * <p>
+ * All meters are registered up front and kept in fields, so recording a value on the hot path is a field read and an
+ * update of the meter, without a registry lookup or allocation. Tags are limited to small, fixed sets (message type,
+ * message source, subscription index), never agent IDs, MRNs, subjects or message IDs, so the number of time series
+ * does not grow with traffic.
+ */
+@Slf4j
+@Component
+public class RouterMetrics
+{
+    /**
+     * Where a message entered the router.
+     */
+    public enum Source
+    {
+        LOCAL, REMOTE
+    }
+
+
+    /**
+     * The index a subscription lookup is served from.
+     */
+    public enum Index
+    {
+        SUBJECT, MRN
+    }
+
+
+    private static final String PREFIX = "edgerouter.";
+
+    private final MeterRegistry registry;
+
+    private final Counter ingressFrames;
+    private final DistributionSummary ingressBytes;
+    private final Counter ingressPaused;
+    private final Counter connectionsRejected;
+    private final Timer tlsFullHandshakes;
+    private final Timer tlsResumedHandshakes;
+    private final Counter tlsHandshakeFailures;
+    private final Map<QuotaScope, Counter> quotaRejections = new EnumMap<>(QuotaScope.class);
+    private final Map<QueueKind, Timer> queueDelayTimers = new EnumMap<>(QueueKind.class);
+    private final Map<ExpiryStage, Counter> expiredMessages = new EnumMap<>(ExpiryStage.class);
+    private final Counter admissionDecreases;
+    private final Map<MessageType, Counter> ingressMessages = new EnumMap<>(MessageType.class);
+
+    private final Map<Source, Timer> parseTimers = new EnumMap<>(Source.class);
+    private final Map<Source, Timer> validateTimers = new EnumMap<>(Source.class);
+    private final Map<Source, Counter> invalidMessages = new EnumMap<>(Source.class);
+    private final Map<Index, Timer> lookupTimers = new EnumMap<>(Index.class);
+    private final Map<MessageType, DistributionSummary> fanOutSizes = new EnumMap<>(MessageType.class);
+
+    private final Timer sendTimer;
+    private final Timer fanOutCompletionTimer;
+    private final Counter sendFailures;
+    private final Counter deliveryDrops;
+    private final DistributionSummary egressBatchMessages;
+    private final DistributionSummary egressBatchBytes;
+    private final Counter compressionInputBytes;
+    private final Counter compressionOutputBytes;
+    private final Timer jmsPublishTimer;
+    private final Counter jmsPublishFailures;
+    private final Timer jmsConsumeTimer;
+    private final Timer jmsTransitTimer;
+    private final Counter drainClosedConnections;
+    private final Counter drainUndeliveredBytes;
+    private final Counter livenessProbes;
+    private final Counter livenessEvictions;
+
+
+    /**
+     * Constructs a new {@link RouterMetrics} and registers all meters in the given registry.
+     *
+     * @param registry The registry to register the meters in.
+     */
+    @Autowired
+    public RouterMetrics(MeterRegistry registry)
+    {
+        this.registry = registry;
+
+        this.ingressFrames = Counter.builder(PREFIX + "ingress.frames")
+                .description("Binary frames received from agents")
+                .register(registry);
+
+        this.ingressBytes = DistributionSummary.builder(PREFIX + "ingress.bytes")
+                .description("Size of the binary frames received from agents")
+                .baseUnit("bytes")
+                .register(registry);
+
+        this.ingressPaused = Counter.builder(PREFIX + "ingress.paused")
+                .description("Times reading from an agent was paused because it exceeded its byte rate")
+                .register(registry);
+
+        this.connectionsRejected = Counter.builder(PREFIX + "connections.rejected")
+                .description("Connections denied by the rate limiter")
+                .register(registry);
+
+        this.tlsFullHandshakes = latencyTimer(PREFIX + "tls.handshake", "Duration of TLS handshakes with agents, by whether the session was resumed", "resumed", "false");
+        this.tlsResumedHandshakes = latencyTimer(PREFIX + "tls.handshake", "Duration of TLS handshakes with agents, by whether the session was resumed", "resumed", "true");
+        this.tlsHandshakeFailures = Counter.builder(PREFIX + "tls.handshake.failures")
+                .description("TLS handshakes with agents that failed")
+                .register(registry);
+
+        for (QuotaScope scope : QuotaScope.values())
+        {
+            quotaRejections.put(scope, Counter.builder(PREFIX + "quota.rejected")
+                    .description("Frames refused because a quota was exceeded, by the scope of the quota")
+                    .tag("scope", tagValue(scope))
+                    .register(registry));
+        }
+
+        for (QueueKind queue : QueueKind.values())
+        {
+            queueDelayTimers.put(queue, latencyTimer(PREFIX + "queue.delay", "Time tasks wait in a queue before they start running", "queue", tagValue(queue)));
+        }
+
+        for (ExpiryStage stage : ExpiryStage.values())
+        {
+            expiredMessages.put(stage, Counter.builder(PREFIX + "expired")
+                    .description("Messages dropped because they expired, by the stage they were dropped at")
+                    .tag("stage", tagValue(stage))
+                    .register(registry));
+        }
+
+        this.admissionDecreases = Counter.builder(PREFIX + "admission.decreases")
+                .description("Times the ingress rates were lowered because the queueing delay was above target")
+                .register(registry);
+
+        for (MessageType type : MessageType.values())
+        {
+            String tag = tagValue(type);
+
+            ingressMessages.put(type, Counter.builder(PREFIX + "ingress.messages")
+                    .description("Protocol messages received from agents, by type")
+                    .tag("type", tag)
+                    .register(registry));
+
+            fanOutSizes.put(type, DistributionSummary.builder(PREFIX + "fanout.size")
+                    .description("Number of local sessions a message is sent to")
+                    .tag("type", tag)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(1.0)
+                    .maximumExpectedValue(100_000.0)
+                    .register(registry));
+        }
+
+        for (Source source : Source.values())
+        {
+            String tag = tagValue(source);
+            parseTimers.put(source, latencyTimer(PREFIX + "parse", "Time to parse an application message", "source", tag));
+            validateTimers.put(source, latencyTimer(PREFIX + "validate", "Time to validate an application message", "source", tag));
+
+            invalidMessages.put(source, Counter.builder(PREFIX + "invalid.messages")
+                    .description("Messages that could not be parsed or failed validation")
+                    .tag("source", tag)
+                    .register(registry));
+        }
+
+        for (Index index : Index.values())
+        {
+            lookupTimers.put(index, latencyTimer(PREFIX + "subscription.lookup", "Time to resolve the local recipient sessions of a message", "index", tagValue(index)));
+        }
+
+        this.sendTimer = latencyTimer(PREFIX + "send", "Time to hand a message to a local session");
+        this.fanOutCompletionTimer = latencyTimer(PREFIX + "fanout.completion", "Time from the start of a local fan-out until the last recipient session was handed the message");
+        this.sendFailures = Counter.builder(PREFIX + "send.failures")
+                .description("Sends to local sessions that failed")
+                .register(registry);
+        this.deliveryDrops = Counter.builder(PREFIX + "delivery.dropped")
+                .description("Delivery tasks dropped because their lane stayed full")
+                .register(registry);
+        this.egressBatchMessages = DistributionSummary.builder(PREFIX + "egress.batch.messages")
+                .description("Number of messages written to a batching session per flush")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(1_000.0)
+                .register(registry);
+        this.egressBatchBytes = DistributionSummary.builder(PREFIX + "egress.batch.bytes")
+                .description("Number of payload bytes written to a batching session per flush")
+                .baseUnit("bytes")
+                .register(registry);
+        this.compressionInputBytes = Counter.builder(PREFIX + "egress.compression.input")
+                .description("Bytes of the frames compressed for agents, counted once per codec and fan-out")
+                .baseUnit("bytes")
+                .register(registry);
+        this.compressionOutputBytes = Counter.builder(PREFIX + "egress.compression.output")
+                .description("Bytes of the compressed frames, counted once per codec and fan-out")
+                .baseUnit("bytes")
+                .register(registry);
+
+        this.jmsPublishTimer = latencyTimer(PREFIX + "jms.publish", "Time to publish a message to the broker");
+        this.jmsPublishFailures = Counter.builder(PREFIX + "jms.publish.failures")
+                .description("Messages that could not be published to the broker")
+                .register(registry);
+
+        this.jmsConsumeTimer = latencyTimer(PREFIX + "jms.consume", "Time to read and hand on a message received from the broker");
+        this.jmsTransitTimer = latencyTimer(PREFIX + "jms.transit", "Time from the JMS timestamp set by the publishing router until the message was received, subject to clock skew between hosts");
+
+        this.drainClosedConnections = Counter.builder(PREFIX + "drain.closed")
+                .description("Connections closed while draining the router")
+                .register(registry);
+        this.drainUndeliveredBytes = Counter.builder(PREFIX + "drain.undelivered")
+                .description("Bytes still buffered for agents and lost when their connection was closed while draining")
+                .baseUnit("bytes")
+                .register(registry);
+
+        this.livenessProbes = Counter.builder(PREFIX + "liveness.probes")
+                .description("Pings sent to agents that had been silent for too long")
+                .register(registry);
+        this.livenessEvictions = Counter.builder(PREFIX + "liveness.evicted")
+                .description("Connections closed because the agent did not answer its liveness probes")
+                .register(registry);
+
+        log.info("RouterMetrics initialized with registry={}", registry.getClass().getSimpleName());
+    }
+
+
+    /**
+     * Registers hit, miss, size and eviction metrics for a Guava cache, the cache must be built with {@code recordStats()}.
+     *
+     * @param cache The cache to monitor.
+     * @param name  The name of the cache, used as the "cache" tag.
+     */
+    public void monitorCache(Cache<?, ?> cache, String name)
+    {
+        GuavaCacheMetrics.monitor(registry, cache, name);
+    }
+
+
+    /**
+     * Registers a gauge that reads its value from the given supplier whenever it is scraped.
+     *
+     * @param name        The name of the gauge, without the common prefix.
+     * @param description The description of the gauge.
+     * @param supplier    The supplier of the value.
+     */
+    public void registerGauge(String name, String description, Supplier<Number> supplier)
+    {
+        Gauge.builder(PREFIX + name, supplier)
+                .description(description)
+                .register(registry);
+    }
+
+
+    public void recordIngressFrame(long bytes)
+    {
+        ingressFrames.increment();
+        ingressBytes.record(bytes);
+    }
+
+
+    public void recordIngressPaused()
+    {
+        ingressPaused.increment();
+    }
+
+
+    public void recordConnectionRejected()
+    {
+        connectionsRejected.increment();
+    }
+
+
+    public void recordTlsHandshake(boolean resumed, long nanos)
+    {
+        (resumed ? tlsResumedHandshakes : tlsFullHandshakes).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    public void recordTlsHandshakeFailure()
+    {
+        tlsHandshakeFailures.increment();
+    }
+
+
+    public void recordQuotaRejected(QuotaScope scope)
+    {
+        quotaRejections.get(scope).increment();
+    }
+
+
+    public void recordQueueDelay(QueueKind queue, long nanos)
+    {
+        queueDelayTimers.get(queue).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    public void recordExpired(ExpiryStage stage)
+    {
+        expiredMessages.get(stage).increment();
+    }
+
+
+    public void recordAdmissionDecrease()
+    {
+        admissionDecreases.increment();
+    }
+
+
+    public void recordIngressMessage(MessageType type)
+    {
+        ingressMessages.get(type).increment();
+    }
+
+
+    public void recordParse(Source source, long nanos)
+    {
+        parseTimers.get(source).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    public void recordValidate(Source source, long nanos)
+    {
+        validateTimers.get(source).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    public void recordInvalidMessage(Source source)
+    {
+        invalidMessages.get(source).increment();
+    }
+
+
+    public void recordLookup(Index index, long nanos)
+    {
+        lookupTimers.get(index).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    public void recordFanOut(MessageType type, int sessions)
+    {
+        fanOutSizes.get(type).record(sessions);
+    }
+
+
+    public void recordSend(long nanos)
+    {
+        sendTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    public void recordFanOutCompletion(long nanos)
+    {
+        fanOutCompletionTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    public void recordSendFailure()
+    {
+        sendFailures.increment();
+    }
+
+
+    public void recordDeliveryDropped()
+    {
+        deliveryDrops.increment();
+    }
+
+
+    public void recordEgressBatch(int messages, long bytes)
+    {
+        egressBatchMessages.record(messages);
+        egressBatchBytes.record(bytes);
+    }
+
+
+    public void recordCompression(long inputBytes, long outputBytes)
+    {
+        compressionInputBytes.increment(inputBytes);
+        compressionOutputBytes.increment(outputBytes);
+    }
+
+
+    public void recordJmsPublish(long nanos)
+    {
+        jmsPublishTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    public void recordJmsPublishFailure()
+    {
+        jmsPublishFailures.increment();
+    }
+
+
+    public void recordJmsConsume(long nanos)
+    {
+        jmsConsumeTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    public void recordDrainClose(long undeliveredBytes)
+    {
+        drainClosedConnections.increment();
+        drainUndeliveredBytes.increment(undeliveredBytes);
+    }
+
+
+    public void recordLivenessProbe()
+    {
+        livenessProbes.increment();
+    }
+
+
+    public void recordLivenessEviction()
+    {
+        livenessEvictions.increment();
+    }
+
+
+    /**
+     * Records the time a message spent between the publishing router and this one.
+     * Negative values, caused by clock skew, are ignored.
+     *
+     * @param jmsTimestampMillis The JMS timestamp of the message, in milliseconds since the epoch.
+     */
+    public void recordJmsTransit(long jmsTimestampMillis)
+    {
+        long millis = System.currentTimeMillis() - jmsTimestampMillis;
+
+        if (jmsTimestampMillis > 0 && millis >= 0)
+        {
+            jmsTransitTimer.record(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    private Timer latencyTimer(String name, String description, String... tags)
+    {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(1_000))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry);
+    }
+
+
+    private static String tagValue(Enum<?> value)
+    {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,179 @@
+package com.mms.EdgeRouter.Metrics;
+
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import io.netty.util.Timeout;
+import jakarta.annotation.PreDestroy;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the message rate of each subject, so the hottest subjects of the router can be found.
+ * <p>
+ * Recording a message is an increment of a {@link LongAdder}, the rates are only computed every few seconds on the
+ * {@link TimerWheel}, as a moving average over about a minute. Only subjects that had subscribers are recorded, and a
+ * subject is forgotten once its rate has decayed to nothing, so the meter does not grow with the subjects senders
+ * make up. A message recorded while its subject is being forgotten may be lost, which the average does not notice.
+ */
+@Component
+public class SubjectRateMeter
+{
+    private static final long TICK_SECONDS = 5;
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+    private static final double IDLE_RATE = 0.001;
+
+    private final Map<String, Rate> rates = new ConcurrentHashMap<>();
+    private final Timeout tick;
+
+
+    /**
+     * Constructs a new {@link SubjectRateMeter}.
+     *
+     * @param timerWheel The timer the rates are updated on.
+     */
+    @Autowired
+    public SubjectRateMeter(TimerWheel timerWheel)
+    {
+        this.tick = timerWheel.scheduleWithFixedDelay(this::tick, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Records a message sent on a subject.
+     *
+     * @param subject The subject.
+     */
+    public void record(@NonNull String subject)
+    {
+        Rate rate = rates.get(subject);
+
+        if (rate == null)
+        {
+            rate = rates.computeIfAbsent(subject, key -> new Rate());
+        }
+
+        rate.count.increment();
+    }
+
+
+    /**
+     * Returns the message rate of a subject.
+     *
+     * @param subject The subject.
+     * @return The messages per second, 0 if the subject has not been sent any lately.
+     */
+    public double getRate(@NonNull String subject)
+    {
+        Rate rate = rates.get(subject);
+        return rate != null ? rate.messagesPerSecond : 0;
+    }
+
+
+    /**
+     * Returns the subjects with the highest message rates. The rates are walked once and only the current top
+     * subjects are kept, in a heap of the given size.
+     *
+     * @param count The number of subjects to return.
+     * @return The subjects and their rates, the hottest first.
+     */
+    public List<SubjectRate> getTop(int count)
+    {
+        if (count <= 0)
+        {
+            return List.of();
+        }
+
+        PriorityQueue<SubjectRate> top = new PriorityQueue<>(count + 1, Comparator.comparingDouble(SubjectRate::messagesPerSecond));
+
+        rates.forEach((subject, rate) ->
+        {
+            double messagesPerSecond = rate.messagesPerSecond;
+
+            if (messagesPerSecond > 0 && (top.size() < count || messagesPerSecond > top.peek().messagesPerSecond()))
+            {
+                top.add(new SubjectRate(subject, messagesPerSecond));
+
+                if (top.size() > count)
+                {
+                    top.poll();
+                }
+            }
+        });
+
+        List<SubjectRate> result = new ArrayList<>(top);
+        result.sort(Comparator.comparingDouble(SubjectRate::messagesPerSecond).reversed());
+        return result;
+    }
+
+
+    /**
+     * Folds the messages counted since the last tick into the rates, and forgets the subjects that went idle.
+     * Runs on the tick thread of the timer wheel.
+     */
+    private void tick()
+    {
+        rates.forEach((subject, rate) ->
+        {
+            long count = rate.count.sumThenReset();
+            double instant = (double) count / TICK_SECONDS;
+
+            if (rate.initialized)
+            {
+                rate.messagesPerSecond += ALPHA * (instant - rate.messagesPerSecond);
+            }
+
+            else
+            {
+                rate.messagesPerSecond = instant;
+                rate.initialized = true;
+            }
+
+            if (count == 0 && rate.messagesPerSecond < IDLE_RATE)
+            {
+                rates.remove(subject, rate);
+            }
+        });
+    }
+
+
+    /**
+     * Stops updating the rates before the object is destroyed.
+     */
+    @PreDestroy
+    public void destroy()
+    {
+        tick.cancel();
+    }
+
+
+    /**
+     * The message rate of a subject.
+     *
+     * @param subject           The subject.
+     * @param messagesPerSecond The moving average of the messages per second.
+     */
+    public record SubjectRate(String subject, double messagesPerSecond)
+    {
+    }
+
+
+    /**
+     * The counter and rate of a subject, the rate is only written by the tick thread.
+     */
+    private static final class Rate
+    {
+        private final LongAdder count = new LongAdder();
+
+        private volatile double messagesPerSecond;
+        private boolean initialized;
+    }
+}
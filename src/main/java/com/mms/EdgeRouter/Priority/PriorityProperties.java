@@ -0,0 +1,119 @@
+package com.mms.EdgeRouter.Priority;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The configuration of the priority classes, under edgerouter.priority. A message belongs to the class of the first
+ * rule that its subject and sender match, a rule matches the subjects that start with its subject prefix and the
+ * senders whose MRN starts with its sender prefix, an empty prefix matches everything. Direct messages have no subject
+ * and only match rules without a subject prefix. Messages that match no rule are {@link TrafficClass#NORMAL}.
+ * <p>
+ * The sender of a message from a local agent is checked against the MRN of its certificate before the message is
+ * classified, so an agent cannot claim the class of another sender.
+ * <p>
+ * The class of a message must not depend on anything but its sender and subject, so that the messages of a sender and
+ * subject always take the same lane and stay in order. For example:
+ * <pre>
+ * edgerouter.priority.rules[0].subject-prefix=distress
+ * edgerouter.priority.rules[0].traffic-class=critical
+ * edgerouter.priority.rules[1].subject-prefix=navwarn
+ * edgerouter.priority.rules[1].traffic-class=high
+ * edgerouter.priority.rules[2].subject-prefix=weather
+ * edgerouter.priority.rules[2].traffic-class=bulk
+ * edgerouter.priority.slack-millis.bulk=10000
+ * </pre>
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "edgerouter.priority")
+public class PriorityProperties
+{
+    /**
+     * The rules, matched in order.
+     */
+    private List<Rule> rules = new ArrayList<>();
+
+    /**
+     * How long the tasks of a class may wait in the WorkerPool before they are ordered ahead of later tasks with an
+     * earlier deadline. A smaller slack lets a class overtake the others sooner, without starving them.
+     */
+    private Map<TrafficClass, Long> slackMillis = new EnumMap<>(Map.of(
+            TrafficClass.CRITICAL, 0L,
+            TrafficClass.HIGH, 200L,
+            TrafficClass.NORMAL, 1000L,
+            TrafficClass.BULK, 5000L));
+
+
+    /**
+     * Returns the class of a message.
+     *
+     * @param sender  The MRN of the sender.
+     * @param subject The subject of the message, null for direct messages.
+     * @return The class of the first matching rule, or {@link TrafficClass#NORMAL} if no rule matches.
+     */
+    public TrafficClass classify(@NonNull String sender, @Nullable String subject)
+    {
+        for (Rule rule : rules)
+        {
+            if (matches(rule.getSubjectPrefix(), subject) && matches(rule.getSenderPrefix(), sender))
+            {
+                return rule.getTrafficClass();
+            }
+        }
+
+        return TrafficClass.NORMAL;
+    }
+
+
+    /**
+     * Returns the slack of a class in the WorkerPool.
+     *
+     * @param trafficClass The class.
+     * @return The slack in milliseconds.
+     */
+    public long getSlackMillis(@NonNull TrafficClass trafficClass)
+    {
+        return slackMillis.getOrDefault(trafficClass, slackMillis.getOrDefault(TrafficClass.NORMAL, 1000L));
+    }
+
+
+    private static boolean matches(String prefix, String value)
+    {
+        return prefix == null || prefix.isEmpty() || (value != null && value.startsWith(prefix));
+    }
+
+
+    /**
+     * A rule that assigns a class to the messages it matches.
+     */
+    @Getter
+    @Setter
+    public static class Rule
+    {
+        /**
+         * The prefix of the subjects of the messages, empty to match every subject and direct messages.
+         */
+        private String subjectPrefix = "";
+
+        /**
+         * The prefix of the MRNs of the senders, empty to match every sender.
+         */
+        private String senderPrefix = "";
+
+        /**
+         * The class of the messages that match.
+         */
+        private TrafficClass trafficClass = TrafficClass.NORMAL;
+    }
+}
@@ -0,0 +1,37 @@
+package com.mms.EdgeRouter.Priority;
+
+/**
+ * The priority classes of application messages, in order of precedence. The class of a message is derived from its
+ * sender and subject by the {@link PriorityProperties}.
+ */
+public enum TrafficClass
+{
+    /**
+     * Safety-critical traffic, such as distress and urgency messages.
+     */
+    CRITICAL,
+
+    /**
+     * Time-sensitive traffic, such as navigational warnings.
+     */
+    HIGH,
+
+    /**
+     * Traffic without a configured class.
+     */
+    NORMAL,
+
+    /**
+     * Bulk traffic, such as weather data and other large casts, that may wait behind everything else.
+     */
+    BULK;
+
+
+    /**
+     * Returns whether messages of the class are delivered through the priority lanes, ahead of the other lanes.
+     */
+    public boolean isUrgent()
+    {
+        return this == CRITICAL || this == HIGH;
+    }
+}
@@ -0,0 +1,133 @@
+package com.mms.EdgeRouter.Quota;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The usage of one quota, tracked with the generic cell rate algorithm (GCRA).
+ * <p>
+ * Instead of a token count, each dimension keeps the theoretical arrival time: the point in time at which the quota
+ * would be back to full if nothing more arrived. Taking from the quota advances it by the time the taken amount is
+ * worth at the budgeted rate, and is refused if that would put it more than one second ahead of now, so the quota
+ * allows bursts of one second worth of messages and bytes. This needs a single atomic long per dimension and no refill,
+ * and since the rate is passed in on every call, a budget can be changed at runtime without touching the buckets.
+ */
+class QuotaBucket
+{
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long BURST_NANOS = NANOS_PER_SECOND;
+
+    private final AtomicLong messagesArrival;
+    private final AtomicLong bytesArrival;
+
+
+    /**
+     * Constructs a new {@link QuotaBucket} with a full quota.
+     */
+    QuotaBucket()
+    {
+        long now = System.nanoTime();
+        this.messagesArrival = new AtomicLong(now);
+        this.bytesArrival = new AtomicLong(now);
+    }
+
+
+    /**
+     * Takes one message of the given size from the quota, if the budget allows it.
+     *
+     * @param budget The budget of the quota.
+     * @param bytes  The size of the message.
+     * @param now    The current {@link System#nanoTime()}.
+     * @return True if the message was taken, false if it would exceed the budget, in which case nothing is taken.
+     */
+    boolean tryAcquire(QuotaBudget budget, long bytes, long now)
+    {
+        return tryAcquire(budget, 1, bytes, now);
+    }
+
+
+    /**
+     * Takes a number of messages and bytes from the quota, if the budget allows it.
+     *
+     * @param budget   The budget of the quota.
+     * @param messages The number of messages, 0 to take bytes only.
+     * @param bytes    The number of bytes.
+     * @param now      The current {@link System#nanoTime()}.
+     * @return True if the messages and bytes were taken, false if they would exceed the budget, in which case nothing is
+     * taken.
+     */
+    boolean tryAcquire(QuotaBudget budget, long messages, long bytes, long now)
+    {
+        if (!take(messagesArrival, budget.messagesPerSecond(), messages, now))
+        {
+            return false;
+        }
+
+        if (!take(bytesArrival, budget.bytesPerSecond(), bytes, now))
+        {
+            give(messagesArrival, budget.messagesPerSecond(), messages);
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Gives back messages and bytes taken by {@link #tryAcquire(QuotaBudget, long, long, long)}, when a later quota
+     * refused them.
+     *
+     * @param budget   The budget they were taken with.
+     * @param messages The number of messages.
+     * @param bytes    The number of bytes.
+     */
+    void release(QuotaBudget budget, long messages, long bytes)
+    {
+        give(messagesArrival, budget.messagesPerSecond(), messages);
+        give(bytesArrival, budget.bytesPerSecond(), bytes);
+    }
+
+
+    private static boolean take(AtomicLong arrival, long rate, long amount, long now)
+    {
+        if (rate <= 0 || amount == 0)
+        {
+            return true;
+        }
+
+        long cost = nanosFor(amount, rate);
+
+        while (true)
+        {
+            long current = arrival.get();
+            long base = Math.max(current, now);
+            long next = base + cost;
+
+            // An idle quota always admits one message, even one larger than the burst
+            if (base > now && next - now > BURST_NANOS)
+            {
+                return false;
+            }
+
+            if (arrival.compareAndSet(current, next))
+            {
+                return true;
+            }
+        }
+    }
+
+
+    private static void give(AtomicLong arrival, long rate, long amount)
+    {
+        if (rate > 0)
+        {
+            arrival.addAndGet(-nanosFor(amount, rate));
+        }
+    }
+
+
+    private static long nanosFor(long amount, long rate)
+    {
+        return (amount / rate) * NANOS_PER_SECOND + (amount % rate) * NANOS_PER_SECOND / rate;
+    }
+}
@@ -0,0 +1,24 @@
+package com.mms.EdgeRouter.Quota;
+
+/**
+ * The number of messages and bytes per second allowed within a quota, a value of 0 or less means unlimited.
+ *
+ * @param messagesPerSecond The sustained number of messages per second.
+ * @param bytesPerSecond    The sustained number of bytes per second.
+ */
+public record QuotaBudget(long messagesPerSecond, long bytesPerSecond)
+{
+    /**
+     * A budget without limits.
+     */
+    public static final QuotaBudget UNLIMITED = new QuotaBudget(0, 0);
+
+
+    /**
+     * Whether the budget limits neither messages nor bytes.
+     */
+    public boolean isUnlimited()
+    {
+        return messagesPerSecond <= 0 && bytesPerSecond <= 0;
+    }
+}
@@ -0,0 +1,87 @@
+package com.mms.EdgeRouter.Quota;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Actuator endpoint at /actuator/quotas for reading and changing the budgets of the {@link QuotaEngine} at runtime.
+ * A write without a key sets the default budget of the scope, a delete removes the budget of a single key.
+ * Agents must not be able to change the budgets that limit them, so the actuator is served on the management port,
+ * which only listens on localhost, and never on the agent port.
+ */
+@Component
+@Endpoint(id = "quotas")
+public class QuotaEndpoint
+{
+    private final QuotaEngine quotaEngine;
+
+
+    /**
+     * Constructs a new {@link QuotaEndpoint}.
+     *
+     * @param quotaEngine The quota engine whose budgets are exposed.
+     */
+    @Autowired
+    public QuotaEndpoint(QuotaEngine quotaEngine)
+    {
+        this.quotaEngine = quotaEngine;
+    }
+
+
+    /**
+     * Returns the budgets of all scopes.
+     *
+     * @return The budgets.
+     */
+    @ReadOperation
+    public Map<String, Object> budgets()
+    {
+        return quotaEngine.getBudgets();
+    }
+
+
+    /**
+     * Sets the default budget of a scope, or the budget of a single key, a value of 0 means unlimited.
+     *
+     * @param scope             The scope, one of global, ip, mrn or subject.
+     * @param key               The IP address, MRN or subject, or null to set the default budget of the scope.
+     * @param messagesPerSecond The number of messages per second.
+     * @param bytesPerSecond    The number of bytes per second.
+     * @return The budgets after the change.
+     */
+    @WriteOperation
+    public Map<String, Object> setBudget(String scope, @Nullable String key, long messagesPerSecond, long bytesPerSecond)
+    {
+        quotaEngine.setBudget(parseScope(scope), key, new QuotaBudget(messagesPerSecond, bytesPerSecond));
+        return quotaEngine.getBudgets();
+    }
+
+
+    /**
+     * Removes the budget of a single key, so that the default budget of its scope applies again.
+     *
+     * @param scope The scope, one of ip, mrn or subject.
+     * @param key   The IP address, MRN or subject.
+     * @return The budgets after the change.
+     */
+    @DeleteOperation
+    public Map<String, Object> removeBudget(String scope, String key)
+    {
+        quotaEngine.removeBudget(parseScope(scope), key);
+        return quotaEngine.getBudgets();
+    }
+
+
+    private static QuotaScope parseScope(String scope)
+    {
+        return QuotaScope.valueOf(scope.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,455 @@
+package com.mms.EdgeRouter.Quota;
+
+import MMTPMessageFormats.MessageType;
+import MMTPMessageFormats.ProtocolMessage;
+import MMTPMessageFormats.SubjectCastApplicationMessage;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import net.maritimeconnectivity.pki.PKIIdentity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Enforces message and byte budgets on the frames received from agents, per MRN, per subject, per IP and globally.
+ * <p>
+ * All quotas a frame falls under are checked in one pass, from the most specific to the global one, before the frame is
+ * handed to the message handlers. The frame is only counted against the quotas if all of them admit it, so a frame
+ * refused because its subject is over budget does not use up the budget of its MRN or the global budget. The subject is
+ * read from the raw frame without parsing the message, so a refused frame costs no more than a few varints. The messages
+ * of a batch frame are counted one by one when the batch is unpacked, so a batch does not pass as a single message, and
+ * a compressed message is counted against the quota of its subject once it is decompressed.
+ * <p>
+ * Every scope has a default budget, and single keys of a scope can be given their own budget. Both can be changed at
+ * runtime through {@link #setBudget(QuotaScope, String, QuotaBudget)}. Usage is tracked in a {@link QuotaBucket} per key,
+ * which is dropped after it has been idle for a while, so the number of buckets is bounded by the number of active keys.
+ */
+@Slf4j
+@Component
+public class QuotaEngine
+{
+    private static final int PROTOCOL_TYPE_TAG = WireFormat.makeTag(ProtocolMessage.TYPE_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int PROTOCOL_CONTENT_TAG = WireFormat.makeTag(ProtocolMessage.CONTENT_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int SUBJECT_TAG = WireFormat.makeTag(SubjectCastApplicationMessage.SUBJECT_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+    private final RouterMetrics metrics;
+
+    private final Map<QuotaScope, QuotaBudget> defaultBudgets = new ConcurrentHashMap<>();
+    private final Map<QuotaScope, Map<String, QuotaBudget>> keyBudgets = new EnumMap<>(QuotaScope.class);
+    private final Map<QuotaScope, LoadingCache<String, QuotaBucket>> buckets = new EnumMap<>(QuotaScope.class);
+    private final QuotaBucket globalBucket = new QuotaBucket();
+
+    private volatile boolean enabled;
+
+
+    /**
+     * Constructs a new {@link QuotaEngine} with the default budget of each scope, a value of 0 means unlimited.
+     *
+     * @param metrics                  The metrics of the routing pipeline.
+     * @param globalMessagesPerSecond  The number of messages per second received from all agents.
+     * @param globalBytesPerSecond     The number of bytes per second received from all agents.
+     * @param ipMessagesPerSecond      The number of messages per second received from one IP address.
+     * @param ipBytesPerSecond         The number of bytes per second received from one IP address.
+     * @param mrnMessagesPerSecond     The number of messages per second received from one MRN.
+     * @param mrnBytesPerSecond        The number of bytes per second received from one MRN.
+     * @param subjectMessagesPerSecond The number of messages per second sent on one subject.
+     * @param subjectBytesPerSecond    The number of bytes per second sent on one subject.
+     * @param idleMinutes              The time after which the usage of a key that sent nothing is forgotten.
+     */
+    @Autowired
+    public QuotaEngine(RouterMetrics metrics,
+                       @Value("${edgerouter.quota.global.messagesPerSecond:0}") long globalMessagesPerSecond, @Value("${edgerouter.quota.global.bytesPerSecond:0}") long globalBytesPerSecond,
+                       @Value("${edgerouter.quota.ip.messagesPerSecond:0}") long ipMessagesPerSecond, @Value("${edgerouter.quota.ip.bytesPerSecond:0}") long ipBytesPerSecond,
+                       @Value("${edgerouter.quota.mrn.messagesPerSecond:0}") long mrnMessagesPerSecond, @Value("${edgerouter.quota.mrn.bytesPerSecond:0}") long mrnBytesPerSecond,
+                       @Value("${edgerouter.quota.subject.messagesPerSecond:0}") long subjectMessagesPerSecond, @Value("${edgerouter.quota.subject.bytesPerSecond:0}") long subjectBytesPerSecond,
+                       @Value("${edgerouter.quota.idleMinutes:10}") long idleMinutes)
+    {
+        this.metrics = metrics;
+
+        defaultBudgets.put(QuotaScope.GLOBAL, new QuotaBudget(globalMessagesPerSecond, globalBytesPerSecond));
+        defaultBudgets.put(QuotaScope.IP, new QuotaBudget(ipMessagesPerSecond, ipBytesPerSecond));
+        defaultBudgets.put(QuotaScope.MRN, new QuotaBudget(mrnMessagesPerSecond, mrnBytesPerSecond));
+        defaultBudgets.put(QuotaScope.SUBJECT, new QuotaBudget(subjectMessagesPerSecond, subjectBytesPerSecond));
+
+        for (QuotaScope scope : QuotaScope.values())
+        {
+            keyBudgets.put(scope, new ConcurrentHashMap<>());
+
+            if (scope != QuotaScope.GLOBAL)
+            {
+                buckets.put(scope, CacheBuilder.newBuilder()
+                        .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+                        .build(CacheLoader.from(key -> new QuotaBucket())));
+            }
+        }
+
+        updateEnabled();
+        log.info("QuotaEngine initialized with budgets={}", defaultBudgets);
+    }
+
+
+    /**
+     * Checks a frame received from an agent against all quotas it falls under, and counts it against them if all admit it.
+     *
+     * @param session The session the frame was received on.
+     * @param payload The payload of the frame, its position is left unchanged.
+     * @return Null if the frame is admitted, otherwise the scope of the first quota that refused it.
+     */
+    @Nullable
+    public QuotaScope admit(@NonNull WebSocketSession session, @NonNull ByteBuffer payload)
+    {
+        if (!enabled)
+        {
+            return null;
+        }
+
+        long bytes = payload.remaining();
+        return admit(session, peekSubject(payload), bytes, 1, bytes);
+    }
+
+
+    /**
+     * Checks a protocol message that was unpacked from a batch frame or decompressed from a compressed frame against the
+     * quotas, and counts it against them if all admit it.
+     * <p>
+     * {@link #admit(WebSocketSession, ByteBuffer)} counted the frame as one message of its size on the wire, and could not
+     * see the subjects inside it. So a subject cast message is counted here against the quota of its subject, with the size of
+     * its content, and every message after the first is counted as one more message against the MRN, IP and global
+     * quotas, whose bytes were already counted with the frame.
+     *
+     * @param session The session the frame was received on.
+     * @param message The protocol message.
+     * @param first   Whether the message is the first of its frame, which the frame was counted as.
+     * @return Null if the message is admitted, otherwise the scope of the first quota that refused it.
+     */
+    @Nullable
+    public QuotaScope admitContained(@NonNull WebSocketSession session, @NonNull ProtocolMessage message, boolean first)
+    {
+        if (!enabled)
+        {
+            return null;
+        }
+
+        String subject = null;
+
+        if (message.getType() == MessageType.SUBJECT_CAST_APPLICATION_MESSAGE)
+        {
+            try
+            {
+                subject = readSubject(message.getContent().newCodedInput());
+            }
+
+            catch (IOException ex)
+            {
+                log.debug("Could not read subject from message, leaving it to the message handler", ex);
+            }
+        }
+
+        return admit(session, subject, message.getContent().size(), first ? 0 : 1, 0);
+    }
+
+
+    /**
+     * Checks messages against all quotas they fall under, from the most specific to the global one, and counts them
+     * against the quotas if all admit them.
+     *
+     * @param session      The session the messages were received on.
+     * @param subject      The subject of the message, null if it is not a subject cast message or not known.
+     * @param subjectBytes The bytes counted against the quota of the subject, with one message.
+     * @param messages     The number of messages counted against the MRN, IP and global quotas.
+     * @param bytes        The bytes counted against the MRN, IP and global quotas.
+     * @return Null if the messages are admitted, otherwise the scope of the first quota that refused them.
+     */
+    @Nullable
+    private QuotaScope admit(WebSocketSession session, @Nullable String subject, long subjectBytes, long messages, long bytes)
+    {
+        QuotaIdentity identity = getIdentity(session);
+        long now = System.nanoTime();
+
+        QuotaBucket subjectBucket = null;
+        QuotaBudget subjectBudget = null;
+
+        if (subject != null)
+        {
+            subjectBudget = getBudget(QuotaScope.SUBJECT, subject);
+            if (!subjectBudget.isUnlimited())
+            {
+                subjectBucket = buckets.get(QuotaScope.SUBJECT).getUnchecked(subject);
+                if (!subjectBucket.tryAcquire(subjectBudget, 1, subjectBytes, now))
+                {
+                    return refuse(QuotaScope.SUBJECT, session);
+                }
+            }
+        }
+
+        if (messages == 0 && bytes == 0)
+        {
+            return null;
+        }
+
+        QuotaBucket mrnBucket = null;
+        QuotaBudget mrnBudget = null;
+
+        if (identity.mrn() != null)
+        {
+            mrnBudget = getBudget(QuotaScope.MRN, identity.mrn());
+            if (!mrnBudget.isUnlimited())
+            {
+                mrnBucket = buckets.get(QuotaScope.MRN).getUnchecked(identity.mrn());
+                if (!mrnBucket.tryAcquire(mrnBudget, messages, bytes, now))
+                {
+                    release(subjectBucket, subjectBudget, 1, subjectBytes);
+                    return refuse(QuotaScope.MRN, session);
+                }
+            }
+        }
+
+        QuotaBucket ipBucket = null;
+        QuotaBudget ipBudget = getBudget(QuotaScope.IP, identity.ip());
+
+        if (!ipBudget.isUnlimited())
+        {
+            ipBucket = buckets.get(QuotaScope.IP).getUnchecked(identity.ip());
+            if (!ipBucket.tryAcquire(ipBudget, messages, bytes, now))
+            {
+                release(subjectBucket, subjectBudget, 1, subjectBytes);
+                release(mrnBucket, mrnBudget, messages, bytes);
+                return refuse(QuotaScope.IP, session);
+            }
+        }
+
+        QuotaBudget globalBudget = defaultBudgets.get(QuotaScope.GLOBAL);
+
+        if (!globalBudget.isUnlimited() && !globalBucket.tryAcquire(globalBudget, messages, bytes, now))
+        {
+            release(subjectBucket, subjectBudget, 1, subjectBytes);
+            release(mrnBucket, mrnBudget, messages, bytes);
+            release(ipBucket, ipBudget, messages, bytes);
+            return refuse(QuotaScope.GLOBAL, session);
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Sets the budget of a scope, or of a single key within a scope.
+     *
+     * @param scope  The scope.
+     * @param key    The IP address, MRN or subject to set the budget of, or null to set the default budget of the scope.
+     * @param budget The new budget.
+     */
+    public void setBudget(@NonNull QuotaScope scope, @Nullable String key, @NonNull QuotaBudget budget)
+    {
+        if (key == null || scope == QuotaScope.GLOBAL)
+        {
+            defaultBudgets.put(scope, budget);
+        }
+
+        else
+        {
+            keyBudgets.get(scope).put(key, budget);
+        }
+
+        updateEnabled();
+        log.info("Quota budget updated: scope={}, key={}, budget={}", scope, key, budget);
+    }
+
+
+    /**
+     * Removes the budget of a single key, so that the default budget of its scope applies again.
+     *
+     * @param scope The scope.
+     * @param key   The IP address, MRN or subject.
+     * @return True if the key had its own budget.
+     */
+    public boolean removeBudget(@NonNull QuotaScope scope, @NonNull String key)
+    {
+        boolean removed = keyBudgets.get(scope).remove(key) != null;
+        updateEnabled();
+
+        if (removed)
+        {
+            log.info("Quota budget removed: scope={}, key={}", scope, key);
+        }
+
+        return removed;
+    }
+
+
+    /**
+     * Returns the default budgets and the budgets of single keys, by scope.
+     *
+     * @return The budgets.
+     */
+    public Map<String, Object> getBudgets()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+
+        for (QuotaScope scope : QuotaScope.values())
+        {
+            Map<String, Object> scopeView = new LinkedHashMap<>();
+            scopeView.put("default", defaultBudgets.get(scope));
+            scopeView.put("keys", Map.copyOf(keyBudgets.get(scope)));
+
+            LoadingCache<String, QuotaBucket> scopeBuckets = buckets.get(scope);
+            scopeView.put("activeKeys", scopeBuckets == null ? 1 : scopeBuckets.size());
+
+            result.put(scope.name(), scopeView);
+        }
+
+        return result;
+    }
+
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+
+    /**
+     * Returns the IP address and MRN of a session, resolved once and kept in the session attributes.
+     */
+    private QuotaIdentity getIdentity(WebSocketSession session)
+    {
+        return (QuotaIdentity) session.getAttributes().computeIfAbsent(SessionAttributes.QUOTA_IDENTITY, key ->
+        {
+            String ip = session.getRemoteAddress() == null ? "unknown" : session.getRemoteAddress().getAddress().getHostAddress();
+            PKIIdentity pkiIdentity = (PKIIdentity) session.getAttributes().get(SessionAttributes.IDENTITY);
+            String mrn = pkiIdentity == null ? null : pkiIdentity.getMrn();
+            return new QuotaIdentity(ip, mrn);
+        });
+    }
+
+
+    private QuotaBudget getBudget(QuotaScope scope, String key)
+    {
+        QuotaBudget budget = keyBudgets.get(scope).get(key);
+        return budget != null ? budget : defaultBudgets.get(scope);
+    }
+
+
+    private QuotaScope refuse(QuotaScope scope, WebSocketSession session)
+    {
+        metrics.recordQuotaRejected(scope);
+        log.debug("Frame from agent={} refused, {} quota exceeded", session.getId(), scope);
+        return scope;
+    }
+
+
+    private static void release(QuotaBucket bucket, QuotaBudget budget, long messages, long bytes)
+    {
+        if (bucket != null)
+        {
+            bucket.release(budget, messages, bytes);
+        }
+    }
+
+
+    private void updateEnabled()
+    {
+        boolean anyLimited = defaultBudgets.values().stream().anyMatch(budget -> !budget.isUnlimited());
+        boolean anyKeyBudgets = keyBudgets.values().stream().anyMatch(budgets -> !budgets.isEmpty());
+        enabled = anyLimited || anyKeyBudgets;
+    }
+
+
+    /**
+     * Reads the subject of a subject cast message from a raw frame, without parsing the rest of the message.
+     * The subjects inside batch and compressed frames are counted after the frame is unpacked or decompressed, see
+     * {@link #admitContained(WebSocketSession, ProtocolMessage, boolean)}.
+     *
+     * @param payload The frame, its position is left unchanged.
+     * @return The subject, or null if the frame is not a subject cast message or could not be read.
+     */
+    @Nullable
+    static String peekSubject(@NonNull ByteBuffer payload)
+    {
+        try
+        {
+            CodedInputStream input = CodedInputStream.newInstance(payload.duplicate());
+            int type = MessageType.REGISTER_VALUE;
+            int tag;
+
+            while ((tag = input.readTag()) != 0)
+            {
+                if (tag == PROTOCOL_TYPE_TAG)
+                {
+                    type = input.readEnum();
+                }
+
+                // The type is serialized before the content, so it is known by the time the content is reached
+                else if (tag == PROTOCOL_CONTENT_TAG)
+                {
+                    if (type != MessageType.SUBJECT_CAST_APPLICATION_MESSAGE_VALUE)
+                    {
+                        return null;
+                    }
+
+                    input.pushLimit(input.readRawVarint32());
+                    return readSubject(input);
+                }
+
+                else if (!input.skipField(tag))
+                {
+                    return null;
+                }
+            }
+        }
+
+        catch (IOException ex)
+        {
+            log.debug("Could not read subject from frame, leaving it to the message handler", ex);
+        }
+
+        return null;
+    }
+
+
+    private static String readSubject(CodedInputStream input) throws IOException
+    {
+        int tag;
+
+        while ((tag = input.readTag()) != 0)
+        {
+            if (tag == SUBJECT_TAG)
+            {
+                return input.readString();
+            }
+
+            if (!input.skipField(tag))
+            {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * The keys a session is counted under.
+     *
+     * @param ip  The remote IP address of the session.
+     * @param mrn The MRN of the session, null for anonymous agents.
+     */
+    private record QuotaIdentity(String ip, String mrn) {}
+}
@@ -0,0 +1,27 @@
+package com.mms.EdgeRouter.Quota;
+
+/**
+ * The levels at which the {@link QuotaEngine} enforces message and byte budgets.
+ */
+public enum QuotaScope
+{
+    /**
+     * One budget shared by all agents connected to the router.
+     */
+    GLOBAL,
+
+    /**
+     * One budget per remote IP address, shared by all sessions from that address.
+     */
+    IP,
+
+    /**
+     * One budget per Maritime Resource Name (MRN), shared by all sessions authenticated with that MRN.
+     */
+    MRN,
+
+    /**
+     * One budget per subject, shared by all agents sending subject cast messages on that subject.
+     */
+    SUBJECT
+}
@@ -1,5 +1,7 @@
 package com.mms.EdgeRouter.SubscriptionManagement;
 
+import org.roaringbitmap.RoaringBitmap;
+
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -15,6 +17,12 @@ public interface ISubscriptionRepository
     List<String> getSubscribersBySubjects(List<String> subjects);
     List<String> getSubscribersByMrn(String mrn);
     List<String> getSubscribersByMrns(List<String> mrns);
+    RoaringBitmap getSubscriberSlotsBySubject(String subject);
+    RoaringBitmap getSubscriberSlotsByMrn(String mrn);
+    RoaringBitmap getSubscriberSlotsBySubjects(List<String> subjects);
+    RoaringBitmap getSubscriberSlotsByMrns(List<String> mrns);
     Map<String, List<String>> getSubjectSubscriptionMap();
     Map<String, List<String>> getMrnSubscriptionMap();
+    Set<String> getSubjects();
+    Set<String> getMrns();
 }
@@ -0,0 +1,197 @@
+package com.mms.EdgeRouter.SubscriptionManagement;
+
+import com.mms.EdgeRouter.Metrics.SubjectRateMeter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Actuator endpoint at /actuator/routingtable for inspecting the routing table of the {@link ISubscriptionRepository}
+ * on a running router.
+ * <p>
+ * A read returns the number of subjects and MRNs and the hottest subjects by message rate, a read of
+ * /actuator/routingtable/subjects or /actuator/routingtable/mrns returns a page of the subjects or MRNs with their
+ * number of subscribers, a read of any other table is answered with 400. The pages are in the order of the keys and
+ * resume after the last key of the previous page, which is returned as the cursor of the next one, so paging is stable
+ * while the hash map of the repository grows or shrinks. A subject added or removed between two pages only shows up,
+ * or is left out, if it sorts after the cursor.
+ * <p>
+ * Unlike {@link ISubscriptionRepository#getSubjectSubscriptionMap()}, nothing copies the table: a page walks the live
+ * key set of the repository once and keeps only the smallest keys after the cursor, in a heap of the size of the page,
+ * and the subscriber counts are the cardinalities of the immutable subscriber bitmaps. A page of k entries out of n
+ * keys therefore costs O(n log k) time and O(k) memory, whichever page it is.
+ */
+@Component
+@Endpoint(id = "routingtable")
+public class RoutingTableEndpoint
+{
+    private static final int DEFAULT_TOP = 10;
+    private static final int MAX_TOP = 100;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    private final ISubscriptionRepository subscriptionRepository;
+    private final SubjectRateMeter subjectRates;
+
+
+    /**
+     * Constructs a new {@link RoutingTableEndpoint}.
+     *
+     * @param subscriptionRepository The repository whose routing table is exposed.
+     * @param subjectRates           The meter of the message rates of the subjects.
+     */
+    @Autowired
+    public RoutingTableEndpoint(ISubscriptionRepository subscriptionRepository, SubjectRateMeter subjectRates)
+    {
+        this.subscriptionRepository = subscriptionRepository;
+        this.subjectRates = subjectRates;
+    }
+
+
+    /**
+     * Returns the number of subjects and MRNs that have subscribers, and the subjects with the highest message rates.
+     *
+     * @param top The number of hot subjects to return, 10 if not given and at most 100.
+     * @return The summary of the routing table.
+     */
+    @ReadOperation
+    public Map<String, Object> summary(@Nullable Integer top)
+    {
+        List<Map<String, Object>> hotSubjects = new ArrayList<>();
+
+        for (SubjectRateMeter.SubjectRate rate : subjectRates.getTop(clamp(top, DEFAULT_TOP, MAX_TOP)))
+        {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("subject", rate.subject());
+            entry.put("messagesPerSecond", rate.messagesPerSecond());
+            entry.put("subscribers", subscriptionRepository.getSubscriberSlotsBySubject(rate.subject()).getCardinality());
+            hotSubjects.add(entry);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("subjects", subscriptionRepository.getSubjects().size());
+        result.put("mrns", subscriptionRepository.getMrns().size());
+        result.put("hotSubjects", hotSubjects);
+        return result;
+    }
+
+
+    /**
+     * Returns a page of the subjects or MRNs with their number of subscribers, and for subjects their message rate.
+     *
+     * @param table The table, subjects or mrns.
+     * @param after The cursor, the last key of the previous page, or not given for the first page.
+     * @param limit The number of entries to return, 100 if not given and at most 1000.
+     * @return The page, with the cursor of the next page if there is one, or a bad request for an unknown table.
+     */
+    @ReadOperation
+    public WebEndpointResponse<Map<String, Object>> page(@Selector String table, @Nullable String after, @Nullable Integer limit)
+    {
+        Map<String, Object> page = switch (table)
+        {
+            case "subjects" -> page(subscriptionRepository.getSubjects(), after, limit, subject ->
+            {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("subject", subject);
+                entry.put("subscribers", subscriptionRepository.getSubscriberSlotsBySubject(subject).getCardinality());
+                entry.put("messagesPerSecond", subjectRates.getRate(subject));
+                return entry;
+            });
+            case "mrns" -> page(subscriptionRepository.getMrns(), after, limit, mrn ->
+            {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("mrn", mrn);
+                entry.put("subscribers", subscriptionRepository.getSubscriberSlotsByMrn(mrn).getCardinality());
+                return entry;
+            });
+            default -> null;
+        };
+
+        if (page == null)
+        {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("error", "Unknown routing table: " + table + ", expected subjects or mrns");
+            return new WebEndpointResponse<>(error, WebEndpointResponse.STATUS_BAD_REQUEST);
+        }
+
+        return new WebEndpointResponse<>(page);
+    }
+
+
+    /**
+     * Walks a live key set of the repository once, and describes the smallest keys after a cursor.
+     *
+     * @param keys     The subjects or MRNs.
+     * @param after    The key the page starts after, or null.
+     * @param limit    The number of keys to describe, or null.
+     * @param describe Describes a key.
+     * @return The page.
+     */
+    private static Map<String, Object> page(Set<String> keys, @Nullable String after, @Nullable Integer limit, Function<String, Map<String, Object>> describe)
+    {
+        int size = clamp(limit, DEFAULT_LIMIT, MAX_LIMIT);
+
+        // The largest key of the page on top, so it is the one to drop when a smaller key comes along
+        PriorityQueue<String> smallest = new PriorityQueue<>(Math.min(size, DEFAULT_LIMIT) + 1, Comparator.reverseOrder());
+        boolean more = false;
+
+        for (String key : keys)
+        {
+            if (after != null && key.compareTo(after) <= 0)
+            {
+                continue;
+            }
+
+            if (smallest.size() < size)
+            {
+                smallest.add(key);
+            }
+
+            else
+            {
+                more = true;
+
+                if (size > 0 && key.compareTo(smallest.peek()) < 0)
+                {
+                    smallest.poll();
+                    smallest.add(key);
+                }
+            }
+        }
+
+        List<String> pageKeys = new ArrayList<>(smallest);
+        Collections.sort(pageKeys);
+        List<Map<String, Object>> entries = new ArrayList<>(pageKeys.size());
+
+        for (String key : pageKeys)
+        {
+            entries.add(describe.apply(key));
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("after", after);
+        result.put("entries", entries);
+        result.put("next", more && !pageKeys.isEmpty() ? pageKeys.get(pageKeys.size() - 1) : null);
+        return result;
+    }
+
+
+    private static int clamp(@Nullable Integer value, int defaultValue, int max)
+    {
+        return value != null ? Math.max(0, Math.min(value, max)) : defaultValue;
+    }
+}
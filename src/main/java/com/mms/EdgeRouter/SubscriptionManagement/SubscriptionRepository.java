@@ -1,5 +1,6 @@
 package com.mms.EdgeRouter.SubscriptionManagement;
 
+import com.mms.EdgeRouter.ConnectionManagement.AgentSlotTable;
 import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionAddedEvent;
 import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionCloseRequest;
 import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionRemovedEvent;
@@ -13,6 +14,8 @@ import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
 import jakarta.annotation.PreDestroy;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
@@ -21,7 +24,6 @@ import org.springframework.stereotype.Repository;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 
 /**
@@ -38,15 +40,24 @@ import java.util.concurrent.ConcurrentSkipListSet;
  * <p>
  * An event is published when the number of subscribers for a subject or an MRN goes from 0 to 1.
  * An event is also published when the number of subscribers for a subject or an MRN goes from 1 to 0.
- * No events are published for other subscriber count changes.
+ * No events are published for other subscriber count changes. Events are published after the change, outside of the
+ * maps, so concurrent changes of the same subject or MRN may publish their events in a different order than they were
+ * made, and listeners should read the current subscribers rather than rely on the order.
+ * <p>
+ * Subscribers are kept as bitmaps of the slot indexes the {@link IConnectionRepository} gives to connected agents.
+ * The bitmaps are copy-on-write: a change replaces the bitmap of its subject or MRN with a changed copy, so lookups
+ * read an immutable snapshot without locking, and the fan-out resolves the slots to sessions without going through
+ * agent ID strings.
  * Implements {@link ISubscriptionRepository} interface.
  */
 @Repository
 @Slf4j
 public class SubscriptionRepository implements ISubscriptionRepository
 {
-    private final Map<String, ConcurrentSkipListSet<String>> subscriptionsBySubject = new ConcurrentHashMap<>();
-    private final Map<String, ConcurrentSkipListSet<String>> subscriptionsByMrn = new ConcurrentHashMap<>();
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+    private final Map<String, RoaringBitmap> subscriptionsBySubject = new ConcurrentHashMap<>();
+    private final Map<String, RoaringBitmap> subscriptionsByMrn = new ConcurrentHashMap<>();
 
     private final IConnectionRepository connectionRepository;
     private final ApplicationEventPublisher eventPublisher;
@@ -55,7 +66,7 @@ public class SubscriptionRepository implements ISubscriptionRepository
     /**
      * Constructor for {@link SubscriptionRepository}.
      *
-     * @param connectionRepository The connection repository used to get PKIIdentity associated with agents.
+     * @param connectionRepository The connection repository used to get the PKIIdentity and slot associated with agents.
      * @param eventPublisher       The event publisher used to publish subscription events.
      */
     @Autowired
@@ -70,16 +81,16 @@ public class SubscriptionRepository implements ISubscriptionRepository
      * Handles a {@link ConnectionAddedEvent}.
      * Subscribes to the MRN associated with the connection, if available.
      * An event is published when the number of subscribers for an MRN goes from 0 to 1.
+     * Runs on the connection admission thread, so the agent can be reached as soon as its connection is registered.
      *
      * @param event The ConnectionAddedEvent to handle.
      */
-    @Async("WorkerPool")
     @EventListener
     public void handleConnectionAdded(ConnectionAddedEvent event)
     {
         String agentId = event.getAgentID();
         Optional<String> mrnOptional = event.getMRN();
-        onConnectionAdded(agentId, mrnOptional);
+        onConnectionAdded(agentId, event.getSlot(), mrnOptional);
         log.debug("SubscriptionRepository: handleConnectionAdded: agent={} mrn={}", agentId, mrnOptional.orElse(null));
     }
 
@@ -91,13 +102,12 @@ public class SubscriptionRepository implements ISubscriptionRepository
      *
      * @param event The ConnectionRemovedEvent to handle.
      */
-    @Async("WorkerPool")
     @EventListener
     public void handleConnectionRemoved(ConnectionRemovedEvent event)
     {
         String agentId = event.getAgentID();
         Optional<String> mrnOptional = event.getMRN();
-        onConnectionRemoved(agentId, mrnOptional);
+        onConnectionRemoved(agentId, event.getSlot(), mrnOptional);
         log.debug("SubscriptionRepository: handleConnectionRemoved: agent={}, mrn={}", agentId, mrnOptional.orElse(null));
     }
 
@@ -162,7 +172,7 @@ public class SubscriptionRepository implements ISubscriptionRepository
     @Override
     public List<String> getSubscribersBySubject(String subject)
     {
-        return new ArrayList<>(subscriptionsBySubject.getOrDefault(subject, new ConcurrentSkipListSet<>()));
+        return toAgentIDs(getSubscriberSlotsBySubject(subject));
     }
 
 
@@ -170,15 +180,13 @@ public class SubscriptionRepository implements ISubscriptionRepository
      * Returns a list of agent IDs that are currently subscribed to any of the given subjects.
      *
      * @param subjects The list of subjects to retrieve subscribers for.
-     * @return A list of agent IDs that are currently subscribed to any of the given subjects.
+     * @return A list of agent IDs that are currently subscribed to any of the given subjects, each agent once.
      *                    If no agents are subscribed to any of the given subjects, an empty list is returned.
      */
     @Override
     public List<String> getSubscribersBySubjects(List<String> subjects)
     {
-        List<String> subscribers = new ArrayList<>();
-        subjects.forEach(subject -> subscribers.addAll(getSubscribersBySubject(subject)));
-        return subscribers;
+        return toAgentIDs(getSubscriberSlotsBySubjects(subjects));
     }
 
 
@@ -191,7 +199,7 @@ public class SubscriptionRepository implements ISubscriptionRepository
     @Override
     public List<String> getSubscribersByMrn(String mrn)
     {
-        return new ArrayList<>(subscriptionsByMrn.getOrDefault(mrn, new ConcurrentSkipListSet<>()));
+        return toAgentIDs(getSubscriberSlotsByMrn(mrn));
     }
 
 
@@ -199,29 +207,92 @@ public class SubscriptionRepository implements ISubscriptionRepository
      * Returns a list of agent IDs that are currently subscribed to the given MRN.
      *
      * @param mrns The MRN to retrieve subscribers for.
-     * @return A list of agent IDs that are currently subscribed to the given MRN.
+     * @return A list of agent IDs that are currently subscribed to the given MRN, each agent once.
      *                   If no agents are subscribed to the given MRN, an empty list is returned.
      */
     @Override
     public List<String> getSubscribersByMrns(List<String> mrns)
     {
-        List<String> subscribers = new ArrayList<>();
-        mrns.forEach(mrn -> subscribers.addAll(getSubscribersByMrn(mrn)));
-        return subscribers;
+        return toAgentIDs(getSubscriberSlotsByMrns(mrns));
+    }
+
+
+    /**
+     * Returns the slot indexes of the agents that are currently subscribed to the given subject.
+     * The bitmap is a snapshot that is never changed, and must not be changed by the caller.
+     *
+     * @param subject The subject to retrieve subscribers for.
+     * @return The slot indexes of the subscribers, empty if there are none.
+     */
+    @Override
+    public RoaringBitmap getSubscriberSlotsBySubject(String subject)
+    {
+        return subscriptionsBySubject.getOrDefault(subject, EMPTY);
+    }
+
+
+    /**
+     * Returns the slot indexes of the agents that are currently subscribed to the given MRN.
+     * The bitmap is a snapshot that is never changed, and must not be changed by the caller.
+     *
+     * @param mrn The MRN to retrieve subscribers for.
+     * @return The slot indexes of the subscribers, empty if there are none.
+     */
+    @Override
+    public RoaringBitmap getSubscriberSlotsByMrn(String mrn)
+    {
+        return subscriptionsByMrn.getOrDefault(mrn, EMPTY);
     }
 
 
+    /**
+     * Returns the slot indexes of the agents that are currently subscribed to any of the given subjects, each agent
+     * once. The bitmap must not be changed by the caller.
+     *
+     * @param subjects The subjects to retrieve subscribers for.
+     * @return The union of the subscribers of the subjects, empty if there are none.
+     */
+    @Override
+    public RoaringBitmap getSubscriberSlotsBySubjects(List<String> subjects)
+    {
+        return union(subscriptionsBySubject, subjects);
+    }
+
+
+    /**
+     * Returns the slot indexes of the agents that are currently subscribed to any of the given MRNs, each agent once.
+     * An agent that is the subscriber of several recipients of a direct message is therefore sent the message once.
+     * The bitmap must not be changed by the caller.
+     *
+     * @param mrns The MRNs to retrieve subscribers for.
+     * @return The union of the subscribers of the MRNs, empty if there are none.
+     */
+    @Override
+    public RoaringBitmap getSubscriberSlotsByMrns(List<String> mrns)
+    {
+        return union(subscriptionsByMrn, mrns);
+    }
+
+
+    /**
+     * Returns a map of subjects to a list of agent IDs that are currently subscribed to any subject.
+     * The whole table is copied, see {@link RoutingTableEndpoint} for inspecting it on a running router.
+     *
+     * @return A map of subjects to a list of agent IDs that are currently subscribed to the given subject.
+     *                  If no agents are subscribed to any subjects, an empty map is returned.
+     */
     @Override
     public Map<String, List<String>> getSubjectSubscriptionMap()
     {
         Map<String, List<String>> map = new HashMap<>();
-        subscriptionsBySubject.forEach((subject, set) -> map.put(subject, new ArrayList<>(set)));
+        subscriptionsBySubject.forEach((subject, set) -> map.put(subject, toAgentIDs(set)));
         return map;
     }
 
 
     /**
      * Returns a map of MRNs to a list of agent IDs that are currently subscribed to any MRN.
+     * The whole table is copied, see {@link RoutingTableEndpoint} for inspecting it on a running router.
      *
      * @return A map of MRNs to a list of agent IDs that are currently subscribed to the given MRN.
      *                  If no agents are subscribed to any MRNs, an empty map is returned.
@@ -230,32 +301,48 @@ public class SubscriptionRepository implements ISubscriptionRepository
     public Map<String, List<String>> getMrnSubscriptionMap()
     {
         Map<String, List<String>> map = new HashMap<>();
-        subscriptionsByMrn.forEach((mrn, set) -> map.put(mrn, new ArrayList<>(set)));
+        subscriptionsByMrn.forEach((mrn, set) -> map.put(mrn, toAgentIDs(set)));
         return map;
     }
 
 
+    /**
+     * Returns the subjects that currently have at least one subscriber.
+     *
+     * @return A read-only view of the subjects, which follows later changes.
+     */
+    @Override
+    public Set<String> getSubjects()
+    {
+        return Collections.unmodifiableSet(subscriptionsBySubject.keySet());
+    }
+
+
+    /**
+     * Returns the MRNs that currently have at least one subscriber.
+     *
+     * @return A read-only view of the MRNs, which follows later changes.
+     */
+    @Override
+    public Set<String> getMrns()
+    {
+        return Collections.unmodifiableSet(subscriptionsByMrn.keySet());
+    }
+
+
     /**
      * This method is called when a connection is added.
      * If the connection has an associated MRN, the agent will be subscribed to that MRN.
      * An event is published when the number of subscribers for an MRN goes from 0 to 1.
      *
      * @param agentID     The agent ID associated with the connection.
+     * @param slot        The slot handle of the agent.
      * @param mrnOptional The optional MRN associated with the agent.
      */
     @Async("WorkerPool")
-    protected void onConnectionAdded(String agentID, Optional<String> mrnOptional)
+    protected void onConnectionAdded(String agentID, int slot, Optional<String> mrnOptional)
     {
-        if (mrnOptional.isPresent())
-        {
-            String mrn = mrnOptional.get();
-            subscriptionsByMrn.computeIfAbsent(mrn, k ->
-            {
-                MrnSubscriptionEvent mrnSubscriptionEvent = new MrnSubscriptionEvent(this, mrn, SubscriptionEventType.SUBSCRIPTION);
-                eventPublisher.publishEvent(mrnSubscriptionEvent);
-                return new ConcurrentSkipListSet<>();
-            }).add(agentID);
-        }
+        mrnOptional.ifPresent(mrn -> addToMrn(mrn, AgentSlotTable.indexOf(slot)));
     }
 
 
@@ -265,45 +352,22 @@ public class SubscriptionRepository implements ISubscriptionRepository
      * An event is published when the number of subscribers for a subject or an MRN goes from 1 to 0.
      *
      * @param agentID     The agent ID associated with the connection.
+     * @param slot        The slot handle of the agent.
      * @param mrnOptional The optional MRN associated with the agent.
      */
     @Async("WorkerPool")
-    protected void onConnectionRemoved(String agentID, Optional<String> mrnOptional)
+    protected void onConnectionRemoved(String agentID, int slot, Optional<String> mrnOptional)
     {
-        subscriptionsBySubject.forEach((key, set) ->
-        {
-            set.remove(agentID);
-            if (set.isEmpty())
-            {
-                subscriptionsBySubject.remove(key);
-                SubjectSubscriptionEvent subjectSubscriptionEvent = new SubjectSubscriptionEvent(this, key, SubscriptionEventType.UNSUBSCRIPTION);
-                eventPublisher.publishEvent(subjectSubscriptionEvent);
-            }
-        });
-
-        // Remove agentID from subscriptionsByMrn map
-        if (mrnOptional.isPresent())
-        {
-            String mrn = mrnOptional.get();
-            subscriptionsByMrn.computeIfPresent(mrn, (key, set) ->
-            {
-                set.remove(agentID);
-                if (set.isEmpty())
-                {
-                    subscriptionsByMrn.remove(mrn);
-                    // Publish event to notify subscribers of change
-                    MrnSubscriptionEvent mrnSubscriptionEvent = new MrnSubscriptionEvent(this, mrn, SubscriptionEventType.UNSUBSCRIPTION);
-                    eventPublisher.publishEvent(mrnSubscriptionEvent);
-                }
-                return set;
-            });
-        }
+        int index = AgentSlotTable.indexOf(slot);
+        subscriptionsBySubject.keySet().forEach(subject -> removeFromSubject(subject, index));
+        mrnOptional.ifPresent(mrn -> removeFromMrn(mrn, index));
     }
 
 
     /**
      * Subscribes the agent to the given subjects.
      * An event is published when the number of subscribers for a subject goes from 0 to 1.
+     * If the agent disconnects while it is being subscribed, the subscriptions are undone.
      *
      * @param subjects The list of subjects to subscribe to.
      * @param agentID  The agent ID to be subscribed.
@@ -311,20 +375,21 @@ public class SubscriptionRepository implements ISubscriptionRepository
     @Async("WorkerPool")
     protected void subscribeToSubjects(List<String> subjects, String agentID)
     {
-        subjects.forEach(s ->
+        OptionalInt slot = connectionRepository.getSlot(agentID);
+
+        if (slot.isEmpty())
         {
-            subscriptionsBySubject.compute(s, (k, v) ->
-            {
-                if (v == null)
-                {
-                    v = new ConcurrentSkipListSet<>();
-                    SubjectSubscriptionEvent subjectSubscriptionEvent = new SubjectSubscriptionEvent(this, s, SubscriptionEventType.SUBSCRIPTION);
-                    eventPublisher.publishEvent(subjectSubscriptionEvent);
-                }
-                v.add(agentID);
-                return v;
-            });
-        });
+            log.debug("Ignoring subject subscription of disconnected agent={}", agentID);
+            return;
+        }
+
+        int index = AgentSlotTable.indexOf(slot.getAsInt());
+        subjects.forEach(subject -> addToSubject(subject, index));
+
+        if (!connectionRepository.isCurrentSlot(slot.getAsInt()))
+        {
+            subjects.forEach(subject -> removeFromSubject(subject, index));
+        }
     }
 
 
@@ -338,19 +403,13 @@ public class SubscriptionRepository implements ISubscriptionRepository
     @Async("WorkerPool")
     protected void unsubscribeFromSubjects(List<String> subjects, String agentID)
     {
-        subjects.forEach(s ->
+        OptionalInt slot = connectionRepository.getSlot(agentID);
+
+        if (slot.isPresent())
         {
-            subscriptionsBySubject.computeIfPresent(s, (k, v) ->
-            {
-                v.remove(agentID);
-                if (v.isEmpty())
-                {
-                    SubjectSubscriptionEvent subjectSubscriptionEvent = new SubjectSubscriptionEvent(this, s, SubscriptionEventType.UNSUBSCRIPTION);
-                    eventPublisher.publishEvent(subjectSubscriptionEvent);
-                }
-                return v;
-            });
-        });
+            int index = AgentSlotTable.indexOf(slot.getAsInt());
+            subjects.forEach(subject -> removeFromSubject(subject, index));
+        }
     }
 
 
@@ -364,17 +423,18 @@ public class SubscriptionRepository implements ISubscriptionRepository
     protected void subscribeToMrn(String agentID)
     {
         Optional<String> mrnOptional = connectionRepository.getMRN(agentID);
+        OptionalInt slot = connectionRepository.getSlot(agentID);
 
-        if (mrnOptional.isPresent())
+        if (mrnOptional.isPresent() && slot.isPresent())
         {
             String mrn = mrnOptional.get();
+            int index = AgentSlotTable.indexOf(slot.getAsInt());
+            addToMrn(mrn, index);
 
-            subscriptionsByMrn.computeIfAbsent(mrn, k ->
+            if (!connectionRepository.isCurrentSlot(slot.getAsInt()))
             {
-                MrnSubscriptionEvent mrnSubscriptionEvent = new MrnSubscriptionEvent(this, mrn, SubscriptionEventType.SUBSCRIPTION);
-                eventPublisher.publishEvent(mrnSubscriptionEvent);
-                return new ConcurrentSkipListSet<>();
-            }).add(agentID);
+                removeFromMrn(mrn, index);
+            }
         }
         else
         {
@@ -394,22 +454,213 @@ public class SubscriptionRepository implements ISubscriptionRepository
     protected void unsubscribeFromMrn(String agentID)
     {
         Optional<String> mrnOptional = connectionRepository.getMRN(agentID);
+        OptionalInt slot = connectionRepository.getSlot(agentID);
 
-        if (mrnOptional.isPresent())
+        if (mrnOptional.isPresent() && slot.isPresent())
         {
-            String mrn = mrnOptional.get();
+            removeFromMrn(mrnOptional.get(), AgentSlotTable.indexOf(slot.getAsInt()));
+        }
+    }
+
 
-            subscriptionsByMrn.computeIfPresent(mrn, (k, v) ->
+    /**
+     * Adds a slot to the subscribers of a subject, publishing an event if it is the first subscriber.
+     *
+     * @param subject The subject.
+     * @param index   The slot index of the agent.
+     */
+    private void addToSubject(String subject, int index)
+    {
+        if (add(subscriptionsBySubject, subject, index))
+        {
+            SubjectSubscriptionEvent subjectSubscriptionEvent = new SubjectSubscriptionEvent(this, subject, SubscriptionEventType.SUBSCRIPTION);
+            eventPublisher.publishEvent(subjectSubscriptionEvent);
+        }
+    }
+
+
+    /**
+     * Removes a slot from the subscribers of a subject, publishing an event if it was the last subscriber.
+     *
+     * @param subject The subject.
+     * @param index   The slot index of the agent.
+     */
+    private void removeFromSubject(String subject, int index)
+    {
+        if (remove(subscriptionsBySubject, subject, index))
+        {
+            SubjectSubscriptionEvent subjectSubscriptionEvent = new SubjectSubscriptionEvent(this, subject, SubscriptionEventType.UNSUBSCRIPTION);
+            eventPublisher.publishEvent(subjectSubscriptionEvent);
+        }
+    }
+
+
+    /**
+     * Adds a slot to the subscribers of an MRN, publishing an event if it is the first subscriber.
+     *
+     * @param mrn   The MRN.
+     * @param index The slot index of the agent.
+     */
+    private void addToMrn(String mrn, int index)
+    {
+        if (add(subscriptionsByMrn, mrn, index))
+        {
+            MrnSubscriptionEvent mrnSubscriptionEvent = new MrnSubscriptionEvent(this, mrn, SubscriptionEventType.SUBSCRIPTION);
+            eventPublisher.publishEvent(mrnSubscriptionEvent);
+        }
+    }
+
+
+    /**
+     * Removes a slot from the subscribers of an MRN, publishing an event if it was the last subscriber.
+     *
+     * @param mrn   The MRN.
+     * @param index The slot index of the agent.
+     */
+    private void removeFromMrn(String mrn, int index)
+    {
+        if (remove(subscriptionsByMrn, mrn, index))
+        {
+            // Publish event to notify subscribers of change
+            MrnSubscriptionEvent mrnSubscriptionEvent = new MrnSubscriptionEvent(this, mrn, SubscriptionEventType.UNSUBSCRIPTION);
+            eventPublisher.publishEvent(mrnSubscriptionEvent);
+        }
+    }
+
+
+    /**
+     * Adds a slot to the subscribers of a subject or MRN. The events are published by the caller once the map entry is
+     * no longer locked, so the listeners never run inside the map.
+     *
+     * @param index The subscriber sets by subject or MRN.
+     * @param key   The subject or MRN.
+     * @param slot  The slot index of the agent.
+     * @return True if the slot is the first subscriber.
+     */
+    private static boolean add(Map<String, RoaringBitmap> index, String key, int slot)
+    {
+        boolean[] first = new boolean[1];
+
+        index.compute(key, (ignored, set) ->
+        {
+            first[0] = set == null;
+            return with(set, slot);
+        });
+
+        return first[0];
+    }
+
+
+    /**
+     * Removes a slot from the subscribers of a subject or MRN, and the subject or MRN with its last subscriber.
+     *
+     * @param index The subscriber sets by subject or MRN.
+     * @param key   The subject or MRN.
+     * @param slot  The slot index of the agent.
+     * @return True if the slot was the last subscriber.
+     */
+    private static boolean remove(Map<String, RoaringBitmap> index, String key, int slot)
+    {
+        boolean[] last = new boolean[1];
+
+        index.computeIfPresent(key, (ignored, set) ->
+        {
+            RoaringBitmap remaining = without(set, slot);
+            last[0] = remaining == null;
+            return remaining;
+        });
+
+        return last[0];
+    }
+
+
+    /**
+     * Returns a copy of a subscriber set with a slot added, the set itself is never changed.
+     *
+     * @param set   The set, or null for an empty set.
+     * @param index The slot index to add.
+     * @return The new set.
+     */
+    private static RoaringBitmap with(RoaringBitmap set, int index)
+    {
+        if (set != null && set.contains(index))
+        {
+            return set;
+        }
+
+        RoaringBitmap copy = set != null ? set.clone() : new RoaringBitmap();
+        copy.add(index);
+        return copy;
+    }
+
+
+    /**
+     * Returns a copy of a subscriber set with a slot removed, the set itself is never changed.
+     *
+     * @param set   The set.
+     * @param index The slot index to remove.
+     * @return The new set, or null if it is empty.
+     */
+    private static RoaringBitmap without(RoaringBitmap set, int index)
+    {
+        if (!set.contains(index))
+        {
+            return set;
+        }
+
+        RoaringBitmap copy = set.clone();
+        copy.remove(index);
+        return copy.isEmpty() ? null : copy;
+    }
+
+
+    /**
+     * Returns the union of the subscriber sets of the given keys. A single set is returned as is, without a copy, and
+     * several sets are combined by a bitwise OR of their containers, which also drops duplicate subscribers.
+     *
+     * @param index The subscriber sets by subject or MRN.
+     * @param keys  The subjects or MRNs.
+     * @return The union, which must not be changed.
+     */
+    private static RoaringBitmap union(Map<String, RoaringBitmap> index, List<String> keys)
+    {
+        List<RoaringBitmap> sets = new ArrayList<>(keys.size());
+
+        for (String key : keys)
+        {
+            RoaringBitmap set = index.get(key);
+            if (set != null)
             {
-                v.remove(agentID);
-                if (v.isEmpty())
-                {
-                    MrnSubscriptionEvent mrnSubscriptionEvent = new MrnSubscriptionEvent(this, mrn, SubscriptionEventType.UNSUBSCRIPTION);
-                    eventPublisher.publishEvent(mrnSubscriptionEvent);
-                }
-                return v;
-            });
+                sets.add(set);
+            }
         }
+
+        return switch (sets.size())
+        {
+            case 0 -> EMPTY;
+            case 1 -> sets.get(0);
+            default -> RoaringBitmap.or(sets.iterator());
+        };
+    }
+
+
+    /**
+     * Resolves a subscriber set to the IDs of the agents in its slots.
+     *
+     * @param set The subscriber set.
+     * @return The agent IDs.
+     */
+    private List<String> toAgentIDs(RoaringBitmap set)
+    {
+        List<String> agentIDs = new ArrayList<>(set.getCardinality());
+        IntIterator iterator = set.getIntIterator();
+
+        while (iterator.hasNext())
+        {
+            connectionRepository.getAgentIDAt(iterator.next()).ifPresent(agentIDs::add);
+        }
+
+        return agentIDs;
     }
 
 
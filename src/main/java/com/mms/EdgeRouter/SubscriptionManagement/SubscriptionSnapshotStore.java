@@ -0,0 +1,305 @@
+package com.mms.EdgeRouter.SubscriptionManagement;
+
+import com.mms.EdgeRouter.ActiveMQ.RemoteInterest;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import io.netty.util.Timeout;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Writes the routing state of the {@link ISubscriptionRepository} to a file, and restores it on startup so that a
+ * restarted router is warm before its agents reconnect.
+ * <p>
+ * Agent session IDs and slots do not survive a restart, so the snapshot holds what does: the subjects and MRNs that
+ * had subscribers, with the number of subscribers each. On startup, the router subscribes to those topics on the
+ * broker right away, see {@link RemoteInterest#prewarm(java.util.Collection)}, so messages for the reconnecting agents
+ * are already flowing in while they reconnect and subscribe again. Topics that no agent subscribes to again within the
+ * grace period are released.
+ * <p>
+ * The snapshot is written periodically and when the router shuts down, to a temporary file that is then moved over
+ * the previous snapshot, so a crash while writing never leaves a torn snapshot behind. A router that drains seals the
+ * snapshot before it closes its connections, so that the state of the running router is kept instead of the empty
+ * state of the drained one. The periodic writes and the release of the restored topics are timed on the
+ * {@link TimerWheel}, and run on a thread of the store since they block on the file system and the broker. The format
+ * is a version tagged binary format written with a {@link DataOutputStream}:
+ * <pre>
+ * int     magic
+ * short   version
+ * long    written at, epoch milliseconds
+ * int     number of subjects, then per subject: UTF name, int number of subscribers
+ * int     number of MRNs, then per MRN: UTF name, int number of subscribers
+ * </pre>
+ */
+@Slf4j
+@Component
+public class SubscriptionSnapshotStore
+{
+    private static final int MAGIC = 0x4D4D5353;
+    private static final short VERSION = 1;
+
+    private final ISubscriptionRepository subscriptionRepository;
+    private final RemoteInterest remoteInterest;
+    private final boolean enabled;
+    private final Path path;
+
+    private final ExecutorService executor;
+    private final Timeout release;
+    private final Timeout periodicWrite;
+    private volatile boolean sealed;
+
+
+    /**
+     * Constructs a new {@link SubscriptionSnapshotStore}, restores the last snapshot and starts writing new ones.
+     *
+     * @param subscriptionRepository The repository whose routing state is written.
+     * @param remoteInterest         The broker topics the router listens to, pre-warmed from the snapshot.
+     * @param timerWheel             The timer the periodic writes and the release of the restored topics are scheduled on.
+     * @param enabled                Whether snapshots are written and restored at all.
+     * @param path                   The file the snapshot is written to.
+     * @param intervalSeconds        How often the snapshot is written while the router runs.
+     * @param warmGraceSeconds       How long the restored topics are kept without a local subscriber.
+     */
+    @Autowired
+    public SubscriptionSnapshotStore(ISubscriptionRepository subscriptionRepository, RemoteInterest remoteInterest, TimerWheel timerWheel, @Value("${edgerouter.snapshot.enabled:false}") boolean enabled, @Value("${edgerouter.snapshot.path:routing-state.bin}") String path, @Value("${edgerouter.snapshot.intervalSeconds:60}") long intervalSeconds, @Value("${edgerouter.snapshot.warmGraceSeconds:300}") long warmGraceSeconds)
+    {
+        this.subscriptionRepository = subscriptionRepository;
+        this.remoteInterest = remoteInterest;
+        this.enabled = enabled;
+        this.path = Path.of(path);
+
+        this.executor = Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "SubscriptionSnapshotStore");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (enabled)
+        {
+            restore();
+        }
+
+        this.release = enabled ? timerWheel.schedule(() -> submit(remoteInterest::releaseUnclaimed), warmGraceSeconds, TimeUnit.SECONDS) : null;
+        this.periodicWrite = enabled ? timerWheel.scheduleWithFixedDelay(() -> submit(this::writeQuietly), intervalSeconds, intervalSeconds, TimeUnit.SECONDS) : null;
+
+        log.info("SubscriptionSnapshotStore initialized with enabled={}, path={}, intervalSeconds={}, warmGraceSeconds={}", enabled, path, intervalSeconds, warmGraceSeconds);
+    }
+
+
+    /**
+     * Writes the current routing state to the snapshot file.
+     *
+     * @throws IOException If the snapshot could not be written, the previous snapshot is then left in place.
+     */
+    public void write() throws IOException
+    {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary))))
+        {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            writeSection(out, subscriptionRepository.getSubjects(), subject -> subscriptionRepository.getSubscriberSlotsBySubject(subject).getCardinality());
+            writeSection(out, subscriptionRepository.getMrns(), mrn -> subscriptionRepository.getSubscriberSlotsByMrn(mrn).getCardinality());
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Writes a last snapshot of the current routing state, and stops writing snapshots after it.
+     */
+    public synchronized void seal()
+    {
+        if (enabled && !sealed)
+        {
+            writeQuietly();
+            log.info("Routing state snapshot sealed at {}", path);
+        }
+
+        sealed = true;
+    }
+
+
+    /**
+     * Reads the routing state of the snapshot file.
+     *
+     * @return The snapshot.
+     * @throws IOException If the file could not be read or is not a snapshot of a known version.
+     */
+    public Snapshot read() throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path))))
+        {
+            if (in.readInt() != MAGIC)
+            {
+                throw new IOException("Not a routing state snapshot: " + path);
+            }
+
+            short version = in.readShort();
+
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported routing state snapshot version " + version + ": " + path);
+            }
+
+            long writtenAt = in.readLong();
+            return new Snapshot(writtenAt, readSection(in), readSection(in));
+        }
+    }
+
+
+    /**
+     * Pre-warms the broker topics of the last snapshot, if there is one.
+     */
+    private void restore()
+    {
+        try
+        {
+            Snapshot snapshot = read();
+            List<String> topics = new ArrayList<>(snapshot.subjects().keySet());
+            topics.addAll(snapshot.mrns().keySet());
+            remoteInterest.prewarm(topics);
+
+            log.info("Restored routing state of {} subjects and {} MRNs written {} ms ago", snapshot.subjects().size(), snapshot.mrns().size(), System.currentTimeMillis() - snapshot.writtenAt());
+        }
+
+        catch (NoSuchFileException ex)
+        {
+            log.info("No routing state snapshot at {}, starting cold", path);
+        }
+
+        catch (IOException | RuntimeException ex)
+        {
+            log.warn("Could not restore routing state snapshot, starting cold", ex);
+        }
+    }
+
+
+    /**
+     * Hands a task that is due on the timer wheel over to the thread of the store.
+     *
+     * @param task The task.
+     */
+    private void submit(Runnable task)
+    {
+        try
+        {
+            executor.execute(task);
+        }
+
+        catch (RejectedExecutionException ex)
+        {
+            // The store is being destroyed
+        }
+    }
+
+
+    private synchronized void writeQuietly()
+    {
+        if (sealed)
+        {
+            return;
+        }
+
+        try
+        {
+            write();
+        }
+
+        catch (IOException | RuntimeException ex)
+        {
+            log.error("Error writing routing state snapshot", ex);
+        }
+    }
+
+
+    /**
+     * Writes the names and subscriber counts of a set of subjects or MRNs. The set is a live view, so names whose
+     * subscribers left while writing are written with a count of 0, and names added while writing may be missed.
+     *
+     * @param out    The stream to write to.
+     * @param names  The subjects or MRNs.
+     * @param counts Returns the number of subscribers of a name.
+     * @throws IOException If the section could not be written.
+     */
+    private static void writeSection(DataOutputStream out, Set<String> names, ToIntFunction<String> counts) throws IOException
+    {
+        List<String> snapshot = new ArrayList<>(names);
+        out.writeInt(snapshot.size());
+
+        for (String name : snapshot)
+        {
+            out.writeUTF(name);
+            out.writeInt(counts.applyAsInt(name));
+        }
+    }
+
+
+    private static Map<String, Integer> readSection(DataInputStream in) throws IOException
+    {
+        int size = in.readInt();
+        Map<String, Integer> section = new LinkedHashMap<>();
+
+        for (int i = 0; i < size; i++)
+        {
+            String name = in.readUTF();
+            int count = in.readInt();
+
+            if (count > 0)
+            {
+                section.put(name, count);
+            }
+        }
+
+        return section;
+    }
+
+
+    /**
+     * Writes a last snapshot and stops writing snapshots before the object is destroyed.
+     */
+    @PreDestroy
+    public void destroy()
+    {
+        if (release != null)
+        {
+            release.cancel();
+            periodicWrite.cancel();
+        }
+
+        executor.shutdownNow();
+        seal();
+    }
+
+
+    /**
+     * The routing state of a snapshot.
+     *
+     * @param writtenAt When the snapshot was written, in epoch milliseconds.
+     * @param subjects  The subjects with subscribers, and the number of subscribers of each.
+     * @param mrns      The MRNs with subscribers, and the number of subscribers of each.
+     */
+    public record Snapshot(long writtenAt, Map<String, Integer> subjects, Map<String, Integer> mrns) {}
+}
@@ -0,0 +1,208 @@
+package com.mms.EdgeRouter.Timing;
+
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import jakarta.annotation.PreDestroy;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timer of all delayed work in the router: read resumes of rate-limited sessions, linger windows of egress batches,
+ * liveness checks, IP block expiry, cache cleanup and the periodic tasks of the admission controller and the snapshot
+ * store.
+ * <p>
+ * Timeouts are kept in a hashed timer wheel with a single tick thread. Scheduling and cancelling a timeout are O(1),
+ * a pending timeout costs one small object and no thread, so hundreds of thousands of them stay cheap. In exchange, a
+ * timeout fires on the first tick after it is due, up to a tick late. Tasks run on the tick thread and must be short,
+ * anything that blocks is handed to a pool from the task.
+ */
+@Slf4j
+@Component
+public class TimerWheel
+{
+    private final HashedWheelTimer timer;
+
+
+    /**
+     * Constructs a new {@link TimerWheel}, the tick thread is started by the first timeout.
+     *
+     * @param metrics       The metrics the number of pending timeouts is published through.
+     * @param tickMillis    The duration of a tick, which bounds how late a timeout fires.
+     * @param ticksPerWheel The number of buckets of the wheel.
+     */
+    @Autowired
+    public TimerWheel(RouterMetrics metrics, @Value("${edgerouter.timer.tickMillis:1}") long tickMillis, @Value("${edgerouter.timer.ticksPerWheel:1024}") int ticksPerWheel)
+    {
+        this(tickMillis, ticksPerWheel);
+        metrics.registerGauge("timer.pending", "Timeouts pending on the timer wheel", timer::pendingTimeouts);
+
+        log.info("TimerWheel initialized with tickMillis={}, ticksPerWheel={}", tickMillis, ticksPerWheel);
+    }
+
+
+    /**
+     * Constructs a new {@link TimerWheel} without metrics.
+     *
+     * @param tickMillis    The duration of a tick, which bounds how late a timeout fires.
+     * @param ticksPerWheel The number of buckets of the wheel.
+     */
+    public TimerWheel(long tickMillis, int ticksPerWheel)
+    {
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("TimerWheel", true), Math.max(1, tickMillis), TimeUnit.MILLISECONDS, Math.max(1, ticksPerWheel));
+    }
+
+
+    /**
+     * Runs a task once after a delay.
+     *
+     * @param task  The task.
+     * @param delay The delay.
+     * @param unit  The unit of the delay.
+     * @return The timeout, which can be cancelled.
+     */
+    public Timeout schedule(@NonNull Runnable task, long delay, @NonNull TimeUnit unit)
+    {
+        return timer.newTimeout(timeout -> task.run(), delay, unit);
+    }
+
+
+    /**
+     * Runs a task repeatedly, each run the given delay after the previous one ended.
+     *
+     * @param task         The task, an exception it throws is logged and does not stop later runs.
+     * @param initialDelay The delay before the first run.
+     * @param delay        The delay between the end of a run and the start of the next.
+     * @param unit         The unit of the delays.
+     * @return A timeout that stops the task when cancelled.
+     */
+    public Timeout scheduleWithFixedDelay(@NonNull Runnable task, long initialDelay, long delay, @NonNull TimeUnit unit)
+    {
+        RepeatingTimeout repeating = new RepeatingTimeout(task, unit.toNanos(delay));
+        repeating.current = timer.newTimeout(repeating, initialDelay, unit);
+        return repeating;
+    }
+
+
+    /**
+     * Returns the number of timeouts that have not fired or been cancelled yet.
+     */
+    public long getPendingTimeouts()
+    {
+        return timer.pendingTimeouts();
+    }
+
+
+    /**
+     * Stops the tick thread before the object is destroyed, pending timeouts are dropped.
+     */
+    @PreDestroy
+    public void destroy()
+    {
+        timer.stop();
+    }
+
+
+    /**
+     * A task that schedules its next run on the wheel when a run ends, until it is cancelled.
+     */
+    private final class RepeatingTimeout implements TimerTask, Timeout
+    {
+        private final Runnable task;
+        private final long delayNanos;
+
+        private volatile Timeout current;
+        private volatile boolean cancelled;
+
+
+        private RepeatingTimeout(Runnable task, long delayNanos)
+        {
+            this.task = task;
+            this.delayNanos = delayNanos;
+        }
+
+
+        @Override
+        public void run(Timeout timeout)
+        {
+            if (cancelled)
+            {
+                return;
+            }
+
+            try
+            {
+                task.run();
+            }
+
+            catch (RuntimeException ex)
+            {
+                log.error("Error running repeating timer task", ex);
+            }
+
+            try
+            {
+                if (!cancelled)
+                {
+                    current = timer.newTimeout(this, delayNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+
+            catch (IllegalStateException ex)
+            {
+                // The wheel has been stopped
+            }
+        }
+
+
+        @Override
+        public Timer timer()
+        {
+            return timer;
+        }
+
+
+        @Override
+        public TimerTask task()
+        {
+            return this;
+        }
+
+
+        @Override
+        public boolean isExpired()
+        {
+            return false;
+        }
+
+
+        @Override
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+
+        @Override
+        public boolean cancel()
+        {
+            cancelled = true;
+            Timeout timeout = current;
+
+            if (timeout != null)
+            {
+                timeout.cancel();
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.mms.EdgeRouter.Tls;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+/**
+ * Remembers the IDs of the sessions that the handshakes of a {@link MeteredSSLContext} negotiated, so that a handshake
+ * that ends in a session seen before is known to have resumed it.
+ * <p>
+ * A full handshake negotiates a session with a new ID, while a resumed session keeps the ID of the session it resumes.
+ * The IDs are kept for as long and in as large a number as the session cache of the context keeps sessions, a session
+ * that was forgotten here but could still be resumed counts as a full handshake. Sessions without an ID cannot be
+ * resumed.
+ */
+final class HandshakeSessions
+{
+    /**
+     * The default session cache size of the JSSE, used when the cache of the context is unbounded.
+     */
+    private static final int DEFAULT_MAXIMUM_SESSIONS = 20480;
+
+    private final Cache<ByteBuffer, Boolean> sessionIDs;
+
+
+    /**
+     * Constructs a new {@link HandshakeSessions} that keeps the IDs as the given session cache keeps its sessions.
+     *
+     * @param sessionContext The server session context of the SSL context.
+     */
+    HandshakeSessions(SSLSessionContext sessionContext)
+    {
+        int maximumSessions = sessionContext.getSessionCacheSize();
+        int timeoutSeconds = sessionContext.getSessionTimeout();
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maximumSessions > 0 ? maximumSessions : DEFAULT_MAXIMUM_SESSIONS);
+
+        if (timeoutSeconds > 0)
+        {
+            builder.expireAfterWrite(Duration.ofSeconds(timeoutSeconds));
+        }
+
+        this.sessionIDs = builder.build();
+    }
+
+
+    /**
+     * Records the session a handshake ended in, and returns whether the handshake resumed it.
+     *
+     * @param session The session the handshake negotiated.
+     * @return True if a handshake before this one negotiated the same session.
+     */
+    boolean completed(SSLSession session)
+    {
+        byte[] sessionID = session.getId();
+
+        if (sessionID == null || sessionID.length == 0)
+        {
+            return false;
+        }
+
+        return sessionIDs.asMap().putIfAbsent(ByteBuffer.wrap(sessionID), Boolean.TRUE) != null;
+    }
+}
@@ -0,0 +1,42 @@
+package com.mms.EdgeRouter.Tls;
+
+import org.apache.tomcat.util.net.SSLContext;
+import org.apache.tomcat.util.net.SSLHostConfigCertificate;
+import org.apache.tomcat.util.net.SSLUtil;
+import org.apache.tomcat.util.net.jsse.JSSEImplementation;
+import org.apache.tomcat.util.net.jsse.JSSEUtil;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Tomcat's JSSE implementation, with every SSL engine wrapped in a {@link MeteredSSLEngine} that records its handshake.
+ * Configured on the connector by class name, see {@link TlsConfiguration}.
+ */
+public class MeteredJSSEImplementation extends JSSEImplementation
+{
+    @Override
+    public SSLUtil getSSLUtil(SSLHostConfigCertificate certificate)
+    {
+        return new MeteredJSSEUtil(certificate);
+    }
+
+
+    /**
+     * Creates the SSL context of a certificate the same way as {@link JSSEUtil}, wrapped in a {@link MeteredSSLContext}.
+     */
+    private static class MeteredJSSEUtil extends JSSEUtil
+    {
+        MeteredJSSEUtil(SSLHostConfigCertificate certificate)
+        {
+            super(certificate);
+        }
+
+
+        @Override
+        public SSLContext createSSLContextInternal(List<String> negotiableProtocols) throws NoSuchAlgorithmException
+        {
+            return new MeteredSSLContext(super.createSSLContextInternal(negotiableProtocols));
+        }
+    }
+}
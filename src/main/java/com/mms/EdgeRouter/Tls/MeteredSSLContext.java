@@ -0,0 +1,104 @@
+package com.mms.EdgeRouter.Tls;
+
+import org.apache.tomcat.util.net.SSLContext;
+
+import javax.net.ssl.*;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+
+/**
+ * A Tomcat {@link SSLContext} that wraps the engines it creates in a {@link MeteredSSLEngine}, and delegates everything
+ * else. Its engines share the {@link HandshakeSessions} that tell resumed handshakes from full ones, as they share the
+ * session cache, which is created with the first engine since Tomcat configures the cache after creating the context.
+ */
+class MeteredSSLContext implements SSLContext
+{
+    private final SSLContext delegate;
+
+    private volatile HandshakeSessions handshakeSessions;
+
+
+    MeteredSSLContext(SSLContext delegate)
+    {
+        this.delegate = delegate;
+    }
+
+
+    @Override
+    public void init(KeyManager[] kms, TrustManager[] tms, SecureRandom sr) throws KeyManagementException
+    {
+        delegate.init(kms, tms, sr);
+    }
+
+
+    @Override
+    public void destroy()
+    {
+        delegate.destroy();
+    }
+
+
+    @Override
+    public SSLSessionContext getServerSessionContext()
+    {
+        return delegate.getServerSessionContext();
+    }
+
+
+    @Override
+    public SSLEngine createSSLEngine()
+    {
+        return new MeteredSSLEngine(delegate.createSSLEngine(), getHandshakeSessions());
+    }
+
+
+    private HandshakeSessions getHandshakeSessions()
+    {
+        HandshakeSessions sessions = handshakeSessions;
+
+        if (sessions == null)
+        {
+            synchronized (this)
+            {
+                sessions = handshakeSessions;
+
+                if (sessions == null)
+                {
+                    sessions = new HandshakeSessions(delegate.getServerSessionContext());
+                    handshakeSessions = sessions;
+                }
+            }
+        }
+
+        return sessions;
+    }
+
+
+    @Override
+    public SSLServerSocketFactory getServerSocketFactory()
+    {
+        return delegate.getServerSocketFactory();
+    }
+
+
+    @Override
+    public SSLParameters getSupportedSSLParameters()
+    {
+        return delegate.getSupportedSSLParameters();
+    }
+
+
+    @Override
+    public X509Certificate[] getCertificateChain(String alias)
+    {
+        return delegate.getCertificateChain(alias);
+    }
+
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers()
+    {
+        return delegate.getAcceptedIssuers();
+    }
+}
@@ -0,0 +1,303 @@
+package com.mms.EdgeRouter.Tls;
+
+import javax.net.ssl.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * An {@link SSLEngine} that delegates to the JSSE engine and records the duration and kind of its initial handshake.
+ * <p>
+ * The handshake is timed from the first record the engine reads or writes until it reports the handshake as finished,
+ * so the time includes the network round trips and the delegated tasks, the certificate chain validation among them.
+ * A handshake counts as resumed when it ends in a session whose ID an earlier handshake with the same context
+ * negotiated, see {@link HandshakeSessions}. Renegotiations and post-handshake messages are not recorded.
+ */
+class MeteredSSLEngine extends SSLEngine
+{
+    private final SSLEngine delegate;
+    private final HandshakeSessions handshakeSessions;
+
+    private long handshakeStartNanos;
+    private boolean handshakeRecorded;
+
+
+    MeteredSSLEngine(SSLEngine delegate, HandshakeSessions handshakeSessions)
+    {
+        super(delegate.getPeerHost(), delegate.getPeerPort());
+        this.delegate = delegate;
+        this.handshakeSessions = handshakeSessions;
+    }
+
+
+    @Override
+    public SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst) throws SSLException
+    {
+        startHandshake();
+
+        try
+        {
+            return completeHandshake(delegate.wrap(srcs, offset, length, dst));
+        }
+
+        catch (SSLException ex)
+        {
+            failHandshake();
+            throw ex;
+        }
+    }
+
+
+    @Override
+    public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length) throws SSLException
+    {
+        startHandshake();
+
+        try
+        {
+            return completeHandshake(delegate.unwrap(src, dsts, offset, length));
+        }
+
+        catch (SSLException ex)
+        {
+            failHandshake();
+            throw ex;
+        }
+    }
+
+
+    @Override
+    public void beginHandshake() throws SSLException
+    {
+        startHandshake();
+        delegate.beginHandshake();
+    }
+
+
+    private void startHandshake()
+    {
+        if (handshakeStartNanos == 0 && !handshakeRecorded)
+        {
+            handshakeStartNanos = System.nanoTime();
+        }
+    }
+
+
+    private SSLEngineResult completeHandshake(SSLEngineResult result)
+    {
+        if (!handshakeRecorded && result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED)
+        {
+            handshakeRecorded = true;
+            boolean resumed = handshakeSessions.completed(delegate.getSession());
+            TlsHandshakeRecorder.recordHandshake(resumed, System.nanoTime() - handshakeStartNanos);
+        }
+
+        return result;
+    }
+
+
+    private void failHandshake()
+    {
+        if (!handshakeRecorded)
+        {
+            handshakeRecorded = true;
+            TlsHandshakeRecorder.recordHandshakeFailure();
+        }
+    }
+
+
+    @Override
+    public Runnable getDelegatedTask()
+    {
+        return delegate.getDelegatedTask();
+    }
+
+
+    @Override
+    public void closeInbound() throws SSLException
+    {
+        delegate.closeInbound();
+    }
+
+
+    @Override
+    public boolean isInboundDone()
+    {
+        return delegate.isInboundDone();
+    }
+
+
+    @Override
+    public void closeOutbound()
+    {
+        delegate.closeOutbound();
+    }
+
+
+    @Override
+    public boolean isOutboundDone()
+    {
+        return delegate.isOutboundDone();
+    }
+
+
+    @Override
+    public String[] getSupportedCipherSuites()
+    {
+        return delegate.getSupportedCipherSuites();
+    }
+
+
+    @Override
+    public String[] getEnabledCipherSuites()
+    {
+        return delegate.getEnabledCipherSuites();
+    }
+
+
+    @Override
+    public void setEnabledCipherSuites(String[] suites)
+    {
+        delegate.setEnabledCipherSuites(suites);
+    }
+
+
+    @Override
+    public String[] getSupportedProtocols()
+    {
+        return delegate.getSupportedProtocols();
+    }
+
+
+    @Override
+    public String[] getEnabledProtocols()
+    {
+        return delegate.getEnabledProtocols();
+    }
+
+
+    @Override
+    public void setEnabledProtocols(String[] protocols)
+    {
+        delegate.setEnabledProtocols(protocols);
+    }
+
+
+    @Override
+    public SSLSession getSession()
+    {
+        return delegate.getSession();
+    }
+
+
+    @Override
+    public SSLSession getHandshakeSession()
+    {
+        return delegate.getHandshakeSession();
+    }
+
+
+    @Override
+    public SSLEngineResult.HandshakeStatus getHandshakeStatus()
+    {
+        return delegate.getHandshakeStatus();
+    }
+
+
+    @Override
+    public void setUseClientMode(boolean mode)
+    {
+        delegate.setUseClientMode(mode);
+    }
+
+
+    @Override
+    public boolean getUseClientMode()
+    {
+        return delegate.getUseClientMode();
+    }
+
+
+    @Override
+    public void setNeedClientAuth(boolean need)
+    {
+        delegate.setNeedClientAuth(need);
+    }
+
+
+    @Override
+    public boolean getNeedClientAuth()
+    {
+        return delegate.getNeedClientAuth();
+    }
+
+
+    @Override
+    public void setWantClientAuth(boolean want)
+    {
+        delegate.setWantClientAuth(want);
+    }
+
+
+    @Override
+    public boolean getWantClientAuth()
+    {
+        return delegate.getWantClientAuth();
+    }
+
+
+    @Override
+    public void setEnableSessionCreation(boolean flag)
+    {
+        delegate.setEnableSessionCreation(flag);
+    }
+
+
+    @Override
+    public boolean getEnableSessionCreation()
+    {
+        return delegate.getEnableSessionCreation();
+    }
+
+
+    @Override
+    public SSLParameters getSSLParameters()
+    {
+        return delegate.getSSLParameters();
+    }
+
+
+    @Override
+    public void setSSLParameters(SSLParameters params)
+    {
+        delegate.setSSLParameters(params);
+    }
+
+
+    @Override
+    public String getApplicationProtocol()
+    {
+        return delegate.getApplicationProtocol();
+    }
+
+
+    @Override
+    public String getHandshakeApplicationProtocol()
+    {
+        return delegate.getHandshakeApplicationProtocol();
+    }
+
+
+    @Override
+    public void setHandshakeApplicationProtocolSelector(BiFunction<SSLEngine, List<String>, String> selector)
+    {
+        delegate.setHandshakeApplicationProtocolSelector(selector);
+    }
+
+
+    @Override
+    public BiFunction<SSLEngine, List<String>, String> getHandshakeApplicationProtocolSelector()
+    {
+        return delegate.getHandshakeApplicationProtocolSelector();
+    }
+}
@@ -0,0 +1,85 @@
+package com.mms.EdgeRouter.Tls;
+
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.apache.coyote.http11.AbstractHttp11Protocol;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures TLS session resumption on the mTLS endpoint of the embedded Tomcat, and the recording of TLS handshakes.
+ * <p>
+ * Every agent presents a client certificate, so a full handshake costs a certificate chain validation on top of the key
+ * exchange, and a reconnect storm is dominated by handshakes. Resumption lets a reconnecting agent skip both: with TLS
+ * 1.2 through the server-side session cache, with TLS 1.3 through stateless session tickets. The size and lifetime of
+ * the cache are set in config. Tickets are issued by default, they are a JVM-wide setting of the JDK and can only be
+ * turned off at launch, with -Djdk.tls.server.enableSessionTicketExtension=false.
+ * <p>
+ * Handshake counts by kind (full or resumed), failures and handshake latencies are exported through the
+ * {@link RouterMetrics}, by letting the connector use the {@link MeteredJSSEImplementation}.
+ */
+@Slf4j
+@Configuration
+public class TlsConfiguration implements WebServerFactoryCustomizer<TomcatServletWebServerFactory>
+{
+    private final int sessionCacheSize;
+    private final int sessionTimeoutSeconds;
+    private final boolean handshakeMetrics;
+
+
+    /**
+     * Constructs a new {@link TlsConfiguration}.
+     *
+     * @param metrics               The metrics the handshakes are recorded in.
+     * @param sessionCacheSize      The maximum number of TLS sessions cached for resumption.
+     * @param sessionTimeoutSeconds The time a cached session or a session ticket can be resumed.
+     * @param handshakeMetrics      Whether handshakes are recorded.
+     */
+    @Autowired
+    public TlsConfiguration(RouterMetrics metrics, @Value("${edgerouter.tls.sessionCacheSize:20000}") int sessionCacheSize, @Value("${edgerouter.tls.sessionTimeoutSeconds:86400}") int sessionTimeoutSeconds, @Value("${edgerouter.tls.handshakeMetrics:true}") boolean handshakeMetrics)
+    {
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+        this.handshakeMetrics = handshakeMetrics;
+
+        TlsHandshakeRecorder.bind(metrics);
+
+        log.info("TlsConfiguration initialized with sessionCacheSize={}, sessionTimeoutSeconds={}, handshakeMetrics={}", sessionCacheSize, sessionTimeoutSeconds, handshakeMetrics);
+    }
+
+
+    /**
+     * Adds a connector customizer that applies the session settings to every SSL host of the connector.
+     *
+     * @param factory The factory of the embedded Tomcat.
+     */
+    @Override
+    public void customize(TomcatServletWebServerFactory factory)
+    {
+        factory.addConnectorCustomizers(connector ->
+        {
+            ProtocolHandler handler = connector.getProtocolHandler();
+
+            if (!(handler instanceof AbstractHttp11Protocol<?> protocol) || !protocol.isSSLEnabled())
+            {
+                return;
+            }
+
+            for (SSLHostConfig hostConfig : protocol.findSslHostConfigs())
+            {
+                hostConfig.setSessionCacheSize(sessionCacheSize);
+                hostConfig.setSessionTimeout(sessionTimeoutSeconds);
+            }
+
+            if (handshakeMetrics)
+            {
+                protocol.setSslImplementationName(MeteredJSSEImplementation.class.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,44 @@
+package com.mms.EdgeRouter.Tls;
+
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+
+/**
+ * Hands the handshakes observed by {@link MeteredSSLEngine} to the {@link RouterMetrics}.
+ * <p>
+ * Tomcat creates its SSL implementation by class name, outside the Spring context, so the engines cannot have the
+ * metrics injected. {@link TlsConfiguration} binds the metrics here before the connector starts, and handshakes seen
+ * before that, or when no metrics are bound, are not recorded.
+ */
+final class TlsHandshakeRecorder
+{
+    private static volatile RouterMetrics metrics;
+
+
+    private TlsHandshakeRecorder() {}
+
+
+    static void bind(RouterMetrics routerMetrics)
+    {
+        metrics = routerMetrics;
+    }
+
+
+    static void recordHandshake(boolean resumed, long nanos)
+    {
+        RouterMetrics current = metrics;
+        if (current != null)
+        {
+            current.recordTlsHandshake(resumed, nanos);
+        }
+    }
+
+
+    static void recordHandshakeFailure()
+    {
+        RouterMetrics current = metrics;
+        if (current != null)
+        {
+            current.recordTlsHandshakeFailure();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.mms.EdgeRouter.Tracing;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The timeline of one sampled message, a list of {@link TraceStage}s with their offset from the start of the trace.
+ * <p>
+ * Stages are recorded concurrently, by the ingress lane, the delivery lane, the fan-out workers and the JMS sender, so
+ * the timeline is a fixed-size array filled through an atomic cursor. Once it is full, further stages are only counted.
+ * Sends are also summarized, since a large fan-out would otherwise fill the timeline on its own.
+ * <p>
+ * Messages that are not sampled carry {@link #NONE}, which ignores everything recorded on it.
+ */
+public class MessageTrace
+{
+    /**
+     * The trace of messages that are not sampled.
+     */
+    public static final MessageTrace NONE = new MessageTrace(null, null, 0);
+
+    private final String traceId;
+    private final String origin;
+    private final long startNanos;
+    private final Instant startedAt;
+
+    private final TraceStage[] stages;
+    private final long[] offsets;
+    private final long[] durations;
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    private final AtomicLong sends = new AtomicLong();
+    private final AtomicLong sendNanos = new AtomicLong();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+
+    private volatile String messageId;
+
+
+    /**
+     * Constructs a new {@link MessageTrace} starting now.
+     *
+     * @param traceId  The ID of the trace, shared by the traces of the same message on different routers.
+     * @param origin   Where the message entered this router, "local" or "remote".
+     * @param capacity The maximum number of stages kept in the timeline.
+     */
+    MessageTrace(String traceId, String origin, int capacity)
+    {
+        this.traceId = traceId;
+        this.origin = origin;
+        this.startNanos = System.nanoTime();
+        this.startedAt = Instant.now();
+        this.stages = new TraceStage[capacity];
+        this.offsets = new long[capacity];
+        this.durations = new long[capacity];
+    }
+
+
+    /**
+     * Whether this message is traced.
+     */
+    public boolean isSampled()
+    {
+        return this != NONE;
+    }
+
+
+    /**
+     * Records that the message reached a stage now.
+     *
+     * @param stage The stage.
+     */
+    public void record(TraceStage stage)
+    {
+        record(stage, 0);
+    }
+
+
+    /**
+     * Records that the message completed a stage now, after spending the given time in it.
+     *
+     * @param stage         The stage.
+     * @param durationNanos The time spent in the stage, in nanoseconds.
+     */
+    public void record(TraceStage stage, long durationNanos)
+    {
+        if (this == NONE)
+        {
+            return;
+        }
+
+        if (stage == TraceStage.SEND)
+        {
+            sends.incrementAndGet();
+            sendNanos.addAndGet(durationNanos);
+            maxSendNanos.accumulateAndGet(durationNanos, Math::max);
+        }
+
+        int index = cursor.getAndIncrement();
+
+        if (index < stages.length)
+        {
+            offsets[index] = System.nanoTime() - startNanos;
+            durations[index] = durationNanos;
+            stages[index] = stage;
+        }
+    }
+
+
+    public void setMessageId(String messageId)
+    {
+        if (this != NONE)
+        {
+            this.messageId = messageId;
+        }
+    }
+
+
+    public String getTraceId()
+    {
+        return traceId;
+    }
+
+
+    /**
+     * Returns a snapshot of the trace, with all times in microseconds, for the actuator endpoint.
+     *
+     * @return The snapshot.
+     */
+    public Map<String, Object> toView()
+    {
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("traceId", traceId);
+        view.put("messageId", messageId);
+        view.put("origin", origin);
+        view.put("startedAt", startedAt.toString());
+
+        List<Map<String, Object>> timeline = new ArrayList<>();
+        int recorded = Math.min(cursor.get(), stages.length);
+
+        for (int i = 0; i < recorded; i++)
+        {
+            // A stage that claimed its slot may not have written it yet
+            TraceStage stage = stages[i];
+            if (stage == null)
+            {
+                continue;
+            }
+
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("stage", stage);
+            entry.put("atMicros", offsets[i] / 1_000);
+            if (durations[i] > 0)
+            {
+                entry.put("durationMicros", durations[i] / 1_000);
+            }
+            timeline.add(entry);
+        }
+
+        timeline.sort((a, b) -> Long.compare((long) a.get("atMicros"), (long) b.get("atMicros")));
+        view.put("timeline", timeline);
+        view.put("droppedStages", Math.max(0, cursor.get() - stages.length));
+
+        long sendCount = sends.get();
+        if (sendCount > 0)
+        {
+            view.put("sends", sendCount);
+            view.put("meanSendMicros", sendNanos.get() / sendCount / 1_000);
+            view.put("maxSendMicros", maxSendNanos.get() / 1_000);
+        }
+
+        return view;
+    }
+}
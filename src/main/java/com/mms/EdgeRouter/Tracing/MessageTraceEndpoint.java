@@ -0,0 +1,51 @@
+package com.mms.EdgeRouter.Tracing;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint exposing the most recent message traces at /actuator/messagetraces, the optional "limit" parameter
+ * caps the number of traces returned.
+ */
+@Component
+@Endpoint(id = "messagetraces")
+public class MessageTraceEndpoint
+{
+    private static final int DEFAULT_LIMIT = 100;
+
+    private final MessageTracer tracer;
+
+
+    /**
+     * Constructs a new {@link MessageTraceEndpoint}.
+     *
+     * @param tracer The tracer holding the traces.
+     */
+    @Autowired
+    public MessageTraceEndpoint(MessageTracer tracer)
+    {
+        this.tracer = tracer;
+    }
+
+
+    /**
+     * Returns the sample rate and the most recent traces, newest first.
+     *
+     * @param limit The maximum number of traces to return.
+     * @return The traces.
+     */
+    @ReadOperation
+    public Map<String, Object> traces(@Nullable Integer limit)
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("sampleRate", tracer.getSampleRate());
+        result.put("traces", tracer.getRecentTraces(limit == null ? DEFAULT_LIMIT : limit));
+        return result;
+    }
+}
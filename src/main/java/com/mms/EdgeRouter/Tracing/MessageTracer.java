@@ -0,0 +1,141 @@
+package com.mms.EdgeRouter.Tracing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Samples messages for tracing and keeps the most recent traces in a fixed-size ring buffer.
+ * <p>
+ * A trace is put in the buffer when it starts, and stages keep being added to it while the message moves through the
+ * router, so a trace read early may be incomplete. The buffer overwrites the oldest trace, so memory use is bounded by
+ * the buffer size and the capacity of each trace.
+ * <p>
+ * With a sample rate of 0, the default, starting a trace is a single comparison and returns {@link MessageTrace#NONE}.
+ * Traces continue across routers, a message published to the broker carries its trace ID and send time as JMS
+ * properties, and the receiving router traces it under the same ID regardless of its own sample rate.
+ */
+@Slf4j
+@Component
+public class MessageTracer
+{
+    public static final String TRACE_ID_PROPERTY = "mmsTraceId";
+    public static final String SENT_AT_PROPERTY = "mmsSentAtMicros";
+
+    private static final String LOCAL = "local";
+    private static final String REMOTE = "remote";
+
+    private final double sampleRate;
+    private final int stagesPerTrace;
+    private final AtomicReferenceArray<MessageTrace> ring;
+    private final AtomicLong written = new AtomicLong();
+
+
+    /**
+     * Constructs a new {@link MessageTracer}.
+     *
+     * @param sampleRate     The share of messages received from agents that are traced, between 0 and 1.
+     * @param bufferSize     The number of traces kept.
+     * @param stagesPerTrace The maximum number of stages recorded per trace.
+     */
+    public MessageTracer(@Value("${edgerouter.tracing.sample-rate:0.0}") double sampleRate, @Value("${edgerouter.tracing.buffer-size:1024}") int bufferSize, @Value("${edgerouter.tracing.stages-per-trace:64}") int stagesPerTrace)
+    {
+        this.sampleRate = sampleRate;
+        this.stagesPerTrace = stagesPerTrace;
+        this.ring = new AtomicReferenceArray<>(Math.max(1, bufferSize));
+        log.info("MessageTracer initialized with sampleRate={}, bufferSize={}, stagesPerTrace={}", sampleRate, bufferSize, stagesPerTrace);
+    }
+
+
+    /**
+     * Decides whether a message received from an agent is traced, and starts its trace if so.
+     *
+     * @return The trace, or {@link MessageTrace#NONE} if the message is not sampled.
+     */
+    public MessageTrace startLocal()
+    {
+        if (sampleRate <= 0.0 || ThreadLocalRandom.current().nextDouble() >= sampleRate)
+        {
+            return MessageTrace.NONE;
+        }
+
+        return start(Long.toHexString(ThreadLocalRandom.current().nextLong()), LOCAL);
+    }
+
+
+    /**
+     * Continues the trace of a message received from the broker, if the publishing router sampled it.
+     *
+     * @param traceId       The trace ID from the JMS properties, or null if the message is not traced.
+     * @param sentAtMicros  The time the publishing router sent the message, in microseconds since the epoch.
+     * @return The trace, or {@link MessageTrace#NONE} if the message is not traced.
+     */
+    public MessageTrace continueRemote(String traceId, long sentAtMicros)
+    {
+        if (traceId == null)
+        {
+            return MessageTrace.NONE;
+        }
+
+        MessageTrace trace = start(traceId, REMOTE);
+        long hopMicros = currentTimeMicros() - sentAtMicros;
+        trace.record(TraceStage.JMS_RECEIVED, sentAtMicros > 0 && hopMicros > 0 ? hopMicros * 1_000 : 0);
+        return trace;
+    }
+
+
+    /**
+     * Returns the most recent traces, newest first.
+     *
+     * @param limit The maximum number of traces to return.
+     * @return The traces.
+     */
+    public List<Map<String, Object>> getRecentTraces(int limit)
+    {
+        List<Map<String, Object>> traces = new ArrayList<>();
+        long newest = written.get();
+        long oldest = Math.max(0, newest - ring.length());
+
+        for (long i = newest - 1; i >= oldest && traces.size() < limit; i--)
+        {
+            MessageTrace trace = ring.get((int) (i % ring.length()));
+            if (trace != null)
+            {
+                traces.add(trace.toView());
+            }
+        }
+
+        return traces;
+    }
+
+
+    public double getSampleRate()
+    {
+        return sampleRate;
+    }
+
+
+    /**
+     * Returns the current time in microseconds since the epoch, the unit of {@link #SENT_AT_PROPERTY}.
+     */
+    public static long currentTimeMicros()
+    {
+        return System.currentTimeMillis() * 1_000;
+    }
+
+
+    private MessageTrace start(String traceId, String origin)
+    {
+        MessageTrace trace = new MessageTrace(traceId, origin, stagesPerTrace);
+        long slot = written.getAndIncrement();
+        ring.set((int) (slot % ring.length()), trace);
+        return trace;
+    }
+}
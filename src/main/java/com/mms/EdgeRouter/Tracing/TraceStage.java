@@ -0,0 +1,47 @@
+package com.mms.EdgeRouter.Tracing;
+
+/**
+ * The points on the path of a message through the router that are recorded in a {@link MessageTrace}.
+ */
+public enum TraceStage
+{
+    /**
+     * The frame was received from an agent by the WebSocket handler.
+     */
+    WS_RECEIVED,
+
+    /**
+     * The message was received from the broker, the duration is the time since the publishing router sent it.
+     */
+    JMS_RECEIVED,
+
+    /**
+     * The application message was parsed, after waiting in the ingress lane of the agent.
+     */
+    PARSED,
+
+    /**
+     * The application message passed validation.
+     */
+    VALIDATED,
+
+    /**
+     * The local forward request started running in its delivery lane.
+     */
+    LOCAL_DISPATCH,
+
+    /**
+     * The message was handed to one local session, the duration is the time spent in sendMessage.
+     */
+    SEND,
+
+    /**
+     * Every local session has been handed the message.
+     */
+    LOCAL_DONE,
+
+    /**
+     * The message was published to the broker, the duration is the time spent in the JMS send.
+     */
+    JMS_PUBLISHED
+}
@@ -1,8 +1,10 @@
 package com.mms.EdgeRouter.WebSocket;
 
+import com.mms.EdgeRouter.ConnectionManagement.PKIIdentityCache;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import net.maritimeconnectivity.pki.PKIIdentity;
 import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.http.server.ServletServerHttpRequest;
@@ -16,20 +18,36 @@ import java.util.Map;
 /**
  * A class used to intercept the handshake request and extract the client certificate.
  * Needed to extract authenticated clients Maritime Resource Names. (MRN)
+ * The identity of the agent is resolved here, through the {@link PKIIdentityCache}, so that it is ready before the
+ * WebSocket session exists.
  */
 @Slf4j
 public class ClientCertificateInterceptor implements HandshakeInterceptor
 {
+    private final PKIIdentityCache identityCache;
+
 
     /**
-     * Extracts the client certificate from the handshake request and adds it to the attributes.
+     * Constructs a new {@link ClientCertificateInterceptor}.
+     *
+     * @param identityCache The cache used to resolve the identity from the client certificate.
+     */
+    public ClientCertificateInterceptor(@NonNull PKIIdentityCache identityCache)
+    {
+        this.identityCache = identityCache;
+    }
+
+
+    /**
+     * Extracts the client certificate from the handshake request and adds it, and the identity parsed from it, to the
+     * attributes. The handshake is refused if the certificate does not hold a valid identity.
      *
      * @param request    the request
      * @param response   the response
      * @param wsHandler  the target WebSocket handler
      * @param attributes the attributes from the HTTP handshake to associate with the WebSocket
      *                   session; the provided attributes are copied, the original map is not used.
-     * @return default true
+     * @return false if the identity could not be parsed from the client certificate, true otherwise
      */
     @Override
     public boolean beforeHandshake(@NonNull ServerHttpRequest request, @NonNull ServerHttpResponse response, @NonNull WebSocketHandler wsHandler, @NonNull Map<String, Object> attributes)
@@ -41,13 +59,24 @@ public class ClientCertificateInterceptor implements HandshakeInterceptor
 
             if (certs != null && certs.length > 0)
             {
-                attributes.put("MMS-CERTIFICATE", certs[0]);
-                log.info("Client certificate found in handshake request from IP={}", request.getRemoteAddress());
+                try
+                {
+                    PKIIdentity identity = identityCache.getIdentity(certs[0]);
+                    attributes.put(SessionAttributes.CERTIFICATE, certs[0]);
+                    attributes.put(SessionAttributes.IDENTITY, identity);
+                    log.debug("Client certificate found in handshake request from IP={}, mrn={}", request.getRemoteAddress(), identity.getMrn());
+                }
+
+                catch (RuntimeException ex)
+                {
+                    log.warn("Could not parse identity from client certificate in handshake request from IP={}", request.getRemoteAddress(), ex);
+                    return false;
+                }
             }
 
             else
             {
-                log.info("No client certificate found in handshake request from IP={}", request.getRemoteAddress());
+                log.debug("No client certificate found in handshake request from IP={}", request.getRemoteAddress());
             }
         }
         return true;
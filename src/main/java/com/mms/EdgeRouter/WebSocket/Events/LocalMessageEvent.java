@@ -1,6 +1,7 @@
 package com.mms.EdgeRouter.WebSocket.Events;
 
 import lombok.NonNull;
+import com.mms.EdgeRouter.Tracing.MessageTrace;
 import org.springframework.context.ApplicationEvent;
 
 import java.nio.ByteBuffer;
@@ -14,20 +15,36 @@ public class LocalMessageEvent extends ApplicationEvent
 {
     private final ByteBuffer buffer;
     private final String agentID;
+    private final MessageTrace trace;
 
 
     /**
-     * Constructs a new `{@link LocalMessageEvent}` with the given source object, message payload, and session ID.
+     * Constructs a new `{@link LocalMessageEvent}` for a message that is not traced.
      *
      * @param source  The object that is the source of the event.
      * @param buffer  The ByteBuffer containing the message payload.
      * @param agentID The ID of the WebSocket that sent the message.
      */
     public LocalMessageEvent(@NonNull Object source, @NonNull ByteBuffer buffer, @NonNull String agentID)
+    {
+        this(source, buffer, agentID, MessageTrace.NONE);
+    }
+
+
+    /**
+     * Constructs a new `{@link LocalMessageEvent}` with the given source object, message payload, and session ID.
+     *
+     * @param source  The object that is the source of the event.
+     * @param buffer  The ByteBuffer containing the message payload.
+     * @param agentID The ID of the WebSocket that sent the message.
+     * @param trace   The trace of the message.
+     */
+    public LocalMessageEvent(@NonNull Object source, @NonNull ByteBuffer buffer, @NonNull String agentID, MessageTrace trace)
     {
         super(source);
         this.buffer = buffer;
         this.agentID = agentID;
+        this.trace = trace;
     }
 
 
@@ -51,4 +68,15 @@ public class LocalMessageEvent extends ApplicationEvent
     {
         return agentID;
     }
+
+
+    /**
+     * Returns the trace of the message.
+     *
+     * @return The trace, {@link MessageTrace#NONE} if the message is not traced.
+     */
+    public MessageTrace getTrace()
+    {
+        return trace;
+    }
 }
@@ -0,0 +1,14 @@
+package com.mms.EdgeRouter.WebSocket;
+
+import java.io.IOException;
+
+/**
+ * Contract for a WebSocket transport that can hold back written frames until they are flushed, so that several frames
+ * go out in one write and as few TLS records as possible. Used by the egress batching of sessions.
+ */
+public interface IBatchingSession
+{
+    void setBatchingAllowed(boolean allowed) throws IOException;
+
+    void flushBatch() throws IOException;
+}
@@ -0,0 +1,14 @@
+package com.mms.EdgeRouter.WebSocket;
+
+/**
+ * Contract for a WebSocket transport that can stop reading from a connection, so that a flooding agent is held back by
+ * TCP flow control. Used by the {@link RateLimiterWsHandler} to pause sessions that exceed their byte rate.
+ */
+public interface IReadSuspendable
+{
+    void suspendReads();
+
+    void resumeReads();
+
+    boolean isOpen();
+}
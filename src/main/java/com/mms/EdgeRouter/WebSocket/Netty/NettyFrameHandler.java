@@ -0,0 +1,183 @@
+package com.mms.EdgeRouter.WebSocket.Netty;
+
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.*;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+
+/**
+ * The last handler in the pipeline of a Netty connection, adapts the connection to the {@link WebSocketHandler} contract
+ * used by the servlet transport.
+ * <p>
+ * When the handshake is complete, a {@link NettyWebSocketSession} is created with the attributes resolved by the
+ * {@link NettyHandshakeHandler}, and handed to the handler. Frames are handed on as Spring messages on the event loop of
+ * the connection, in the order they arrived. The payload of a binary frame is copied to the heap, since the message
+ * outlives the pooled buffer it was read into. Close frames are answered here, pings by the protocol handler before it.
+ * Pongs are handed on as well, they answer the probes of the liveness monitor.
+ */
+@Slf4j
+class NettyFrameHandler extends SimpleChannelInboundHandler<WebSocketFrame>
+{
+    private final WebSocketHandler handler;
+    private final int messageSizeLimit;
+
+    private NettyWebSocketSession session;
+
+
+    /**
+     * Constructs a new {@link NettyFrameHandler}.
+     *
+     * @param handler          The handler the session and its messages are handed to.
+     * @param messageSizeLimit The maximum size of a message.
+     */
+    NettyFrameHandler(@NonNull WebSocketHandler handler, int messageSizeLimit)
+    {
+        this.handler = handler;
+        this.messageSizeLimit = messageSizeLimit;
+    }
+
+
+    @Override
+    public void userEventTriggered(@NonNull ChannelHandlerContext ctx, @NonNull Object event) throws Exception
+    {
+        if (event instanceof WebSocketServerProtocolHandler.HandshakeComplete handshake)
+        {
+            established(ctx, handshake);
+        }
+
+        else if (event instanceof IdleStateEvent && session != null)
+        {
+            log.debug("Agent={} was idle for too long, closing connection", session.getId());
+            session.close(CloseStatus.GOING_AWAY);
+        }
+
+        else if (event instanceof IdleStateEvent)
+        {
+            ctx.close();
+        }
+
+        else
+        {
+            super.userEventTriggered(ctx, event);
+        }
+    }
+
+
+    @Override
+    protected void channelRead0(@NonNull ChannelHandlerContext ctx, @NonNull WebSocketFrame frame) throws Exception
+    {
+        if (session == null)
+        {
+            return;
+        }
+
+        if (frame instanceof BinaryWebSocketFrame)
+        {
+            ByteBuffer payload = ByteBuffer.allocate(frame.content().readableBytes());
+            frame.content().readBytes(payload);
+            payload.flip();
+            handler.handleMessage(session, new BinaryMessage(payload));
+        }
+
+        else if (frame instanceof TextWebSocketFrame textFrame)
+        {
+            handler.handleMessage(session, new TextMessage(textFrame.text()));
+        }
+
+        else if (frame instanceof PongWebSocketFrame)
+        {
+            ByteBuffer payload = ByteBuffer.allocate(frame.content().readableBytes());
+            frame.content().readBytes(payload);
+            payload.flip();
+            handler.handleMessage(session, new PongMessage(payload));
+        }
+
+        else if (frame instanceof CloseWebSocketFrame closeFrame)
+        {
+            session.closeByPeer(closeFrame);
+        }
+    }
+
+
+    @Override
+    public void channelInactive(@NonNull ChannelHandlerContext ctx) throws Exception
+    {
+        if (session != null)
+        {
+            try
+            {
+                handler.afterConnectionClosed(session, session.getCloseStatus());
+            }
+
+            catch (Exception ex)
+            {
+                log.error("Error handling closed connection for agent={}", session.getId(), ex);
+            }
+        }
+
+        super.channelInactive(ctx);
+    }
+
+
+    @Override
+    public void exceptionCaught(@NonNull ChannelHandlerContext ctx, @NonNull Throwable cause) throws Exception
+    {
+        if (session == null)
+        {
+            log.debug("Error on connection from IP={} before the handshake completed", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+            return;
+        }
+
+        handler.handleTransportError(session, cause);
+    }
+
+
+    /**
+     * Creates the session of a connection that completed the handshake and hands it to the handler.
+     *
+     * @param ctx       The context of the channel.
+     * @param handshake The completed handshake.
+     */
+    private void established(ChannelHandlerContext ctx, WebSocketServerProtocolHandler.HandshakeComplete handshake) throws IOException
+    {
+        Map<String, Object> attributes = ctx.channel().attr(NettyHandshakeHandler.ATTRIBUTES).getAndSet(null);
+        X509Certificate certificate = attributes == null ? null : (X509Certificate) attributes.get(SessionAttributes.CERTIFICATE);
+
+        HttpHeaders headers = new HttpHeaders();
+        handshake.requestHeaders().forEach(header -> headers.add(header.getKey(), header.getValue()));
+
+        String scheme = ctx.pipeline().get(SslHandler.class) != null ? "wss://" : "ws://";
+        String host = headers.getFirst(HttpHeaders.HOST);
+        URI uri = URI.create(scheme + (host != null ? host : "localhost") + handshake.requestUri());
+
+        session = new NettyWebSocketSession(ctx.channel(), uri, headers, attributes, certificate == null ? null : certificate.getSubjectX500Principal(), messageSizeLimit);
+
+        try
+        {
+            handler.afterConnectionEstablished(session);
+        }
+
+        catch (Exception ex)
+        {
+            log.error("Error handling established connection for agent={}, closing connection", session.getId(), ex);
+            session.close(CloseStatus.SERVER_ERROR);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.mms.EdgeRouter.WebSocket.Netty;
+
+import com.mms.EdgeRouter.ConnectionManagement.PKIIdentityCache;
+import com.mms.EdgeRouter.WebSocket.ClientCertificateInterceptor;
+import com.mms.EdgeRouter.WebSocket.ProtocolOptionsInterceptor;
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.AttributeKey;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import net.maritimeconnectivity.pki.PKIIdentity;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks the handshake request of the Netty transport before it is upgraded, the counterpart of the
+ * {@link ClientCertificateInterceptor} of the servlet transport.
+ * <p>
+ * Requests to other paths than the WebSocket path are answered with 404. The client certificate is taken from the TLS
+ * session, and the identity of the agent is resolved from it through the {@link PKIIdentityCache}. Both are stored as
+ * attributes on the channel, together with the protocol options of the agent, to become the attributes of the session
+ * once the handshake is complete. The handshake is refused with 403 if the certificate does not hold a valid identity.
+ */
+@Slf4j
+@ChannelHandler.Sharable
+class NettyHandshakeHandler extends ChannelInboundHandlerAdapter
+{
+    static final AttributeKey<Map<String, Object>> ATTRIBUTES = AttributeKey.valueOf("MMS-HANDSHAKE-ATTRIBUTES");
+
+    private final PKIIdentityCache identityCache;
+    private final String path;
+
+
+    /**
+     * Constructs a new {@link NettyHandshakeHandler}.
+     *
+     * @param identityCache The cache used to resolve the identity from the client certificate.
+     * @param path          The path of the WebSocket endpoint.
+     */
+    NettyHandshakeHandler(@NonNull PKIIdentityCache identityCache, @NonNull String path)
+    {
+        this.identityCache = identityCache;
+        this.path = path;
+    }
+
+
+    @Override
+    public void channelRead(@NonNull ChannelHandlerContext ctx, @NonNull Object msg)
+    {
+        if (!(msg instanceof FullHttpRequest request))
+        {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        if (!path.equals(new QueryStringDecoder(request.uri()).path()))
+        {
+            refuse(ctx, request, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+
+        Map<String, Object> attributes = new HashMap<>();
+        X509Certificate certificate = getClientCertificate(ctx);
+
+        if (certificate != null)
+        {
+            try
+            {
+                PKIIdentity identity = identityCache.getIdentity(certificate);
+                attributes.put(SessionAttributes.CERTIFICATE, certificate);
+                attributes.put(SessionAttributes.IDENTITY, identity);
+                log.debug("Client certificate found in handshake request from IP={}, mrn={}", ctx.channel().remoteAddress(), identity.getMrn());
+            }
+
+            catch (RuntimeException ex)
+            {
+                log.warn("Could not parse identity from client certificate in handshake request from IP={}", ctx.channel().remoteAddress(), ex);
+                refuse(ctx, request, HttpResponseStatus.FORBIDDEN);
+                return;
+            }
+        }
+
+        else
+        {
+            log.debug("No client certificate found in handshake request from IP={}", ctx.channel().remoteAddress());
+        }
+
+        ProtocolOptionsInterceptor.applyOptions(request.headers()::get, attributes);
+        ctx.channel().attr(ATTRIBUTES).set(attributes);
+        ctx.fireChannelRead(request);
+    }
+
+
+    /**
+     * Returns the certificate of the agent from the TLS session of the channel.
+     *
+     * @param ctx The context of the channel.
+     * @return The certificate, or null if the channel is not encrypted or the agent did not present one.
+     */
+    private static X509Certificate getClientCertificate(ChannelHandlerContext ctx)
+    {
+        SslHandler sslHandler = ctx.pipeline().get(SslHandler.class);
+
+        if (sslHandler == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            Certificate[] certificates = sslHandler.engine().getSession().getPeerCertificates();
+            return certificates.length > 0 && certificates[0] instanceof X509Certificate certificate ? certificate : null;
+        }
+
+        catch (SSLPeerUnverifiedException ex)
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Answers a handshake request with an error status and closes the connection.
+     *
+     * @param ctx     The context of the channel.
+     * @param request The handshake request, released here.
+     * @param status  The status of the response.
+     */
+    private static void refuse(ChannelHandlerContext ctx, FullHttpRequest request, HttpResponseStatus status)
+    {
+        FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(), status);
+        HttpUtil.setContentLength(response, 0);
+        request.release();
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+}
@@ -0,0 +1,302 @@
+package com.mms.EdgeRouter.WebSocket.Netty;
+
+import com.mms.EdgeRouter.ConnectionManagement.PKIIdentityCache;
+import com.mms.EdgeRouter.Drain.DrainCoordinator;
+import com.mms.EdgeRouter.WebSocket.RateLimiterWsHandler;
+import com.mms.EdgeRouter.WebSocket.WebsocketConfigurator;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolConfig;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.web.server.Ssl;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ResourceUtils;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An alternative WebSocket transport for agents, built on Netty instead of the servlet container, selected with
+ * edgerouter.transport=netty.
+ * <p>
+ * Connections are served by a small number of event loops, using epoll where available, so that an idle agent costs a
+ * channel and its pipeline instead of container resources. Reads use pooled direct buffers sized to the traffic of the
+ * connection, and sends are written without blocking and flushed on the event loop, see {@link NettyWebSocketSession}.
+ * The TLS and client authentication settings are taken from the server.ssl properties of the servlet container, and the
+ * session resumption settings from the same edgerouter.tls properties.
+ * <p>
+ * The transport plugs into the same {@link RateLimiterWsHandler} and WsHandler as the servlet transport, which keeps
+ * serving the actuator endpoints on its own port, while the {@link WebsocketConfigurator} is not loaded.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "edgerouter.transport", havingValue = "netty")
+public class NettyWebSocketServer implements SmartLifecycle
+{
+    private final RateLimiterWsHandler wsHandler;
+    private final PKIIdentityCache identityCache;
+    private final ServerProperties serverProperties;
+
+    private final ChannelGroup channels = new DefaultChannelGroup("agents", GlobalEventExecutor.INSTANCE);
+
+    @Value("${edgerouter.path:/ws}")
+    private String path;
+    @Value("${edgerouter.maxMessageSize:8192}")
+    private int maxMessageSize;
+    @Value("${edgerouter.maxSessionIdleTimeout:700000}")
+    private long maxSessionIdleTimeout;
+    @Value("${edgerouter.tls.sessionCacheSize:20000}")
+    private long sessionCacheSize;
+    @Value("${edgerouter.tls.sessionTimeoutSeconds:86400}")
+    private long sessionTimeoutSeconds;
+    @Value("${edgerouter.netty.port:9443}")
+    private int port;
+    @Value("${edgerouter.netty.ioThreads:0}")
+    private int ioThreads;
+    @Value("${edgerouter.netty.backlog:8192}")
+    private int backlog;
+    @Value("${edgerouter.netty.writeBufferLowWaterMark:32768}")
+    private int writeBufferLowWaterMark;
+    @Value("${edgerouter.netty.writeBufferHighWaterMark:524288}")
+    private int writeBufferHighWaterMark;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+
+    /**
+     * Constructs a new {@link NettyWebSocketServer}.
+     *
+     * @param wsHandler        The handler the sessions are handed to.
+     * @param identityCache    The cache used to resolve the identity of agents during the handshake.
+     * @param serverProperties The properties of the servlet container, for the TLS settings.
+     */
+    @Autowired
+    public NettyWebSocketServer(RateLimiterWsHandler wsHandler, PKIIdentityCache identityCache, ServerProperties serverProperties)
+    {
+        this.wsHandler = wsHandler;
+        this.identityCache = identityCache;
+        this.serverProperties = serverProperties;
+    }
+
+
+    /**
+     * Binds the server channel and starts accepting connections.
+     */
+    @Override
+    public void start()
+    {
+        boolean epoll = Epoll.isAvailable();
+        bossGroup = epoll ? new EpollEventLoopGroup(1, new DefaultThreadFactory("NettyBoss")) : new NioEventLoopGroup(1, new DefaultThreadFactory("NettyBoss"));
+        workerGroup = epoll ? new EpollEventLoopGroup(ioThreads, new DefaultThreadFactory("NettyIO")) : new NioEventLoopGroup(ioThreads, new DefaultThreadFactory("NettyIO"));
+
+        try
+        {
+            SslContext sslContext = createSslContext();
+            NettyHandshakeHandler handshakeHandler = new NettyHandshakeHandler(identityCache, path);
+
+            ServerBootstrap bootstrap = new ServerBootstrap()
+                    .group(bossGroup, workerGroup)
+                    .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                    .option(ChannelOption.SO_BACKLOG, backlog)
+                    .option(ChannelOption.SO_REUSEADDR, true)
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childOption(ChannelOption.SO_KEEPALIVE, true)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark))
+                    // Idle agents should not hold large read buffers, the buffer grows with the traffic of the connection
+                    .childOption(ChannelOption.RCVBUF_ALLOCATOR, new AdaptiveRecvByteBufAllocator(64, 1024, 65536))
+                    .childHandler(new ChannelInitializer<SocketChannel>()
+                    {
+                        @Override
+                        protected void initChannel(SocketChannel channel)
+                        {
+                            ChannelPipeline pipeline = channel.pipeline();
+
+                            if (sslContext != null)
+                            {
+                                pipeline.addLast(sslContext.newHandler(channel.alloc()));
+                            }
+
+                            pipeline.addLast(new IdleStateHandler(0, 0, maxSessionIdleTimeout, TimeUnit.MILLISECONDS));
+                            pipeline.addLast(new HttpServerCodec());
+                            pipeline.addLast(new HttpObjectAggregator(65536));
+                            pipeline.addLast(handshakeHandler);
+                            pipeline.addLast(new WebSocketServerProtocolHandler(protocolConfig()));
+                            pipeline.addLast(new WebSocketFrameAggregator(maxMessageSize));
+                            pipeline.addLast(new NettyFrameHandler(wsHandler, maxMessageSize));
+                            channels.add(channel);
+                        }
+                    });
+
+            serverChannel = bootstrap.bind(new InetSocketAddress(port)).sync().channel();
+            log.info("NettyWebSocketServer listening on port={}, path={}, epoll={}, tls={}", port, path, epoll, sslContext != null);
+        }
+
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            stop();
+            throw new IllegalStateException("Interrupted while binding the Netty WebSocket transport", ex);
+        }
+
+        catch (Exception ex)
+        {
+            stop();
+            throw new IllegalStateException("Could not start the Netty WebSocket transport on port=" + port, ex);
+        }
+    }
+
+
+    /**
+     * Stops the server only after the {@link DrainCoordinator} has drained the router.
+     */
+    @Override
+    public int getPhase()
+    {
+        return DrainCoordinator.PHASE - 1;
+    }
+
+
+    /**
+     * Stops accepting connections, closes the connected agents with going away and shuts down the event loops.
+     */
+    @Override
+    public void stop()
+    {
+        if (serverChannel != null)
+        {
+            serverChannel.close().syncUninterruptibly();
+            serverChannel = null;
+        }
+
+        channels.writeAndFlush(new CloseWebSocketFrame(WebSocketCloseStatus.ENDPOINT_UNAVAILABLE)).awaitUninterruptibly(1, TimeUnit.SECONDS);
+        channels.close().awaitUninterruptibly(1, TimeUnit.SECONDS);
+
+        if (workerGroup != null)
+        {
+            workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            workerGroup = null;
+        }
+
+        if (bossGroup != null)
+        {
+            bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            bossGroup = null;
+        }
+    }
+
+
+    @Override
+    public boolean isRunning()
+    {
+        return serverChannel != null && serverChannel.isActive();
+    }
+
+
+    /**
+     * Returns the number of open agent connections, including those that have not completed the handshake.
+     */
+    public int getConnectionCount()
+    {
+        return channels.size();
+    }
+
+
+    private WebSocketServerProtocolConfig protocolConfig()
+    {
+        return WebSocketServerProtocolConfig.newBuilder()
+                .websocketPath(path)
+                .checkStartsWith(true)
+                .maxFramePayloadLength(maxMessageSize)
+                .handleCloseFrames(false)
+                .dropPongFrames(false)
+                .build();
+    }
+
+
+    /**
+     * Creates the TLS context from the server.ssl properties, with the same key store, trust store and client
+     * authentication as the servlet container.
+     *
+     * @return The TLS context, or null if TLS is disabled.
+     */
+    private SslContext createSslContext() throws Exception
+    {
+        Ssl ssl = serverProperties.getSsl();
+
+        if (ssl == null || !ssl.isEnabled())
+        {
+            return null;
+        }
+
+        char[] keyStorePassword = ssl.getKeyStorePassword() == null ? new char[0] : ssl.getKeyStorePassword().toCharArray();
+        char[] keyPassword = ssl.getKeyPassword() == null ? keyStorePassword : ssl.getKeyPassword().toCharArray();
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(loadKeyStore(ssl.getKeyStore(), ssl.getKeyStoreType(), keyStorePassword), keyPassword);
+
+        SslContextBuilder builder = SslContextBuilder.forServer(keyManagerFactory)
+                .sessionCacheSize(sessionCacheSize)
+                .sessionTimeout(sessionTimeoutSeconds);
+
+        if (ssl.getTrustStore() != null)
+        {
+            char[] trustStorePassword = ssl.getTrustStorePassword() == null ? new char[0] : ssl.getTrustStorePassword().toCharArray();
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(loadKeyStore(ssl.getTrustStore(), ssl.getTrustStoreType(), trustStorePassword));
+            builder.trustManager(trustManagerFactory);
+        }
+
+        Ssl.ClientAuth clientAuth = ssl.getClientAuth();
+        builder.clientAuth(clientAuth == Ssl.ClientAuth.NEED ? ClientAuth.REQUIRE : clientAuth == Ssl.ClientAuth.WANT ? ClientAuth.OPTIONAL : ClientAuth.NONE);
+
+        if (ssl.getEnabledProtocols() != null)
+        {
+            builder.protocols(ssl.getEnabledProtocols());
+        }
+
+        return builder.build();
+    }
+
+
+    private static KeyStore loadKeyStore(String location, String type, char[] password) throws Exception
+    {
+        KeyStore keyStore = KeyStore.getInstance(type != null ? type : KeyStore.getDefaultType());
+
+        try (InputStream input = ResourceUtils.getURL(location).openStream())
+        {
+            keyStore.load(input, password);
+        }
+
+        return keyStore;
+    }
+}
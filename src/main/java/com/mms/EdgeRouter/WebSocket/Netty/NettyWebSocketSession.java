@@ -0,0 +1,373 @@
+package com.mms.EdgeRouter.WebSocket.Netty;
+
+import com.mms.EdgeRouter.WebSocket.IBatchingSession;
+import com.mms.EdgeRouter.WebSocket.IReadSuspendable;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.websocketx.*;
+import lombok.NonNull;
+import org.springframework.http.HttpHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.web.socket.*;
+import org.springframework.web.socket.adapter.AbstractWebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link WebSocketSession} backed by a Netty {@link Channel}, so that the handlers of the servlet transport can be
+ * used unchanged on the Netty transport.
+ * <p>
+ * Sends never block. A frame is copied into a direct buffer and written to the channel, and the channel is flushed by
+ * a task on its event loop, so that frames written by several threads before that task runs go out in a single flush.
+ * When batching is allowed, no flush is scheduled on a write, the frames stay in the outbound buffer of the channel
+ * until {@link #flushBatch()} is called.
+ * If the outbound buffer of the channel is above its high water mark when a message is sent, the agent is not reading
+ * and the session is closed, just as the {@link com.mms.EdgeRouter.Egress.PriorityWebSocketSessionDecorator} does when
+ * its buffer limit is exceeded on the servlet transport. Control frames are exempt, a ping or pong is only refused once
+ * the session is closed.
+ */
+public class NettyWebSocketSession extends AbstractWebSocketSession<Channel> implements IReadSuspendable, IBatchingSession
+{
+    private final URI uri;
+    private final HttpHeaders handshakeHeaders;
+    private final Principal principal;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable flushTask = this::flush;
+
+    private volatile int textMessageSizeLimit;
+    private volatile int binaryMessageSizeLimit;
+    private volatile CloseStatus closeStatus;
+    private volatile boolean batchingAllowed;
+
+
+    /**
+     * Constructs a new {@link NettyWebSocketSession} for a channel that completed the WebSocket handshake.
+     *
+     * @param channel          The channel of the connection.
+     * @param uri              The URI the handshake was made to.
+     * @param handshakeHeaders The headers of the handshake request.
+     * @param attributes       The attributes resolved during the handshake.
+     * @param principal        The principal of the client certificate, null for anonymous agents.
+     * @param messageSizeLimit The maximum size of a message.
+     */
+    public NettyWebSocketSession(@NonNull Channel channel, @NonNull URI uri, @NonNull HttpHeaders handshakeHeaders, @Nullable Map<String, Object> attributes, @Nullable Principal principal, int messageSizeLimit)
+    {
+        super(attributes);
+        this.uri = uri;
+        this.handshakeHeaders = HttpHeaders.readOnlyHttpHeaders(handshakeHeaders);
+        this.principal = principal;
+        this.textMessageSizeLimit = messageSizeLimit;
+        this.binaryMessageSizeLimit = messageSizeLimit;
+        initializeNativeSession(channel);
+    }
+
+
+    @Override
+    public String getId()
+    {
+        return getNativeSession().id().asLongText();
+    }
+
+
+    @Override
+    public URI getUri()
+    {
+        return uri;
+    }
+
+
+    @Override
+    public HttpHeaders getHandshakeHeaders()
+    {
+        return handshakeHeaders;
+    }
+
+
+    @Override
+    public Principal getPrincipal()
+    {
+        return principal;
+    }
+
+
+    @Override
+    public InetSocketAddress getLocalAddress()
+    {
+        return (InetSocketAddress) getNativeSession().localAddress();
+    }
+
+
+    @Override
+    public InetSocketAddress getRemoteAddress()
+    {
+        return (InetSocketAddress) getNativeSession().remoteAddress();
+    }
+
+
+    @Override
+    public String getAcceptedProtocol()
+    {
+        return null;
+    }
+
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit)
+    {
+        this.textMessageSizeLimit = messageSizeLimit;
+    }
+
+
+    @Override
+    public int getTextMessageSizeLimit()
+    {
+        return textMessageSizeLimit;
+    }
+
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit)
+    {
+        this.binaryMessageSizeLimit = messageSizeLimit;
+    }
+
+
+    @Override
+    public int getBinaryMessageSizeLimit()
+    {
+        return binaryMessageSizeLimit;
+    }
+
+
+    @Override
+    public List<WebSocketExtension> getExtensions()
+    {
+        return Collections.emptyList();
+    }
+
+
+    @Override
+    public boolean isOpen()
+    {
+        return getNativeSession().isActive() && closeStatus == null;
+    }
+
+
+    /**
+     * Stops reading from the channel, the agent is held back by TCP flow control until reads are resumed.
+     */
+    @Override
+    public void suspendReads()
+    {
+        getNativeSession().config().setAutoRead(false);
+    }
+
+
+    /**
+     * Resumes reading from the channel.
+     */
+    @Override
+    public void resumeReads()
+    {
+        getNativeSession().config().setAutoRead(true);
+    }
+
+
+    /**
+     * Allows or disallows holding back written frames until {@link #flushBatch()}, disallowing flushes what is held back.
+     *
+     * @param allowed Whether batching is allowed.
+     */
+    @Override
+    public void setBatchingAllowed(boolean allowed)
+    {
+        this.batchingAllowed = allowed;
+
+        if (!allowed)
+        {
+            flushBatch();
+        }
+    }
+
+
+    /**
+     * Schedules a flush of the frames written so far on the event loop.
+     */
+    @Override
+    public void flushBatch()
+    {
+        if (flushScheduled.compareAndSet(false, true))
+        {
+            getNativeSession().eventLoop().execute(flushTask);
+        }
+    }
+
+
+    /**
+     * Returns the status the session was closed with, or {@link CloseStatus#NO_CLOSE_FRAME} if the connection was lost
+     * without a close frame.
+     */
+    public CloseStatus getCloseStatus()
+    {
+        CloseStatus status = closeStatus;
+        return status != null ? status : CloseStatus.NO_CLOSE_FRAME;
+    }
+
+
+    /**
+     * Called when the agent sent a close frame, answers it and closes the channel.
+     *
+     * @param frame The close frame.
+     */
+    void closeByPeer(@NonNull CloseWebSocketFrame frame)
+    {
+        int code = frame.statusCode();
+        CloseStatus status = code < 0 ? CloseStatus.NO_STATUS_CODE : new CloseStatus(code, frame.reasonText());
+
+        try
+        {
+            closeInternal(status);
+        }
+
+        catch (IOException ex)
+        {
+            getNativeSession().close();
+        }
+    }
+
+
+    @Override
+    protected void sendTextMessage(@NonNull TextMessage message) throws IOException
+    {
+        checkWritable();
+        write(new TextWebSocketFrame(message.getPayload()));
+    }
+
+
+    @Override
+    protected void sendBinaryMessage(@NonNull BinaryMessage message) throws IOException
+    {
+        checkWritable();
+        write(new BinaryWebSocketFrame(copy(message.getPayload())));
+    }
+
+
+    @Override
+    protected void sendPingMessage(@NonNull PingMessage message) throws IOException
+    {
+        checkOpen();
+        write(new PingWebSocketFrame(copy(message.getPayload())));
+    }
+
+
+    @Override
+    protected void sendPongMessage(@NonNull PongMessage message) throws IOException
+    {
+        checkOpen();
+        write(new PongWebSocketFrame(copy(message.getPayload())));
+    }
+
+
+    /**
+     * Sends a close frame with the given status and closes the channel once it is written.
+     *
+     * @param status The close status.
+     */
+    @Override
+    protected void closeInternal(@NonNull CloseStatus status) throws IOException
+    {
+        if (closeStatus != null)
+        {
+            return;
+        }
+
+        closeStatus = status;
+        Channel channel = getNativeSession();
+
+        // 1005 and 1006 are reserved for reporting and must not be sent in a close frame
+        int code = status.equalsCode(CloseStatus.NO_STATUS_CODE) || status.equalsCode(CloseStatus.NO_CLOSE_FRAME) ? CloseStatus.NORMAL.getCode() : status.getCode();
+        channel.writeAndFlush(new CloseWebSocketFrame(code, status.getReason())).addListener(ChannelFutureListener.CLOSE);
+    }
+
+
+    /**
+     * Throws if the session is closed, or if the agent is not keeping up with the frames sent to it, after closing the
+     * session.
+     */
+    private void checkWritable() throws IOException
+    {
+        checkOpen();
+
+        if (!getNativeSession().isWritable())
+        {
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+            throw new SessionLimitExceededException("Outbound buffer of agent=" + getId() + " exceeded its high water mark", CloseStatus.SESSION_NOT_RELIABLE);
+        }
+    }
+
+
+    /**
+     * Throws if the session is closed, so that a frame is not written to a channel that is closing or closed.
+     */
+    private void checkOpen() throws IOException
+    {
+        if (!getNativeSession().isActive() || closeStatus != null)
+        {
+            throw new ClosedChannelException();
+        }
+    }
+
+
+    /**
+     * Writes a frame without flushing, and schedules a flush on the event loop unless one is already pending or the
+     * frame is held back for a batch.
+     *
+     * @param frame The frame to write.
+     */
+    private void write(WebSocketFrame frame)
+    {
+        Channel channel = getNativeSession();
+        channel.write(frame, channel.voidPromise());
+
+        if (!batchingAllowed)
+        {
+            flushBatch();
+        }
+    }
+
+
+    /**
+     * Flushes the frames written since the last flush, runs on the event loop after the writes queued before it.
+     */
+    private void flush()
+    {
+        flushScheduled.set(false);
+        getNativeSession().flush();
+    }
+
+
+    /**
+     * Copies a payload into a direct buffer from the allocator of the channel.
+     *
+     * @param payload The payload to copy, its position is not changed.
+     * @return The buffer.
+     */
+    private ByteBuf copy(ByteBuffer payload)
+    {
+        ByteBuf buffer = getNativeSession().alloc().directBuffer(payload.remaining());
+        buffer.writeBytes(payload.duplicate());
+        return buffer;
+    }
+}
@@ -0,0 +1,72 @@
+package com.mms.EdgeRouter.WebSocket;
+
+import com.mms.EdgeRouter.Compression.AcceptEncoding;
+import lombok.NonNull;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.Map;
+import java.util.function.Function;
+
+
+/**
+ * A class used to intercept the handshake request and read the protocol options the agent supports from its headers.
+ * An agent that sends {@value #ACCEPT_BATCH_HEADER}: true accepts batch protocol messages, which lets the Edge Router
+ * combine the messages to it into batches. Agents that do not send the header only receive single messages.
+ * An agent that sends {@value #ACCEPT_ENCODING_HEADER} accepts compressed protocol messages in the codecs it lists, see
+ * {@link AcceptEncoding}.
+ */
+public class ProtocolOptionsInterceptor implements HandshakeInterceptor
+{
+    public static final String ACCEPT_BATCH_HEADER = "MMTP-Accept-Batch";
+    public static final String ACCEPT_ENCODING_HEADER = "MMTP-Accept-Encoding";
+
+
+    /**
+     * Reads the protocol options from the handshake request and adds them to the attributes.
+     *
+     * @param request    the request
+     * @param response   the response
+     * @param wsHandler  the target WebSocket handler
+     * @param attributes the attributes from the HTTP handshake to associate with the WebSocket session
+     * @return always true, unknown or missing options are ignored
+     */
+    @Override
+    public boolean beforeHandshake(@NonNull ServerHttpRequest request, @NonNull ServerHttpResponse response, @NonNull WebSocketHandler wsHandler, @NonNull Map<String, Object> attributes)
+    {
+        applyOptions(request.getHeaders()::getFirst, attributes);
+        return true;
+    }
+
+
+    /**
+     * Invoked after the handshake is complete, nothing to do.
+     */
+    @Override
+    public void afterHandshake(@NonNull ServerHttpRequest request, @NonNull ServerHttpResponse response, @NonNull WebSocketHandler wsHandler, Exception exception) {}
+
+
+    /**
+     * Adds the protocol options found in the headers of a handshake request to the attributes of the session, shared
+     * with the Netty transport.
+     *
+     * @param headers    Returns the value of a header of the request, or null if it is absent.
+     * @param attributes The attributes of the session.
+     */
+    public static void applyOptions(@NonNull Function<String, String> headers, @NonNull Map<String, Object> attributes)
+    {
+        if (Boolean.parseBoolean(headers.apply(ACCEPT_BATCH_HEADER)))
+        {
+            attributes.put(SessionAttributes.ACCEPTS_BATCH, Boolean.TRUE);
+        }
+
+        AcceptEncoding acceptEncoding = AcceptEncoding.parse(headers.apply(ACCEPT_ENCODING_HEADER));
+
+        if (acceptEncoding != null)
+        {
+            attributes.put(SessionAttributes.ACCEPT_ENCODING, acceptEncoding);
+        }
+    }
+}
@@ -2,25 +2,30 @@ package com.mms.EdgeRouter.WebSocket;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.mms.EdgeRouter.MessageRelay.Scheduling.IDeliveryScheduler;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Quota.QuotaEngine;
+import com.mms.EdgeRouter.Timing.TimerWheel;
 import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
-import io.github.bucket4j.ConsumptionProbe;
-import io.micrometer.core.instrument.MeterRegistry;
-import jakarta.annotation.PostConstruct;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.TokensInheritanceStrategy;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
 import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.apache.tomcat.websocket.WsSession;
 
 import java.io.IOException;
 import java.time.Duration;
-import java.util.concurrent.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
@@ -29,6 +34,20 @@ import java.util.concurrent.atomic.AtomicInteger;
  * It limits the number of concurrent WebSocket connections, the rate of incoming binary messages, and blocks IPs that
  * exceed the limits. It also logs more details about rate limiting and errors.
  * <p>
+ * The byte rate of each session is enforced by a {@link SessionRateLimiter} stored in the session attributes. A frame
+ * that puts a session over its limit is still handed on, but reading from the session is paused until the limiter is
+ * out of debt, so a flooding agent is held back by TCP flow control instead of by frames buffered in the router.
+ * Frames are then checked against the shared message and byte budgets of the {@link QuotaEngine}, and dropped before
+ * they are parsed if a budget is exceeded. Reading is also paused while the delivery lane the frames of a session are
+ * scheduled on is congested, until the lane has caught up, so a slow lane holds back its agents instead of dropping
+ * their messages.
+ * <p>
+ * The byte and connection rates can be scaled down at runtime by an admission factor, set by the admission controller
+ * when the queueing delay inside the router grows. Session limiters pick up the scaled rate on their next frame.
+ * <p>
+ * While the router drains, new sessions are closed right away with {@link CloseStatus#SERVICE_RESTARTED}, so that agents
+ * connect to another router instead.
+ * <p>
  * extends the {@link WebSocketHandlerDecorator} class to provide rate limiting functionality to the underlying WebSocket handler.
  * In essence its a handler that wraps another handler, to encapsulate the rate limiting functionality and abstract it away from the
  * underlying handler, so that the underlying handler can focus on its own business logic.
@@ -37,40 +56,58 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Component
 public class RateLimiterWsHandler extends WebSocketHandlerDecorator
 {
+    private static final long CONGESTION_RECHECK_MILLIS = 10;
+
     private final Bucket connectionsBucket;
-    private final ConcurrentHashMap<String, Bucket> messageRateLimiters;
     private final Cache<String, AtomicInteger> connectionAttempts;
-    private final Cache<String, Boolean> blockedIPs;
+    private final Map<String, Long> blockedIPs = new ConcurrentHashMap<>();
 
     private final long maxBytesPerSecond;
+    private final long maxConnectionsPerSecond;
     private final long maxConcurrentConnections;
 
-    private final TaskExecutor workerPool;
+    private final long maxUnpausableDebtNanos;
+    private final long blacklistTime;
+
+    private final RouterMetrics metrics;
+    private final QuotaEngine quotaEngine;
+    private final TimerWheel timerWheel;
+    private final IDeliveryScheduler deliveryScheduler;
+
+    private volatile long bytesPerSecond;
+    private volatile boolean accepting = true;
 
 
     /**
      * Constructs a new {@link RateLimiterWsHandler}.
      *
      * @param delegate                 the original WebSocket handler
-     * @param workerPool               the thread pool used to process incoming messages
+     * @param metrics                  the metrics of the routing pipeline
+     * @param quotaEngine              the quota engine enforcing the shared message and byte budgets
+     * @param timerWheel               the timer that resumes paused sessions and unblocks IPs
+     * @param deliveryScheduler        the scheduler whose congested lanes pause reading from their sessions
      * @param maxConnectionsPerSecond  the maximum number of WebSocket connections per second
      * @param maxBytesPerSecond        the maximum number of bytes per second for each connection
      * @param maxConcurrentConnections the maximum number of concurrent connections from a single IP
      * @param blacklistTime            the duration in minutes to blacklist an IP
+     * @param maxUnpausableDebtMillis  how far in debt a session whose reads cannot be paused may go before it is closed
      */
     @Autowired
-    public RateLimiterWsHandler(WsHandler delegate, @Qualifier("WorkerPool") TaskExecutor workerPool, @Value("${edgerouter.maxConnectionsPerSecond:10000}") long maxConnectionsPerSecond, @Value("${edgerouter.maxBytesPerSecond:100000}") long maxBytesPerSecond, @Value("${edgerouter.maxConcurrentConnections:10000}") long maxConcurrentConnections, @Value("${edgerouter.blacklistTime:10000}") long blacklistTime)
+    public RateLimiterWsHandler(WsHandler delegate, RouterMetrics metrics, QuotaEngine quotaEngine, TimerWheel timerWheel, IDeliveryScheduler deliveryScheduler, @Value("${edgerouter.maxConnectionsPerSecond:10000}") long maxConnectionsPerSecond, @Value("${edgerouter.maxBytesPerSecond:100000}") long maxBytesPerSecond, @Value("${edgerouter.maxConcurrentConnections:10000}") long maxConcurrentConnections, @Value("${edgerouter.blacklistTime:10000}") long blacklistTime, @Value("${edgerouter.maxUnpausableDebtMillis:1000}") long maxUnpausableDebtMillis)
     {
         super(delegate);
-        this.workerPool = workerPool;
+        this.metrics = metrics;
+        this.quotaEngine = quotaEngine;
+        this.timerWheel = timerWheel;
+        this.deliveryScheduler = deliveryScheduler;
         this.maxBytesPerSecond = maxBytesPerSecond;
+        this.maxConnectionsPerSecond = maxConnectionsPerSecond;
+        this.bytesPerSecond = maxBytesPerSecond;
         this.maxConcurrentConnections = maxConcurrentConnections;
+        this.maxUnpausableDebtNanos = TimeUnit.MILLISECONDS.toNanos(maxUnpausableDebtMillis);
+        this.blacklistTime = blacklistTime;
 
-        Bandwidth bandwidth = Bandwidth.simple(maxConnectionsPerSecond, Duration.ofSeconds(1));
-        this.connectionsBucket = Bucket.builder().addLimit(bandwidth).build();
-        this.messageRateLimiters = new ConcurrentHashMap<>();
-
-        this.blockedIPs = CacheBuilder.newBuilder().expireAfterWrite(blacklistTime, TimeUnit.MINUTES).build();
+        this.connectionsBucket = Bucket.builder().addLimit(connectionsBandwidth(maxConnectionsPerSecond)).build();
 
         this.connectionAttempts = CacheBuilder.newBuilder().expireAfterWrite(blacklistTime, TimeUnit.MINUTES).build();
 
@@ -79,17 +116,58 @@ public class RateLimiterWsHandler extends WebSocketHandlerDecorator
     }
 
 
+    /**
+     * Scales the byte rate of every session and the connection rate to a share of their configured values.
+     *
+     * @param factor The share of the configured rates to admit, between 0 and 1.
+     */
+    public void setAdmissionFactor(double factor)
+    {
+        double clamped = Math.min(1.0, Math.max(0.0, factor));
+        this.bytesPerSecond = Math.max(1, Math.round(maxBytesPerSecond * clamped));
+
+        long connectionsPerSecond = Math.max(1, Math.round(maxConnectionsPerSecond * clamped));
+        BucketConfiguration configuration = BucketConfiguration.builder().addLimit(connectionsBandwidth(connectionsPerSecond)).build();
+        connectionsBucket.replaceConfiguration(configuration, TokensInheritanceStrategy.PROPORTIONALLY);
+    }
+
+
+    /**
+     * Sets whether new sessions are accepted, they are denied while the router drains.
+     *
+     * @param accepting True to accept new sessions.
+     */
+    public void setAccepting(boolean accepting)
+    {
+        this.accepting = accepting;
+    }
+
+
+    public boolean isAccepting()
+    {
+        return accepting;
+    }
+
+
     /**
      * Handles a new {@link WebSocketSession} connection. Performs rate limiting checks and denies or accepts the connection
      * accordingly. Adds a message rate limiter to the session if the connection is accepted.
+     * Runs on the container thread, the checks are in memory so a connect storm does not queue up on a thread pool.
      *
      * @param session The WebSocket session object.
      * @throws Exception If an error occurs while handling the connection.
      */
-    @Async("ConnectionPool")
     @Override
     public void afterConnectionEstablished(@NonNull WebSocketSession session) throws Exception
     {
+        if (!accepting)
+        {
+            log.debug("Connection attempt while draining, agent={}", session.getId());
+            metrics.recordConnectionRejected();
+            denyConnection(session, CloseStatus.SERVICE_RESTARTED.getCode(), "Edge Router is draining");
+            return;
+        }
+
         String remoteAddress = session.getRemoteAddress().getAddress().getHostAddress();
         if (connectionsBucket.tryConsume(1) && !isIPBlocked(remoteAddress))
         {
@@ -102,14 +180,13 @@ public class RateLimiterWsHandler extends WebSocketHandlerDecorator
             int attempts = currentAttempts.incrementAndGet();
             if (attempts <= maxConcurrentConnections)
             {
-                Bandwidth bandwidth = Bandwidth.simple(maxBytesPerSecond, Duration.ofSeconds(1));
-                Bucket messageBucket = Bucket.builder().addLimit(bandwidth).build();
-                messageRateLimiters.put(session.getId(), messageBucket);
+                getRateLimiter(session);
                 super.afterConnectionEstablished(session);
             }
             else
             {
                 log.warn("Connection attempt from IP={} exceeded max concurrent connections={}", remoteAddress, attempts);
+                metrics.recordConnectionRejected();
                 blockIP(remoteAddress);
                 denyConnection(session, CloseStatus.SERVICE_OVERLOAD.getCode(), "Too many requests from this IP");
             }
@@ -117,23 +194,22 @@ public class RateLimiterWsHandler extends WebSocketHandlerDecorator
         else
         {
             log.warn("Connection attempt from blocked IP={}", remoteAddress);
+            metrics.recordConnectionRejected();
             denyConnection(session, CloseStatus.SERVICE_OVERLOAD.getCode(), "IP is blocked or too many connections");
         }
     }
 
 
     /**
-     * Handles a closed {@link WebSocketSession} connection. Removes the message rate limiter associated with the session.
+     * Handles a closed {@link WebSocketSession} connection. Releases the connection slot of the remote IP.
      *
      * @param session The WebSocket session object.
      * @param status  The close status.
      * @throws Exception If an error occurs while handling the close.
      */
-    @Async("ConnectionPool")
     @Override
     public void afterConnectionClosed(@NonNull WebSocketSession session, @NonNull CloseStatus status) throws Exception
     {
-        messageRateLimiters.remove(session.getId());
         String remoteAddress = session.getRemoteAddress().getAddress().getHostAddress();
         AtomicInteger currentAttempts = connectionAttempts.getIfPresent(remoteAddress);
         if (currentAttempts != null)
@@ -146,15 +222,23 @@ public class RateLimiterWsHandler extends WebSocketHandlerDecorator
 
     /**
      * Handles a {@link WebSocketMessage}. Only binary messages are accepted. Applies rate limiting checks to the message and
-     * executes the decorated WebSocket handler if the checks pass.
+     * executes the decorated WebSocket handler if the checks pass. Every message, pongs included, marks the session as
+     * alive for the liveness monitor.
+     * Runs in the container thread of the session, so that admitted frames are handed on in the order they arrived.
      *
      * @param session The WebSocket session object.
      * @param message The WebSocket message object.
      */
-    @Async("WorkerPool")
     @Override
     public void handleMessage(@NonNull WebSocketSession session, @NonNull WebSocketMessage<?> message)
     {
+        SessionLiveness liveness = SessionLiveness.of(session);
+
+        if (liveness != null)
+        {
+            liveness.markReceived();
+        }
+
         if (message instanceof TextMessage)
         {
             try
@@ -170,26 +254,50 @@ public class RateLimiterWsHandler extends WebSocketHandlerDecorator
         }
         else if (message instanceof BinaryMessage)
         {
+            metrics.recordIngressFrame(message.getPayloadLength());
             applyRateLimit((BinaryMessage) message, session);
         }
     }
 
 
     /**
-     * Applies rate limiting checks to a binary {@link BinaryMessage} message. Uses a bucket to enforce the maximum byte rate limit
-     * and delays message processing if necessary.
+     * Takes the bytes of a binary {@link BinaryMessage} from the rate limiter of the session and hands the message on,
+     * unless it exceeds a quota. If the session went over its limit, reading from it is paused until the limiter is out
+     * of debt, and if its delivery lane is congested, until the lane has caught up.
      *
      * @param message The binary WebSocket message object.
      * @param session The WebSocket session object.
      */
-    @Async("WorkerPool")
     protected void applyRateLimit(@NonNull BinaryMessage message, @NonNull WebSocketSession session)
     {
+        SessionRateLimiter rateLimiter = getRateLimiter(session);
+        long rate = bytesPerSecond;
+
+        if (rateLimiter.getBytesPerSecond() != rate)
+        {
+            rateLimiter.setBytesPerSecond(rate);
+        }
+
+        long waitNanos = rateLimiter.acquire(message.getPayloadLength());
+
+        if (waitNanos > 0 && !pauseReads(session, rateLimiter, waitNanos))
+        {
+            return;
+        }
+
+        if (quotaEngine.admit(session, message.getPayload()) != null)
+        {
+            return;
+        }
+
+        if (deliveryScheduler.isCongested(session.getId()))
+        {
+            pauseWhileCongested(session, rateLimiter);
+        }
+
         try
         {
-            Bucket rateLimiterBucket = messageRateLimiters.get(session.getId());
-            long payloadSize = message.getPayloadLength();
-            applyRateLimitWithDelay(message, session, rateLimiterBucket, payloadSize);
+            super.handleMessage(session, message);
         }
         catch (Exception e)
         {
@@ -199,64 +307,161 @@ public class RateLimiterWsHandler extends WebSocketHandlerDecorator
 
 
     /**
-     * Applies rate limiting checks to a {@link BinaryMessage}, and delays processing if necessary.
+     * Pauses reading from a session that went over its byte rate, and schedules reading to resume when the debt is paid.
+     * If the transport cannot pause reads, the session is only closed once its debt grows beyond the configured limit.
      *
-     * @param message           The binary WebSocket message object.
-     * @param session           The WebSocket session object.
-     * @param rateLimiterBucket The rate limiter bucket to use for checking message rates.
-     * @param payloadSize       The size of the message payload in bytes.
-     * @throws Exception If an error occurs while processing the message.
+     * @param session     The WebSocket session object.
+     * @param rateLimiter The rate limiter of the session.
+     * @param waitNanos   The time until the rate limiter is out of debt.
+     * @return True if the frame that caused the debt should still be handed on, false if the session was closed.
      */
-    @Async("WorkerPool")
-    protected void applyRateLimitWithDelay(@NonNull BinaryMessage message, @NonNull WebSocketSession session, @NonNull Bucket rateLimiterBucket, long payloadSize) throws Exception
+    private boolean pauseReads(@NonNull WebSocketSession session, @NonNull SessionRateLimiter rateLimiter, long waitNanos)
     {
-        ConsumptionProbe consumptionProbe = rateLimiterBucket.tryConsumeAndReturnRemaining(payloadSize);
+        IReadSuspendable reads = getReadSuspendable(session);
 
-        if (consumptionProbe.isConsumed())
+        if (reads == null)
         {
-            super.handleMessage(session, message);
-            return;
+            if (waitNanos > maxUnpausableDebtNanos)
+            {
+                log.warn("Agent={} exceeded its byte rate and reads cannot be paused, closing connection", session.getId());
+                denyConnection(session, CloseStatus.POLICY_VIOLATION.getCode(), "Byte rate exceeded");
+                return false;
+            }
+            return true;
         }
 
-        long waitTimeMillis = consumptionProbe.getNanosToWaitForRefill() / 1_000_000;
-        log.debug("No message tokens available for agent={}, waiting {}ms", session.getId(), waitTimeMillis);
+        if (rateLimiter.markPaused())
+        {
+            metrics.recordIngressPaused();
+            log.debug("Agent={} exceeded its byte rate, pausing reads for {}ms", session.getId(), TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            reads.suspendReads();
+            timerWheel.schedule(() -> resumeReads(session, reads, rateLimiter), waitNanos, TimeUnit.NANOSECONDS);
+        }
 
-        CompletableFuture.delayedExecutor(waitTimeMillis, TimeUnit.MILLISECONDS, workerPool).execute(() -> applyRateLimitWithDelayAndHandleExceptions(message, session, rateLimiterBucket, payloadSize));
+        return true;
     }
 
 
     /**
-     * Applies rate limiting checks to a binary {@link BinaryMessage}, delays message processing if necessary, and handles
-     * any exceptions that occur while processing the message.
+     * Pauses reading from a session whose delivery lane is congested, and checks the lane again every
+     * {@link #CONGESTION_RECHECK_MILLIS} until it has caught up. The frame at hand is still handed on, the lane waits
+     * for room for it if it has to. Sessions whose reads cannot be paused are left to that wait.
      *
-     * @param message           The binary WebSocket message object.
-     * @param session           The WebSocket session object.
-     * @param rateLimiterBucket The rate limiter bucket to use for checking message rates.
-     * @param payloadSize       The size of the message payload in bytes.
+     * @param session     The WebSocket session object.
+     * @param rateLimiter The rate limiter of the session, whose paused flag is shared with the byte rate.
      */
-    @Async("WorkerPool")
-    protected void applyRateLimitWithDelayAndHandleExceptions(@NonNull BinaryMessage message, @NonNull WebSocketSession session, @NonNull Bucket rateLimiterBucket, long payloadSize)
+    private void pauseWhileCongested(@NonNull WebSocketSession session, @NonNull SessionRateLimiter rateLimiter)
     {
+        IReadSuspendable reads = getReadSuspendable(session);
+
+        if (reads != null && rateLimiter.markPaused())
+        {
+            metrics.recordIngressPaused();
+            log.debug("Delivery lane of agent={} is congested, pausing reads", session.getId());
+            reads.suspendReads();
+            timerWheel.schedule(() -> resumeWhenUncongested(session, reads, rateLimiter), CONGESTION_RECHECK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * Resumes reading from a session paused for a congested lane once the lane has caught up, or checks again later.
+     *
+     * @param session     The WebSocket session object.
+     * @param reads       The transport of the session.
+     * @param rateLimiter The rate limiter of the session.
+     */
+    private void resumeWhenUncongested(@NonNull WebSocketSession session, @NonNull IReadSuspendable reads, @NonNull SessionRateLimiter rateLimiter)
+    {
+        if (reads.isOpen() && deliveryScheduler.isCongested(session.getId()))
+        {
+            timerWheel.schedule(() -> resumeWhenUncongested(session, reads, rateLimiter), CONGESTION_RECHECK_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        resumeReads(session, reads, rateLimiter);
+    }
+
+
+    /**
+     * Resumes reading from a paused session.
+     *
+     * @param session     The WebSocket session object.
+     * @param reads       The transport of the session.
+     * @param rateLimiter The rate limiter of the session.
+     */
+    private void resumeReads(@NonNull WebSocketSession session, @NonNull IReadSuspendable reads, @NonNull SessionRateLimiter rateLimiter)
+    {
+        rateLimiter.markResumed();
+
         try
         {
-            applyRateLimitWithDelay(message, session, rateLimiterBucket, payloadSize);
+            if (reads.isOpen())
+            {
+                reads.resumeReads();
+            }
         }
-        catch (Exception e)
+        catch (RuntimeException ex)
         {
-            log.error("Error applying rate limit with delay for agent={}", session.getId(), e);
+            log.debug("Could not resume reads for agent={}", session.getId(), ex);
         }
     }
 
 
     /**
-     * Blocks an IP address from connecting to the WebSocket handler for the configured blacklist time.
+     * Returns the rate limiter of a session, creating it on first use.
+     *
+     * @param session The WebSocket session object.
+     * @return The rate limiter of the session.
+     */
+    private SessionRateLimiter getRateLimiter(@NonNull WebSocketSession session)
+    {
+        return (SessionRateLimiter) session.getAttributes().computeIfAbsent(SessionAttributes.RATE_LIMITER, key -> new SessionRateLimiter(bytesPerSecond));
+    }
+
+
+    private static Bandwidth connectionsBandwidth(long connectionsPerSecond)
+    {
+        return Bandwidth.simple(connectionsPerSecond, Duration.ofSeconds(1));
+    }
+
+
+    /**
+     * Returns the transport behind a {@link WebSocketSession} if it supports pausing reads. Sessions of the Netty
+     * transport support it themselves, sessions of the servlet transport through the Tomcat session.
+     *
+     * @param session The WebSocket session object.
+     * @return The transport of the session, or null if it cannot pause reads.
+     */
+    private static IReadSuspendable getReadSuspendable(@NonNull WebSocketSession session)
+    {
+        if (session instanceof IReadSuspendable reads)
+        {
+            return reads;
+        }
+
+        if (session instanceof NativeWebSocketSession nativeSession)
+        {
+            WsSession tomcatSession = nativeSession.getNativeSession(WsSession.class);
+            return tomcatSession == null ? null : new TomcatReads(tomcatSession);
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Blocks an IP address from connecting to the WebSocket handler for the configured blacklist time. Blocking it
+     * again restarts the time, the timeout of the earlier block then finds a newer entry and leaves it.
      *
      * @param ip The IP address to block.
      */
     @Async("WorkerPool")
     protected void blockIP(@NonNull String ip)
     {
-        blockedIPs.put(ip, true);
+        Long blockedAt = System.nanoTime();
+        blockedIPs.put(ip, blockedAt);
+        timerWheel.schedule(() -> blockedIPs.remove(ip, blockedAt), blacklistTime, TimeUnit.MINUTES);
     }
 
 
@@ -268,7 +473,7 @@ public class RateLimiterWsHandler extends WebSocketHandlerDecorator
      */
     private boolean isIPBlocked(@NonNull String ip)
     {
-        return blockedIPs.getIfPresent(ip) != null;
+        return blockedIPs.containsKey(ip);
     }
 
 
@@ -292,4 +497,33 @@ public class RateLimiterWsHandler extends WebSocketHandlerDecorator
             log.error("Error closing session for agent={}", session.getId(), ex);
         }
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Pauses and resumes reads of a session of the servlet transport, through the Tomcat session.
+     *
+     * @param session The Tomcat session.
+     */
+    private record TomcatReads(WsSession session) implements IReadSuspendable
+    {
+        @Override
+        public void suspendReads()
+        {
+            session.suspend();
+        }
+
+
+        @Override
+        public void resumeReads()
+        {
+            session.resume();
+        }
+
+
+        @Override
+        public boolean isOpen()
+        {
+            return session.isOpen();
+        }
+    }
+}
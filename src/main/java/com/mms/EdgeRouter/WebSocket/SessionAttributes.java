@@ -0,0 +1,45 @@
+package com.mms.EdgeRouter.WebSocket;
+
+/**
+ * The names of the attributes the Edge Router stores on a WebSocket session.
+ */
+public final class SessionAttributes
+{
+    /**
+     * The X509 client certificate presented in the TLS handshake, absent for anonymous agents.
+     */
+    public static final String CERTIFICATE = "MMS-CERTIFICATE";
+
+    /**
+     * The PKIIdentity parsed from the client certificate during the handshake, absent for anonymous agents.
+     */
+    public static final String IDENTITY = "MMS-IDENTITY";
+
+    /**
+     * The {@link SessionRateLimiter} of the session.
+     */
+    public static final String RATE_LIMITER = "MMS-RATE-LIMITER";
+
+    /**
+     * The IP address and MRN the session is counted under by the quota engine.
+     */
+    public static final String QUOTA_IDENTITY = "MMS-QUOTA-IDENTITY";
+
+    /**
+     * Present and true if the agent accepts batch protocol messages, announced in its handshake request.
+     */
+    public static final String ACCEPTS_BATCH = "MMS-ACCEPTS-BATCH";
+
+    /**
+     * The {@link com.mms.EdgeRouter.Compression.AcceptEncoding} announced in the handshake request, absent if the agent
+     * does not accept compressed messages.
+     */
+    public static final String ACCEPT_ENCODING = "MMS-ACCEPT-ENCODING";
+
+    /**
+     * The {@link SessionLiveness} of the session, present once the session is registered with the connection repository.
+     */
+    public static final String LIVENESS = "MMS-LIVENESS";
+
+    private SessionAttributes() {}
+}
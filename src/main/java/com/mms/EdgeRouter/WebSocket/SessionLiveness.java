@@ -0,0 +1,91 @@
+package com.mms.EdgeRouter.WebSocket;
+
+import lombok.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The times a WebSocket session last received and last sent traffic, stored in the session attributes.
+ * <p>
+ * Any frame from the agent proves that the link is alive, including the pongs to the probes of the liveness monitor.
+ * Sent traffic proves nothing, since a send only queues bytes on a socket that may have no one on the other end, but
+ * it tells the monitor that a silent session is costing the router sends and buffers. The times are plain volatile
+ * writes on the paths that move the traffic, there is no timer per session.
+ */
+public class SessionLiveness
+{
+    private final LongSupplier nanoTime;
+
+    private volatile long lastReceivedNanos;
+    private volatile long lastSentNanos;
+
+
+    /**
+     * Constructs a new {@link SessionLiveness}, the session counts as having received traffic on creation.
+     */
+    public SessionLiveness()
+    {
+        this(System::nanoTime);
+    }
+
+
+    /**
+     * Constructs a new {@link SessionLiveness} on the given clock, the session counts as having received traffic on
+     * creation.
+     *
+     * @param nanoTime The clock in nanoseconds, {@link System#nanoTime()} outside of tests.
+     */
+    public SessionLiveness(@NonNull LongSupplier nanoTime)
+    {
+        this.nanoTime = nanoTime;
+        this.lastReceivedNanos = nanoTime.getAsLong();
+    }
+
+
+    /**
+     * Returns the liveness of a session.
+     *
+     * @param session The WebSocket session object.
+     * @return The liveness, or null if the session has not been registered yet.
+     */
+    @Nullable
+    public static SessionLiveness of(@NonNull WebSocketSession session)
+    {
+        return (SessionLiveness) session.getAttributes().get(SessionAttributes.LIVENESS);
+    }
+
+
+    public void markReceived()
+    {
+        lastReceivedNanos = nanoTime.getAsLong();
+    }
+
+
+    public void markSent()
+    {
+        lastSentNanos = nanoTime.getAsLong();
+    }
+
+
+    public long getLastReceivedNanos()
+    {
+        return lastReceivedNanos;
+    }
+
+
+    public long getLastSentNanos()
+    {
+        return lastSentNanos;
+    }
+
+
+    /**
+     * Returns whether traffic was sent to the session after it last received any.
+     */
+    public boolean isSendingIntoSilence()
+    {
+        return lastSentNanos - lastReceivedNanos > 0;
+    }
+}
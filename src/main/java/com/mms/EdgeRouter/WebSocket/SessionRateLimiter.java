@@ -0,0 +1,179 @@
+package com.mms.EdgeRouter.WebSocket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A byte rate limiter for a single WebSocket session, a token bucket kept in two atomic longs.
+ * <p>
+ * Tokens are refilled lazily from {@link System#nanoTime()} when bytes are acquired, so there is no timer per session.
+ * A frame that arrives has already been read, so {@link #acquire(long)} always takes its bytes, even when the bucket
+ * goes into debt, and returns how long the session has to wait before the debt is paid off. The caller stops reading
+ * from the session for that long instead of holding on to frames.
+ * <p>
+ * The rate can be changed at runtime, the bucket keeps its current balance.
+ */
+public class SessionRateLimiter
+{
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong tokens;
+    private final AtomicLong lastRefillNanos;
+    private final AtomicBoolean paused = new AtomicBoolean();
+    private final LongSupplier nanoTime;
+    private volatile long bytesPerSecond;
+
+
+    /**
+     * Constructs a new {@link SessionRateLimiter} with a full bucket.
+     * The bucket holds one second worth of bytes, so a session can burst up to its rate.
+     *
+     * @param bytesPerSecond The sustained number of bytes per second.
+     */
+    public SessionRateLimiter(long bytesPerSecond)
+    {
+        this(bytesPerSecond, System::nanoTime);
+    }
+
+
+    /**
+     * Constructs a new {@link SessionRateLimiter} with a full bucket, that refills from the given clock.
+     *
+     * @param bytesPerSecond The sustained number of bytes per second.
+     * @param nanoTime       The clock in nanoseconds, {@link System#nanoTime()} outside of tests.
+     */
+    SessionRateLimiter(long bytesPerSecond, LongSupplier nanoTime)
+    {
+        if (bytesPerSecond <= 0)
+        {
+            throw new IllegalArgumentException("bytesPerSecond must be positive, got " + bytesPerSecond);
+        }
+
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = new AtomicLong(bytesPerSecond);
+        this.nanoTime = nanoTime;
+        this.lastRefillNanos = new AtomicLong(nanoTime.getAsLong());
+    }
+
+
+    /**
+     * Takes the given number of bytes from the bucket.
+     *
+     * @param bytes The number of bytes received.
+     * @return 0 if the bytes were within the limit, otherwise the number of nanoseconds until the bucket is out of debt.
+     */
+    public long acquire(long bytes)
+    {
+        refill();
+        long remaining = tokens.addAndGet(-bytes);
+
+        if (remaining >= 0)
+        {
+            return 0;
+        }
+
+        return nanosFor(-remaining, bytesPerSecond);
+    }
+
+
+    /**
+     * Returns the current balance of the bucket in bytes, negative while the session is in debt.
+     */
+    public long getAvailableBytes()
+    {
+        refill();
+        return tokens.get();
+    }
+
+
+    /**
+     * Marks reads from the session as paused.
+     *
+     * @return True if reads were running, false if they were already paused.
+     */
+    public boolean markPaused()
+    {
+        return paused.compareAndSet(false, true);
+    }
+
+
+    /**
+     * Marks reads from the session as running again.
+     */
+    public void markResumed()
+    {
+        paused.set(false);
+    }
+
+
+    public long getBytesPerSecond()
+    {
+        return bytesPerSecond;
+    }
+
+
+    /**
+     * Changes the sustained rate, and with it the size of the bucket.
+     *
+     * @param bytesPerSecond The new number of bytes per second, must be positive.
+     */
+    public void setBytesPerSecond(long bytesPerSecond)
+    {
+        if (bytesPerSecond <= 0)
+        {
+            throw new IllegalArgumentException("bytesPerSecond must be positive, got " + bytesPerSecond);
+        }
+
+        refill();
+        this.bytesPerSecond = bytesPerSecond;
+        tokens.accumulateAndGet(bytesPerSecond, Math::min);
+    }
+
+
+    /**
+     * Adds the tokens earned since the last refill. Only the thread that advances the refill timestamp adds them, and the
+     * timestamp only advances by the time worth of whole tokens, so no fraction of a token is lost between refills.
+     */
+    private void refill()
+    {
+        long rate = bytesPerSecond;
+        long now = nanoTime.getAsLong();
+        long last = lastRefillNanos.get();
+        long elapsed = now - last;
+
+        if (elapsed <= 0)
+        {
+            return;
+        }
+
+        // A long idle period would overflow the product below, and pays off any debt and fills the bucket anyway
+        if (elapsed > Long.MAX_VALUE / rate)
+        {
+            if (lastRefillNanos.compareAndSet(last, now))
+            {
+                tokens.set(rate);
+            }
+            return;
+        }
+
+        long earned = elapsed * rate / NANOS_PER_SECOND;
+
+        if (earned == 0)
+        {
+            return;
+        }
+
+        if (lastRefillNanos.compareAndSet(last, last + nanosFor(earned, rate)))
+        {
+            tokens.accumulateAndGet(earned, (current, added) -> Math.min(current + added, rate));
+        }
+    }
+
+
+    private static long nanosFor(long bytes, long rate)
+    {
+        return (bytes / rate) * NANOS_PER_SECOND + (bytes % rate) * NANOS_PER_SECOND / rate;
+    }
+}
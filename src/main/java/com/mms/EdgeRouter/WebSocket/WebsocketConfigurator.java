@@ -1,9 +1,11 @@
 package com.mms.EdgeRouter.WebSocket;
 
 
+import com.mms.EdgeRouter.ConnectionManagement.PKIIdentityCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
@@ -16,13 +18,18 @@ import org.springframework.web.socket.server.standard.ServletServerContainerFact
  * The `WebsocketConfigurator` class is a configuration class for Spring's WebSocket support. It configures the WebSocket
  * endpoint and the server container to use for WebSocket connections, as well as the maximum message size, maximum idle
  * timeout, and other properties of the WebSocket connection.
+ * <p>
+ * This is the default transport, it is not loaded when edgerouter.transport=netty selects the
+ * {@link com.mms.EdgeRouter.WebSocket.Netty.NettyWebSocketServer}.
  */
 @Configuration
+@ConditionalOnProperty(name = "edgerouter.transport", havingValue = "servlet", matchIfMissing = true)
 @EnableWebSocket
 @Slf4j
 public class WebsocketConfigurator implements WebSocketConfigurer
 {
     private final RateLimiterWsHandler wsHandler;
+    private final PKIIdentityCache identityCache;
 
     @Value("${edgerouter.path:/ws}")
     private String path;
@@ -37,12 +44,14 @@ public class WebsocketConfigurator implements WebSocketConfigurer
     /**
      * Constructs a new `{@link WebsocketConfigurator}` with the given `{@link WsHandler}`.
      *
-     * @param wsHandler The `WsHandler` responsible for managing WebSocket connections.
+     * @param wsHandler     The `WsHandler` responsible for managing WebSocket connections.
+     * @param identityCache The cache used by the handshake interceptor to resolve the identity of agents.
      */
     @Autowired
-    public WebsocketConfigurator(RateLimiterWsHandler wsHandler)
+    public WebsocketConfigurator(RateLimiterWsHandler wsHandler, PKIIdentityCache identityCache)
     {
         this.wsHandler = wsHandler;
+        this.identityCache = identityCache;
     }
 
 
@@ -54,7 +63,7 @@ public class WebsocketConfigurator implements WebSocketConfigurer
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry)
     {
-        registry.addHandler(wsHandler, path).setAllowedOrigins("*").addInterceptors(new ClientCertificateInterceptor());
+        registry.addHandler(wsHandler, path).setAllowedOrigins("*").addInterceptors(new ClientCertificateInterceptor(identityCache), new ProtocolOptionsInterceptor());
     }
 
 
@@ -1,5 +1,8 @@
 package com.mms.EdgeRouter.WebSocket;
 
+import com.mms.EdgeRouter.Tracing.MessageTrace;
+import com.mms.EdgeRouter.Tracing.MessageTracer;
+import com.mms.EdgeRouter.Tracing.TraceStage;
 import com.mms.EdgeRouter.WebSocket.Events.LocalMessageEvent;
 import com.mms.EdgeRouter.WebSocket.Events.SessionEstablishedEvent;
 import com.mms.EdgeRouter.WebSocket.Events.SessionTerminatedEvent;
@@ -25,47 +28,53 @@ import java.io.IOException;
 public class WsHandler extends AbstractWebSocketHandler
 {
     private final ApplicationEventPublisher eventPublisher;
+    private final MessageTracer tracer;
 
 
     /**
      * Constructs a new {@link WsHandler} with the given ApplicationEventPublisher.
      *
      * @param eventPublisher The ApplicationEventPublisher used to publish events related to WebSocket connections.
+     * @param tracer         The tracer that decides which received messages are traced.
      */
     @Autowired
-    public WsHandler(@NonNull ApplicationEventPublisher eventPublisher)
+    public WsHandler(@NonNull ApplicationEventPublisher eventPublisher, @NonNull MessageTracer tracer)
     {
         this.eventPublisher = eventPublisher;
+        this.tracer = tracer;
         log.info("WsHandler initialized");
     }
 
 
     /**
      * Called when a new {@link WebSocketSession} connection is established.
+     * Runs on the container thread, the published event only queues the session for registration.
      *
      * @param session The WebSocketSession representing the new connection.
      */
-    @Async("ConnectionPool")
     @Override
     public void afterConnectionEstablished(@NonNull WebSocketSession session)
     {
         SessionEstablishedEvent event = new SessionEstablishedEvent(this, session);
         eventPublisher.publishEvent(event);
-        log.info("New WebSocket connection established: session={}, remoteAddress={}.", session.getId(), session.getRemoteAddress());
+        log.debug("New WebSocket connection established: session={}, remoteAddress={}.", session.getId(), session.getRemoteAddress());
     }
 
 
     /**
      * Handles a {@link BinaryMessage} WebSocket message.
+     * Runs on the container thread, in the order the frames of the session arrived, the published event only schedules
+     * the message in the delivery lane of the agent.
      *
      * @param session The WebSocketSession representing the connection.
      * @param message The BinaryMessage containing the message payload.
      */
-    @Async("WorkerPool")
     @Override
     public void handleBinaryMessage(@NonNull WebSocketSession session, @NonNull BinaryMessage message)
     {
-        LocalMessageEvent event = new LocalMessageEvent(this, message.getPayload(), session.getId());
+        MessageTrace trace = tracer.startLocal();
+        trace.record(TraceStage.WS_RECEIVED);
+        LocalMessageEvent event = new LocalMessageEvent(this, message.getPayload(), session.getId(), trace);
         eventPublisher.publishEvent(event);
         log.debug("Received binary message from WebSocket connection: session={}, messageSize={} bytes.", session.getId(), message.getPayload().limit());
     }
@@ -77,7 +86,6 @@ public class WsHandler extends AbstractWebSocketHandler
      * @param session     The WebSocketSession representing the closed connection.
      * @param closeStatus The CloseStatus representing the reason for the closure.
      */
-    @Async("ConnectionPool")
     @Override
     public void afterConnectionClosed(@NonNull WebSocketSession session, @NonNull CloseStatus closeStatus)
     {
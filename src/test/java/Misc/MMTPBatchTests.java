@@ -0,0 +1,93 @@
+package Misc;
+
+import MMTPMessageFormats.MessageType;
+import MMTPMessageFormats.ProtocolMessage;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the encoding and decoding of batch protocol messages by {@link MMTPBatch}.
+ */
+class MMTPBatchTests
+{
+    /**
+     * Encoded messages decode to the same messages in the same order, and the buffers they were encoded from are not
+     * consumed.
+     */
+    @Test
+    void roundTripPreservesMessagesAndOrder() throws Exception
+    {
+        List<ProtocolMessage> messages = List.of(
+                message(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, "first"),
+                message(MessageType.DIRECT_APPLICATION_MESSAGE, ""),
+                message(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, "x".repeat(1000)));
+
+        List<ByteBuffer> serialized = new ArrayList<>();
+
+        for (ProtocolMessage message : messages)
+        {
+            serialized.add(ByteBuffer.wrap(message.toByteArray()));
+        }
+
+        ProtocolMessage batch = ProtocolMessage.parseFrom(MMTPBatch.encode(serialized));
+
+        assertEquals(MessageType.BATCH, batch.getType());
+        assertEquals(messages, MMTPBatch.decode(batch.getContent()));
+
+        for (int i = 0; i < messages.size(); i++)
+        {
+            assertEquals(0, serialized.get(i).position());
+            assertEquals(messages.get(i).getSerializedSize(), serialized.get(i).remaining());
+        }
+    }
+
+
+    /**
+     * A batch without messages is rejected.
+     */
+    @Test
+    void emptyBatchIsRejected()
+    {
+        assertThrows(MMTPValidationException.class, () -> MMTPBatch.decode(ByteString.EMPTY));
+    }
+
+
+    /**
+     * A batch that contains another batch is rejected.
+     */
+    @Test
+    void nestedBatchIsRejected() throws Exception
+    {
+        ByteBuffer inner = MMTPBatch.encode(List.of(ByteBuffer.wrap(message(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, "inner").toByteArray())));
+        ProtocolMessage outer = ProtocolMessage.parseFrom(MMTPBatch.encode(List.of(inner)));
+
+        assertThrows(MMTPValidationException.class, () -> MMTPBatch.decode(outer.getContent()));
+    }
+
+
+    /**
+     * A batch whose content ends inside a message is rejected.
+     */
+    @Test
+    void truncatedBatchIsRejected() throws Exception
+    {
+        ProtocolMessage batch = ProtocolMessage.parseFrom(MMTPBatch.encode(List.of(ByteBuffer.wrap(message(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, "truncated").toByteArray()))));
+        ByteString content = batch.getContent();
+
+        assertThrows(InvalidProtocolBufferException.class, () -> MMTPBatch.decode(content.substring(0, content.size() - 1)));
+    }
+
+
+    private static ProtocolMessage message(MessageType type, String content)
+    {
+        return ProtocolMessage.newBuilder().setType(type).setContent(ByteString.copyFromUtf8(content)).build();
+    }
+}
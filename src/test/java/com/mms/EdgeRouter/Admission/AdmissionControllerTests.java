@@ -0,0 +1,147 @@
+package com.mms.EdgeRouter.Admission;
+
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import com.mms.EdgeRouter.WebSocket.RateLimiterWsHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for the AIMD adjustment of the admission factor by {@link AdmissionController}, fed with synthetic sojourn
+ * times through the {@link QueueDelayMonitor}.
+ */
+class AdmissionControllerTests
+{
+    private static final long TARGET_MILLIS = 5;
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final double INCREASE_STEP = 0.05;
+    private static final double MINIMUM_FACTOR = 0.05;
+    private static final double TOLERANCE = 1e-9;
+
+    private SimpleMeterRegistry registry;
+    private QueueDelayMonitor delayMonitor;
+    private RateLimiterWsHandler rateLimiter;
+    private AdmissionController controller;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        registry = new SimpleMeterRegistry();
+        RouterMetrics metrics = new RouterMetrics(registry);
+        delayMonitor = new QueueDelayMonitor(metrics);
+        rateLimiter = mock(RateLimiterWsHandler.class);
+
+        // Disabled, so that nothing adjusts the factor but the test itself
+        controller = new AdmissionController(delayMonitor, rateLimiter, metrics, mock(TimerWheel.class), false, TARGET_MILLIS, 100, DECREASE_FACTOR, INCREASE_STEP, MINIMUM_FACTOR);
+    }
+
+
+    /**
+     * While the minimum delay of an interval is above target, the factor is cut multiplicatively and handed to the
+     * rate limiter.
+     */
+    @Test
+    void delayAboveTargetDecreasesMultiplicatively()
+    {
+        interval(QueueKind.DELIVERY_LANE, 20, 10);
+        assertEquals(DECREASE_FACTOR, controller.getAdmissionFactor(), TOLERANCE);
+        verify(rateLimiter).setAdmissionFactor(DECREASE_FACTOR);
+
+        interval(QueueKind.WORKER_POOL, 10);
+        assertEquals(DECREASE_FACTOR * DECREASE_FACTOR, controller.getAdmissionFactor(), TOLERANCE);
+        assertEquals(2.0, registry.get("edgerouter.admission.decreases").counter().count());
+    }
+
+
+    /**
+     * Once the delay is below target again, the factor grows by the same step every interval.
+     */
+    @Test
+    void delayBelowTargetIncreasesAdditively()
+    {
+        interval(QueueKind.DELIVERY_LANE, 50);
+        interval(QueueKind.DELIVERY_LANE, 50);
+        double lowered = controller.getAdmissionFactor();
+
+        for (int step = 1; step <= 3; step++)
+        {
+            interval(QueueKind.DELIVERY_LANE, 1);
+            assertEquals(lowered + step * INCREASE_STEP, controller.getAdmissionFactor(), TOLERANCE);
+        }
+
+        // An interval without any task counts as no delay
+        controller.adjust();
+        assertEquals(lowered + 4 * INCREASE_STEP, controller.getAdmissionFactor(), TOLERANCE);
+    }
+
+
+    /**
+     * The minimum of an interval decides, so a burst that some task got through quickly does not cut the factor, but
+     * the worst queue does.
+     */
+    @Test
+    void minimumOfIntervalAndWorstQueueDecide()
+    {
+        delayMonitor.recordSojourn(QueueKind.DELIVERY_LANE, TimeUnit.MILLISECONDS.toNanos(50));
+        interval(QueueKind.DELIVERY_LANE, 1);
+        assertEquals(1.0, controller.getAdmissionFactor(), TOLERANCE);
+        verify(rateLimiter, never()).setAdmissionFactor(anyDouble());
+
+        delayMonitor.recordSojourn(QueueKind.WORKER_POOL, TimeUnit.MILLISECONDS.toNanos(1));
+        interval(QueueKind.DELIVERY_LANE, 50);
+        assertEquals(DECREASE_FACTOR, controller.getAdmissionFactor(), TOLERANCE);
+    }
+
+
+    /**
+     * The factor never falls below its minimum and never rises above 1, however long the delay stays on one side of
+     * the target.
+     */
+    @Test
+    void factorStaysWithinBounds()
+    {
+        for (int i = 0; i < 100; i++)
+        {
+            interval(QueueKind.DELIVERY_LANE, 100);
+            assertTrue(controller.getAdmissionFactor() >= MINIMUM_FACTOR);
+        }
+
+        assertEquals(MINIMUM_FACTOR, controller.getAdmissionFactor(), TOLERANCE);
+
+        for (int i = 0; i < 100; i++)
+        {
+            interval(QueueKind.DELIVERY_LANE, 0);
+            assertTrue(controller.getAdmissionFactor() <= 1.0);
+        }
+
+        assertEquals(1.0, controller.getAdmissionFactor(), TOLERANCE);
+    }
+
+
+    /**
+     * Records the given sojourn times in a queue and runs one adjustment.
+     *
+     * @param queue        The queue.
+     * @param delaysMillis The sojourn times in milliseconds.
+     */
+    private void interval(QueueKind queue, long... delaysMillis)
+    {
+        for (long delay : delaysMillis)
+        {
+            delayMonitor.recordSojourn(queue, TimeUnit.MILLISECONDS.toNanos(delay));
+        }
+
+        controller.adjust();
+    }
+}
@@ -0,0 +1,148 @@
+package com.mms.EdgeRouter.Compression;
+
+import MMTPMessageFormats.MessageType;
+import MMTPMessageFormats.ProtocolMessage;
+import Misc.MMTPValidationException;
+import com.google.protobuf.ByteString;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the compression of frames and the bounded decompression of {@link PayloadCompressor}.
+ */
+class PayloadCompressorTests
+{
+    private static final int MIN_BYTES = 256;
+    private static final int MAX_INFLATED_BYTES = 8192;
+
+
+    /**
+     * A compressible frame is compressed into a smaller compressed protocol message, which decompresses to the frame.
+     */
+    @Test
+    void roundTripRestoresMessage() throws Exception
+    {
+        PayloadCompressor compressor = compressor(MAX_INFLATED_BYTES, "");
+        ProtocolMessage message = message(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, 4000);
+        ByteBuffer frame = ByteBuffer.wrap(message.toByteArray());
+
+        ByteBuffer compressed = compressor.compress(frame, PayloadCodec.DEFLATE);
+        ProtocolMessage compressedMessage = ProtocolMessage.parseFrom(compressed);
+
+        assertEquals(MessageType.COMPRESSED, compressedMessage.getType());
+        assertTrue(compressed.remaining() < frame.remaining());
+        assertEquals(0, frame.position());
+        assertEquals(message, compressor.decompress(compressedMessage));
+    }
+
+
+    /**
+     * Frames below the minimum size, and frames sent to agents without a codec, are left as they are.
+     */
+    @Test
+    void smallFramesAreNotCompressed() throws Exception
+    {
+        PayloadCompressor compressor = compressor(MAX_INFLATED_BYTES, "");
+        ByteBuffer small = ByteBuffer.wrap(message(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, MIN_BYTES / 2).toByteArray());
+        ByteBuffer large = ByteBuffer.wrap(message(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, 4000).toByteArray());
+
+        assertSame(small, compressor.compress(small, PayloadCodec.DEFLATE));
+        assertSame(large, compressor.compress(large, PayloadCodec.IDENTITY));
+    }
+
+
+    /**
+     * A message that inflates beyond the configured limit is rejected, whatever it compressed to.
+     */
+    @Test
+    void messageInflatingBeyondLimitIsRejected() throws Exception
+    {
+        ProtocolMessage bomb = compress(compressor(Integer.MAX_VALUE, ""), message(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, 1_000_000));
+        PayloadCompressor compressor = compressor(MAX_INFLATED_BYTES, "");
+
+        assertTrue(bomb.getSerializedSize() < MAX_INFLATED_BYTES);
+        assertThrows(MMTPValidationException.class, () -> compressor.decompress(bomb));
+    }
+
+
+    /**
+     * The limit passed in for what is left of a frame applies exactly, a message inflating to it is accepted and one
+     * byte less rejects it.
+     */
+    @Test
+    void remainingFrameLimitIsExact() throws Exception
+    {
+        PayloadCompressor compressor = compressor(MAX_INFLATED_BYTES, "");
+        ProtocolMessage message = message(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, 4000);
+        ProtocolMessage compressed = compress(compressor, message);
+        int size = message.getSerializedSize();
+
+        assertEquals(message, compressor.decompress(compressed, size));
+        assertThrows(MMTPValidationException.class, () -> compressor.decompress(compressed, size - 1));
+        assertThrows(MMTPValidationException.class, () -> compressor.decompress(compressed, 0));
+    }
+
+
+    /**
+     * A compressed message cannot contain another compressed message.
+     */
+    @Test
+    void nestedCompressionIsRejected() throws Exception
+    {
+        PayloadCompressor compressor = compressor(MAX_INFLATED_BYTES, "");
+        ProtocolMessage nested = compress(compressor, message(MessageType.COMPRESSED, 4000));
+
+        assertThrows(MMTPValidationException.class, () -> compressor.decompress(nested));
+    }
+
+
+    /**
+     * A message compressed with the shared dictionary decompresses on a router with the same dictionary, and is
+     * rejected by a router without it.
+     */
+    @Test
+    void dictionaryMustBeKnown(@TempDir Path directory) throws Exception
+    {
+        Path dictionary = directory.resolve("dictionary");
+        Files.write(dictionary, "the shared dictionary of subject cast application messages ".repeat(64).getBytes());
+
+        PayloadCompressor withDictionary = compressor(MAX_INFLATED_BYTES, dictionary.toUri().toString());
+        ProtocolMessage message = message(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE, 4000);
+        ProtocolMessage compressed = ProtocolMessage.parseFrom(withDictionary.compress(ByteBuffer.wrap(message.toByteArray()), PayloadCodec.DEFLATE_DICTIONARY));
+
+        assertEquals(message, withDictionary.decompress(compressed));
+        assertThrows(MMTPValidationException.class, () -> compressor(MAX_INFLATED_BYTES, "").decompress(compressed));
+    }
+
+
+    private static PayloadCompressor compressor(int maxInflatedBytes, String dictionaryLocation) throws IOException
+    {
+        return new PayloadCompressor(new RouterMetrics(new SimpleMeterRegistry()), true, 6, MIN_BYTES, maxInflatedBytes, dictionaryLocation, 1);
+    }
+
+
+    private static ProtocolMessage compress(PayloadCompressor compressor, ProtocolMessage message) throws IOException
+    {
+        ProtocolMessage compressed = ProtocolMessage.parseFrom(compressor.compress(ByteBuffer.wrap(message.toByteArray()), PayloadCodec.DEFLATE));
+        assertEquals(MessageType.COMPRESSED, compressed.getType());
+        return compressed;
+    }
+
+
+    private static ProtocolMessage message(MessageType type, int size)
+    {
+        return ProtocolMessage.newBuilder().setType(type).setContent(ByteString.copyFrom(new byte[size])).build();
+    }
+}
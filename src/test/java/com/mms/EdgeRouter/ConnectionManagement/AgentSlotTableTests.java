@@ -0,0 +1,128 @@
+package com.mms.EdgeRouter.ConnectionManagement;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the handles, generations and slot reuse of {@link AgentSlotTable}.
+ */
+class AgentSlotTableTests
+{
+    private static final int GENERATIONS = 128;
+
+
+    /**
+     * A released slot is reused at once without a reuse delay, and the handle of its previous agent no longer resolves.
+     */
+    @Test
+    void releasedHandleDoesNotResolveToNextAgent()
+    {
+        AgentSlotTable<String> table = new AgentSlotTable<>(0);
+        int first = table.allocate(handle -> "agent-1");
+
+        assertTrue(table.release(first));
+        int second = table.allocate(handle -> "agent-2");
+
+        assertEquals(AgentSlotTable.indexOf(first), AgentSlotTable.indexOf(second));
+        assertNotEquals(first, second);
+        assertNull(table.get(first));
+        assertFalse(table.isCurrent(first));
+        assertFalse(table.release(first));
+        assertEquals("agent-2", table.get(second));
+        assertEquals(1, table.size());
+    }
+
+
+    /**
+     * The generation has 7 bits, so the handles stay positive and the handle of a slot repeats after 128 releases.
+     */
+    @Test
+    void generationWrapsAtSevenBits()
+    {
+        AgentSlotTable<String> table = new AgentSlotTable<>(0);
+        int first = table.allocate(handle -> "agent");
+        int handle = first;
+
+        for (int generation = 1; generation < GENERATIONS; generation++)
+        {
+            assertTrue(table.release(handle));
+            handle = table.allocate(h -> "agent");
+
+            assertTrue(handle >= 0);
+            assertNotEquals(first, handle);
+            assertEquals(AgentSlotTable.indexOf(first), AgentSlotTable.indexOf(handle));
+        }
+
+        assertTrue(table.release(handle));
+        assertEquals(first, table.allocate(h -> "agent"));
+    }
+
+
+    /**
+     * A released slot is not given to another agent before the reuse delay has passed, a fresh slot is allocated
+     * instead.
+     */
+    @Test
+    void releasedSlotIsNotReusedBeforeDelay()
+    {
+        AgentSlotTable<String> table = new AgentSlotTable<>(60_000);
+        int first = table.allocate(handle -> "agent-1");
+
+        assertTrue(table.release(first));
+        int second = table.allocate(handle -> "agent-2");
+
+        assertNotEquals(AgentSlotTable.indexOf(first), AgentSlotTable.indexOf(second));
+        assertNull(table.getAt(AgentSlotTable.indexOf(first)));
+    }
+
+
+    /**
+     * A lookup by index resolves whatever agent holds the slot now, while a lookup by handle only resolves its own.
+     */
+    @Test
+    void getAtIgnoresGeneration()
+    {
+        AgentSlotTable<String> table = new AgentSlotTable<>(0);
+        int first = table.allocate(handle -> "agent-1");
+        int index = AgentSlotTable.indexOf(first);
+
+        assertEquals("agent-1", table.getAt(index));
+        assertTrue(table.release(first));
+        assertNull(table.getAt(index));
+
+        int second = table.allocate(handle -> "agent-2");
+
+        assertEquals("agent-2", table.getAt(index));
+        assertEquals("agent-2", table.get(second));
+        assertNull(table.get(first));
+    }
+
+
+    /**
+     * The table grows past its initial capacity, and the handles allocated before keep resolving.
+     */
+    @Test
+    void growsBeyondInitialCapacity()
+    {
+        AgentSlotTable<Integer> table = new AgentSlotTable<>(0);
+        int[] handles = new int[5000];
+
+        for (int i = 0; i < handles.length; i++)
+        {
+            int value = i;
+            handles[i] = table.allocate(handle -> value);
+        }
+
+        for (int i = 0; i < handles.length; i++)
+        {
+            assertEquals(i, table.get(handles[i]));
+        }
+
+        assertEquals(handles.length, table.size());
+    }
+}
@@ -0,0 +1,229 @@
+package com.mms.EdgeRouter.ConnectionManagement;
+
+import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionAddedEvent;
+import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionCloseRequest;
+import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionRemovedEvent;
+import com.mms.EdgeRouter.MessageRelay.Scheduling.IDeliveryScheduler;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Quota.QuotaEngine;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import com.mms.EdgeRouter.WebSocket.RateLimiterWsHandler;
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import com.mms.EdgeRouter.WebSocket.SessionLiveness;
+import com.mms.EdgeRouter.WebSocket.WsHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.util.Timeout;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the probes and evictions of {@link LivenessMonitor}, on a clock and a timer the tests advance themselves.
+ */
+class LivenessMonitorTests
+{
+    private static final long IDLE_PROBE_SECONDS = 60;
+    private static final long ACTIVE_PROBE_SECONDS = 5;
+    private static final long PROBE_TIMEOUT_SECONDS = 10;
+    private static final int MAX_MISSED_PROBES = 2;
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    private final AtomicInteger pings = new AtomicInteger();
+
+    private Runnable pendingCheck;
+    private long pendingDelayNanos;
+
+    private WebSocketSession session;
+    private SessionLiveness liveness;
+    private ApplicationEventPublisher eventPublisher;
+    private RateLimiterWsHandler frameHandler;
+    private LivenessMonitor monitor;
+
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        Map<String, Object> attributes = new HashMap<>();
+        liveness = new SessionLiveness(clock::get);
+        attributes.put(SessionAttributes.LIVENESS, liveness);
+
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("agent");
+        when(session.getAttributes()).thenReturn(attributes);
+        doAnswer(invocation -> pings.incrementAndGet()).when(session).sendMessage(any(PingMessage.class));
+
+        IConnectionRepository connectionRepository = mock(IConnectionRepository.class);
+        when(connectionRepository.getSession("agent")).thenReturn(Optional.of(session));
+
+        // The timer only holds on to the next check, which the tests run once they advanced the clock by its delay
+        TimerWheel timerWheel = mock(TimerWheel.class);
+        when(timerWheel.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation ->
+        {
+            pendingCheck = invocation.getArgument(0);
+            pendingDelayNanos = ((TimeUnit) invocation.getArgument(2)).toNanos(invocation.getArgument(1));
+            return mock(Timeout.class);
+        });
+
+        RouterMetrics metrics = new RouterMetrics(new SimpleMeterRegistry());
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        frameHandler = new RateLimiterWsHandler(mock(WsHandler.class), metrics, mock(QuotaEngine.class), mock(TimerWheel.class), mock(IDeliveryScheduler.class), 10000, 100000, 10000, 10000, 1000);
+        monitor = new LivenessMonitor(connectionRepository, eventPublisher, new SyncTaskExecutor(), metrics, timerWheel, clock::get, true, IDLE_PROBE_SECONDS, ACTIVE_PROBE_SECONDS, PROBE_TIMEOUT_SECONDS, MAX_MISSED_PROBES);
+
+        monitor.onConnectionAdded(new ConnectionAddedEvent(this, "agent", 0));
+    }
+
+
+    /**
+     * An agent silent in both directions is pinged once it has been silent for the idle interval, and not before.
+     */
+    @Test
+    void silentAgentIsPingedAfterIdleThreshold()
+    {
+        long start = clock.get();
+
+        while (clock.get() - start < TimeUnit.SECONDS.toNanos(IDLE_PROBE_SECONDS))
+        {
+            assertEquals(0, pings.get());
+            runPendingCheck();
+        }
+
+        assertEquals(1, pings.get());
+        assertEquals(TimeUnit.SECONDS.toNanos(IDLE_PROBE_SECONDS), clock.get() - start);
+        assertEquals(TimeUnit.SECONDS.toNanos(PROBE_TIMEOUT_SECONDS), pendingDelayNanos);
+    }
+
+
+    /**
+     * An agent that is sent messages while it stays silent is pinged after the shorter active interval.
+     */
+    @Test
+    void agentSentIntoSilenceIsPingedAfterActiveThreshold()
+    {
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        liveness.markSent();
+
+        runPendingCheck();
+
+        assertEquals(1, pings.get());
+    }
+
+
+    /**
+     * A pong to the probe resets the state of the agent, as does any other frame, and it is neither probed again nor
+     * evicted until it has been silent for the interval again.
+     */
+    @Test
+    void pongOrAnyFrameResetsProbeState() throws Exception
+    {
+        probe();
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        frameHandler.handleMessage(session, new PongMessage());
+        runPendingCheck();
+
+        assertEquals(1, pings.get());
+        assertEquals(TimeUnit.SECONDS.toNanos(ACTIVE_PROBE_SECONDS), pendingDelayNanos);
+
+        // Silent again until the next probe, then a binary frame answers it as well as a pong would
+        probe();
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        frameHandler.handleMessage(session, new BinaryMessage(new byte[16]));
+        runPendingCheck();
+
+        assertEquals(2, pings.get());
+        verify(eventPublisher, never()).publishEvent(any(ConnectionCloseRequest.class));
+    }
+
+
+    /**
+     * An agent that answers none of its probes is probed again, and evicted with a close request once it missed the
+     * configured number of them. After that it is no longer checked.
+     */
+    @Test
+    void unansweredProbesEvictAfterTimeout()
+    {
+        probe();
+        long firstProbe = clock.get();
+        runPendingCheck();
+        assertEquals(2, pings.get());
+        verify(eventPublisher, never()).publishEvent(any(ConnectionCloseRequest.class));
+
+        Runnable evictingCheck = pendingCheck;
+        runPendingCheck();
+
+        ArgumentCaptor<ConnectionCloseRequest> request = ArgumentCaptor.forClass(ConnectionCloseRequest.class);
+        verify(eventPublisher).publishEvent(request.capture());
+        assertEquals("agent", request.getValue().getAgentID());
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE.getCode(), request.getValue().getCloseCode());
+        assertEquals(MAX_MISSED_PROBES * TimeUnit.SECONDS.toNanos(PROBE_TIMEOUT_SECONDS), clock.get() - firstProbe);
+        assertSame(evictingCheck, pendingCheck);
+        assertEquals(2, pings.get());
+    }
+
+
+    /**
+     * A removed agent whose check was already due is not probed.
+     */
+    @Test
+    void removedAgentIsNotProbed()
+    {
+        Runnable dueCheck = pendingCheck;
+        monitor.onConnectionRemoved(new ConnectionRemovedEvent(this, "agent", 0));
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(IDLE_PROBE_SECONDS));
+        dueCheck.run();
+
+        assertEquals(0, pings.get());
+        assertSame(dueCheck, pendingCheck);
+    }
+
+
+    /**
+     * Runs checks until the agent is probed.
+     */
+    private void probe()
+    {
+        int probes = pings.get();
+
+        while (pings.get() == probes)
+        {
+            runPendingCheck();
+        }
+    }
+
+
+    /**
+     * Advances the clock to the time the pending check is due, and runs it.
+     */
+    private void runPendingCheck()
+    {
+        Runnable check = pendingCheck;
+        clock.addAndGet(pendingDelayNanos);
+        check.run();
+    }
+}
@@ -0,0 +1,191 @@
+package com.mms.EdgeRouter.Drain;
+
+import com.mms.EdgeRouter.ConnectionManagement.ClientContext.ClientConnectionContext;
+import com.mms.EdgeRouter.ConnectionManagement.Events.ConnectionCloseRequest;
+import com.mms.EdgeRouter.ConnectionManagement.IConnectionRepository;
+import com.mms.EdgeRouter.MessageRelay.Scheduling.IDeliveryScheduler;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.SubscriptionManagement.SubscriptionSnapshotStore;
+import com.mms.EdgeRouter.WebSocket.RateLimiterWsHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the sequence and the pacing of a drain by {@link DrainCoordinator}.
+ */
+class DrainCoordinatorTests
+{
+    private static final int CONNECTIONS = 5;
+    private static final int BATCH_SIZE = 2;
+    private static final long BATCH_INTERVAL_MILLIS = 20;
+
+    private RateLimiterWsHandler rateLimiter;
+    private IConnectionRepository connectionRepository;
+    private IDeliveryScheduler deliveryScheduler;
+    private SubscriptionSnapshotStore snapshotStore;
+    private ApplicationEventPublisher eventPublisher;
+    private List<ConnectionCloseRequest> closeRequests;
+    private List<Long> closeTimes;
+    private DrainCoordinator coordinator;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        rateLimiter = mock(RateLimiterWsHandler.class);
+        connectionRepository = mock(IConnectionRepository.class);
+        deliveryScheduler = mock(IDeliveryScheduler.class);
+        snapshotStore = mock(SubscriptionSnapshotStore.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        closeRequests = new ArrayList<>();
+        closeTimes = new ArrayList<>();
+
+        List<ClientConnectionContext> connections = new ArrayList<>();
+
+        for (int i = 0; i < CONNECTIONS; i++)
+        {
+            ClientConnectionContext context = mock(ClientConnectionContext.class);
+            when(context.getAgentID()).thenReturn("agent-" + i);
+            when(context.getSession()).thenReturn(mock(WebSocketSession.class));
+            connections.add(context);
+        }
+
+        // Closed connections stay registered for a while, the coordinator has to skip them itself
+        when(connectionRepository.getAllConnections()).thenReturn(connections);
+        when(connectionRepository.getConnectionCount()).thenReturn(CONNECTIONS);
+        when(deliveryScheduler.isIdle()).thenReturn(false, true);
+
+        doAnswer(invocation ->
+        {
+            closeTimes.add(System.nanoTime());
+            closeRequests.add(invocation.getArgument(0));
+            return null;
+        }).when(eventPublisher).publishEvent(any(ConnectionCloseRequest.class));
+
+        coordinator = coordinator(Duration.ofSeconds(30));
+    }
+
+
+    @AfterEach
+    void tearDown()
+    {
+        coordinator.destroy();
+    }
+
+
+    /**
+     * A shutdown drain seals the snapshot, stops accepting sessions, closes every connection once in paced batches, waits
+     * for the delivery lanes to run idle, and only then lets the shutdown go on.
+     */
+    @Test
+    void drainSealsStopsAcceptingClosesInBatchesThenAwaitsIdle() throws Exception
+    {
+        CountDownLatch stopped = new CountDownLatch(1);
+        coordinator.stop(stopped::countDown);
+
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+        assertEquals(DrainState.DRAINED, coordinator.getState());
+        assertEquals(CONNECTIONS, coordinator.getClosedConnections());
+
+        InOrder order = inOrder(snapshotStore, rateLimiter, eventPublisher, deliveryScheduler);
+        order.verify(snapshotStore).seal();
+        order.verify(rateLimiter).setAccepting(false);
+        order.verify(eventPublisher, times(CONNECTIONS)).publishEvent(any(ConnectionCloseRequest.class));
+        order.verify(deliveryScheduler, times(2)).isIdle();
+
+        HashSet<String> agents = new HashSet<>();
+
+        for (ConnectionCloseRequest request : closeRequests)
+        {
+            agents.add(request.getAgentID());
+            assertEquals(CloseStatus.SERVICE_RESTARTED.getCode(), request.getCloseCode());
+        }
+
+        assertEquals(CONNECTIONS, agents.size());
+
+        // A batch starts no earlier than a batch interval after the one before it
+        long interval = TimeUnit.MILLISECONDS.toNanos(BATCH_INTERVAL_MILLIS);
+        assertTrue(closeTimes.get(BATCH_SIZE) - closeTimes.get(0) >= interval);
+        assertTrue(closeTimes.get(2 * BATCH_SIZE) - closeTimes.get(BATCH_SIZE) >= interval);
+    }
+
+
+    /**
+     * A drain cannot be started twice.
+     */
+    @Test
+    void drainStartsOnce() throws Exception
+    {
+        assertTrue(coordinator.drain());
+        assertFalse(coordinator.drain());
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        coordinator.stop(stopped::countDown);
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+    }
+
+
+    /**
+     * Batches on shutdown keep the configured size while they fit the shutdown phase, and are made larger when they do
+     * not, down to a single batch when the phase leaves no time for more.
+     */
+    @Test
+    void shutdownBatchesFitShutdownPhase()
+    {
+        DrainCoordinator tight = coordinator(Duration.ofMillis(BATCH_INTERVAL_MILLIS * 4 + 2000));
+
+        try
+        {
+            assertEquals(BATCH_SIZE, tight.getShutdownBatchSize(BATCH_SIZE * 5));
+            assertEquals(20, tight.getShutdownBatchSize(100));
+        }
+
+        finally
+        {
+            tight.destroy();
+        }
+
+        DrainCoordinator none = coordinator(Duration.ofMillis(500));
+
+        try
+        {
+            assertEquals(0, none.getShutdownCloseBudgetMillis());
+            assertEquals(1000, none.getShutdownBatchSize(1000));
+        }
+
+        finally
+        {
+            none.destroy();
+        }
+    }
+
+
+    private DrainCoordinator coordinator(Duration shutdownPhaseTimeout)
+    {
+        return new DrainCoordinator(rateLimiter, connectionRepository, deliveryScheduler, new SyncTaskExecutor(), snapshotStore, eventPublisher, new RouterMetrics(new SimpleMeterRegistry()), true, BATCH_SIZE, BATCH_INTERVAL_MILLIS, 1000, shutdownPhaseTimeout);
+    }
+}
@@ -0,0 +1,250 @@
+package com.mms.EdgeRouter.Egress;
+
+import MMTPMessageFormats.MessageType;
+import MMTPMessageFormats.ProtocolMessage;
+import Misc.MMTPBatch;
+import com.google.protobuf.ByteString;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import com.mms.EdgeRouter.WebSocket.IBatchingSession;
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Tests for the flushes and the batch protocol messages of {@link BatchingWebSocketSessionDecorator}.
+ */
+class BatchingWebSocketSessionDecoratorTests
+{
+    private static final long LONG_LINGER_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long SHORT_LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final int MAX_MESSAGE_SIZE = 8192;
+    private static final String FLUSH_THREAD = "BatchFlush";
+
+    private TimerWheel flusher;
+    private ExecutorService flushExecutor;
+    private RouterMetrics metrics;
+    private WebSocketSession delegate;
+    private List<WebSocketMessage<?>> sent;
+
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        flusher = new TimerWheel(1, 64);
+        flushExecutor = Executors.newSingleThreadExecutor(task -> new Thread(task, FLUSH_THREAD));
+        metrics = new RouterMetrics(new SimpleMeterRegistry());
+        delegate = mock(WebSocketSession.class, withSettings().extraInterfaces(IBatchingSession.class));
+        sent = new ArrayList<>();
+
+        when(delegate.getId()).thenReturn("agent");
+        when(delegate.isOpen()).thenReturn(true);
+
+        doAnswer(invocation ->
+        {
+            sent.add(invocation.getArgument(0));
+            return null;
+        }).when(delegate).sendMessage(any());
+    }
+
+
+    @AfterEach
+    void tearDown()
+    {
+        flusher.destroy();
+        flushExecutor.shutdownNow();
+    }
+
+
+    /**
+     * The transport holds back written frames until the linger window of the first of them ends, and the flush then
+     * runs on the flush executor rather than on the timer thread.
+     */
+    @Test
+    void lingerFlushRunsOnFlushExecutor() throws Exception
+    {
+        IBatchingSession transport = (IBatchingSession) delegate;
+        CompletableFuture<String> flushedOn = new CompletableFuture<>();
+
+        doAnswer(invocation -> flushedOn.complete(Thread.currentThread().getName())).when(transport).flushBatch();
+
+        BatchingWebSocketSessionDecorator session = new BatchingWebSocketSessionDecorator(delegate, transport, SHORT_LINGER_NANOS, MAX_MESSAGE_SIZE, flusher, flushExecutor, metrics);
+        verify(transport).setBatchingAllowed(true);
+
+        session.sendMessage(binary(100));
+        session.sendMessage(binary(100));
+
+        assertEquals(2, sent.size());
+        assertEquals(FLUSH_THREAD, flushedOn.get(5, TimeUnit.SECONDS));
+    }
+
+
+    /**
+     * The transport is flushed as soon as the written bytes reach the limit, without waiting for the linger window.
+     */
+    @Test
+    void byteLimitFlushesWithoutLinger() throws Exception
+    {
+        IBatchingSession transport = (IBatchingSession) delegate;
+        BatchingWebSocketSessionDecorator session = new BatchingWebSocketSessionDecorator(delegate, transport, LONG_LINGER_NANOS, 1000, flusher, new SyncTaskExecutor(), metrics);
+
+        session.sendMessage(binary(600));
+        verify(transport, never()).flushBatch();
+
+        session.sendMessage(binary(600));
+        verify(transport).flushBatch();
+    }
+
+
+    /**
+     * For an agent that accepts batch protocol messages, held messages go out as one batch frame that decodes to the
+     * same messages in the same order, and a single held message goes out as it is.
+     */
+    @Test
+    void heldMessagesAreSentAsBatchFrame() throws Exception
+    {
+        BatchingWebSocketSessionDecorator session = new BatchingWebSocketSessionDecorator(delegate, null, LONG_LINGER_NANOS, MAX_MESSAGE_SIZE, flusher, new SyncTaskExecutor(), metrics);
+        List<ProtocolMessage> messages = List.of(message(10), message(20), message(30));
+
+        for (ProtocolMessage message : messages)
+        {
+            session.sendMessage(new BinaryMessage(message.toByteArray()));
+        }
+
+        assertTrue(sent.isEmpty());
+        session.flush();
+
+        assertEquals(1, sent.size());
+        ProtocolMessage batch = ProtocolMessage.parseFrom((ByteBuffer) sent.get(0).getPayload());
+        assertEquals(MessageType.BATCH, batch.getType());
+        assertEquals(messages, MMTPBatch.decode(batch.getContent()));
+
+        session.sendMessage(new BinaryMessage(messages.get(0).toByteArray()));
+        session.flush();
+        assertEquals(messages.get(0), ProtocolMessage.parseFrom((ByteBuffer) sent.get(1).getPayload()));
+    }
+
+
+    /**
+     * No batch frame, framing included, is larger than the byte limit, and a message that does not fit goes out in the
+     * next batch.
+     */
+    @Test
+    void batchFramesStayWithinLimit() throws Exception
+    {
+        BatchingWebSocketSessionDecorator session = new BatchingWebSocketSessionDecorator(delegate, null, LONG_LINGER_NANOS, MAX_MESSAGE_SIZE, flusher, new SyncTaskExecutor(), metrics);
+        int messages = 0;
+
+        for (int size : new int[]{4000, 4000, 4000, 100, 8000, 10, 10})
+        {
+            session.sendMessage(new BinaryMessage(message(size).toByteArray()));
+            messages++;
+        }
+
+        session.flush();
+        int decoded = 0;
+
+        for (WebSocketMessage<?> frame : sent)
+        {
+            assertTrue(frame.getPayloadLength() <= MAX_MESSAGE_SIZE, "frame of " + frame.getPayloadLength() + " bytes");
+            ProtocolMessage message = ProtocolMessage.parseFrom((ByteBuffer) frame.getPayload());
+            decoded += message.getType() == MessageType.BATCH ? MMTPBatch.decode(message.getContent()).size() : 1;
+        }
+
+        assertEquals(messages, decoded);
+    }
+
+
+    /**
+     * Closing the session sends what is held back first, and a text message flushes the batch before it.
+     */
+    @Test
+    void closeAndTextMessagesFlushFirst() throws Exception
+    {
+        BatchingWebSocketSessionDecorator session = new BatchingWebSocketSessionDecorator(delegate, null, LONG_LINGER_NANOS, MAX_MESSAGE_SIZE, flusher, new SyncTaskExecutor(), metrics);
+
+        session.sendMessage(new BinaryMessage(message(10).toByteArray()));
+        session.sendMessage(new TextMessage("text"));
+        session.sendMessage(new BinaryMessage(message(10).toByteArray()));
+        session.sendMessage(new BinaryMessage(message(20).toByteArray()));
+        session.close(CloseStatus.GOING_AWAY);
+
+        InOrder order = inOrder(delegate);
+        order.verify(delegate).sendMessage(any(BinaryMessage.class));
+        order.verify(delegate).sendMessage(any(TextMessage.class));
+        order.verify(delegate).sendMessage(any(BinaryMessage.class));
+        order.verify(delegate).close(CloseStatus.GOING_AWAY);
+        assertEquals(3, sent.size());
+    }
+
+
+    /**
+     * The byte limit of agents that accept batch protocol messages is capped at the largest message they accept.
+     */
+    @Test
+    void egressBatcherCapsBatchesAtMaxMessageSize() throws Exception
+    {
+        EgressBatchingProperties properties = new EgressBatchingProperties();
+        properties.setEnabled(true);
+        properties.getClasses().add(new EgressBatchingProperties.AgentClass());
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(SessionAttributes.ACCEPTS_BATCH, true);
+        when(delegate.getAttributes()).thenReturn(attributes);
+
+        EgressBatcher batcher = new EgressBatcher(properties, metrics, flusher, new SyncTaskExecutor(), MAX_MESSAGE_SIZE);
+        WebSocketSession session = batcher.decorate(delegate, null);
+
+        for (int i = 0; i < 5; i++)
+        {
+            session.sendMessage(new BinaryMessage(message(3000).toByteArray()));
+        }
+
+        ((BatchingWebSocketSessionDecorator) session).flush();
+
+        assertTrue(sent.size() > 1);
+        sent.forEach(frame -> assertTrue(frame.getPayloadLength() <= MAX_MESSAGE_SIZE));
+    }
+
+
+    private static BinaryMessage binary(int size)
+    {
+        return new BinaryMessage(new byte[size]);
+    }
+
+
+    private static ProtocolMessage message(int size)
+    {
+        return ProtocolMessage.newBuilder().setType(MessageType.SUBJECT_CAST_APPLICATION_MESSAGE).setContent(ByteString.copyFrom(new byte[size])).build();
+    }
+}
@@ -0,0 +1,242 @@
+package com.mms.EdgeRouter.Egress;
+
+import com.mms.EdgeRouter.Priority.TrafficClass;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the priority order and the session limits of {@link PriorityWebSocketSessionDecorator}.
+ */
+class PriorityWebSocketSessionDecoratorTests
+{
+    private static final int NO_LIMIT = Integer.MAX_VALUE;
+    private static final long WAIT_SECONDS = 5;
+    private static final int SENDERS = 8;
+    private static final int MESSAGES_PER_SENDER = 500;
+
+    private WebSocketSession delegate;
+    private Queue<String> sent;
+    private CountDownLatch sending;
+    private CountDownLatch release;
+    private ExecutorService threads;
+
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        Map<String, Object> attributes = new HashMap<>();
+        delegate = mock(WebSocketSession.class);
+        sent = new ConcurrentLinkedQueue<>();
+        sending = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        threads = Executors.newFixedThreadPool(SENDERS);
+
+        when(delegate.getId()).thenReturn("agent");
+        when(delegate.getAttributes()).thenReturn(attributes);
+
+        // The first send blocks until it is released, so that the messages sent meanwhile are buffered
+        doAnswer(invocation ->
+        {
+            WebSocketMessage<?> message = invocation.getArgument(0);
+
+            if (sending.getCount() > 0)
+            {
+                sending.countDown();
+                release.await(WAIT_SECONDS, TimeUnit.SECONDS);
+            }
+
+            sent.add((String) message.getPayload());
+            return null;
+        }).when(delegate).sendMessage(any());
+    }
+
+
+    @AfterEach
+    void tearDown()
+    {
+        release.countDown();
+        threads.shutdownNow();
+    }
+
+
+    /**
+     * The messages buffered while a send is in progress go out in strict class order, and in the order they were
+     * buffered within a class.
+     */
+    @Test
+    void bufferedMessagesAreSentInPriorityOrder() throws Exception
+    {
+        PriorityWebSocketSessionDecorator session = new PriorityWebSocketSessionDecorator(delegate, NO_LIMIT, NO_LIMIT);
+        Future<?> first = blockFirstSend(session);
+
+        session.sendMessage(new TextMessage("bulk-1"), TrafficClass.BULK);
+        session.sendMessage(new TextMessage("normal-1"));
+        session.sendMessage(new TextMessage("critical-1"), TrafficClass.CRITICAL);
+        session.sendMessage(new TextMessage("high-1"), TrafficClass.HIGH);
+        session.sendMessage(new TextMessage("bulk-2"), TrafficClass.BULK);
+        session.sendMessage(new TextMessage("critical-2"), TrafficClass.CRITICAL);
+        session.sendMessage(new TextMessage("normal-2"), TrafficClass.NORMAL);
+        assertTrue(sent.isEmpty());
+
+        release.countDown();
+        first.get(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals(List.of("first", "critical-1", "critical-2", "high-1", "normal-1", "normal-2", "bulk-1", "bulk-2"), new ArrayList<>(sent));
+        assertEquals(0, session.getBufferSize());
+    }
+
+
+    /**
+     * A message that takes the buffer beyond its limit fails the send, nothing more is sent, and the session is closed
+     * as not reliable whatever status it is closed with.
+     */
+    @Test
+    void bufferLimitClosesSessionAsNotReliable() throws Exception
+    {
+        PriorityWebSocketSessionDecorator session = new PriorityWebSocketSessionDecorator(delegate, NO_LIMIT, 16);
+        Future<?> first = blockFirstSend(session);
+
+        assertThrows(SessionLimitExceededException.class, () -> session.sendMessage(new TextMessage("x".repeat(32))));
+        session.sendMessage(new TextMessage("after"));
+
+        release.countDown();
+        first.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        session.close(CloseStatus.NORMAL);
+
+        assertEquals(List.of("first"), new ArrayList<>(sent));
+        verify(delegate).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+
+    /**
+     * A send that takes longer than the send time limit fails the next send, and the session is closed as not
+     * reliable.
+     */
+    @Test
+    void sendTimeLimitClosesSessionAsNotReliable() throws Exception
+    {
+        int sendTimeLimit = 20;
+        PriorityWebSocketSessionDecorator session = new PriorityWebSocketSessionDecorator(delegate, sendTimeLimit, NO_LIMIT);
+        Future<?> first = blockFirstSend(session);
+
+        while (session.getTimeSinceSendStarted() <= sendTimeLimit)
+        {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        assertThrows(SessionLimitExceededException.class, () -> session.sendMessage(new TextMessage("late")));
+
+        release.countDown();
+        first.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        session.close(CloseStatus.GOING_AWAY);
+
+        assertEquals(List.of("first"), new ArrayList<>(sent));
+        verify(delegate).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+
+    /**
+     * Many threads send at once, each in its own class. Every message is sent exactly once, and the messages of each
+     * thread in the order it sent them.
+     */
+    @Test
+    void concurrentSendersLoseAndDuplicateNothing() throws Exception
+    {
+        PriorityWebSocketSessionDecorator session = new PriorityWebSocketSessionDecorator(delegate, NO_LIMIT, NO_LIMIT);
+        TrafficClass[] classes = TrafficClass.values();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> senders = new ArrayList<>();
+        release.countDown();
+
+        for (int sender = 0; sender < SENDERS; sender++)
+        {
+            int senderId = sender;
+            senders.add(threads.submit(() ->
+            {
+                start.await();
+
+                for (int seq = 0; seq < MESSAGES_PER_SENDER; seq++)
+                {
+                    session.sendMessage(new TextMessage(senderId + ":" + seq), classes[senderId % classes.length]);
+                }
+
+                return null;
+            }));
+        }
+
+        start.countDown();
+
+        for (Future<?> sender : senders)
+        {
+            sender.get(WAIT_SECONDS * 6, TimeUnit.SECONDS);
+        }
+
+        Set<String> unique = new HashSet<>(sent);
+        int[] lastSeq = new int[SENDERS];
+        Arrays.fill(lastSeq, -1);
+
+        for (String payload : sent)
+        {
+            String[] parts = payload.split(":");
+            int senderId = Integer.parseInt(parts[0]);
+            int seq = Integer.parseInt(parts[1]);
+            assertEquals(lastSeq[senderId] + 1, seq, "Out of order send for sender=" + senderId);
+            lastSeq[senderId] = seq;
+        }
+
+        assertEquals(SENDERS * MESSAGES_PER_SENDER, sent.size());
+        assertEquals(sent.size(), unique.size());
+        assertEquals(0, session.getBufferSize());
+    }
+
+
+    /**
+     * Sends a first message on another thread and waits until its send is in progress, where it blocks until the
+     * release latch is counted down.
+     *
+     * @param session The session to send through.
+     * @return The future of the send.
+     */
+    private Future<?> blockFirstSend(PriorityWebSocketSessionDecorator session) throws InterruptedException
+    {
+        Future<?> first = threads.submit(() ->
+        {
+            session.sendMessage(new TextMessage("first"));
+            return null;
+        });
+
+        assertTrue(sending.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        return first;
+    }
+}
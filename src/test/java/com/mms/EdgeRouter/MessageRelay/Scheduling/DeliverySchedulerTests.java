@@ -0,0 +1,221 @@
+package com.mms.EdgeRouter.MessageRelay.Scheduling;
+
+import com.mms.EdgeRouter.Admission.QueueDelayMonitor;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress tests for the ordering guarantees of {@link DeliveryScheduler}.
+ */
+class DeliverySchedulerTests
+{
+    private static final int SENDERS = 8;
+    private static final int SUBJECTS = 4;
+    private static final int MESSAGES_PER_KEY = 500;
+    private static final int RECIPIENTS = 32;
+
+    private SimpleMeterRegistry registry;
+    private RouterMetrics metrics;
+    private ForkJoinPool fanOutPool;
+    private DeliveryScheduler scheduler;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        registry = new SimpleMeterRegistry();
+        metrics = new RouterMetrics(registry);
+        fanOutPool = new ForkJoinPool(4);
+        scheduler = new DeliveryScheduler(fanOutPool, new QueueDelayMonitor(metrics), metrics, 4, 1, SENDERS * SUBJECTS * MESSAGES_PER_KEY, 4, 50, 100);
+    }
+
+
+    @AfterEach
+    void tearDown()
+    {
+        scheduler.destroy();
+        fanOutPool.shutdownNow();
+    }
+
+
+    /**
+     * Many senders publish interleaved sequences on several subjects at once. Every recipient must see the messages of
+     * each sender and subject pair exactly once and in sequence order.
+     */
+    @Test
+    void preservesPerSenderPerSubjectOrderUnderConcurrentFanOut() throws Exception
+    {
+        List<ConcurrentLinkedQueue<long[]>> inboxes = new ArrayList<>();
+        IntStream.range(0, RECIPIENTS).forEach(i -> inboxes.add(new ConcurrentLinkedQueue<>()));
+
+        int expectedDeliveries = SENDERS * SUBJECTS * MESSAGES_PER_KEY * RECIPIENTS;
+        CountDownLatch delivered = new CountDownLatch(expectedDeliveries);
+        ExecutorService producers = Executors.newFixedThreadPool(SENDERS);
+
+        for (int sender = 0; sender < SENDERS; sender++)
+        {
+            int senderId = sender;
+            producers.execute(() ->
+            {
+                for (int seq = 0; seq < MESSAGES_PER_KEY; seq++)
+                {
+                    for (int subject = 0; subject < SUBJECTS; subject++)
+                    {
+                        long[] record = {senderId, subject, seq};
+                        scheduler.schedule("sender-" + senderId, "subject-" + subject, () -> scheduler.fanOut(inboxes, inbox ->
+                        {
+                            inbox.add(record);
+                            delivered.countDown();
+                        }));
+                    }
+                }
+            });
+        }
+
+        producers.shutdown();
+        assertTrue(delivered.await(60, TimeUnit.SECONDS), "Not every message was delivered in time");
+
+        for (ConcurrentLinkedQueue<long[]> inbox : inboxes)
+        {
+            Map<Long, Long> lastSeqByKey = new HashMap<>();
+
+            for (long[] record : inbox)
+            {
+                long key = record[0] * SUBJECTS + record[1];
+                long expected = lastSeqByKey.getOrDefault(key, -1L) + 1;
+                assertEquals(expected, record[2], "Out of order delivery for sender=" + record[0] + ", subject=" + record[1]);
+                lastSeqByKey.put(key, record[2]);
+            }
+
+            assertEquals(SENDERS * SUBJECTS, lastSeqByKey.size());
+            lastSeqByKey.values().forEach(last -> assertEquals(MESSAGES_PER_KEY - 1, last));
+        }
+    }
+
+
+    /**
+     * A single large fan-out must reach every target exactly once and return only when all targets have been visited.
+     */
+    @Test
+    void fanOutVisitsEveryTargetOnceBeforeReturning()
+    {
+        List<Integer> targets = IntStream.range(0, 10_000).boxed().toList();
+        AtomicInteger[] visits = new AtomicInteger[targets.size()];
+        IntStream.range(0, visits.length).forEach(i -> visits[i] = new AtomicInteger());
+
+        scheduler.fanOut(targets, target -> visits[target].incrementAndGet());
+
+        for (AtomicInteger visit : visits)
+        {
+            assertEquals(1, visit.get());
+        }
+    }
+
+
+    /**
+     * Once the scheduler has measured that sends are slow, a fan-out must be split into chunks that several workers of
+     * the FanOutPool send in parallel, and still visit every target once.
+     */
+    @Test
+    void slowSendsAreSpreadOverTheFanOutPool()
+    {
+        List<Integer> targets = IntStream.range(0, 256).boxed().toList();
+        Consumer<Integer> slowSend = target -> LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        scheduler.fanOut(targets, slowSend);
+
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        AtomicInteger visits = new AtomicInteger();
+        scheduler.fanOut(targets, slowSend.andThen(target ->
+        {
+            threads.add(Thread.currentThread().getName());
+            visits.incrementAndGet();
+        }));
+
+        assertTrue(scheduler.getSendCostNanos() > TimeUnit.MICROSECONDS.toNanos(50));
+        assertTrue(threads.size() > 1);
+        assertEquals(targets.size(), visits.get());
+    }
+
+
+    /**
+     * A caller that finds its lane full waits for room, and gets its task queued once the lane catches up within the
+     * wait. A task that finds no room in time is dropped, counted and reported to the caller, and the lane reports
+     * itself as congested while it is full.
+     */
+    @Test
+    void fullLaneWaitsForRoomThenDrops() throws Exception
+    {
+        DeliveryScheduler single = new DeliveryScheduler(fanOutPool, new QueueDelayMonitor(metrics), metrics, 1, 0, 1, 4, 50, 200);
+
+        try
+        {
+            CountDownLatch running = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch ran = new CountDownLatch(2);
+
+            assertTrue(single.schedule("agent", () ->
+            {
+                running.countDown();
+                awaitQuietly(release);
+                ran.countDown();
+            }));
+
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            assertFalse(single.isCongested("agent"));
+            assertTrue(single.schedule("agent", ran::countDown));
+            assertTrue(single.isCongested("agent"));
+
+            // The lane is running one task and holds another, so this one is dropped after the wait
+            assertFalse(single.schedule("agent", ran::countDown));
+            assertEquals(1.0, registry.get("edgerouter.delivery.dropped").counter().count());
+
+            // Room frees up while the caller waits, so the task is queued and runs after the ones before it
+            fanOutPool.execute(() ->
+            {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                release.countDown();
+            });
+
+            assertTrue(single.schedule("agent", ran::countDown));
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertEquals(1.0, registry.get("edgerouter.delivery.dropped").counter().count());
+        }
+
+        finally
+        {
+            single.destroy();
+        }
+    }
+
+
+    private static void awaitQuietly(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
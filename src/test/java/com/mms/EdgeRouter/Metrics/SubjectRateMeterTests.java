@@ -0,0 +1,130 @@
+package com.mms.EdgeRouter.Metrics;
+
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import io.netty.util.Timeout;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the moving averages of {@link SubjectRateMeter}, with ticks the tests run themselves.
+ */
+class SubjectRateMeterTests
+{
+    private static final double TICK_SECONDS = 5;
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+    private static final double TOLERANCE = 1e-9;
+
+    private SubjectRateMeter meter;
+    private Runnable tick;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        TimerWheel timerWheel = mock(TimerWheel.class);
+        when(timerWheel.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class))).thenReturn(mock(Timeout.class));
+        meter = new SubjectRateMeter(timerWheel);
+
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(timerWheel).scheduleWithFixedDelay(task.capture(), eq(5L), eq(5L), eq(TimeUnit.SECONDS));
+        tick = task.getValue();
+    }
+
+
+    /**
+     * The first tick takes the rate of its interval as it is, and later ticks move the average towards the rate of
+     * their interval by the smoothing factor of a one minute window.
+     */
+    @Test
+    void tickFoldsCountsIntoMovingAverage()
+    {
+        record("subject", 50);
+        tick.run();
+        assertEquals(10.0, meter.getRate("subject"), TOLERANCE);
+
+        tick.run();
+        double decayed = 10.0 * (1 - ALPHA);
+        assertEquals(decayed, meter.getRate("subject"), TOLERANCE);
+
+        record("subject", 100);
+        tick.run();
+        assertEquals(decayed + ALPHA * (20.0 - decayed), meter.getRate("subject"), TOLERANCE);
+    }
+
+
+    /**
+     * A subject whose rate decayed to nothing is forgotten, and starts over when it is sent messages again.
+     */
+    @Test
+    void idleSubjectIsForgotten()
+    {
+        record("subject", 50);
+        tick.run();
+
+        int ticks = 0;
+
+        while (meter.getRate("subject") > 0)
+        {
+            tick.run();
+            ticks++;
+            assertTrue(ticks < 1000);
+        }
+
+        // The average decays by a factor of (1 - ALPHA) per idle tick, from 10 to below the idle rate of 0.001
+        assertEquals(Math.ceil(Math.log(10 / 0.001) / -Math.log(1 - ALPHA)), ticks, 1);
+        assertTrue(meter.getTop(10).isEmpty());
+
+        record("subject", 5);
+        tick.run();
+        assertEquals(1.0, meter.getRate("subject"), TOLERANCE);
+    }
+
+
+    /**
+     * The top subjects are the ones with the highest rates, the hottest first, and subjects without a rate are left
+     * out.
+     */
+    @Test
+    void topSubjectsAreHottestFirst()
+    {
+        record("a", 5);
+        record("b", 50);
+        record("c", 20);
+        record("d", 35);
+        record("e", 10);
+        tick.run();
+
+        List<SubjectRateMeter.SubjectRate> top = meter.getTop(3);
+        assertEquals(List.of("b", "d", "c"), top.stream().map(SubjectRateMeter.SubjectRate::subject).toList());
+        assertEquals(10.0, top.get(0).messagesPerSecond(), TOLERANCE);
+
+        assertEquals(5, meter.getTop(10).size());
+        assertTrue(meter.getTop(0).isEmpty());
+
+        // Recorded, but not yet folded into a rate
+        record("f", 1000);
+        assertEquals(5, meter.getTop(10).size());
+    }
+
+
+    private void record(String subject, int messages)
+    {
+        for (int i = 0; i < messages; i++)
+        {
+            meter.record(subject);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.mms.EdgeRouter.Quota;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the GCRA accounting of {@link QuotaBucket}. Time is passed in, so the tests do not sleep.
+ */
+class QuotaBucketTests
+{
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final QuotaBudget TEN_MESSAGES = new QuotaBudget(10, 0);
+    private static final QuotaBudget THOUSAND_BYTES = new QuotaBudget(0, 1000);
+
+    private QuotaBucket bucket;
+    private long start;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        bucket = new QuotaBucket();
+        start = System.nanoTime();
+    }
+
+
+    /**
+     * A full quota admits one second worth of messages at once, and not one more.
+     */
+    @Test
+    void admitsBurstOfOneSecond()
+    {
+        assertEquals(10, acquireAll(TEN_MESSAGES, 0, start));
+    }
+
+
+    /**
+     * After a burst, the quota admits one more message per interval of the budgeted rate, and a refusal takes
+     * nothing from it.
+     */
+    @Test
+    void refillsAtBudgetedRate()
+    {
+        acquireAll(TEN_MESSAGES, 0, start);
+
+        assertFalse(bucket.tryAcquire(TEN_MESSAGES, 0, start + 99 * MILLIS));
+        assertFalse(bucket.tryAcquire(TEN_MESSAGES, 0, start + 99 * MILLIS));
+        assertTrue(bucket.tryAcquire(TEN_MESSAGES, 0, start + 100 * MILLIS));
+        assertFalse(bucket.tryAcquire(TEN_MESSAGES, 0, start + 100 * MILLIS));
+        assertEquals(5, acquireAll(TEN_MESSAGES, 0, start + 600 * MILLIS));
+    }
+
+
+    /**
+     * An idle quota admits a message larger than its burst, which then holds off the next message until the quota
+     * has paid it off.
+     */
+    @Test
+    void idleQuotaAdmitsOversizedMessage()
+    {
+        assertTrue(bucket.tryAcquire(THOUSAND_BYTES, 5000, start));
+        assertFalse(bucket.tryAcquire(THOUSAND_BYTES, 1, start + 1000 * MILLIS));
+        assertFalse(bucket.tryAcquire(THOUSAND_BYTES, 1, start + 3999 * MILLIS));
+        assertTrue(bucket.tryAcquire(THOUSAND_BYTES, 1, start + 4001 * MILLIS));
+    }
+
+
+    /**
+     * When the bytes of a message are refused, the message taken before them is given back.
+     */
+    @Test
+    void refusedBytesGiveBackMessage()
+    {
+        QuotaBudget budget = new QuotaBudget(10, 1000);
+
+        assertTrue(bucket.tryAcquire(budget, 1000, start));
+        assertFalse(bucket.tryAcquire(budget, 100, start));
+        assertEquals(9, acquireAll(TEN_MESSAGES, 0, start));
+    }
+
+
+    /**
+     * Messages and bytes released after a later quota refused them are available again.
+     */
+    @Test
+    void releaseGivesBackQuota()
+    {
+        QuotaBudget budget = new QuotaBudget(10, 1000);
+
+        assertTrue(bucket.tryAcquire(budget, 5, 500, start));
+        bucket.release(budget, 5, 500);
+
+        assertEquals(10, acquireAll(TEN_MESSAGES, 0, start));
+        assertTrue(bucket.tryAcquire(budget, 0, 1000, start));
+    }
+
+
+    /**
+     * An unlimited budget admits anything.
+     */
+    @Test
+    void unlimitedBudgetAdmitsEverything()
+    {
+        for (int i = 0; i < 10_000; i++)
+        {
+            assertTrue(bucket.tryAcquire(QuotaBudget.UNLIMITED, Integer.MAX_VALUE, start));
+        }
+    }
+
+
+    /**
+     * Takes messages of a size from the quota until it refuses one.
+     *
+     * @param budget The budget of the quota.
+     * @param bytes  The size of the messages.
+     * @param now    The time the messages are taken at.
+     * @return The number of messages taken.
+     */
+    private int acquireAll(QuotaBudget budget, long bytes, long now)
+    {
+        int acquired = 0;
+
+        while (bucket.tryAcquire(budget, bytes, now))
+        {
+            acquired++;
+        }
+
+        return acquired;
+    }
+}
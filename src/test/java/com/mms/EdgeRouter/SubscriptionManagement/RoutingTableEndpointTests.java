@@ -0,0 +1,181 @@
+package com.mms.EdgeRouter.SubscriptionManagement;
+
+import com.mms.EdgeRouter.Metrics.SubjectRateMeter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the cursor paging of {@link RoutingTableEndpoint}.
+ */
+class RoutingTableEndpointTests
+{
+    private Set<String> subjects;
+    private Set<String> mrns;
+    private RoutingTableEndpoint endpoint;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        subjects = new HashSet<>();
+        mrns = new HashSet<>();
+
+        ISubscriptionRepository subscriptionRepository = mock(ISubscriptionRepository.class);
+        when(subscriptionRepository.getSubjects()).thenReturn(subjects);
+        when(subscriptionRepository.getMrns()).thenReturn(mrns);
+        when(subscriptionRepository.getSubscriberSlotsBySubject(anyString())).thenReturn(RoaringBitmap.bitmapOf(1, 2));
+        when(subscriptionRepository.getSubscriberSlotsByMrn(anyString())).thenReturn(RoaringBitmap.bitmapOf(1));
+
+        endpoint = new RoutingTableEndpoint(subscriptionRepository, mock(SubjectRateMeter.class));
+    }
+
+
+    /**
+     * Following the cursors returns every key once, in order, and the last page has no cursor.
+     */
+    @Test
+    void pagesCoverTableOnceInOrder()
+    {
+        addSubjects(250);
+
+        List<String> paged = pageAll("subjects", "subject", 40);
+
+        assertEquals(subjects.size(), paged.size());
+        assertEquals(subjects, new HashSet<>(paged));
+
+        List<String> sorted = new ArrayList<>(paged);
+        Collections.sort(sorted);
+        assertEquals(sorted, paged);
+    }
+
+
+    /**
+     * A table that fills its pages exactly has no cursor on its last full page, rather than one that leads to an empty
+     * page.
+     */
+    @Test
+    void lastFullPageHasNoCursor()
+    {
+        addSubjects(80);
+
+        Map<String, Object> first = page("subjects", null, 40);
+        assertEquals("subject-0039", first.get("next"));
+
+        Map<String, Object> last = page("subjects", (String) first.get("next"), 40);
+        assertEquals(40, entries(last).size());
+        assertNull(last.get("next"));
+    }
+
+
+    /**
+     * The page size defaults to 100, is capped at 1000, and a page of no entries is empty.
+     */
+    @Test
+    void limitIsBounded()
+    {
+        addSubjects(1200);
+
+        assertEquals(100, entries(page("subjects", null, null)).size());
+        assertEquals(1000, entries(page("subjects", null, 5000)).size());
+        assertEquals(0, entries(page("subjects", null, -3)).size());
+    }
+
+
+    /**
+     * The MRN table is paged like the subject table.
+     */
+    @Test
+    void mrnsArePaged()
+    {
+        for (int i = 0; i < 30; i++)
+        {
+            mrns.add(String.format("urn:mrn:mcp:device:%04d", i));
+        }
+
+        List<String> paged = pageAll("mrns", "mrn", 7);
+        assertEquals(mrns, new HashSet<>(paged));
+        assertEquals(mrns.size(), paged.size());
+    }
+
+
+    /**
+     * A read of a table that does not exist is a bad request.
+     */
+    @Test
+    void unknownTableIsBadRequest()
+    {
+        WebEndpointResponse<Map<String, Object>> response = endpoint.page("agents", null, null);
+
+        assertEquals(WebEndpointResponse.STATUS_BAD_REQUEST, response.getStatus());
+        assertNotNull(response.getBody().get("error"));
+    }
+
+
+    /**
+     * Follows the cursors from the first page to the last.
+     *
+     * @param table The table.
+     * @param key   The name of the key of an entry.
+     * @param limit The page size.
+     * @return The keys of all pages, in the order they were returned.
+     */
+    private List<String> pageAll(String table, String key, int limit)
+    {
+        List<String> keys = new ArrayList<>();
+        String after = null;
+
+        do
+        {
+            Map<String, Object> page = page(table, after, limit);
+            List<Map<String, Object>> entries = entries(page);
+            assertTrue(entries.size() <= limit);
+
+            entries.forEach(entry -> keys.add((String) entry.get(key)));
+            after = (String) page.get("next");
+        }
+        while (after != null);
+
+        return keys;
+    }
+
+
+    private Map<String, Object> page(String table, String after, Integer limit)
+    {
+        WebEndpointResponse<Map<String, Object>> response = endpoint.page(table, after, limit);
+        assertEquals(WebEndpointResponse.STATUS_OK, response.getStatus());
+        return response.getBody();
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> entries(Map<String, Object> page)
+    {
+        return (List<Map<String, Object>>) page.get("entries");
+    }
+
+
+    private void addSubjects(int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            subjects.add(String.format("subject-%04d", i));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.mms.EdgeRouter.SubscriptionManagement;
+
+import com.mms.EdgeRouter.ConnectionManagement.AgentSlotTable;
+import com.mms.EdgeRouter.ConnectionManagement.IConnectionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the subscriber bitmaps of {@link SubscriptionRepository}.
+ */
+class SubscriptionRepositoryTests
+{
+    private static final List<String> SUBJECTS = List.of("subject-1", "subject-2");
+    private static final int ROUNDS = 2000;
+
+    private AgentSlotTable<String> slots;
+    private IConnectionRepository connectionRepository;
+    private SubscriptionRepository repository;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        slots = new AgentSlotTable<>(0);
+        connectionRepository = mock(IConnectionRepository.class);
+        when(connectionRepository.isCurrentSlot(anyInt())).thenAnswer(invocation -> slots.isCurrent(invocation.getArgument(0)));
+        when(connectionRepository.getAgentIDAt(anyInt())).thenAnswer(invocation -> Optional.ofNullable(slots.getAt(invocation.getArgument(0))));
+        repository = new SubscriptionRepository(connectionRepository, event -> {});
+    }
+
+
+    /**
+     * The agent disconnects after its slot was looked up for a subscription, but before it was added to the
+     * subjects. The removal of the connection finds nothing to remove, so the subscription must undo itself.
+     */
+    @Test
+    void subscriptionOfAgentDisconnectedMeanwhileIsUndone()
+    {
+        int slot = slots.allocate(handle -> "agent");
+
+        when(connectionRepository.getSlot("agent")).thenAnswer(invocation ->
+        {
+            disconnect(slot);
+            return OptionalInt.of(slot);
+        });
+
+        repository.subscribeToSubjects(SUBJECTS, "agent");
+
+        assertTrue(repository.getSubjects().isEmpty());
+        assertTrue(repository.getSubscriberSlotsBySubjects(SUBJECTS).isEmpty());
+    }
+
+
+    /**
+     * Subscriptions and disconnects of the same agents race on two threads. Whichever runs first, no slot of a
+     * disconnected agent may be left among the subscribers.
+     */
+    @Test
+    void concurrentSubscribeAndDisconnectLeaveNoStaleSlots() throws Exception
+    {
+        when(connectionRepository.getSlot(anyString())).thenAnswer(invocation -> OptionalInt.of(Integer.parseInt(invocation.getArgument(0))));
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+
+        try
+        {
+            for (int round = 0; round < ROUNDS; round++)
+            {
+                int slot = slots.allocate(handle -> "agent");
+                CountDownLatch start = new CountDownLatch(1);
+
+                Future<?> subscribe = threads.submit(() ->
+                {
+                    start.await();
+                    repository.subscribeToSubjects(SUBJECTS, Integer.toString(slot));
+                    return null;
+                });
+
+                Future<?> disconnect = threads.submit(() ->
+                {
+                    start.await();
+                    disconnect(slot);
+                    return null;
+                });
+
+                start.countDown();
+                subscribe.get();
+                disconnect.get();
+
+                assertTrue(repository.getSubscriberSlotsBySubjects(SUBJECTS).isEmpty(), "stale subscriber in round " + round);
+                assertEquals(0, repository.getSubjects().size());
+            }
+        }
+
+        finally
+        {
+            threads.shutdownNow();
+        }
+    }
+
+
+    /**
+     * An agent subscribed to several of the looked up subjects is in the union once.
+     */
+    @Test
+    void subjectUnionContainsEachAgentOnce()
+    {
+        int first = connect("agent-1");
+        int second = connect("agent-2");
+
+        repository.subscribeToSubjects(SUBJECTS, "agent-1");
+        repository.subscribeToSubjects(List.of("subject-2"), "agent-2");
+
+        assertEquals(2, repository.getSubscriberSlotsBySubjects(SUBJECTS).getCardinality());
+        assertTrue(repository.getSubscriberSlotsBySubjects(SUBJECTS).contains(AgentSlotTable.indexOf(first)));
+        assertTrue(repository.getSubscriberSlotsBySubjects(SUBJECTS).contains(AgentSlotTable.indexOf(second)));
+        assertEquals(List.of("agent-1", "agent-2"), repository.getSubscribersBySubjects(SUBJECTS));
+        assertTrue(repository.getSubscribersBySubjects(List.of("subject-3")).isEmpty());
+    }
+
+
+    /**
+     * A direct message naming the same MRN more than once, or MRNs of the same agents, reaches each agent once, and
+     * the union of a single subscriber set is that set itself, without a copy.
+     */
+    @Test
+    void mrnUnionContainsEachAgentOnce()
+    {
+        repository.onConnectionAdded("agent-1", connect("agent-1"), Optional.of("urn:mrn:mcp:device:a"));
+        repository.onConnectionAdded("agent-2", connect("agent-2"), Optional.of("urn:mrn:mcp:device:b"));
+
+        List<String> mrns = List.of("urn:mrn:mcp:device:a", "urn:mrn:mcp:device:a", "urn:mrn:mcp:device:b", "urn:mrn:mcp:device:c");
+
+        assertEquals(2, repository.getSubscriberSlotsByMrns(mrns).getCardinality());
+        assertEquals(List.of("agent-1", "agent-2"), repository.getSubscribersByMrns(mrns));
+        assertSame(repository.getSubscriberSlotsByMrn("urn:mrn:mcp:device:a"), repository.getSubscriberSlotsByMrns(List.of("urn:mrn:mcp:device:a", "urn:mrn:mcp:device:c")));
+    }
+
+
+    /**
+     * Allocates a slot for an agent and makes the connection repository resolve it.
+     *
+     * @param agentID The ID of the agent.
+     * @return The slot handle of the agent.
+     */
+    private int connect(String agentID)
+    {
+        int slot = slots.allocate(handle -> agentID);
+        when(connectionRepository.getSlot(agentID)).thenReturn(OptionalInt.of(slot));
+        return slot;
+    }
+
+
+    /**
+     * Releases the slot of an agent and removes its subscriptions, in the order the connection repository does.
+     *
+     * @param slot The slot handle of the agent.
+     */
+    private void disconnect(int slot)
+    {
+        slots.release(slot);
+        repository.onConnectionRemoved("agent", slot, Optional.empty());
+    }
+}
@@ -0,0 +1,140 @@
+package com.mms.EdgeRouter.SubscriptionManagement;
+
+import com.mms.EdgeRouter.ActiveMQ.RemoteInterest;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the snapshot file format of {@link SubscriptionSnapshotStore}.
+ */
+class SubscriptionSnapshotStoreTests
+{
+    private static final int VERSION_OFFSET = 4;
+
+    @TempDir
+    Path directory;
+
+    private Path path;
+    private TimerWheel timerWheel;
+    private ISubscriptionRepository subscriptionRepository;
+    private RemoteInterest remoteInterest;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        path = directory.resolve("routing-state.bin");
+        timerWheel = new TimerWheel(10, 64);
+        remoteInterest = mock(RemoteInterest.class);
+        subscriptionRepository = mock(ISubscriptionRepository.class);
+
+        when(subscriptionRepository.getSubjects()).thenReturn(Set.of("subject-1", "subject-2"));
+        when(subscriptionRepository.getSubscriberSlotsBySubject("subject-1")).thenReturn(RoaringBitmap.bitmapOf(1, 2, 3));
+        when(subscriptionRepository.getSubscriberSlotsBySubject("subject-2")).thenReturn(new RoaringBitmap());
+        when(subscriptionRepository.getMrns()).thenReturn(Set.of("urn:mrn:mcp:device:a"));
+        when(subscriptionRepository.getSubscriberSlotsByMrn("urn:mrn:mcp:device:a")).thenReturn(RoaringBitmap.bitmapOf(7));
+    }
+
+
+    @AfterEach
+    void tearDown()
+    {
+        timerWheel.destroy();
+    }
+
+
+    /**
+     * A written snapshot reads back with the subscriber counts, and without the names whose subscribers left while it
+     * was written.
+     */
+    @Test
+    void writtenSnapshotReadsBack() throws IOException
+    {
+        SubscriptionSnapshotStore store = store(false);
+        long before = System.currentTimeMillis();
+
+        store.write();
+        SubscriptionSnapshotStore.Snapshot snapshot = store.read();
+
+        assertEquals(Map.of("subject-1", 3), snapshot.subjects());
+        assertEquals(Map.of("urn:mrn:mcp:device:a", 1), snapshot.mrns());
+        assertTrue(snapshot.writtenAt() >= before);
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+        store.destroy();
+    }
+
+
+    /**
+     * A snapshot of another version is rejected rather than misread.
+     */
+    @Test
+    void unknownVersionIsRejected() throws IOException
+    {
+        SubscriptionSnapshotStore store = store(false);
+        store.write();
+
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[VERSION_OFFSET + 1]++;
+        Files.write(path, bytes);
+
+        IOException ex = assertThrows(IOException.class, store::read);
+        assertTrue(ex.getMessage().contains("version"));
+        store.destroy();
+    }
+
+
+    /**
+     * A file that is not a snapshot is rejected.
+     */
+    @Test
+    void foreignFileIsRejected() throws IOException
+    {
+        Files.write(path, "not a snapshot at all".getBytes());
+
+        assertThrows(IOException.class, () -> store(false).read());
+    }
+
+
+    /**
+     * A store that starts on an existing snapshot pre-warms the topics of its subjects and MRNs.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void restorePrewarmsTopics() throws IOException
+    {
+        store(false).write();
+        SubscriptionSnapshotStore store = store(true);
+
+        ArgumentCaptor<Collection<String>> topics = ArgumentCaptor.forClass(Collection.class);
+        verify(remoteInterest).prewarm(topics.capture());
+        assertEquals(Set.of("subject-1", "urn:mrn:mcp:device:a"), new HashSet<>(topics.getValue()));
+        store.destroy();
+    }
+
+
+    private SubscriptionSnapshotStore store(boolean enabled)
+    {
+        return new SubscriptionSnapshotStore(subscriptionRepository, remoteInterest, timerWheel, enabled, path.toString(), 3600, 3600);
+    }
+}
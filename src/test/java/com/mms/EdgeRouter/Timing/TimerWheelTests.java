@@ -0,0 +1,125 @@
+package com.mms.EdgeRouter.Timing;
+
+import io.netty.util.Timeout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the one-shot and repeating timeouts of {@link TimerWheel}.
+ */
+class TimerWheelTests
+{
+    private static final long TICK_MILLIS = 1;
+    private static final long WAIT_SECONDS = 5;
+
+    private TimerWheel timerWheel;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        timerWheel = new TimerWheel(TICK_MILLIS, 64);
+    }
+
+
+    @AfterEach
+    void tearDown()
+    {
+        timerWheel.destroy();
+    }
+
+
+    /**
+     * A one-shot timeout runs once, and not at all if it is cancelled first.
+     */
+    @Test
+    void scheduleRunsOnceUnlessCancelled() throws Exception
+    {
+        CountDownLatch ran = new CountDownLatch(1);
+        AtomicInteger cancelledRuns = new AtomicInteger();
+
+        Timeout cancelled = timerWheel.schedule(cancelledRuns::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        timerWheel.schedule(ran::countDown, 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(cancelled.cancel());
+        assertTrue(ran.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        awaitTimeoutAfter(100);
+        assertEquals(0, cancelledRuns.get());
+    }
+
+
+    /**
+     * A repeating task keeps running, also after a run that threw, and stops for good once it is cancelled.
+     */
+    @Test
+    void scheduleWithFixedDelayStopsWhenCancelled() throws Exception
+    {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch repeated = new CountDownLatch(5);
+
+        Timeout repeating = timerWheel.scheduleWithFixedDelay(() ->
+        {
+            runs.incrementAndGet();
+            repeated.countDown();
+
+            if (runs.get() == 1)
+            {
+                throw new IllegalStateException("first run fails");
+            }
+        }, 1, 5, TimeUnit.MILLISECONDS);
+
+        assertTrue(repeated.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(repeating.isCancelled());
+        assertTrue(repeating.cancel());
+        assertTrue(repeating.isCancelled());
+
+        // A run that was already under way when the task was cancelled may still end, but none starts after it
+        awaitTimeoutAfter(1);
+        int runsAfterCancel = runs.get();
+        awaitTimeoutAfter(50);
+
+        assertEquals(runsAfterCancel, runs.get());
+        assertEquals(0, timerWheel.getPendingTimeouts());
+    }
+
+
+    /**
+     * A repeating task cancelled before its first run never runs.
+     */
+    @Test
+    void scheduleWithFixedDelayCancelledBeforeFirstRun() throws Exception
+    {
+        AtomicInteger runs = new AtomicInteger();
+        Timeout repeating = timerWheel.scheduleWithFixedDelay(runs::incrementAndGet, 100, 5, TimeUnit.MILLISECONDS);
+
+        repeating.cancel();
+        awaitTimeoutAfter(200);
+
+        assertEquals(0, runs.get());
+        assertEquals(0, timerWheel.getPendingTimeouts());
+    }
+
+
+    /**
+     * Schedules a timeout and waits for it to run. The wheel runs its timeouts one at a time in the order of their
+     * deadlines, so once it ran, every timeout due before it has run, or has been skipped if it was cancelled.
+     *
+     * @param delayMillis The delay of the timeout in milliseconds.
+     */
+    private void awaitTimeoutAfter(long delayMillis) throws InterruptedException
+    {
+        CountDownLatch ran = new CountDownLatch(1);
+        timerWheel.schedule(ran::countDown, delayMillis, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,143 @@
+package com.mms.EdgeRouter.Tls;
+
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the split of the handshakes recorded by {@link MeteredSSLEngine} into full and resumed ones.
+ */
+class MeteredSSLEngineTests
+{
+    private SimpleMeterRegistry registry;
+    private HandshakeSessions handshakeSessions;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        registry = new SimpleMeterRegistry();
+        SSLSessionContext sessionContext = mock(SSLSessionContext.class);
+        when(sessionContext.getSessionCacheSize()).thenReturn(100);
+        when(sessionContext.getSessionTimeout()).thenReturn(3600);
+
+        handshakeSessions = new HandshakeSessions(sessionContext);
+        TlsHandshakeRecorder.bind(new RouterMetrics(registry));
+    }
+
+
+    @AfterEach
+    void tearDown()
+    {
+        TlsHandshakeRecorder.bind(null);
+    }
+
+
+    /**
+     * A handshake that negotiates a new session counts as full, and one that ends in a session an earlier handshake
+     * negotiated counts as resumed, however old the session claims to be.
+     */
+    @Test
+    void sessionSeenBeforeCountsAsResumed() throws Exception
+    {
+        handshake(session(1, System.currentTimeMillis()));
+        handshake(session(1, System.currentTimeMillis()));
+        handshake(session(2, 0));
+
+        assertEquals(2, handshakes(false));
+        assertEquals(1, handshakes(true));
+    }
+
+
+    /**
+     * A session without an ID cannot be resumed, so its handshakes count as full.
+     */
+    @Test
+    void sessionWithoutIDCountsAsFull() throws Exception
+    {
+        SSLSession session = mock(SSLSession.class);
+        when(session.getId()).thenReturn(new byte[0]);
+
+        handshake(session);
+        handshake(session);
+
+        assertEquals(2, handshakes(false));
+        assertEquals(0, handshakes(true));
+    }
+
+
+    /**
+     * Each engine records its handshake once, and a handshake that fails is counted as a failure only.
+     */
+    @Test
+    void handshakeRecordedOnceAndFailuresCountedApart() throws Exception
+    {
+        MeteredSSLEngine engine = engine(session(1, 0));
+        engine.wrap(ByteBuffer.allocate(0), ByteBuffer.allocate(0));
+        engine.wrap(ByteBuffer.allocate(0), ByteBuffer.allocate(0));
+
+        SSLEngine failing = mock(SSLEngine.class);
+        when(failing.unwrap(any(ByteBuffer.class), any(ByteBuffer[].class), anyInt(), anyInt())).thenThrow(new SSLException("bad record"));
+        MeteredSSLEngine failed = new MeteredSSLEngine(failing, handshakeSessions);
+        assertThrows(SSLException.class, () -> failed.unwrap(ByteBuffer.allocate(0), ByteBuffer.allocate(0)));
+
+        assertEquals(1, handshakes(false));
+        assertEquals(0, handshakes(true));
+        assertEquals(1.0, registry.get("edgerouter.tls.handshake.failures").counter().count());
+    }
+
+
+    private void handshake(SSLSession session) throws SSLException
+    {
+        engine(session).wrap(ByteBuffer.allocate(0), ByteBuffer.allocate(0));
+    }
+
+
+    /**
+     * Returns an engine whose handshake finishes with the given session on its first wrap.
+     *
+     * @param session The session the handshake negotiates.
+     * @return The metered engine.
+     */
+    private MeteredSSLEngine engine(SSLSession session) throws SSLException
+    {
+        SSLEngine delegate = mock(SSLEngine.class);
+        SSLEngineResult finished = new SSLEngineResult(SSLEngineResult.Status.OK, SSLEngineResult.HandshakeStatus.FINISHED, 0, 0);
+
+        when(delegate.wrap(any(ByteBuffer[].class), anyInt(), anyInt(), any(ByteBuffer.class))).thenReturn(finished);
+        when(delegate.getSession()).thenReturn(session);
+
+        return new MeteredSSLEngine(delegate, handshakeSessions);
+    }
+
+
+    private static SSLSession session(int id, long creationTime)
+    {
+        SSLSession session = mock(SSLSession.class);
+        when(session.getId()).thenReturn(new byte[]{(byte) id, 0, 0, 0});
+        when(session.getCreationTime()).thenReturn(creationTime);
+        return session;
+    }
+
+
+    private long handshakes(boolean resumed)
+    {
+        return registry.get("edgerouter.tls.handshake").tag("resumed", String.valueOf(resumed)).timer().count();
+    }
+}
@@ -0,0 +1,305 @@
+package com.mms.EdgeRouter.WebSocket.Netty;
+
+import com.mms.EdgeRouter.ConnectionManagement.PKIIdentityCache;
+import com.mms.EdgeRouter.WebSocket.ProtocolOptionsInterceptor;
+import com.mms.EdgeRouter.WebSocket.SessionAttributes;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for the Netty transport on an {@link EmbeddedChannel} with the pipeline of the {@link NettyWebSocketServer}:
+ * the handshake, the frames handed to the handler, the close by the agent and the close on the high water mark.
+ */
+class NettyWebSocketSessionTests
+{
+    private static final String PATH = "/ws";
+    private static final int MAX_MESSAGE_SIZE = 8192;
+
+    private WebSocketHandler handler;
+    private EmbeddedChannel channel;
+    private EmbeddedChannel agentEncoder;
+    private EmbeddedChannel agentDecoder;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        handler = mock(WebSocketHandler.class);
+
+        WebSocketServerProtocolConfig protocolConfig = WebSocketServerProtocolConfig.newBuilder()
+                .websocketPath(PATH)
+                .checkStartsWith(true)
+                .maxFramePayloadLength(MAX_MESSAGE_SIZE)
+                .handleCloseFrames(false)
+                .dropPongFrames(false)
+                .build();
+
+        channel = new EmbeddedChannel(
+                new HttpServerCodec(),
+                new HttpObjectAggregator(65536),
+                new NettyHandshakeHandler(mock(PKIIdentityCache.class), PATH),
+                new WebSocketServerProtocolHandler(protocolConfig),
+                new WebSocketFrameAggregator(MAX_MESSAGE_SIZE),
+                new NettyFrameHandler(handler, MAX_MESSAGE_SIZE));
+
+        // Frames of the agent are masked, frames of the router are not
+        agentEncoder = new EmbeddedChannel(new WebSocket13FrameEncoder(true));
+        agentDecoder = new EmbeddedChannel(new WebSocket13FrameDecoder(false, false, MAX_MESSAGE_SIZE));
+    }
+
+
+    @AfterEach
+    void tearDown()
+    {
+        channel.finishAndReleaseAll();
+        agentEncoder.finishAndReleaseAll();
+        agentDecoder.finishAndReleaseAll();
+    }
+
+
+    /**
+     * The upgrade is answered with 101, and the handler gets an open session with the URI of the handshake and the
+     * protocol options of the agent among its attributes.
+     */
+    @Test
+    void handshakeEstablishesSession() throws Exception
+    {
+        NettyWebSocketSession session = handshake();
+
+        assertTrue(session.isOpen());
+        assertEquals("ws://localhost:9443" + PATH, session.getUri().toString());
+        assertEquals(Boolean.TRUE, session.getAttributes().get(SessionAttributes.ACCEPTS_BATCH));
+    }
+
+
+    /**
+     * A handshake to another path is answered with 404 and no session is established.
+     */
+    @Test
+    void handshakeToOtherPathIsRefused() throws Exception
+    {
+        channel.writeInbound(Unpooled.copiedBuffer(upgradeRequest("/other"), StandardCharsets.US_ASCII));
+
+        assertTrue(readHttpResponse().startsWith("HTTP/1.1 404"));
+        assertFalse(channel.isActive());
+        verify(handler, never()).afterConnectionEstablished(any());
+    }
+
+
+    /**
+     * Binary, text and pong frames of the agent are handed to the handler in the order they arrived, and its pings are
+     * answered without reaching the handler.
+     */
+    @Test
+    void framesAreHandedToHandlerInOrder() throws Exception
+    {
+        NettyWebSocketSession session = handshake();
+
+        receive(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{1, 2, 3})));
+        receive(new TextWebSocketFrame("text"));
+        receive(new PingWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{7})));
+        receive(new PongWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{9})));
+
+        ArgumentCaptor<WebSocketMessage<?>> messages = ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(handler, times(3)).handleMessage(eq(session), messages.capture());
+
+        assertInstanceOf(BinaryMessage.class, messages.getAllValues().get(0));
+        assertArrayEquals(new byte[]{1, 2, 3}, bytes((ByteBuffer) messages.getAllValues().get(0).getPayload()));
+        assertEquals(new TextMessage("text"), messages.getAllValues().get(1));
+        assertInstanceOf(PongMessage.class, messages.getAllValues().get(2));
+
+        List<WebSocketFrame> sent = sentFrames();
+        assertEquals(1, sent.size());
+        assertInstanceOf(PongWebSocketFrame.class, sent.get(0));
+    }
+
+
+    /**
+     * Messages sent on the session go out as frames, and once the agent closed the connection the close is answered,
+     * the handler is told with the status of the agent, and nothing can be sent anymore, control frames included.
+     */
+    @Test
+    void closeByPeerIsAnsweredAndRefusesSends() throws Exception
+    {
+        NettyWebSocketSession session = handshake();
+
+        session.sendMessage(new BinaryMessage(new byte[]{1, 2}));
+        session.sendMessage(new TextMessage("text"));
+        session.sendMessage(new PingMessage());
+
+        List<WebSocketFrame> sent = sentFrames();
+        assertEquals(3, sent.size());
+        assertInstanceOf(BinaryWebSocketFrame.class, sent.get(0));
+        assertInstanceOf(TextWebSocketFrame.class, sent.get(1));
+        assertInstanceOf(PingWebSocketFrame.class, sent.get(2));
+
+        receive(new CloseWebSocketFrame(1000, "bye"));
+
+        CloseWebSocketFrame answer = (CloseWebSocketFrame) sentFrames().get(0);
+        assertEquals(1000, answer.statusCode());
+        assertFalse(session.isOpen());
+        verify(handler).afterConnectionClosed(session, new CloseStatus(1000, "bye"));
+
+        assertThrows(ClosedChannelException.class, () -> session.sendMessage(new BinaryMessage(new byte[]{1})));
+        assertThrows(ClosedChannelException.class, () -> session.sendMessage(new TextMessage("late")));
+        assertThrows(ClosedChannelException.class, () -> session.sendMessage(new PingMessage()));
+        assertThrows(ClosedChannelException.class, () -> session.sendMessage(new PongMessage()));
+    }
+
+
+    /**
+     * A message sent while the outbound buffer is above its high water mark closes the session as not reliable,
+     * after what was written before it, while control frames still go out.
+     */
+    @Test
+    void highWaterMarkClosesSession() throws Exception
+    {
+        NettyWebSocketSession session = handshake();
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1024, 2048));
+
+        // The flush runs on the event loop, so nothing leaves the outbound buffer until the pending tasks run
+        session.sendMessage(new BinaryMessage(new byte[4096]));
+        assertFalse(channel.isWritable());
+
+        session.sendMessage(new PingMessage());
+        assertThrows(SessionLimitExceededException.class, () -> session.sendMessage(new TextMessage("text")));
+
+        List<WebSocketFrame> sent = sentFrames();
+        assertEquals(3, sent.size());
+        assertInstanceOf(BinaryWebSocketFrame.class, sent.get(0));
+        assertInstanceOf(PingWebSocketFrame.class, sent.get(1));
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE.getCode(), ((CloseWebSocketFrame) sent.get(2)).statusCode());
+
+        assertFalse(session.isOpen());
+        verify(handler).afterConnectionClosed(session, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+
+    /**
+     * Makes the WebSocket handshake and returns the session handed to the handler.
+     */
+    private NettyWebSocketSession handshake() throws Exception
+    {
+        channel.writeInbound(Unpooled.copiedBuffer(upgradeRequest(PATH), StandardCharsets.US_ASCII));
+        assertTrue(readHttpResponse().startsWith("HTTP/1.1 101"));
+
+        ArgumentCaptor<WebSocketSession> session = ArgumentCaptor.forClass(WebSocketSession.class);
+        verify(handler).afterConnectionEstablished(session.capture());
+        return (NettyWebSocketSession) session.getValue();
+    }
+
+
+    /**
+     * Hands a frame to the router as the agent would send it.
+     *
+     * @param frame The frame.
+     */
+    private void receive(WebSocketFrame frame)
+    {
+        agentEncoder.writeOutbound(frame);
+        ByteBuf bytes;
+
+        while ((bytes = agentEncoder.readOutbound()) != null)
+        {
+            channel.writeInbound(bytes);
+        }
+    }
+
+
+    /**
+     * Runs the pending flushes and returns the frames the router sent since the last call.
+     */
+    private List<WebSocketFrame> sentFrames()
+    {
+        channel.runPendingTasks();
+        ByteBuf bytes;
+
+        while ((bytes = channel.readOutbound()) != null)
+        {
+            agentDecoder.writeInbound(bytes);
+        }
+
+        List<WebSocketFrame> frames = new ArrayList<>();
+        WebSocketFrame frame;
+
+        while ((frame = agentDecoder.readInbound()) != null)
+        {
+            frames.add(frame);
+        }
+
+        return frames;
+    }
+
+
+    private String readHttpResponse()
+    {
+        StringBuilder response = new StringBuilder();
+        ByteBuf bytes;
+
+        while ((bytes = channel.readOutbound()) != null)
+        {
+            response.append(bytes.toString(StandardCharsets.US_ASCII));
+            bytes.release();
+        }
+
+        return response.toString();
+    }
+
+
+    private static String upgradeRequest(String path)
+    {
+        return "GET " + path + " HTTP/1.1\r\n"
+                + "Host: localhost:9443\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + ProtocolOptionsInterceptor.ACCEPT_BATCH_HEADER + ": true\r\n"
+                + "\r\n";
+    }
+
+
+    private static byte[] bytes(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,123 @@
+package com.mms.EdgeRouter.WebSocket;
+
+import com.mms.EdgeRouter.MessageRelay.Scheduling.IDeliveryScheduler;
+import com.mms.EdgeRouter.Metrics.RouterMetrics;
+import com.mms.EdgeRouter.Quota.QuotaEngine;
+import com.mms.EdgeRouter.Timing.TimerWheel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Tests for the pausing and resuming of reads by {@link RateLimiterWsHandler}.
+ */
+class RateLimiterWsHandlerTests
+{
+    private static final long BYTES_PER_SECOND = 1000;
+    private static final long WAIT_MILLIS = 5000;
+
+    private TimerWheel timerWheel;
+    private IDeliveryScheduler deliveryScheduler;
+    private WsHandler delegate;
+    private WebSocketSession session;
+    private IReadSuspendable reads;
+    private RateLimiterWsHandler handler;
+
+
+    @BeforeEach
+    void setUp()
+    {
+        Map<String, Object> attributes = new HashMap<>();
+        timerWheel = new TimerWheel(1, 64);
+        deliveryScheduler = mock(IDeliveryScheduler.class);
+        delegate = mock(WsHandler.class);
+        session = mock(WebSocketSession.class, withSettings().extraInterfaces(IReadSuspendable.class));
+        reads = (IReadSuspendable) session;
+
+        when(session.getId()).thenReturn("agent");
+        when(session.getAttributes()).thenReturn(attributes);
+        when(reads.isOpen()).thenReturn(true);
+
+        handler = new RateLimiterWsHandler(delegate, new RouterMetrics(new SimpleMeterRegistry()), mock(QuotaEngine.class), timerWheel, deliveryScheduler, 10000, BYTES_PER_SECOND, 10000, 10000, 1000);
+    }
+
+
+    @AfterEach
+    void tearDown()
+    {
+        timerWheel.destroy();
+    }
+
+
+    /**
+     * Frames within the byte rate are handed on without pausing reads.
+     */
+    @Test
+    void framesWithinRateDoNotPause() throws Exception
+    {
+        handler.handleMessage(session, frame(BYTES_PER_SECOND / 2));
+        handler.handleMessage(session, frame(BYTES_PER_SECOND / 2));
+
+        verify(delegate, times(2)).handleMessage(any(), any());
+        verify(reads, never()).suspendReads();
+    }
+
+
+    /**
+     * A frame that puts the session in debt is still handed on, reads are paused once however many frames were already
+     * read, and resumed when the debt is paid off.
+     */
+    @Test
+    void debtPausesReadsUntilPaidOff() throws Exception
+    {
+        handler.handleMessage(session, frame(BYTES_PER_SECOND + 50));
+        handler.handleMessage(session, frame(10));
+
+        verify(delegate, times(2)).handleMessage(any(), any());
+        verify(reads, times(1)).suspendReads();
+        verify(reads, timeout(WAIT_MILLIS)).resumeReads();
+    }
+
+
+    /**
+     * Reads are paused while the delivery lane of the session is congested, and resumed once it has caught up.
+     */
+    @Test
+    void congestedLanePausesReadsUntilCaughtUp() throws Exception
+    {
+        AtomicBoolean congested = new AtomicBoolean(true);
+        when(deliveryScheduler.isCongested(anyString())).thenAnswer(invocation -> congested.get());
+        handler.handleMessage(session, frame(10));
+
+        verify(delegate).handleMessage(any(), any());
+        verify(reads).suspendReads();
+        verify(reads, after(50).never()).resumeReads();
+
+        congested.set(false);
+        verify(reads, timeout(WAIT_MILLIS)).resumeReads();
+    }
+
+
+    private static BinaryMessage frame(long size)
+    {
+        return new BinaryMessage(new byte[(int) size]);
+    }
+}
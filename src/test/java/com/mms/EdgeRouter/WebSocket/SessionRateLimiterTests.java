@@ -0,0 +1,191 @@
+package com.mms.EdgeRouter.WebSocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the token bucket of {@link SessionRateLimiter}, on a clock the tests advance themselves.
+ */
+class SessionRateLimiterTests
+{
+    private static final long RATE = 1000;
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int THREADS = 8;
+    private static final int ACQUIRES_PER_THREAD = 20_000;
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+
+    /**
+     * A new bucket holds one second worth of bytes, which a session can take at once, and the byte after it is debt
+     * that takes the time of one byte to pay off.
+     */
+    @Test
+    void burstUpToCapacity()
+    {
+        SessionRateLimiter limiter = new SessionRateLimiter(RATE, clock::get);
+
+        assertEquals(0, limiter.acquire(RATE));
+        assertEquals(0, limiter.getAvailableBytes());
+        assertEquals(MILLIS, limiter.acquire(1));
+        assertEquals(-1, limiter.getAvailableBytes());
+    }
+
+
+    /**
+     * A frame larger than the balance is taken anyway, the session waits until the debt is paid off, and after a long
+     * idle period the bucket is full again but never holds more than its capacity.
+     */
+    @Test
+    void debtIsPaidOffAndBucketRefillsAfterIdle()
+    {
+        SessionRateLimiter limiter = new SessionRateLimiter(RATE, clock::get);
+
+        assertEquals(500 * MILLIS, limiter.acquire(RATE + 500));
+
+        clock.addAndGet(250 * MILLIS);
+        assertEquals(-250, limiter.getAvailableBytes());
+
+        clock.addAndGet(250 * MILLIS);
+        assertEquals(0, limiter.getAvailableBytes());
+
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(10));
+        assertEquals(RATE, limiter.getAvailableBytes());
+
+        // An idle period long enough to overflow the refill arithmetic fills the bucket as well
+        limiter.acquire(3 * RATE);
+        clock.addAndGet(Long.MAX_VALUE / 2);
+        assertEquals(RATE, limiter.getAvailableBytes());
+    }
+
+
+    /**
+     * Refills of a fraction of a byte are not lost, they add up to whole bytes on a later refill.
+     */
+    @Test
+    void fractionalRefillsAccumulate()
+    {
+        SessionRateLimiter limiter = new SessionRateLimiter(RATE, clock::get);
+        limiter.acquire(RATE);
+
+        for (int i = 0; i < 10; i++)
+        {
+            clock.addAndGet(MILLIS / 10);
+            limiter.getAvailableBytes();
+        }
+
+        assertEquals(1, limiter.getAvailableBytes());
+    }
+
+
+    /**
+     * Reads are paused once, by whoever marks the session first, until they are marked as resumed.
+     */
+    @Test
+    void pausedUntilResumed()
+    {
+        SessionRateLimiter limiter = new SessionRateLimiter(RATE, clock::get);
+
+        assertTrue(limiter.markPaused());
+        assertFalse(limiter.markPaused());
+
+        limiter.markResumed();
+        assertTrue(limiter.markPaused());
+    }
+
+
+    /**
+     * A lower rate shrinks the bucket, a higher one does not add tokens by itself.
+     */
+    @Test
+    void rateChangeKeepsBalanceWithinNewCapacity()
+    {
+        SessionRateLimiter limiter = new SessionRateLimiter(RATE, clock::get);
+
+        limiter.setBytesPerSecond(RATE / 2);
+        assertEquals(RATE / 2, limiter.getAvailableBytes());
+
+        limiter.setBytesPerSecond(RATE * 2);
+        assertEquals(RATE / 2, limiter.getAvailableBytes());
+        assertEquals(RATE * 2, limiter.getBytesPerSecond());
+    }
+
+
+    /**
+     * Many threads take single bytes while the clock advances. The bytes taken within the limit never exceed the
+     * capacity of the bucket plus what the elapsed time refilled.
+     */
+    @Test
+    void concurrentAcquiresNeverExceedCapacityPlusRefill() throws Exception
+    {
+        SessionRateLimiter limiter = new SessionRateLimiter(RATE, clock::get);
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong granted = new AtomicLong();
+        long startNanos = clock.get();
+
+        try
+        {
+            List<Future<?>> acquirers = new ArrayList<>();
+
+            for (int i = 0; i < THREADS; i++)
+            {
+                acquirers.add(threads.submit(() ->
+                {
+                    start.await();
+
+                    for (int n = 0; n < ACQUIRES_PER_THREAD; n++)
+                    {
+                        if (limiter.acquire(1) == 0)
+                        {
+                            granted.incrementAndGet();
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            Future<?> ticker = threads.submit(() ->
+            {
+                start.await();
+
+                for (int tick = 0; tick < 2000; tick++)
+                {
+                    clock.addAndGet(MILLIS / 3);
+                }
+
+                return null;
+            });
+
+            start.countDown();
+            ticker.get(30, TimeUnit.SECONDS);
+
+            for (Future<?> acquirer : acquirers)
+            {
+                acquirer.get(30, TimeUnit.SECONDS);
+            }
+        }
+
+        finally
+        {
+            threads.shutdownNow();
+        }
+
+        long refilled = (clock.get() - startNanos) * RATE / TimeUnit.SECONDS.toNanos(1);
+        assertTrue(granted.get() <= RATE + refilled, "granted " + granted.get() + " bytes, more than " + (RATE + refilled));
+        assertTrue(limiter.getAvailableBytes() <= RATE + refilled - (long) THREADS * ACQUIRES_PER_THREAD);
+    }
+}